@@ -60,7 +60,7 @@ import org.glassfish.apf.impl.AnnotationUtils;
  */
 public abstract class Factory {
     
-    private static Set<String> skipAnnotationClassList = null;
+    private static volatile Set<String> skipAnnotationClassList = null;
     private static final String SKIP_ANNOTATION_CLASS_LIST_URL =
         "skip-annotation-class-list";
 
@@ -79,7 +79,9 @@ public abstract class Factory {
     // initialize the list of class files we should skip annotation processing
     private synchronized static void initSkipAnnotationClassList() {
         if (skipAnnotationClassList == null) {
-            skipAnnotationClassList = new HashSet<String>();
+            // the list is published once complete, as the classes may be
+            // introspected concurrently
+            Set<String> classList = new HashSet<String>();
             InputStream is = null;
             BufferedReader bf = null;
             try {
@@ -91,7 +93,7 @@ public abstract class Factory {
                 bf = new BufferedReader(new InputStreamReader(is));
                 String className;
                 while ( (className = bf.readLine()) != null ) {
-                    skipAnnotationClassList.add(className.trim());
+                    classList.add(className.trim());
                 }
             } catch (IOException ioe) {
                 AnnotationUtils.getLogger().log(Level.WARNING, 
@@ -111,6 +113,7 @@ public abstract class Factory {
                         // ignore
                     }
                 }
+                skipAnnotationClassList = classList;
             }
         }
     }
@@ -54,6 +54,9 @@ import java.lang.reflect.AnnotatedElement;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Constructor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
 import java.util.logging.Logger;
 
 import org.glassfish.apf.ProcessingContext;
@@ -62,7 +65,6 @@ import org.glassfish.apf.AnnotationInfo;
 import org.glassfish.apf.AnnotationProcessorException;
 import org.glassfish.apf.AnnotationHandler;
 import org.glassfish.apf.AnnotatedElementHandler;
-import org.glassfish.apf.ComponentInfo;
 import org.glassfish.apf.ResultType;
 import org.glassfish.apf.HandlerProcessingResult;
 import org.glassfish.apf.ProcessingResult;
@@ -75,7 +77,31 @@ import java.util.logging.Level;
  * @author dochez
  */
 public class AnnotationProcessorImpl implements AnnotationProcessor {
-    
+
+    /**
+     * Set to true to introspect the classes to process on a fork/join pool
+     * before running the annotation handlers.
+     */
+    public static final String PARALLEL_PROP = "org.glassfish.apf.parallel";
+
+    /**
+     * The least number of classes introspected in parallel, 256 by default.
+     */
+    public static final String PARALLEL_THRESHOLD_PROP = "org.glassfish.apf.parallel.threshold";
+
+    /**
+     * The number of threads of the introspection pool, the number of
+     * processors by default.
+     */
+    public static final String PARALLELISM_PROP = "org.glassfish.apf.parallelism";
+
+    /**
+     * The number of classes an introspection task handles without splitting.
+     */
+    private static final int INTROSPECTION_BATCH = 32;
+
+    private static ForkJoinPool introspectionPool = null;
+
     AnnotationProcessorImpl delegate;
     Map<String, List<AnnotationHandler>> handlers =
             new HashMap<String, List<AnnotationHandler>>();
@@ -84,6 +110,8 @@ public class AnnotationProcessorImpl implements AnnotationProcessor {
     Logger logger;
     Stack<StackElement> annotatedElements = new Stack<StackElement>();
     Set<Package> visitedPackages = new HashSet<Package>();
+    boolean parallel = Boolean.getBoolean(PARALLEL_PROP);
+    int parallelThreshold = Integer.getInteger(PARALLEL_THRESHOLD_PROP, 256);
     
     /** Creates a new instance of AnnotationProcessorImpl */
     public AnnotationProcessorImpl() {
@@ -93,6 +121,21 @@ public class AnnotationProcessorImpl implements AnnotationProcessor {
     public void setDelegate(AnnotationProcessorImpl delegate) {
         this.delegate = delegate;
     }    
+
+    /**
+     * Sets whether the classes given by the scanner are introspected in
+     * parallel before being processed. The annotation handlers are always
+     * invoked on the calling thread, in the order of the scanner, so the
+     * results do not depend on this mode.
+     *
+     * @param parallel true to introspect the classes in parallel
+     * @param threshold the least number of classes introspected in parallel
+     */
+    public void setParallel(boolean parallel, int threshold) {
+        this.parallel = parallel;
+        this.parallelThreshold = threshold;
+    }
+
     public ProcessingContext createContext() {
         ProcessingContext ctx = new ProcessingContextImpl(this);
         ctx.setErrorHandler(new DefaultErrorHandler());
@@ -129,12 +172,90 @@ public class AnnotationProcessorImpl implements AnnotationProcessor {
         ProcessingResultImpl result = new ProcessingResultImpl();
         errorCount=0;
         
+        List<IntrospectedClass> classes = new ArrayList<IntrospectedClass>();
         for (Class c : scanner.getElements()) {
+            classes.add(new IntrospectedClass(c));
+        }
+        if (parallel && classes.size() >= parallelThreshold) {
+            introspect(scanner, classes);
+        }
+
+        for (IntrospectedClass c : classes) {
             
             result.add(process(ctx, c));          
         }
         return result;
     }
+
+    /**
+     * Introspects the given classes on the introspection pool, and waits
+     * for them to be done.
+     */
+    private void introspect(Scanner scanner, List<IntrospectedClass> classes) {
+        long start = System.currentTimeMillis();
+        getIntrospectionPool().invoke(new IntrospectionTask(scanner, classes, 0, classes.size()));
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("Introspected " + classes.size() + " classes in parallel in "
+                + (System.currentTimeMillis() - start) + " ms");
+        }
+    }
+
+    private static synchronized ForkJoinPool getIntrospectionPool() {
+        if (introspectionPool == null) {
+            int parallelism = Integer.getInteger(PARALLELISM_PROP,
+                Runtime.getRuntime().availableProcessors());
+            introspectionPool = new ForkJoinPool(Math.max(parallelism, 1),
+                new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+                    @Override
+                    public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                        ForkJoinWorkerThread thread =
+                            ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                        thread.setName("apf-introspection-" + thread.getPoolIndex());
+                        // do not keep the application class loaders alive
+                        thread.setContextClassLoader(AnnotationProcessorImpl.class.getClassLoader());
+                        return thread;
+                    }
+                }, null, false);
+        }
+        return introspectionPool;
+    }
+
+    /**
+     * Introspects a range of the classes to process, splitting it in
+     * halves as long as it is larger than a batch.
+     */
+    private static class IntrospectionTask extends RecursiveAction {
+        private final Scanner scanner;
+        private final List<IntrospectedClass> classes;
+        private final int from;
+        private final int to;
+
+        IntrospectionTask(Scanner scanner, List<IntrospectedClass> classes, int from, int to) {
+            this.scanner = scanner;
+            this.classes = classes;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= INTROSPECTION_BATCH) {
+                for (int i = from; i < to; i++) {
+                    IntrospectedClass c = classes.get(i);
+                    try {
+                        c.introspect(scanner, true);
+                    } catch (Throwable t) {
+                        // introspected again, and reported, when processed
+                        classes.set(i, new IntrospectedClass(c.clazz));
+                    }
+                }
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new IntrospectionTask(scanner, classes, from, middle),
+                    new IntrospectionTask(scanner, classes, middle, to));
+            }
+        }
+    }
     
     /**
      * Process a set of classes from the parameter list rather than from the 
@@ -153,16 +274,17 @@ public class AnnotationProcessorImpl implements AnnotationProcessor {
         
         ProcessingResultImpl result = new ProcessingResultImpl();
         for (Class c : classes) {
-            result.add(process(ctx, c));
+            result.add(process(ctx, new IntrospectedClass(c)));
         }
         return result;
     }
     
-    private ProcessingResult process(ProcessingContext ctx, Class c) 
+    private ProcessingResult process(ProcessingContext ctx, IntrospectedClass ic) 
         throws AnnotationProcessorException {
         
         Scanner scanner = ctx.getProcessingInput();
         ProcessingResultImpl result = new ProcessingResultImpl();
+        Class c = ic.clazz;
         
         // let's see first if this package is new to us and annotated.
         Package classPackage = c.getPackage();
@@ -172,10 +294,11 @@ public class AnnotationProcessorImpl implements AnnotationProcessor {
                     processAnnotations(ctx, ElementType.PACKAGE, classPackage));
         }
 
-        ComponentInfo info = null;
-        try {
-            info = scanner.getComponentInfo(c);
-        } catch (NoClassDefFoundError err) {
+        if (!ic.introspected) {
+            ic.introspect(scanner, false);
+        }
+        NoClassDefFoundError err = ic.error;
+        if (err != null) {
             // issue 456: allow verifier to report this issue
             AnnotationProcessorException ape = 
                     new AnnotationProcessorException(
@@ -195,29 +318,31 @@ public class AnnotationProcessorImpl implements AnnotationProcessor {
         result.add(c, processAnnotations(ctx, c));
         
         // now dive into the fields.
-        for (Field field : info.getFields()) {
+        for (Field field : ic.fields) {
             result.add(field,processAnnotations(ctx, ElementType.FIELD, field));
         }
         
         // constructors...
-        for (Constructor constructor : info.getConstructors()) {
+        for (int i = 0; i < ic.constructors.length; i++) {
+            Constructor constructor = ic.constructors[i];
             logStart(ctx.getHandler(), ElementType.CONSTRUCTOR, constructor);
             result.add(constructor, processAnnotations(ctx, constructor));
             
             // parameters
-            processParameters(ctx, constructor.getParameterAnnotations());
+            processParameters(ctx, ic.getConstructorParameterAnnotations(i));
             
             logEnd(ctx.getHandler(), ElementType.CONSTRUCTOR, constructor);
             
         }
         
         // methods...
-        for (Method method : info.getMethods()) {
+        for (int i = 0; i < ic.methods.length; i++) {
+            Method method = ic.methods[i];
             logStart(ctx.getHandler(), ElementType.METHOD, method);
             result.add(method, processAnnotations(ctx, method));
             
             // parameters
-            processParameters(ctx, method.getParameterAnnotations());
+            processParameters(ctx, ic.getMethodParameterAnnotations(i));
             
             logEnd(ctx.getHandler(), ElementType.METHOD, method);
         }
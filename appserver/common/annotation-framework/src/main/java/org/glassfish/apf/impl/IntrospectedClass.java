@@ -0,0 +1,170 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.apf.impl;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+import org.glassfish.apf.ComponentInfo;
+import org.glassfish.apf.Scanner;
+
+/**
+ * The reflection data of a class to process, which may be gathered ahead
+ * of its processing, and on another thread, as it does not depend on the
+ * annotation handlers.
+ *
+ * Whatever could not be gathered is left null, and is looked up again
+ * when the class is processed, so that the errors are reported the same
+ * way in both cases.
+ */
+class IntrospectedClass {
+
+    final Class clazz;
+
+    boolean introspected = false;
+
+    ComponentInfo info;
+    NoClassDefFoundError error;
+
+    Field[] fields;
+    Constructor[] constructors;
+    Method[] methods;
+    Annotation[][][] constructorParameterAnnotations;
+    Annotation[][][] methodParameterAnnotations;
+
+    IntrospectedClass(Class clazz) {
+        this.clazz = clazz;
+    }
+
+    /**
+     * Gets the component info of the class, and its members.
+     *
+     * @param scanner the scanner giving the component info
+     * @param resolveAnnotations whether to also resolve the annotations of
+     * the class, its package, its super classes and its members.
+     */
+    void introspect(Scanner scanner, boolean resolveAnnotations) {
+        try {
+            info = scanner.getComponentInfo(clazz);
+        } catch (NoClassDefFoundError err) {
+            error = err;
+            introspected = true;
+            return;
+        }
+        fields = info.getFields();
+        constructors = info.getConstructors();
+        methods = info.getMethods();
+        constructorParameterAnnotations = new Annotation[constructors.length][][];
+        methodParameterAnnotations = new Annotation[methods.length][][];
+        introspected = true;
+
+        if (!resolveAnnotations) {
+            return;
+        }
+
+        for (int i = 0; i < constructors.length; i++) {
+            constructorParameterAnnotations[i] = getParameterAnnotations(constructors[i]);
+            resolve(constructors[i]);
+        }
+        for (int i = 0; i < methods.length; i++) {
+            methodParameterAnnotations[i] = getParameterAnnotations(methods[i]);
+            resolve(methods[i]);
+        }
+        for (Field field : fields) {
+            resolve(field);
+        }
+        if (clazz.getPackage() != null) {
+            resolve(clazz.getPackage());
+        }
+        for (Class c = clazz; c != null && !c.equals(Object.class); c = c.getSuperclass()) {
+            resolve(c);
+        }
+    }
+
+    /**
+     * @return the parameter annotations of the constructor of the given
+     * index in the constructors array.
+     */
+    Annotation[][] getConstructorParameterAnnotations(int i) {
+        Annotation[][] annotations = constructorParameterAnnotations[i];
+        return (annotations != null) ? annotations : constructors[i].getParameterAnnotations();
+    }
+
+    /**
+     * @return the parameter annotations of the method of the given index in
+     * the methods array.
+     */
+    Annotation[][] getMethodParameterAnnotations(int i) {
+        Annotation[][] annotations = methodParameterAnnotations[i];
+        return (annotations != null) ? annotations : methods[i].getParameterAnnotations();
+    }
+
+    private static Annotation[][] getParameterAnnotations(Constructor constructor) {
+        try {
+            return constructor.getParameterAnnotations();
+        } catch (Throwable t) {
+            return null;
+        }
+    }
+
+    private static Annotation[][] getParameterAnnotations(Method method) {
+        try {
+            return method.getParameterAnnotations();
+        } catch (Throwable t) {
+            return null;
+        }
+    }
+
+    /**
+     * Resolves the annotations of the given element, which the reflection
+     * keeps for the processing to find them.
+     */
+    private static void resolve(AnnotatedElement element) {
+        try {
+            element.getAnnotations();
+        } catch (Throwable t) {
+            // reported when the element is processed
+        }
+    }
+}
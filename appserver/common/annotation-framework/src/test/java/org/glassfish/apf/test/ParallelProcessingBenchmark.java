@@ -0,0 +1,78 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.apf.test;
+
+import java.net.URL;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Compares the time of the processing of the classes of the jars of the test
+ * class path with and without the parallel introspection. Not part of the
+ * unit tests, run with the benchmark profile.
+ */
+public class ParallelProcessingBenchmark {
+
+    private static final int RUNS = 5;
+
+    @Test
+    public void testParallelProcessing() throws Exception {
+        URL[] jars = ParallelProcessingTest.getClassPathJars();
+
+        // warm up the processor itself
+        ParallelProcessingTest.process(jars, false);
+        ParallelProcessingTest.process(jars, true);
+
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.currentTimeMillis();
+            List<String> sequential = ParallelProcessingTest.process(jars, false);
+            long sequentialTime = System.currentTimeMillis() - start;
+
+            start = System.currentTimeMillis();
+            ParallelProcessingTest.process(jars, true);
+            long parallelTime = System.currentTimeMillis() - start;
+
+            System.out.println("Processed " + sequential.size() + " elements: sequential "
+                + sequentialTime + " ms, parallel " + parallelTime + " ms");
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.apf.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.annotation.ElementType;
+import java.lang.reflect.AnnotatedElement;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import org.glassfish.apf.AnnotatedElementHandler;
+import org.glassfish.apf.AnnotationProcessorException;
+import org.glassfish.apf.ComponentInfo;
+import org.glassfish.apf.ErrorHandler;
+import org.glassfish.apf.ProcessingContext;
+import org.glassfish.apf.Scanner;
+import org.glassfish.apf.factory.Factory;
+import org.glassfish.apf.impl.AnnotationProcessorImpl;
+import org.glassfish.apf.impl.ComponentDefinition;
+import org.glassfish.hk2.classmodel.reflect.Types;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Compares the processing of the classes of the jars of the test class path
+ * with and without the parallel introspection: the handlers must see the
+ * same classes in the same order, and the same elements. Their times are
+ * compared by ParallelProcessingBenchmark.
+ *
+ * The order of the members of a class is that of the reflection, which may
+ * differ from a class loader to another.
+ */
+public class ParallelProcessingTest {
+
+    private static final int MAX_CLASSES = 20000;
+
+    @Test
+    public void testParallelProcessingIsDeterministic() throws Exception {
+        URL[] jars = getClassPathJars();
+
+        List<String> sequential = process(jars, false);
+        List<String> parallel = process(jars, true);
+
+        Assert.assertTrue(sequential.size() > 0);
+        Assert.assertEquals(getTypes(sequential), getTypes(parallel));
+        Assert.assertEquals(sequential.size(), parallel.size());
+        Collections.sort(sequential);
+        Collections.sort(parallel);
+        Assert.assertEquals(sequential, parallel);
+    }
+
+    /**
+     * Processes the classes of the given jars, loaded by a new class loader
+     * so that nothing is introspected yet.
+     *
+     * @return the trace of the elements and errors seen by the handlers
+     */
+    static List<String> process(URL[] jars, boolean parallel) throws Exception {
+        URLClassLoader loader = new URLClassLoader(jars, null);
+        try {
+            final Set<Class> classes = loadClasses(jars, loader);
+            final List<String> trace = new ArrayList<String>();
+
+            AnnotationProcessorImpl processor = Factory.getDefaultAnnotationProcessor();
+            processor.setParallel(parallel, 0);
+            ProcessingContext ctx = processor.createContext();
+            ctx.setProcessingInput(new TestScanner(loader, classes));
+            ctx.setErrorHandler(new ErrorHandler() {
+                public void fine(AnnotationProcessorException ape) {
+                }
+                public void warning(AnnotationProcessorException ape) {
+                    trace.add("WARNING " + ape.getMessage());
+                }
+                public void error(AnnotationProcessorException ape) {
+                    trace.add("ERROR " + ape.getMessage());
+                }
+            });
+            ctx.pushHandler(new AnnotatedElementHandler() {
+                public void startElement(ElementType type, AnnotatedElement element) {
+                    trace.add(type + " " + element);
+                }
+                public void endElement(ElementType type, AnnotatedElement element) {
+                }
+            });
+            try {
+                processor.process(ctx);
+            } catch (AnnotationProcessorException ape) {
+                trace.add("FAILED " + ape.getMessage());
+            }
+            return trace;
+        } finally {
+            loader.close();
+        }
+    }
+
+    private static List<String> getTypes(List<String> trace) {
+        List<String> types = new ArrayList<String>();
+        for (String element : trace) {
+            if (element.startsWith(ElementType.TYPE + " ")) {
+                types.add(element);
+            }
+        }
+        return types;
+    }
+
+    private static Set<Class> loadClasses(URL[] jars, ClassLoader loader) throws IOException {
+        Set<Class> classes = new LinkedHashSet<Class>();
+        for (URL url : jars) {
+            JarFile jar = new JarFile(new File(url.getPath()));
+            try {
+                Enumeration<JarEntry> entries = jar.entries();
+                while (entries.hasMoreElements() && classes.size() < MAX_CLASSES) {
+                    String name = entries.nextElement().getName();
+                    if (!name.endsWith(".class") || name.startsWith("META-INF/")
+                        || name.endsWith("module-info.class") || name.endsWith("package-info.class")) {
+                        continue;
+                    }
+                    try {
+                        classes.add(loader.loadClass(
+                            name.substring(0, name.length() - ".class".length()).replace('/', '.')));
+                    } catch (Throwable t) {
+                        // missing optional dependency
+                    }
+                }
+            } finally {
+                jar.close();
+            }
+        }
+        return classes;
+    }
+
+    static URL[] getClassPathJars() throws IOException {
+        List<URL> jars = new ArrayList<URL>();
+        for (String path : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            File file = new File(path);
+            if (file.isFile() && path.endsWith(".jar")) {
+                jars.add(file.toURI().toURL());
+            }
+        }
+        return jars.toArray(new URL[jars.size()]);
+    }
+
+    private static class TestScanner implements Scanner<Object> {
+        private final ClassLoader loader;
+        private final Set<Class> classes;
+
+        TestScanner(ClassLoader loader, Set<Class> classes) {
+            this.loader = loader;
+            this.classes = classes;
+        }
+
+        public void process(File archiveFile, Object bundleDesc, ClassLoader classLoader) {
+        }
+
+        public ClassLoader getClassLoader() {
+            return loader;
+        }
+
+        public Set<Class> getElements() {
+            return classes;
+        }
+
+        public ComponentInfo getComponentInfo(Class componentImpl) {
+            return new ComponentDefinition(componentImpl);
+        }
+
+        public Types getTypes() {
+            return null;
+        }
+    }
+}
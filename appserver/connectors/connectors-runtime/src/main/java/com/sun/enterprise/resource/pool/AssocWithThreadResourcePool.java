@@ -265,6 +265,7 @@ public class AssocWithThreadResourcePool extends ConnectionPool {
      */
     protected synchronized void freeUnenlistedResource(ResourceHandle h) {
         if (this.cleanupResource(h)) {
+            boolean handedOff = false;
             if (h instanceof AssocWithThreadResourceHandle) {
                 //Only when resource handle usage count is more than maxConnUsage
                 if (maxConnectionUsage_ > 0 &&
@@ -272,7 +273,10 @@ public class AssocWithThreadResourcePool extends ConnectionPool {
                     performMaxConnectionUsageOperation(h);
                 } else {
 
-                    if (!((AssocWithThreadResourceHandle) h).isAssociated()) {
+                    if (!((AssocWithThreadResourceHandle) h).isAssociated()
+                            && handOffToWaitingThread(h)) {
+                        handedOff = true;
+                    } else if (!((AssocWithThreadResourceHandle) h).isAssociated()) {
                         ds.returnResource(h);
                     }
                     //update monitoring data
@@ -283,7 +287,9 @@ public class AssocWithThreadResourcePool extends ConnectionPool {
                 }
                 //for both the cases of free.add and maxConUsageOperation, a free resource is added.
                 // Hence notify waiting threads
-                notifyWaitingThreads();
+                if (!handedOff) {
+                    notifyWaitingThreads();
+                }
             }
         }
     }
@@ -53,6 +53,7 @@ import com.sun.enterprise.resource.listener.PoolLifeCycleListener;
 import com.sun.enterprise.resource.pool.datastructure.DataStructure;
 import com.sun.enterprise.resource.pool.datastructure.DataStructureFactory;
 import com.sun.enterprise.resource.pool.resizer.Resizer;
+import com.sun.enterprise.resource.pool.waitqueue.HandoffPoolWaitQueue;
 import com.sun.enterprise.resource.pool.waitqueue.PoolWaitQueue;
 import com.sun.enterprise.resource.pool.waitqueue.PoolWaitQueueFactory;
 import com.sun.enterprise.transaction.api.JavaEETransaction;
@@ -142,6 +143,10 @@ public class ConnectionPool implements ResourcePool, ConnectionLeakListener,
     private boolean selfManaged_;
 
     private boolean blocked = false;
+
+    //resource handed over to this waiting thread by a thread returning it, taken
+    //by getResourceFromPool so that it goes through the checks of a free resource
+    private final ThreadLocal<ResourceHandle> handedOffResource = new ThreadLocal<ResourceHandle>();
     
     
     public ConnectionPool(PoolInfo poolInfo, Hashtable env) throws PoolingException {
@@ -159,7 +164,12 @@ public class ConnectionPool implements ResourcePool, ConnectionLeakListener,
 
     protected void initializePoolWaitQueue() throws PoolingException {
         waitQueue = PoolWaitQueueFactory.createPoolWaitQueue(poolWaitQueueClass);
-        reconfigWaitQueue = PoolWaitQueueFactory.createPoolWaitQueue(poolWaitQueueClass);
+        if (waitQueue instanceof HandoffPoolWaitQueue) {
+            //reconfig waiters are plain monitors notified by the pool deployer
+            reconfigWaitQueue = PoolWaitQueueFactory.createPoolWaitQueue(null);
+        } else {
+            reconfigWaitQueue = PoolWaitQueueFactory.createPoolWaitQueue(poolWaitQueueClass);
+        }
     }
 
     protected void initializePoolDataStructure() throws PoolingException {
@@ -367,22 +377,28 @@ public class ConnectionPool implements ResourcePool, ConnectionLeakListener,
         long remainingWaitTime = 0;
 
         while (true) {
-            if (gateway.allowed()) {
-                //See comment #1 above
-                JavaEETransaction jtx = ((JavaEETransaction) txn);
-                Set resourcesSet = null;
-                if(jtx != null){
-	                resourcesSet = jtx.getResources(poolInfo);
-		        }
-                //allow when the pool is not blocked or at-least one resource is
-                //already obtained in the current transaction.
-                if (!blocked || (resourcesSet != null && resourcesSet.size() > 0)) {
-                    try {
-                        result = internalGetResource(spec, alloc, txn);
-                    } finally {
-                        gateway.acquiredResource();
+            try {
+                if (gateway.allowed()) {
+                    //See comment #1 above
+                    JavaEETransaction jtx = ((JavaEETransaction) txn);
+                    Set resourcesSet = null;
+                    if(jtx != null){
+                        resourcesSet = jtx.getResources(poolInfo);
+                    }
+                    //allow when the pool is not blocked or at-least one resource is
+                    //already obtained in the current transaction.
+                    if (!blocked || (resourcesSet != null && resourcesSet.size() > 0)) {
+                        try {
+                            result = internalGetResource(spec, alloc, txn);
+                        } finally {
+                            gateway.acquiredResource();
+                        }
                     }
                 }
+            } finally {
+                //the request may have been served without the resource handed over
+                //to it (eg: by a resource of the transaction), or not at all
+                releaseHandedOffResource();
             }
             if (result != null) {
                 // got one, return it
@@ -420,7 +436,17 @@ public class ConnectionPool implements ResourcePool, ConnectionLeakListener,
                     }
                 }
 
-                if (!blocked) {
+                if (!blocked && waitQueue instanceof HandoffPoolWaitQueue) {
+                    if (poolLifeCycleListener != null) {
+                        poolLifeCycleListener.connectionRequestQueued();
+                    }
+                    try {
+                        waitForHandOff((HandoffPoolWaitQueue) waitQueue, remainingWaitTime);
+                    } catch (InterruptedException ex) {
+                        //Could be system shutdown.
+                        break;
+                    }
+                } else if (!blocked) {
                     //add to wait-queue
                     Object waitMonitor = new Object();
                     if (poolLifeCycleListener != null) {
@@ -492,6 +518,78 @@ public class ConnectionPool implements ResourcePool, ConnectionLeakListener,
         return result;
     }
 
+    /**
+     * Waits on the handoff wait-queue until a resource is handed over by a
+     * thread returning it, the waiter is signalled or the wait time expires.
+     * A resource handed over is kept for the next attempt of this thread to get
+     * a resource from the pool, which matches and validates it like any free
+     * resource, after having looked for a resource of the transaction.
+     *
+     * @param queue    handoff wait-queue
+     * @param waitTime time to wait in milli-seconds, 0 to wait indefinitely
+     * @throws InterruptedException when the waiting thread is interrupted
+     */
+    private void waitForHandOff(HandoffPoolWaitQueue queue, long waitTime) throws InterruptedException {
+        HandoffPoolWaitQueue.Waiter waiter = queue.enqueue();
+        logFine("Resource Pool: getting on handoff wait queue");
+        ResourceHandle h;
+        try {
+            h = waiter.await(waitTime);
+        } finally {
+            if (waiter.isCancelled() && poolLifeCycleListener != null) {
+                poolLifeCycleListener.connectionRequestDequeued();
+            }
+        }
+        if (h != null) {
+            handedOffResource.set(h);
+        }
+    }
+
+    /**
+     * Hands a free resource directly to the longest waiting request, when
+     * the pool uses a handoff wait-queue.
+     *
+     * @param h free resource
+     * @return true if the resource was handed over
+     */
+    protected boolean handOffToWaitingThread(ResourceHandle h) {
+        if (waitQueue instanceof HandoffPoolWaitQueue && ((HandoffPoolWaitQueue) waitQueue).handOff(h)) {
+            if (poolLifeCycleListener != null) {
+                poolLifeCycleListener.connectionRequestDequeued();
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Gives the resource handed over to the current thread, if it was not used
+     * to serve its request, to the next waiting request or back to the pool.
+     */
+    private void releaseHandedOffResource() {
+        ResourceHandle h = handedOffResource.get();
+        if (h != null) {
+            handedOffResource.remove();
+            if (!handOffToWaitingThread(h)) {
+                ds.returnResource(h);
+                notifyWaitingThreads();
+            }
+        }
+    }
+
+    /**
+     * @return the resource handed over to the current thread if any, else a
+     * free resource of the pool datastructure
+     */
+    private ResourceHandle getFreeResource() {
+        ResourceHandle h = handedOffResource.get();
+        if (h != null) {
+            handedOffResource.remove();
+            return h;
+        }
+        return ds.getResource();
+    }
+
     /**
      * Overridden in AssocWithThreadResourcePool to fetch the resource
      * cached in the ThreadLocal
@@ -716,7 +814,7 @@ public class ConnectionPool implements ResourcePool, ConnectionLeakListener,
         ResourceHandle h;
         ArrayList<ResourceHandle> freeResources = new ArrayList<ResourceHandle>();
         try{
-            while ((h = ds.getResource()) != null) {
+            while ((h = getFreeResource()) != null) {
 
                 if (h.hasConnectionErrorOccurred()) {
                     ds.removeResource(h);
@@ -1054,13 +1152,17 @@ public class ConnectionPool implements ResourcePool, ConnectionLeakListener,
 
     protected void freeResource(ResourceHandle resourceHandle) {
         if(cleanupResource(resourceHandle)) {
+            boolean handedOff = false;
             //Only when resource handle usage count is more than maxConnUsage
             if (maxConnectionUsage_ > 0 &&
                     resourceHandle.getUsageCount() >= maxConnectionUsage_) {
                  performMaxConnectionUsageOperation(resourceHandle);
             } else {
-                // Put it back to the free collection.
-                ds.returnResource(resourceHandle);
+                // Hand it over to a waiting request or put it back to the free collection.
+                handedOff = handOffToWaitingThread(resourceHandle);
+                if (!handedOff) {
+                    ds.returnResource(resourceHandle);
+                }
                 //update the monitoring data
                 if (poolLifeCycleListener != null && !resourceHandle.getDestroyByLeakTimeOut()) {
                     poolLifeCycleListener.decrementConnectionUsed(resourceHandle.getId());
@@ -1069,7 +1171,9 @@ public class ConnectionPool implements ResourcePool, ConnectionLeakListener,
             }
             //for both the cases of free.add and maxConUsageOperation, a free resource is added.
             // Hence notify waiting threads
-            notifyWaitingThreads();
+            if (!handedOff) {
+                notifyWaitingThreads();
+            }
         }
     }
     
@@ -1216,6 +1320,13 @@ public class ConnectionPool implements ResourcePool, ConnectionLeakListener,
 
 
     protected void notifyWaitingThreads() {
+        if (waitQueue instanceof HandoffPoolWaitQueue) {
+            // wake up only the longest waiting thread, no monitors involved
+            if (((HandoffPoolWaitQueue) waitQueue).signal() && poolLifeCycleListener != null) {
+                poolLifeCycleListener.connectionRequestDequeued();
+            }
+            return;
+        }
         // notify the first thread in the waitqueue
         Object waitMonitor = null;
         synchronized (waitQueue) {
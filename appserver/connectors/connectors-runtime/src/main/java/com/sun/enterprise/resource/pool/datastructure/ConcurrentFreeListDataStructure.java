@@ -0,0 +1,290 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package com.sun.enterprise.resource.pool.datastructure;
+
+import com.sun.enterprise.resource.ResourceHandle;
+import com.sun.enterprise.resource.allocator.ResourceAllocator;
+import com.sun.enterprise.resource.pool.ResourceHandler;
+import com.sun.appserv.connectors.internal.api.PoolingException;
+import com.sun.logging.LogDomains;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Datastructure that keeps free resources in a set of concurrent stripes
+ * instead of a single locked list.<br>
+ * Every thread has a home stripe, derived from its id, to which it returns
+ * resources and from which it first retrieves them, so that a thread tends
+ * to get back the connection it used last. When the home stripe is empty,
+ * the other stripes are scanned (work stealing). Checkout and return are
+ * O(1) and do not take any lock.<br>
+ * Every resource has a state (free, busy or removed) that moves only by
+ * compare-and-set, so that a resource is handed out once, returned once and
+ * never handed out after it has been removed. A stripe may still hold a
+ * removed resource for a while, it is skipped when polled.<br>
+ * The number of stripes defaults to the number of available processors and
+ * can be overridden through the data-structure parameters, e.g.
+ * <code>stripes=16</code>.
+ */
+public class ConcurrentFreeListDataStructure implements DataStructure {
+
+    private static final String STRIPES_PARAMETER = "stripes";
+
+    private final ResourceHandler handler;
+    private volatile int maxSize;
+
+    private static final int FREE = 0;
+    private static final int BUSY = 1;
+    private static final int REMOVED = 2;
+
+    //All resources, free or in use, managed by this datastructure, with their state
+    private final ConcurrentHashMap<ResourceHandle, AtomicInteger> resources;
+    private final ConcurrentLinkedDeque<ResourceHandle>[] stripes;
+    private final int stripeMask;
+
+    //Number of resources created or being created, used to honor maxSize
+    private final AtomicInteger reserved = new AtomicInteger();
+    //Number of resources in the FREE state
+    private final LongAdder freeCount = new LongAdder();
+
+    protected final static Logger _logger =
+            LogDomains.getLogger(ConcurrentFreeListDataStructure.class, LogDomains.RSR_LOGGER);
+
+    public ConcurrentFreeListDataStructure(String parameters, int maxSize,
+                                           ResourceHandler handler, String strategyClass) {
+        this.maxSize = maxSize;
+        this.handler = handler;
+        resources = new ConcurrentHashMap<ResourceHandle, AtomicInteger>((maxSize > 1000) ? 1000 : Math.max(maxSize, 16));
+
+        int count = Integer.highestOneBit(Math.max(1, getStripeCount(parameters)) * 2 - 1);
+        stripes = new ConcurrentLinkedDeque[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new ConcurrentLinkedDeque<ResourceHandle>();
+        }
+        stripeMask = count - 1;
+        if (_logger.isLoggable(Level.FINEST)) {
+            _logger.log(Level.FINEST, "Initialized ConcurrentFreeListDataStructure with {0} stripes", count);
+        }
+    }
+
+    private static int getStripeCount(String parameters) {
+        int count = Runtime.getRuntime().availableProcessors();
+        if (parameters != null) {
+            for (String parameter : parameters.split(",")) {
+                String[] nameValue = parameter.split("=");
+                if (nameValue.length == 2 && STRIPES_PARAMETER.equalsIgnoreCase(nameValue[0].trim())) {
+                    try {
+                        count = Integer.parseInt(nameValue[1].trim());
+                    } catch (NumberFormatException nfe) {
+                        _logger.log(Level.WARNING, "Invalid value for data-structure parameter "
+                                + STRIPES_PARAMETER + " : " + nameValue[1]);
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int addResource(ResourceAllocator allocator, int count) throws PoolingException {
+        int numResAdded = 0;
+        for (int i = 0; i < count && reserve(); i++) {
+            try {
+                ResourceHandle handle = handler.createResource(allocator);
+                AtomicInteger state = new AtomicInteger(BUSY);
+                resources.put(handle, state);
+                offer(handle, state);
+                numResAdded++;
+            } catch (Exception e) {
+                reserved.decrementAndGet();
+                PoolingException pe = new PoolingException(e.getMessage());
+                pe.initCause(e);
+                throw pe;
+            }
+        }
+        return numResAdded;
+    }
+
+    private boolean reserve() {
+        while (true) {
+            int current = reserved.get();
+            if (current >= maxSize) {
+                return false;
+            }
+            if (reserved.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ResourceHandle getResource() {
+        int home = homeStripe();
+        ResourceHandle h = take(stripes[home], true);
+        //steal the least recently returned resource of another stripe
+        for (int i = 1; h == null && i <= stripeMask; i++) {
+            h = take(stripes[(home + i) & stripeMask], false);
+        }
+        return h;
+    }
+
+    private ResourceHandle take(ConcurrentLinkedDeque<ResourceHandle> stripe, boolean mostRecent) {
+        ResourceHandle h;
+        while ((h = (mostRecent ? stripe.pollFirst() : stripe.pollLast())) != null) {
+            //the resource might have been removed while it was on the free list
+            AtomicInteger state = resources.get(h);
+            if (state != null && state.compareAndSet(FREE, BUSY)) {
+                freeCount.decrement();
+                h.setBusy(true);
+                return h;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void removeResource(ResourceHandle resource) {
+        AtomicInteger state = resources.remove(resource);
+        if (state != null) {
+            if (state.getAndSet(REMOVED) == FREE) {
+                //rare : resource removed without being retrieved first
+                freeCount.decrement();
+                for (ConcurrentLinkedDeque<ResourceHandle> stripe : stripes) {
+                    if (stripe.removeFirstOccurrence(resource)) {
+                        break;
+                    }
+                }
+            }
+            reserved.decrementAndGet();
+            handler.deleteResource(resource);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void returnResource(ResourceHandle resource) {
+        AtomicInteger state = resources.get(resource);
+        if (state != null && !offer(resource, state) && _logger.isLoggable(Level.FINE)) {
+            _logger.log(Level.FINE, "Ignoring return of a resource that is not in use : " + resource);
+        }
+    }
+
+    private boolean offer(ResourceHandle resource, AtomicInteger state) {
+        if (!state.compareAndSet(BUSY, FREE)) {
+            //already free (returned twice) or removed meanwhile
+            return false;
+        }
+        resource.setBusy(false);
+        freeCount.increment();
+        stripes[homeStripe()].offerFirst(resource);
+        return true;
+    }
+
+    private int homeStripe() {
+        long id = Thread.currentThread().getId();
+        int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & stripeMask;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getFreeListSize() {
+        return Math.max(0, freeCount.intValue());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void removeAll() {
+        for (ResourceHandle handle : resources.keySet()) {
+            AtomicInteger state = resources.remove(handle);
+            if (state != null) {
+                if (state.getAndSet(REMOVED) == FREE) {
+                    freeCount.decrement();
+                }
+                reserved.decrementAndGet();
+                handler.deleteResource(handle);
+            }
+        }
+        for (ConcurrentLinkedDeque<ResourceHandle> stripe : stripes) {
+            stripe.clear();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getResourcesSize() {
+        return resources.size();
+    }
+
+    /**
+     * Set maxSize based on the new max pool size set on the connection pool
+     * during a reconfiguration.
+     *
+     * @param maxSize
+     */
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ArrayList<ResourceHandle> getAllResources() {
+        return new ArrayList<ResourceHandle>(resources.keySet());
+    }
+}
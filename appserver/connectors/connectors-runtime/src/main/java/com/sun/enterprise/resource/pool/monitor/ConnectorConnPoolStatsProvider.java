@@ -47,10 +47,12 @@ import org.glassfish.external.probe.provider.annotations.ProbeListener;
 import org.glassfish.external.probe.provider.annotations.ProbeParam;
 import org.glassfish.external.statistics.CountStatistic;
 import org.glassfish.external.statistics.RangeStatistic;
+import org.glassfish.external.statistics.StringStatistic;
 import org.glassfish.external.statistics.annotations.Reset;
 import org.glassfish.external.statistics.impl.CountStatisticImpl;
 import org.glassfish.external.statistics.impl.RangeStatisticImpl;
 import org.glassfish.external.statistics.impl.StatisticImpl;
+import org.glassfish.external.statistics.impl.StringStatisticImpl;
 import org.glassfish.gmbal.AMXMetadata;
 import org.glassfish.gmbal.Description;
 import org.glassfish.gmbal.ManagedAttribute;
@@ -139,6 +141,19 @@ public class ConnectorConnPoolStatsProvider {
     private CountStatisticImpl waitQueueLength = new CountStatisticImpl(
             "WaitQueueLength", StatisticImpl.UNIT_COUNT, 
             "Number of connection requests in the queue waiting to be serviced.");    
+    private WaitTimeHistogram connRequestWaitTimeHistogram = new WaitTimeHistogram();
+    private CountStatisticImpl connRequestWaitTimeP50 = new CountStatisticImpl(
+            "ConnRequestWaitTimeP50", StatisticImpl.UNIT_MILLISECOND,
+            "Median wait time of successful connection requests");
+    private CountStatisticImpl connRequestWaitTimeP99 = new CountStatisticImpl(
+            "ConnRequestWaitTimeP99", StatisticImpl.UNIT_MILLISECOND,
+            "99th percentile wait time of successful connection requests");
+    private CountStatisticImpl connRequestWaitTimeP999 = new CountStatisticImpl(
+            "ConnRequestWaitTimeP999", StatisticImpl.UNIT_MILLISECOND,
+            "99.9th percentile wait time of successful connection requests");
+    private StringStatisticImpl connRequestWaitTimeHistogramStat = new StringStatisticImpl(
+            "ConnRequestWaitTimeHistogram", "List",
+            "Number of successful connection requests per wait time range");
     private static final String JCA_PROBE_LISTENER = "glassfish:jca:connection-pool:";
 
     public ConnectorConnPoolStatsProvider(PoolInfo poolInfo, Logger logger) {
@@ -370,6 +385,7 @@ public class ConnectorConnPoolStatsProvider {
             }
             connRequestWaitTime.setCurrent(timeTakenInMillis);
             totalConnRequestWaitTime.increment(timeTakenInMillis);
+            connRequestWaitTimeHistogram.record(timeTakenInMillis);
         }        
     }  
     
@@ -480,6 +496,7 @@ public class ConnectorConnPoolStatsProvider {
         averageConnWaitTime.reset();
         totalConnRequestWaitTime.reset();
         waitQueueLength.reset();        
+        connRequestWaitTimeHistogram.reset();
     }
     
     /**
@@ -707,4 +724,28 @@ public class ConnectorConnPoolStatsProvider {
     public CountStatistic getWaitQueueLength() {
         return waitQueueLength;
     }    
+
+    @ManagedAttribute(id="connrequestwaittimep50")
+    public CountStatistic getConnRequestWaitTimeP50() {
+        connRequestWaitTimeP50.setCount(connRequestWaitTimeHistogram.getPercentile(50));
+        return connRequestWaitTimeP50;
+    }
+
+    @ManagedAttribute(id="connrequestwaittimep99")
+    public CountStatistic getConnRequestWaitTimeP99() {
+        connRequestWaitTimeP99.setCount(connRequestWaitTimeHistogram.getPercentile(99));
+        return connRequestWaitTimeP99;
+    }
+
+    @ManagedAttribute(id="connrequestwaittimep999")
+    public CountStatistic getConnRequestWaitTimeP999() {
+        connRequestWaitTimeP999.setCount(connRequestWaitTimeHistogram.getPercentile(99.9));
+        return connRequestWaitTimeP999;
+    }
+
+    @ManagedAttribute(id="connrequestwaittimehistogram")
+    public StringStatistic getConnRequestWaitTimeHistogram() {
+        connRequestWaitTimeHistogramStat.setCurrent(connRequestWaitTimeHistogram.toString());
+        return connRequestWaitTimeHistogramStat;
+    }
 }
@@ -0,0 +1,246 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package com.sun.enterprise.resource.pool.waitqueue;
+
+import com.sun.enterprise.resource.ResourceHandle;
+import com.sun.logging.LogDomains;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Lock-free, FIFO wait queue that hands a returned resource directly to the
+ * longest waiting request.<br>
+ * Waiting requests are represented by {@link Waiter} objects that park the
+ * requesting thread with {@link LockSupport}. A resource that is freed while
+ * requests are waiting is never put back to the pool datastructure, which
+ * would let a newly arriving request barge in; instead it is handed to the
+ * first waiter and only that waiter is woken up.<br>
+ * Plain monitor objects can still be added to this queue (eg: by the
+ * reconfig wait queue), in which case it behaves like a FIFO list.
+ */
+public class HandoffPoolWaitQueue implements PoolWaitQueue {
+
+    private final ConcurrentLinkedQueue<Object> queue = new ConcurrentLinkedQueue<Object>();
+    private final AtomicInteger length = new AtomicInteger();
+
+    protected final static Logger _logger = LogDomains.getLogger(HandoffPoolWaitQueue.class, LogDomains.RSR_LOGGER);
+
+    public HandoffPoolWaitQueue() {
+        debug("Initializing handoff Pool Wait Queue");
+    }
+
+    public int getQueueLength() {
+        return length.get();
+    }
+
+    public void addToQueue(Object o) {
+        queue.add(o);
+        length.incrementAndGet();
+    }
+
+    public boolean removeFromQueue(Object o) {
+        boolean removed = queue.remove(o);
+        if (removed) {
+            length.decrementAndGet();
+        }
+        return removed;
+    }
+
+    public Object remove() {
+        Object o = queue.poll();
+        if (o != null) {
+            length.decrementAndGet();
+        }
+        return o;
+    }
+
+    public Object peek() {
+        return queue.peek();
+    }
+
+    public Collection getQueueContents() {
+        return queue;
+    }
+
+    /**
+     * Adds a waiter for the current thread to the tail of the queue.
+     *
+     * @return Waiter on which the current thread has to {@link Waiter#await(long)}
+     */
+    public Waiter enqueue() {
+        Waiter waiter = new Waiter(Thread.currentThread());
+        addToQueue(waiter);
+        return waiter;
+    }
+
+    /**
+     * Hands the resource over to the longest waiting request.
+     *
+     * @param resource free resource
+     * @return true if a waiter took the resource, false if nobody is waiting
+     */
+    public boolean handOff(ResourceHandle resource) {
+        Waiter waiter;
+        while ((waiter = nextWaiter()) != null) {
+            if (waiter.complete(Waiter.HANDED_OFF, resource)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Wakes up the longest waiting request without a resource, so that it
+     * retries to get one from the pool (eg: when pool capacity has been freed
+     * by destroying a resource).
+     *
+     * @return true if a waiter was woken up
+     */
+    public boolean signal() {
+        Waiter waiter;
+        while ((waiter = nextWaiter()) != null) {
+            if (waiter.complete(Waiter.SIGNALLED, null)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Waiter nextWaiter() {
+        for (Object o : queue) {
+            if (o instanceof Waiter && removeFromQueue(o)) {
+                return (Waiter) o;
+            }
+        }
+        return null;
+    }
+
+    protected void debug(String debugStatement) {
+        if (_logger.isLoggable(Level.FINE)) {
+            _logger.log(Level.FINE, debugStatement);
+        }
+    }
+
+    /**
+     * A request waiting for a resource. The state moves exactly once from
+     * WAITING to one of HANDED_OFF, SIGNALLED or CANCELLED.
+     */
+    public final class Waiter {
+        static final int WAITING = 0;
+        static final int HANDED_OFF = 1;
+        static final int SIGNALLED = 2;
+        static final int CANCELLED = 3;
+
+        private final Thread thread;
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+        //written before the state transition, read after it
+        private ResourceHandle resource;
+
+        private Waiter(Thread thread) {
+            this.thread = thread;
+        }
+
+        private boolean complete(int newState, ResourceHandle handle) {
+            resource = handle;
+            if (state.compareAndSet(WAITING, newState)) {
+                LockSupport.unpark(thread);
+                return true;
+            }
+            resource = null;
+            return false;
+        }
+
+        /**
+         * Parks the current thread until a resource is handed over, the waiter
+         * is signalled or the timeout expires.
+         *
+         * @param timeoutInMillis time to wait, 0 to wait indefinitely
+         * @return ResourceHandle handed over, or null
+         * @throws InterruptedException if interrupted before anything was handed over
+         */
+        public ResourceHandle await(long timeoutInMillis) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutInMillis);
+            while (state.get() == WAITING) {
+                if (Thread.interrupted()) {
+                    if (cancel()) {
+                        throw new InterruptedException();
+                    }
+                    //lost the race with a handoff, keep the resource and the interrupt
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                if (timeoutInMillis > 0) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        cancel();
+                        break;
+                    }
+                    LockSupport.parkNanos(this, remaining);
+                } else {
+                    LockSupport.park(this);
+                }
+            }
+            return state.get() == HANDED_OFF ? resource : null;
+        }
+
+        private boolean cancel() {
+            if (state.compareAndSet(WAITING, CANCELLED)) {
+                removeFromQueue(this);
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * @return true if the waiter gave up (timeout or interrupt) and has
+         * removed itself from the queue
+         */
+        public boolean isCancelled() {
+            return state.get() == CANCELLED;
+        }
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package com.sun.enterprise.resource.pool;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.resource.ResourceException;
+import javax.transaction.Transaction;
+
+import com.sun.enterprise.connectors.ConnectorConnectionPool;
+import com.sun.enterprise.resource.AssocWithThreadResourceHandle;
+import com.sun.enterprise.resource.ResourceHandle;
+import com.sun.enterprise.resource.ResourceSpec;
+import com.sun.enterprise.resource.ResourceState;
+import com.sun.enterprise.resource.allocator.ResourceAllocator;
+import com.sun.enterprise.resource.pool.waitqueue.HandoffPoolWaitQueue;
+import com.sun.enterprise.transaction.api.JavaEETransaction;
+import org.glassfish.resourcebase.resources.api.PoolInfo;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Requests served by a resource handed over through the handoff wait-queue
+ * must get the same resource as the requests served from the pool.
+ */
+public class ConnectionPoolHandoffTest {
+
+    private static final PoolInfo POOL_INFO = new PoolInfo("handoff-pool");
+
+    private ExecutorService executor;
+    private ResourceSpec spec;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newCachedThreadPool();
+        spec = new ResourceSpec("handoff-resource", ResourceSpec.JNDI_NAME);
+        spec.setPoolInfo(POOL_INFO);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testResourceHandedOffToWaiter() throws Exception {
+        TestAllocator alloc = new TestAllocator(false);
+        ConnectionPool pool = new TestPool(configuration(1, 10000, false));
+
+        ResourceHandle h = pool.getResource(spec, alloc, null);
+        Future<ResourceHandle> waiter = getResourceAsync(pool, alloc, null);
+        awaitWaiters(pool, 1);
+
+        pool.resourceClosed(h);
+        assertSame(h, waiter.get(10, TimeUnit.SECONDS));
+        assertTrue(h.getResourceState().isBusy());
+        assertEquals(1, alloc.created.get());
+    }
+
+    /**
+     * A waiter whose transaction got a shareable resource of the pool while
+     * it was waiting shares it, and leaves the resource handed over to the pool.
+     */
+    @Test
+    public void testWaiterSharesResourceOfTransaction() throws Exception {
+        spec.markAsXA();
+        TestAllocator alloc = new TestAllocator(false);
+        ConnectionPool pool = new TestPool(configuration(1, 10000, false));
+        Set<ResourceHandle> enlisted = Collections.synchronizedSet(new HashSet<ResourceHandle>());
+
+        ResourceHandle h = pool.getResource(spec, alloc, null);
+        Future<ResourceHandle> waiter = getResourceAsync(pool, alloc, transaction(enlisted));
+        awaitWaiters(pool, 1);
+
+        ResourceHandle shared = alloc.createResource();
+        ResourceState state = new ResourceState();
+        state.setBusy(true);
+        state.setEnlisted(true);
+        shared.setResourceState(state);
+        enlisted.add(shared);
+
+        pool.resourceClosed(h);
+        assertSame(shared, waiter.get(10, TimeUnit.SECONDS));
+        assertTrue(h.getResourceState().isFree());
+        assertEquals(1, pool.ds.getFreeListSize());
+
+        assertSame(h, pool.getResource(spec, alloc, null));
+        assertEquals(2, alloc.created.get());
+    }
+
+    @Test
+    public void testInvalidResourceHandedOffIsDestroyed() throws Exception {
+        TestAllocator alloc = new TestAllocator(false);
+        ConnectionPool pool = new TestPool(configuration(1, 10000, true));
+
+        ResourceHandle h = pool.getResource(spec, alloc, null);
+        Future<ResourceHandle> waiter = getResourceAsync(pool, alloc, null);
+        awaitWaiters(pool, 1);
+
+        alloc.invalid.add(h);
+        pool.resourceClosed(h);
+        ResourceHandle result = waiter.get(10, TimeUnit.SECONDS);
+        assertNotSame(h, result);
+        assertTrue(alloc.destroyed.contains(h));
+        assertEquals(1, pool.ds.getResourcesSize());
+    }
+
+    @Test
+    public void testHandedOffResourceAssociatedWithWaiterThread() throws Exception {
+        final TestAllocator alloc = new TestAllocator(true);
+        final ConnectionPool pool = new TestAssocWithThreadPool(configuration(2, 10000, false));
+
+        //the first resource gets associated with the current thread, not the second
+        ResourceHandle associated = pool.getResource(spec, alloc, null);
+        AssocWithThreadResourceHandle h = (AssocWithThreadResourceHandle) pool.getResource(spec, alloc, null);
+        assertFalse(h.isAssociated());
+
+        final AtomicLong waiterThreadId = new AtomicLong();
+        Future<ResourceHandle> waiter = executor.submit(new Callable<ResourceHandle>() {
+            public ResourceHandle call() throws Exception {
+                waiterThreadId.set(Thread.currentThread().getId());
+                return pool.getResource(spec, alloc, null);
+            }
+        });
+        awaitWaiters(pool, 1);
+
+        pool.resourceClosed(h);
+        assertSame(h, waiter.get(10, TimeUnit.SECONDS));
+        assertTrue(h.isAssociated());
+        assertEquals(waiterThreadId.get(), h.getThreadId());
+        assertNotSame(associated, h);
+    }
+
+    @Test
+    public void testDirtyResourceHandedOffIsNotUsed() throws Exception {
+        TestAllocator alloc = new TestAllocator(true);
+        ConnectionPool pool = new TestAssocWithThreadPool(configuration(2, 1000, false));
+
+        pool.getResource(spec, alloc, null);
+        AssocWithThreadResourceHandle h = (AssocWithThreadResourceHandle) pool.getResource(spec, alloc, null);
+        Future<ResourceHandle> waiter = getResourceAsync(pool, alloc, null);
+        awaitWaiters(pool, 1);
+
+        h.setDirty();
+        pool.resourceClosed(h);
+        ResourceHandle result = waiter.get(10, TimeUnit.SECONDS);
+        assertNotSame(h, result);
+        assertTrue(alloc.destroyed.contains(h));
+        assertFalse(((AssocWithThreadResourceHandle) result).isDirty());
+    }
+
+    private Future<ResourceHandle> getResourceAsync(final ConnectionPool pool, final ResourceAllocator alloc,
+            final Transaction txn) {
+        return executor.submit(new Callable<ResourceHandle>() {
+            public ResourceHandle call() throws Exception {
+                return pool.getResource(spec, alloc, txn);
+            }
+        });
+    }
+
+    private static void awaitWaiters(ConnectionPool pool, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (((HandoffPoolWaitQueue) pool.waitQueue).getQueueLength() < count) {
+            assertTrue("no waiting request", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static ConnectorConnectionPool configuration(int maxPoolSize, long maxWaitTime, boolean validation) {
+        ConnectorConnectionPool ccp = new ConnectorConnectionPool(POOL_INFO);
+        ccp.setSteadyPoolSize("0");
+        ccp.setMaxPoolSize(String.valueOf(maxPoolSize));
+        ccp.setPoolResizeQuantity("1");
+        ccp.setMaxWaitTimeInMillis(String.valueOf(maxWaitTime));
+        ccp.setIdleTimeoutInSeconds("0");
+        ccp.setConnectionValidationRequired(validation);
+        ccp.setMaxConnectionUsage(ConnectorConnectionPool.DEFAULT_MAX_CONNECTION_USAGE);
+        ccp.setConCreationRetryAttempts(ConnectorConnectionPool.DEFAULT_CON_CREATION_RETRY_ATTEMPTS);
+        ccp.setConCreationRetryInterval(ConnectorConnectionPool.DEFAULT_CON_CREATION_RETRY_INTERVAL);
+        ccp.setValidateAtmostOncePeriod(ConnectorConnectionPool.DEFAULT_VALIDATE_ATMOST_ONCE_PERIOD);
+        ccp.setConnectionLeakTracingTimeout(ConnectorConnectionPool.DEFAULT_LEAK_TIMEOUT);
+        ccp.setPoolWaitQueue(HandoffPoolWaitQueue.class.getName());
+        return ccp;
+    }
+
+    private static Transaction transaction(final Set<ResourceHandle> resources) {
+        return (Transaction) Proxy.newProxyInstance(ConnectionPoolHandoffTest.class.getClassLoader(),
+                new Class[]{JavaEETransaction.class}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getResources")) {
+                    return resources;
+                } else if (method.getName().equals("hashCode")) {
+                    return System.identityHashCode(proxy);
+                } else if (method.getName().equals("equals")) {
+                    return proxy == args[0];
+                } else if (method.getReturnType() == boolean.class) {
+                    return false;
+                } else if (method.getReturnType() == int.class) {
+                    return 0;
+                } else if (method.getReturnType() == long.class) {
+                    return 0L;
+                }
+                return null;
+            }
+        });
+    }
+
+    private static class TestPool extends ConnectionPool {
+        TestPool(ConnectorConnectionPool configuration) throws PoolingException {
+            super(POOL_INFO, new Hashtable(Collections.singletonMap("configuration", configuration)));
+        }
+
+        @Override
+        protected ConnectorConnectionPool getPoolConfigurationFromJndi(Hashtable env) {
+            return (ConnectorConnectionPool) env.get("configuration");
+        }
+    }
+
+    private static class TestAssocWithThreadPool extends AssocWithThreadResourcePool {
+        TestAssocWithThreadPool(ConnectorConnectionPool configuration) throws PoolingException {
+            super(POOL_INFO, new Hashtable(Collections.singletonMap("configuration", configuration)));
+        }
+
+        @Override
+        protected ConnectorConnectionPool getPoolConfigurationFromJndi(Hashtable env) {
+            return (ConnectorConnectionPool) env.get("configuration");
+        }
+    }
+
+    private class TestAllocator implements ResourceAllocator {
+        private final boolean associateWithThread;
+        final AtomicInteger created = new AtomicInteger();
+        final Set<ResourceHandle> invalid = Collections.synchronizedSet(new HashSet<ResourceHandle>());
+        final Set<ResourceHandle> destroyed = Collections.synchronizedSet(new HashSet<ResourceHandle>());
+
+        TestAllocator(boolean associateWithThread) {
+            this.associateWithThread = associateWithThread;
+        }
+
+        public ResourceHandle createResource() {
+            created.incrementAndGet();
+            if (associateWithThread) {
+                return new AssocWithThreadResourceHandle(new Object(), spec, this, null);
+            }
+            return new ResourceHandle(new Object(), spec, this, null);
+        }
+
+        public void fillInResourceObjects(ResourceHandle resource) {
+        }
+
+        public void closeUserConnection(ResourceHandle resource) {
+        }
+
+        public void destroyResource(ResourceHandle resource) {
+            destroyed.add(resource);
+        }
+
+        public boolean matchConnection(ResourceHandle h) {
+            return true;
+        }
+
+        public boolean supportsReauthentication() {
+            return false;
+        }
+
+        public boolean isTransactional() {
+            return true;
+        }
+
+        public void cleanup(ResourceHandle resource) {
+        }
+
+        public boolean shareableWithinComponent() {
+            return true;
+        }
+
+        public Object getSharedConnection(ResourceHandle h) {
+            return h.getResource();
+        }
+
+        public Set getInvalidConnections(Set connectionSet) throws ResourceException {
+            return Collections.emptySet();
+        }
+
+        public boolean isConnectionValid(ResourceHandle resource) {
+            return !invalid.contains(resource);
+        }
+
+        public boolean hasValidatingMCF() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package com.sun.enterprise.resource.pool.datastructure;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import com.sun.enterprise.resource.ResourceHandle;
+import org.junit.Test;
+
+/**
+ * Compares the getResource/returnResource throughput of
+ * ConcurrentFreeListDataStructure with the one of RWLockDataStructure for
+ * an increasing number of threads. Not part of the unit tests, run with the
+ * benchmark profile.
+ */
+public class ConcurrentFreeListDataStructureBenchmark {
+
+    private static final int OPERATIONS = 1000000;
+    private static final int RUNS = 5;
+
+    @Test
+    public void testThroughput() throws Exception {
+        int maxThreads = Runtime.getRuntime().availableProcessors() * 2;
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            ConcurrentFreeListDataStructureTest.TestHandler handler =
+                    new ConcurrentFreeListDataStructureTest.TestHandler();
+            DataStructure rwLock =
+                    new RWLockDataStructure(null, threads, handler, null);
+            rwLock.addResource(null, threads);
+            DataStructure freeList = new ConcurrentFreeListDataStructure(
+                    null, threads, handler, null);
+            freeList.addResource(null, threads);
+
+            // warm up
+            run(rwLock, threads);
+            run(freeList, threads);
+
+            for (int i = 0; i < RUNS; i++) {
+                long rwLockTime = run(rwLock, threads);
+                long freeListTime = run(freeList, threads);
+                System.out.println(threads + " threads: " + OPERATIONS
+                        + " get/return in " + rwLockTime / 1000000
+                        + " ms with RWLockDataStructure, "
+                        + freeListTime / 1000000
+                        + " ms with ConcurrentFreeListDataStructure");
+            }
+        }
+    }
+
+    /**
+     * Get and return OPERATIONS resources, spread over the given number of
+     * threads. The data structure holds one resource per thread.
+     * @return the elapsed time in nanoseconds
+     */
+    private static long run(final DataStructure ds, int threads)
+            throws Exception {
+        final int perThread = OPERATIONS / threads;
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < perThread; i++) {
+                        ResourceHandle h = ds.getResource();
+                        if (h != null) {
+                            ds.returnResource(h);
+                        }
+                    }
+                }
+            };
+            worker.start();
+            workers.add(worker);
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return System.nanoTime() - begin;
+    }
+}
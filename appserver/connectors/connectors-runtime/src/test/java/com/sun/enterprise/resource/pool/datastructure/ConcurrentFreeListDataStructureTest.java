@@ -0,0 +1,209 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package com.sun.enterprise.resource.pool.datastructure;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.sun.appserv.connectors.internal.api.PoolingException;
+import com.sun.enterprise.resource.ResourceHandle;
+import com.sun.enterprise.resource.ResourceSpec;
+import com.sun.enterprise.resource.allocator.ResourceAllocator;
+import com.sun.enterprise.resource.pool.ResourceHandler;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ConcurrentFreeListDataStructureTest {
+
+    private final TestHandler handler = new TestHandler();
+
+    @Test
+    public void testDoubleReturnIsIgnored() throws PoolingException {
+        ConcurrentFreeListDataStructure ds = new ConcurrentFreeListDataStructure("stripes=4", 2, handler, null);
+        assertEquals(1, ds.addResource(null, 1));
+
+        ResourceHandle h = ds.getResource();
+        assertNotNull(h);
+        assertEquals(0, ds.getFreeListSize());
+        ds.returnResource(h);
+        ds.returnResource(h);
+        assertEquals(1, ds.getFreeListSize());
+
+        assertSame(h, ds.getResource());
+        assertNull(ds.getResource());
+        assertEquals(0, ds.getFreeListSize());
+    }
+
+    @Test
+    public void testRemovedResourceIsNotHandedOut() throws PoolingException {
+        ConcurrentFreeListDataStructure ds = new ConcurrentFreeListDataStructure("stripes=4", 2, handler, null);
+        ds.addResource(null, 2);
+        ResourceHandle h = ds.getAllResources().get(0);
+
+        ds.removeResource(h);
+        assertEquals(1, ds.getFreeListSize());
+        assertEquals(1, ds.getResourcesSize());
+        assertTrue(handler.deleted.contains(h));
+
+        ResourceHandle other = ds.getResource();
+        assertNotSame(h, other);
+        assertNull(ds.getResource());
+        ds.returnResource(h);
+        assertEquals(0, ds.getFreeListSize());
+        assertEquals(1, ds.addResource(null, 1));
+    }
+
+    /**
+     * A free resource removed while another thread retrieves it is either
+     * retrieved or removed from the free list, never both.
+     */
+    @Test
+    public void testTakeRacingWithRemove() throws Exception {
+        for (int i = 0; i < 2000; i++) {
+            final ConcurrentFreeListDataStructure ds =
+                    new ConcurrentFreeListDataStructure("stripes=1", 1, handler, null);
+            ds.addResource(null, 1);
+            final ResourceHandle h = ds.getAllResources().get(0);
+            final CyclicBarrier barrier = new CyclicBarrier(2);
+            final AtomicReference<ResourceHandle> taken = new AtomicReference<ResourceHandle>();
+
+            Thread taker = new Thread() {
+                public void run() {
+                    try {
+                        barrier.await();
+                        taken.set(ds.getResource());
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            taker.start();
+            barrier.await();
+            ds.removeResource(h);
+            taker.join();
+
+            assertEquals(0, ds.getResourcesSize());
+            assertEquals(0, ds.getFreeListSize());
+            assertNull(ds.getResource());
+            if (taken.get() != null) {
+                assertSame(h, taken.get());
+                //the retrieved resource must not go back to the free list
+                ds.returnResource(h);
+                assertEquals(0, ds.getFreeListSize());
+            }
+        }
+    }
+
+    /**
+     * Threads retrieving and returning resources concurrently never hold the
+     * same resource at the same time, and every resource ends up free once.
+     */
+    @Test
+    public void testConcurrentTakeAndReturn() throws Exception {
+        final int size = 8;
+        final ConcurrentFreeListDataStructure ds = new ConcurrentFreeListDataStructure("stripes=4", size, handler, null);
+        assertEquals(size, ds.addResource(null, size));
+
+        final Set<ResourceHandle> inUse = Collections.newSetFromMap(new ConcurrentHashMap<ResourceHandle, Boolean>());
+        final AtomicInteger conflicts = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(16);
+        for (int t = 0; t < 16; t++) {
+            new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < 20000; i++) {
+                            ResourceHandle h = ds.getResource();
+                            if (h == null) {
+                                continue;
+                            }
+                            if (!inUse.add(h)) {
+                                conflicts.incrementAndGet();
+                            }
+                            inUse.remove(h);
+                            ds.returnResource(h);
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        done.await();
+
+        assertEquals(0, conflicts.get());
+        assertEquals(size, ds.getFreeListSize());
+        Set<ResourceHandle> drained = new HashSet<ResourceHandle>();
+        ResourceHandle h;
+        while ((h = ds.getResource()) != null) {
+            assertTrue(drained.add(h));
+        }
+        assertEquals(size, drained.size());
+        assertEquals(0, ds.getFreeListSize());
+    }
+
+    static class TestHandler implements ResourceHandler {
+        final Set<ResourceHandle> deleted = Collections.newSetFromMap(new ConcurrentHashMap<ResourceHandle, Boolean>());
+
+        public void deleteResource(ResourceHandle resourceHandle) {
+            deleted.add(resourceHandle);
+        }
+
+        public ResourceHandle createResource(ResourceAllocator allocator) {
+            return new ResourceHandle(new Object(), new ResourceSpec("resource", ResourceSpec.JNDI_NAME), allocator, null);
+        }
+
+        public void createResourceAndAddToPool() {
+        }
+
+        public Set getInvalidConnections(Set connections) {
+            return Collections.emptySet();
+        }
+
+        public void invalidConnectionDetected(ResourceHandle h) {
+        }
+    }
+}
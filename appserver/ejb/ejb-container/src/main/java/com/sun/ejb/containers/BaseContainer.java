@@ -289,6 +289,8 @@ public abstract class BaseContainer
 
     protected static final String SINGLETON_BEAN_POOL_PROP = "singleton-bean-pool";
 
+    protected static final String STRIPED_BEAN_POOL_PROP = "striped-bean-pool";
+
     protected ClassLoader loader = null;
     protected Class ejbClass = null;
     protected Class sfsbSerializedClass = null;
@@ -499,7 +499,7 @@ public abstract class AbstractPool
     //Methods on EJBPoolStatsProvider
     public void appendStats(StringBuffer sbuf) {
 	sbuf.append("[Pool: ")
-	    .append("SZ=").append(list.size()).append("; ")
+	    .append("SZ=").append(getSize()).append("; ")
 	    .append("CC=").append(createdCount).append("; ")
 	    .append("DC=").append(destroyedCount).append("; ")
 	    .append("WC=").append(waitCount).append("; ")
@@ -515,7 +515,7 @@ public abstract class AbstractPool
     }
 
     public int getNumBeansInPool() {
-	return list.size();
+	return getSize();
     }
 
     public int getNumThreadsWaiting() {
@@ -536,7 +536,7 @@ public abstract class AbstractPool
             sbuf.append("createdCount=").append(createdCount).append(";")
                 .append("destroyedCount=").append(destroyedCount).append(";")
                 .append("waitCount=").append(waitCount).append(";")
-                .append("size=").append(list.size()).append(";");
+                .append("size=").append(getSize()).append(";");
         }
         sbuf.append("maxPoolSize=").append(maxPoolSize).append(";");
         return sbuf.toString();
@@ -549,12 +549,12 @@ public abstract class AbstractPool
         else
             sbuf.append(":POOL");
 
-        sbuf.append("[FP=").append(poolSuccess).append(",")
+        sbuf.append("[FP=").append(getPoolSuccess()).append(",")
             .append("TC=").append(createdCount).append(",")
             .append("TD=").append(destroyedCount).append(",")
 			.append("PR=").append(poolReturned).append(",")    
             .append("TW=").append(waitCount).append(",")
-            .append("CS=").append(list.size()).append(",")
+            .append("CS=").append(getSize()).append(",")
             .append("MS=").append(maxPoolSize);
     
         return sbuf.toString();
@@ -0,0 +1,674 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package com.sun.ejb.containers.util.pool;
+
+import com.sun.ejb.containers.EJBContextImpl;
+import com.sun.ejb.containers.EjbContainerUtilImpl;
+import com.sun.enterprise.util.Utility;
+
+import java.util.ArrayList;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+
+/**
+ * <p>StripedPool is a non blocking pool, like NonBlockingPool, that does
+ * not serialize getObject and returnObject on a single monitor. Free objects
+ * are kept in a number of concurrent stripes (one per processor, rounded up
+ * to a power of two). A thread returns objects to, and first gets objects
+ * from, its home stripe, derived from its id; when its home stripe is empty
+ * it steals the least recently returned object of another stripe.
+ * <p>The steady-pool-size, max-pool-size, pool-resize-quantity and
+ * pool-idle-timeout-in-seconds semantics are the ones of NonBlockingPool :
+ * a resize work is submitted when the pool drops below its steady size, a
+ * returned object is destroyed when the pool already holds max-pool-size
+ * objects and an idle bean work periodically removes objects that have not
+ * been used for the idle timeout. Only the pool bookkeeping done on object
+ * creation, destruction and resizing still takes the pool monitor.
+ * <p>The singleton bean pool mode is not supported, NonBlockingPool must be
+ * used for it.
+ */
+public class StripedPool
+    extends AbstractPool
+{
+
+    private TimerTask         poolTimerTask;
+    private final AtomicBoolean addedResizeTask = new AtomicBoolean(false);
+    private volatile boolean  addedIdleBeanWork = false;
+    // guarded by list
+    private boolean           inResizing = false;
+    private boolean           maintainSteadySize = false;
+
+    // Set to true after close().  Prevents race condition
+    // of async resize task kicking in after close().
+    private volatile boolean  poolClosed = false;
+
+    private ConcurrentLinkedDeque[] stripes;
+    private int               stripeMask;
+    // Number of objects in the stripes, or being returned to them
+    private final AtomicInteger pooledCount = new AtomicInteger();
+    private final LongAdder   successCount = new LongAdder();
+    private final LongAdder   returnedCount = new LongAdder();
+
+    public StripedPool(long beanId, String poolName, ObjectFactory factory,
+        int steadyPoolSize, int resizeQuantity,
+        int maxPoolSize, int idleTimeoutInSeconds,
+        ClassLoader loader)
+    {
+        this.poolName = poolName;
+        this.beanId = beanId;
+        initializePool(factory, steadyPoolSize, resizeQuantity, maxPoolSize,
+                       idleTimeoutInSeconds, loader);
+    }
+
+    protected void initializePool(ObjectFactory factory, int steadyPoolSize,
+        int resizeQuantity, int maxPoolSize, int idleTimeoutInSeconds,
+        ClassLoader loader)
+    {
+        // only used as the monitor for bookkeeping, objects live in the stripes
+        list = new ArrayList(0);
+
+        int count = Integer.highestOneBit(
+                Math.max(1, Runtime.getRuntime().availableProcessors()) * 2 - 1);
+        stripes = new ConcurrentLinkedDeque[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new ConcurrentLinkedDeque();
+        }
+        stripeMask = count - 1;
+
+        this.factory = factory;
+        this.steadyPoolSize = (steadyPoolSize <= 0) ? 0 : steadyPoolSize;
+        this.resizeQuantity = (resizeQuantity <= 0) ? 0 : resizeQuantity;
+        this.maxPoolSize = (maxPoolSize <= 0)
+            ? Integer.MAX_VALUE : maxPoolSize;
+        this.steadyPoolSize = (this.steadyPoolSize > this.maxPoolSize)
+            ? this.maxPoolSize : this.steadyPoolSize;
+        this.idleTimeoutInSeconds =
+            (idleTimeoutInSeconds <= 0) ? 0 : idleTimeoutInSeconds;
+
+        this.containerClassLoader = loader;
+
+        this.maintainSteadySize = (this.steadyPoolSize > 0);
+        if ((this.idleTimeoutInSeconds > 0) && (this.resizeQuantity > 0)) {
+            try {
+                this.poolTimerTask =  new PoolResizeTimerTask();
+                EjbContainerUtilImpl.getInstance().getTimer().scheduleAtFixedRate
+                    (poolTimerTask, idleTimeoutInSeconds*1000L,
+                     idleTimeoutInSeconds*1000L);
+                if(_logger.isLoggable(Level.FINE)) {
+                    _logger.log(Level.FINE,
+                      "[Pool-" + poolName + "]: Added PoolResizeTimerTask...");
+                }
+            } catch (Throwable th) {
+                _logger.log(Level.WARNING,"[Pool-" +
+                            poolName + "]: Could not add"
+                            + " PoolTimerTask. Continuing anyway...", th);
+            }
+        }
+    }
+
+    private int homeStripe() {
+        long id = Thread.currentThread().getId();
+        int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & stripeMask;
+    }
+
+    /**
+     * Take the most recently returned object of the home stripe, or else
+     * the least recently returned object of another stripe.
+     */
+    private Object poll() {
+        int home = homeStripe();
+        Object obj = stripes[home].pollLast();
+        for (int i = 1; obj == null && i <= stripeMask; i++) {
+            obj = stripes[(home + i) & stripeMask].pollFirst();
+        }
+        if (obj != null) {
+            pooledCount.decrementAndGet();
+        }
+        return obj;
+    }
+
+    /**
+     * Reserve room for one more object in the pool.
+     * @return false if the pool already holds maxPoolSize objects
+     */
+    private boolean reserve() {
+        while (true) {
+            int current = pooledCount.get();
+            if (current >= maxPoolSize) {
+                return false;
+            }
+            if (pooledCount.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public Object getObject(Object param)
+    {
+        Object obj = poll();
+        if (obj != null) {
+            successCount.increment();
+            if (maintainSteadySize && (pooledCount.get() < steadyPoolSize)) {
+                addResizeTask();
+            }
+            return obj;
+        }
+
+        if (maintainSteadySize) {
+            addResizeTask();
+        }
+        synchronized (list) {
+            poolProbeNotifier.ejbObjectAddedEvent(beanId, appName, modName, ejbName);
+            createdCount++;	//hope that everything will be OK.
+        }
+        try {
+            return factory.create(param);
+        } catch (RuntimeException th) {
+            synchronized (list) {
+                poolProbeNotifier.ejbObjectAddFailedEvent(beanId, appName, modName, ejbName);
+                createdCount--;
+            }
+            throw th;
+        }
+    }
+
+    private void addResizeTask() {
+        if (addedResizeTask.compareAndSet(false, true)) {
+            try {
+                ReSizeWork work = new ReSizeWork();
+                EjbContainerUtilImpl.getInstance().addWork(work);
+                if(_logger.isLoggable(Level.FINE)) {
+                    _logger.log(Level.FINE,
+                         "[Pool-" + poolName + "]: Added PoolResizeTimerTask...");
+                }
+            } catch (Exception ex) {
+                addedResizeTask.set(false);
+                if(_logger.isLoggable(Level.WARNING)) {
+                    _logger.log(Level.WARNING,
+                                "[Pool-"+poolName+"]: Cannot perform "
+                                + " pool resize task", ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * Return an object back to the pool. An object that is obtained through
+     *	getObject() must always be returned back to the pool using either
+     *	returnObject(obj) or through destroyObject(obj).
+     */
+    public void returnObject(Object object) {
+        if (reserve()) {
+            stripes[homeStripe()].offerLast(object);
+            returnedCount.increment();
+            return;
+        }
+        synchronized (list) {
+            poolProbeNotifier.ejbObjectDestroyedEvent(beanId, appName, modName, ejbName);
+            destroyedCount++;
+        }
+
+        try {
+            factory.destroy(object);
+        } catch (Exception ex) {
+            _logger.log(Level.FINE, "exception in returnObj", ex);
+        }
+    }
+
+    /**
+     * Destroys an Object. Note that applications should not ignore
+     * the reference to the object that they got from getObject(). An object
+     * that is obtained through getObject() must always be returned back to
+     * the pool using either returnObject(obj) or through destroyObject(obj).
+     * This method tells that the object should be destroyed and cannot
+     * be reused.
+     */
+    public void destroyObject(Object object) {
+        synchronized (list) {
+            poolProbeNotifier.ejbObjectDestroyedEvent(beanId, appName, modName, ejbName);
+            destroyedCount++;
+        }
+
+        try {
+            factory.destroy(object);
+        } catch (Exception ex) {
+            _logger.log(Level.FINE, "exception in destroyObject", ex);
+        }
+    }
+
+    /**
+    * Preload the pool with objects.
+    * @param count the number of objects to be added.
+    */
+    protected void preload(int count) {
+
+        ArrayList instances = new ArrayList(count);
+        try {
+            for (int i=0; i<count; i++) {
+                instances.add(factory.create(null));
+            }
+        } catch (Exception ex) {
+            //Need not throw this exception up since we are pre-populating
+        }
+
+        int sz = instances.size();
+        if (sz == 0) {
+            return;
+        }
+        synchronized (list) {
+            createdCount += sz;
+        }
+
+        // spread the instances over the stripes
+        ArrayList extra = new ArrayList();
+        for (int i = 0; i < sz; i++) {
+            if (reserve()) {
+                stripes[i & stripeMask].offerLast(instances.get(i));
+            } else {
+                extra.add(instances.get(i));
+            }
+        }
+
+        // destroys unnecessary instances
+        for (Object o : extra) {
+            destroyObject(o);
+        }
+    }
+
+    /**
+    * Prepopulate the pool with objects.
+    * @param count the number of objects to be added.
+    */
+    public void prepopulate(int count) {
+        this.steadyPoolSize = (count <= 0) ? 0 : count;
+        this.steadyPoolSize = (this.steadyPoolSize > this.maxPoolSize)
+            ? this.maxPoolSize : this.steadyPoolSize;
+
+        if (this.steadyPoolSize > 0) {
+            preload(this.steadyPoolSize);
+        }
+    }
+
+    /**
+    * Close the pool
+    */
+    public void close() {
+        synchronized (list) {
+            if (poolTimerTask != null) {
+                try {
+                    poolTimerTask.cancel();
+                    if(_logger.isLoggable(Level.FINE)) {
+                        _logger.log(Level.FINE,
+                            "[Pool-"+poolName+"]: Cancelled pool timer task "
+                                    + " at: " + (new java.util.Date()));
+                    }
+                } catch (Throwable th) {
+                    //Can safely ignore this!!
+                }
+            }
+
+            poolClosed = true;
+
+            if(_logger.isLoggable(Level.FINE)) {
+                _logger.log(Level.FINE,"[Pool-"+poolName+"]: Destroying "
+                            + pooledCount.get() + " beans from the pool...");
+            }
+
+            // since we're calling into ejb code, we need to set context
+            // class loader
+            ClassLoader origLoader =
+                Utility.setContextClassLoader(containerClassLoader);
+
+            Object obj;
+            while ((obj = poll()) != null) {
+                try {
+                    poolProbeNotifier.ejbObjectDestroyedEvent(beanId, appName, modName, ejbName);
+                    destroyedCount++;
+                    try {
+                        factory.destroy(obj);
+                    } catch (Throwable th) {
+                        _logger.log(Level.FINE, "exception in close", th);
+                    }
+                } catch (Throwable th) {
+                    _logger.log(Level.WARNING,
+                        "[Pool-"+poolName+"]: Error while destroying", th);
+                }
+            }
+            if(_logger.isLoggable(Level.FINE)) {
+                _logger.log(Level.FINE,"Pool-"+poolName+"]: Pool closed....");
+            }
+            unregisterProbeProvider();
+
+            Utility.setContextClassLoader(origLoader);
+
+            this.factory               = null;
+            this.poolTimerTask         = null;
+            this.containerClassLoader  = null;
+        }
+    }
+
+    protected void remove(int count) {
+        ArrayList removeList = new ArrayList();
+        Object obj;
+        for (int i=0; (i<count) && ((obj = poll()) != null); i++) {
+            removeList.add(obj);
+        }
+        synchronized (list) {
+            for (int i=0; i<removeList.size(); i++) {
+                poolProbeNotifier.ejbObjectDestroyedEvent(beanId, appName, modName, ejbName);
+                destroyedCount++;
+            }
+        }
+
+        int sz = removeList.size();
+        for (int i=0; i<sz; i++) {
+            try {
+                factory.destroy(removeList.get(i));
+            } catch (Throwable th) {
+                _logger.log(Level.FINE, "exception in remove", th);
+            }
+        }
+    }
+
+    protected void removeIdleObjects() {
+    }
+
+    /**
+     * Remove an object that has not been used since the given time. Only
+     * the least recently returned object of each stripe is considered.
+     * @return the removed object or null if none is idle
+     */
+    private Object pollIdle(long allowedIdleTime) {
+        for (int i = 0; i <= stripeMask; i++) {
+            ConcurrentLinkedDeque stripe = stripes[i];
+            Object obj = stripe.peekFirst();
+            if (obj != null
+                    && getLastTimeUsed(obj) <= allowedIdleTime
+                    && stripe.removeFirstOccurrence(obj)) {
+                pooledCount.decrementAndGet();
+                return obj;
+            }
+        }
+        return null;
+    }
+
+    long getLastTimeUsed(Object obj) {
+        return ((EJBContextImpl) obj).getLastTimeUsed();
+    }
+
+    protected void doResize() {
+
+        if( poolClosed ) {
+            return;
+        }
+
+        //We need to set the context class loader for this (deamon) thread!!
+        final Thread currentThread = Thread.currentThread();
+        final ClassLoader previousClassLoader =
+            currentThread.getContextClassLoader();
+        final ClassLoader ctxClassLoader = containerClassLoader;
+
+        long startTime = 0;
+        boolean enteredResizeBlock = false;
+        try {
+            if(System.getSecurityManager() == null) {
+                currentThread.setContextClassLoader(ctxClassLoader);
+            } else {
+                java.security.AccessController.doPrivileged(
+                        new java.security.PrivilegedAction() {
+                    public java.lang.Object run() {
+                        currentThread.setContextClassLoader(ctxClassLoader);
+                        return null;
+                    }
+                });
+            }
+
+            if(_logger.isLoggable(Level.FINE)) {
+                _logger.log(Level.FINE,
+                    "[Pool-"+poolName+"]: Resize started at: "
+                  + (new java.util.Date())+" steadyPoolSize ::"+steadyPoolSize
+                  + " resizeQuantity ::"+resizeQuantity+" maxPoolSize ::" +
+                  maxPoolSize );
+            }
+            startTime = System.currentTimeMillis();
+
+            ArrayList removeList = new ArrayList();
+            long populateCount = 0;
+            synchronized (list) {
+                if ((inResizing == true) || poolClosed) {
+                    return;
+                }
+
+                enteredResizeBlock = true;
+                inResizing = true;
+
+                int curSize = pooledCount.get();
+
+                if (curSize > steadyPoolSize) {
+
+                    //possible to reduce pool size....
+                    if ((idleTimeoutInSeconds <= 0)  ||
+                        (resizeQuantity <= 0)) {
+                        return;
+                    }
+                    int victimCount =
+                        (curSize > (steadyPoolSize + resizeQuantity) )
+                        ? resizeQuantity : (curSize - steadyPoolSize);
+                    long allowedIdleTime = System.currentTimeMillis() -
+                        idleTimeoutInSeconds*1000L;
+                    if(_logger.isLoggable(Level.FINE)) {
+                        _logger.log(Level.FINE,
+                                    "[Pool-"+poolName+"]: Resize:: reducing "
+                                    + " pool size by: " + victimCount);
+                    }
+                    for (int i=0; i<victimCount; i++) {
+                        Object obj = pollIdle(allowedIdleTime);
+                        if (obj == null) {
+                            break;
+                        }
+                        removeList.add(obj);
+                        poolProbeNotifier.ejbObjectDestroyedEvent(beanId, appName, modName, ejbName);
+                        destroyedCount++;
+                    }
+                } else if (curSize < steadyPoolSize) {
+
+                    //Need to populate....
+                    if (maintainSteadySize  == false) {
+                        return;
+                    }
+
+                    if (resizeQuantity <= 0) {
+                        populateCount = steadyPoolSize - curSize;
+                    } else {
+                        while ((curSize + populateCount) < steadyPoolSize) {
+                            populateCount += resizeQuantity;
+                        }
+                        if ((curSize + populateCount) > maxPoolSize) {
+                            populateCount -= (curSize + populateCount) - maxPoolSize;
+                        }
+                    }
+                }
+            }
+
+            int sz = removeList.size();
+            for (int i=0; i<sz; i++) {
+                try {
+                    factory.destroy(removeList.get(i));
+                } catch (Throwable th) {
+                    _logger.log(Level.FINE, "exception in doResize", th);
+                }
+            }
+
+            if (populateCount > 0) {
+                if(_logger.isLoggable(Level.FINE)) {
+                    _logger.log(Level.FINE,
+                            "[Pool-"+poolName+"]: Attempting to preload "
+                            + populateCount + " beans. CurSize/MaxPoolSize: "
+                            + pooledCount.get() + "/" + maxPoolSize);
+                }
+
+                preload((int)populateCount);
+
+                if(_logger.isLoggable(Level.FINE)) {
+                    _logger.log(Level.FINE,
+                            "[Pool-"+poolName+"]: After preload "
+                            + "CurSize/MaxPoolSize: "
+                            + pooledCount.get() + "/" + maxPoolSize);
+                }
+            }
+
+        } catch (Throwable th) {
+            _logger.log(Level.WARNING,
+                        "[Pool-"+poolName+"]: Exception during reSize", th);
+
+        } finally {
+
+            if (enteredResizeBlock) {
+                synchronized (list) {
+                    inResizing = false;
+                }
+            }
+            if(System.getSecurityManager() == null) {
+                currentThread.setContextClassLoader(previousClassLoader);
+            } else {
+                java.security.AccessController.doPrivileged(
+                        new java.security.PrivilegedAction() {
+                    public java.lang.Object run() {
+                        currentThread.setContextClassLoader(previousClassLoader);
+                        return null;
+                    }
+                });
+            }
+        }
+
+        long endTime = System.currentTimeMillis();
+        if(_logger.isLoggable(Level.FINE)) {
+            _logger.log(Level.FINE,
+                "[Pool-"+poolName+"]: Resize completed at: "
+                + (new java.util.Date()) + "; after reSize: " +
+                getAllAttrValues());
+            _logger.log(Level.FINE, "[Pool-"+poolName+"]: Resize took: "
+                        + ((endTime-startTime)/1000.0) + " seconds.");
+        }
+    }
+
+    public int getSize() {
+        return pooledCount.get();
+    }
+
+    public int getPoolSuccess() {
+        return successCount.intValue();
+    }
+
+    public int getPoolReturned() {
+        return returnedCount.intValue();
+    }
+
+    public String getAllAttrValues() {
+        StringBuffer sbuf = new StringBuffer("[Pool-"+poolName+"] ");
+        sbuf.append("CC=").append(createdCount).append("; ")
+            .append("DC=").append(destroyedCount).append("; ")
+            .append("PR=").append(returnedCount.intValue()).append("; ")
+            .append("CS=").append(pooledCount.get()).append("; ")
+            .append("SS=").append(steadyPoolSize).append("; ")
+            .append("MS=").append(maxPoolSize).append("; ")
+            .append("ST=").append(stripes.length).append(";");
+        return sbuf.toString();
+    }
+
+    private class ReSizeWork
+        implements Runnable
+    {
+        public void run() {
+            try {
+                doResize();
+            } catch (Exception ex) {
+                _logger.log(Level.WARNING,
+                    "[Pool-"+poolName+"]: Exception during reSize", ex);
+            } finally {
+                addedResizeTask.set(false);
+            }
+        }
+    }
+
+    private class IdleBeanWork
+        implements Runnable
+    {
+        public void run() {
+            try {
+                doResize();
+            } catch (Exception ex) {
+            } finally {
+                addedIdleBeanWork = false;
+            }
+        }
+    }
+
+    private class PoolResizeTimerTask
+        extends java.util.TimerTask
+    {
+        PoolResizeTimerTask() {}
+
+        public void run() {
+
+            try {
+                if (addedIdleBeanWork == true) {
+                    return;
+                }
+                addedIdleBeanWork = true;
+                IdleBeanWork work = new IdleBeanWork();
+                EjbContainerUtilImpl.getInstance().addWork(work);
+            } catch (Exception ex) {
+                addedIdleBeanWork = false;
+                _logger.log(Level.WARNING,
+                            "[Pool-"+poolName+"]: Cannot perform "
+                            + " pool idle bean cleanup", ex);
+            }
+
+        }
+    } // End of class PoolResizeTimerTask
+
+}
@@ -0,0 +1,263 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package com.sun.ejb.containers.util.pool;
+
+import com.sun.ejb.monitoring.probes.EjbPoolProbeProvider;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class StripedPoolTest extends TestCase {
+
+    public StripedPoolTest(String testName) {
+        super(testName);
+    }
+
+    public void testGetAndReturn() {
+        CountingFactory factory = new CountingFactory();
+        StripedPool pool = newPool(factory, 0, 0, 4, 0);
+
+        Object bean = pool.getObject(null);
+        assertEquals(1, factory.created.get());
+        assertEquals(0, pool.getSize());
+        assertEquals(0, pool.getPoolSuccess());
+
+        pool.returnObject(bean);
+        assertEquals(1, pool.getSize());
+        assertEquals(1, pool.getPoolReturned());
+        assertTrue(pool.getAllAttrValues().contains("PR=1;"));
+
+        // the returned object is reused rather than a new one created
+        assertSame(bean, pool.getObject(null));
+        assertEquals(1, factory.created.get());
+        assertEquals(0, pool.getSize());
+        assertEquals(1, pool.getPoolSuccess());
+
+        pool.destroyObject(bean);
+        assertEquals(1, factory.destroyed.get());
+        assertEquals(1, pool.getDestroyedCount());
+    }
+
+    public void testMaxPoolSizeUnderConcurrentReturns() throws Exception {
+        final int maxPoolSize = 8;
+        final int threads = 16;
+        final int perThread = 4;
+        CountingFactory factory = new CountingFactory();
+        final StripedPool pool = newPool(factory, 0, 0, maxPoolSize, 0);
+
+        final List<Object> beans = new ArrayList<Object>();
+        for (int i = 0; i < threads * perThread; i++) {
+            beans.add(pool.getObject(null));
+        }
+
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> returners = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final int first = t * perThread;
+            Thread returner = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = first; i < first + perThread; i++) {
+                        pool.returnObject(beans.get(i));
+                    }
+                }
+            };
+            returner.start();
+            returners.add(returner);
+        }
+        start.countDown();
+        for (Thread returner : returners) {
+            returner.join();
+        }
+
+        // the objects the pool has no room for are destroyed, not kept
+        int returned = threads * perThread;
+        assertEquals(maxPoolSize, pool.getSize());
+        assertEquals(maxPoolSize, pool.getPoolReturned());
+        assertEquals(returned - maxPoolSize, factory.destroyed.get());
+        assertEquals(returned - maxPoolSize, pool.getDestroyedCount());
+
+        // and the pool drains down to exactly the kept objects
+        for (int i = 0; i < maxPoolSize; i++) {
+            pool.getObject(null);
+        }
+        assertEquals(0, pool.getSize());
+        assertEquals(returned, factory.created.get());
+    }
+
+    public void testSteadyPoolSizeRefill() {
+        CountingFactory factory = new CountingFactory();
+        StripedPool pool = newPool(factory, 5, 2, 10, 0);
+
+        // below the steady size, refilled by resize quantity steps
+        pool.doResize();
+        assertEquals(6, pool.getSize());
+        assertEquals(6, pool.getCreatedCount());
+
+        for (int i = 0; i < 4; i++) {
+            pool.getObject(null);
+        }
+        assertEquals(2, pool.getSize());
+        assertEquals(6, factory.created.get());
+
+        pool.doResize();
+        assertEquals(6, pool.getSize());
+        assertEquals(10, pool.getCreatedCount());
+
+        // at or above the steady size, without idle timeout, nothing changes
+        pool.doResize();
+        assertEquals(6, pool.getSize());
+        assertEquals(0, factory.destroyed.get());
+    }
+
+    public void testSteadyPoolSizeRefillBoundedByMaxPoolSize() {
+        CountingFactory factory = new CountingFactory();
+        StripedPool pool = newPool(factory, 5, 4, 6, 0);
+
+        pool.doResize();
+        assertEquals(6, pool.getSize());
+        assertEquals(0, factory.destroyed.get());
+    }
+
+    public void testIdleRemoval() {
+        CountingFactory factory = new CountingFactory();
+        StripedPool pool = newPool(factory, 0, 10, 0, 60);
+
+        long now = System.currentTimeMillis();
+        Bean old1 = new Bean(now - 120000);
+        Bean old2 = new Bean(now - 90000);
+        Bean fresh = new Bean(now);
+        pool.returnObject(old1);
+        pool.returnObject(old2);
+        pool.returnObject(fresh);
+
+        pool.doResize();
+        assertEquals(1, pool.getSize());
+        assertEquals(2, factory.destroyed.get());
+        assertEquals(2, pool.getDestroyedCount());
+        assertSame(fresh, pool.getObject(null));
+    }
+
+    public void testIdleRemovalFromEveryStripe() throws Exception {
+        CountingFactory factory = new CountingFactory();
+        final StripedPool pool = newPool(factory, 0, 100, 0, 60);
+
+        long old = System.currentTimeMillis() - 120000;
+        List<Thread> returners = new ArrayList<Thread>();
+        for (int t = 0; t < 16; t++) {
+            final Bean bean = new Bean(old);
+            Thread returner = new Thread() {
+                public void run() {
+                    pool.returnObject(bean);
+                }
+            };
+            returner.start();
+            returners.add(returner);
+        }
+        for (Thread returner : returners) {
+            returner.join();
+        }
+        assertEquals(16, pool.getSize());
+
+        pool.doResize();
+        assertEquals(0, pool.getSize());
+        assertEquals(16, factory.destroyed.get());
+    }
+
+    public void testIdleRemovalOnlyInspectsHead() {
+        CountingFactory factory = new CountingFactory();
+        StripedPool pool = newPool(factory, 0, 10, 0, 60);
+
+        // the least recently returned object of the stripe is still in use,
+        // the idle one returned after it is kept until a later resize
+        long now = System.currentTimeMillis();
+        pool.returnObject(new Bean(now));
+        pool.returnObject(new Bean(now - 120000));
+
+        pool.doResize();
+        assertEquals(2, pool.getSize());
+        assertEquals(0, factory.destroyed.get());
+    }
+
+    private static StripedPool newPool(ObjectFactory factory,
+            int steadyPoolSize, int resizeQuantity, int maxPoolSize,
+            int idleTimeoutInSeconds) {
+        StripedPool pool = new StripedPool(1L, "test", factory,
+                steadyPoolSize, resizeQuantity, maxPoolSize,
+                idleTimeoutInSeconds, StripedPoolTest.class.getClassLoader()) {
+            long getLastTimeUsed(Object obj) {
+                return ((Bean) obj).lastTimeUsed;
+            }
+        };
+        pool.poolProbeNotifier = new EjbPoolProbeProvider();
+        return pool;
+    }
+
+    static final class Bean {
+        final long lastTimeUsed;
+
+        Bean(long lastTimeUsed) {
+            this.lastTimeUsed = lastTimeUsed;
+        }
+    }
+
+    static final class CountingFactory implements ObjectFactory {
+        final AtomicInteger created = new AtomicInteger();
+        final AtomicInteger destroyed = new AtomicInteger();
+
+        public Object create(Object param) {
+            created.incrementAndGet();
+            return new Bean(System.currentTimeMillis());
+        }
+
+        public void destroy(Object object) {
+            destroyed.incrementAndGet();
+        }
+    }
+}
@@ -89,6 +89,7 @@ import com.sun.ejb.containers.RuntimeTimerState;
 import com.sun.ejb.containers.util.pool.AbstractPool;
 import com.sun.ejb.containers.util.pool.NonBlockingPool;
 import com.sun.ejb.containers.util.pool.ObjectFactory;
+import com.sun.ejb.containers.util.pool.StripedPool;
 import com.sun.ejb.monitoring.stats.EjbMonitoringStatsProvider;
 import com.sun.ejb.monitoring.stats.EjbPoolStatsProvider;
 import org.glassfish.ejb.mdb.monitoring.stats.MessageDrivenBeanStatsProvider;
@@ -372,12 +373,21 @@ public final class MessageBeanContainer extends BaseContainer implements
         // on message bean resources independent of the pool.
         ObjectFactory objFactory = new MessageBeanContextFactory();
                 String val = descriptor.getEjbBundleDescriptor().getEnterpriseBeansProperty(SINGLETON_BEAN_POOL_PROP);
-        messageBeanPool_ = new NonBlockingPool(getContainerId(), appEJBName_, objFactory,
-                beanPoolDesc_.getSteadyPoolSize(), beanPoolDesc_
-                        .getPoolResizeQuantity(), beanPoolDesc_
-                        .getMaxPoolSize(), beanPoolDesc_
-                        .getPoolIdleTimeoutInSeconds(), loader,
-                                                Boolean.parseBoolean(val));
+        String striped = descriptor.getEjbBundleDescriptor().getEnterpriseBeansProperty(STRIPED_BEAN_POOL_PROP);
+        if (Boolean.parseBoolean(striped) && !Boolean.parseBoolean(val)) {
+            messageBeanPool_ = new StripedPool(getContainerId(), appEJBName_, objFactory,
+                    beanPoolDesc_.getSteadyPoolSize(), beanPoolDesc_
+                            .getPoolResizeQuantity(), beanPoolDesc_
+                            .getMaxPoolSize(), beanPoolDesc_
+                            .getPoolIdleTimeoutInSeconds(), loader);
+        } else {
+            messageBeanPool_ = new NonBlockingPool(getContainerId(), appEJBName_, objFactory,
+                    beanPoolDesc_.getSteadyPoolSize(), beanPoolDesc_
+                            .getPoolResizeQuantity(), beanPoolDesc_
+                            .getMaxPoolSize(), beanPoolDesc_
+                            .getPoolIdleTimeoutInSeconds(), loader,
+                                                    Boolean.parseBoolean(val));
+        }
     }
 
     protected static int stringToInt(String val, String appName, Logger logger) {
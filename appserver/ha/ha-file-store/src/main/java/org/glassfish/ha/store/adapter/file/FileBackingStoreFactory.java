@@ -44,22 +44,35 @@ import org.glassfish.ha.store.api.*;
 import org.jvnet.hk2.annotations.Service;
 
 import java.io.Serializable;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
+ * Creates file system based backing stores. By default every key is written
+ * to its own file; setting the vendor specific property
+ * <code>file.store.mode</code> (or the system property
+ * <code>org.glassfish.ha.store.adapter.file.mode</code>) to
+ * <code>segmented</code> selects the SegmentedFileBackingStore instead.
+ *
  * @author Mahesh Kannan
  */
 @Service(name = "file")
 public class FileBackingStoreFactory
         implements BackingStoreFactory {
 
+    static final String STORE_MODE_PROP = "file.store.mode";
+
+    static final String STORE_MODE_SYS_PROP = "org.glassfish.ha.store.adapter.file.mode";
+
+    static final String SEGMENTED_MODE = "segmented";
+
     private static ThreadLocal<FileStoreTransaction> _current = new ThreadLocal<FileStoreTransaction>();
 
-    private static ConcurrentHashMap<String, FileBackingStore> _stores
-            = new ConcurrentHashMap<String, FileBackingStore>();
+    private static ConcurrentHashMap<String, BackingStore> _stores
+            = new ConcurrentHashMap<String, BackingStore>();
 
 
-    static FileBackingStore getFileBackingStore(String storeName) {
+    static BackingStore getFileBackingStore(String storeName) {
         return _stores.get(storeName);
     }
 
@@ -71,6 +84,14 @@ public class FileBackingStoreFactory
     public <K extends Serializable, V extends Serializable> BackingStore<K, V> createBackingStore(
             BackingStoreConfiguration<K, V> conf)
                 throws BackingStoreException {
+        if (isSegmentedMode(conf)) {
+            SegmentedFileBackingStore<K, V> ss = new SegmentedFileBackingStore<K, V>();
+            ss.initialize(conf);
+            ss.setFileBackingStoreFactory(this);
+            _stores.put(conf.getStoreName(), ss);
+            return ss;
+        }
+
         FileBackingStore<K, V> fs = new FileBackingStore<K, V>();
         fs.initialize(conf);
         fs.setFileBackingStoreFactory(this);
@@ -85,6 +106,18 @@ public class FileBackingStoreFactory
         return tx;
     }
 
+    private static boolean isSegmentedMode(BackingStoreConfiguration<?, ?> conf) {
+        Object mode = null;
+        Map<String, Object> vendorMap = conf.getVendorSpecificSettings();
+        if (vendorMap != null) {
+            mode = vendorMap.get(STORE_MODE_PROP);
+        }
+        if (mode == null) {
+            mode = System.getProperty(STORE_MODE_SYS_PROP);
+        }
+        return mode != null && SEGMENTED_MODE.equalsIgnoreCase(mode.toString().trim());
+    }
+
     //package
     static final FileStoreTransaction getCurrent() {
         return _current.get();
@@ -0,0 +1,892 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.ha.store.adapter.file;
+
+import org.glassfish.ha.store.api.*;
+import org.glassfish.ha.store.spi.ObjectInputStreamWithLoader;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.*;
+import java.util.zip.CRC32;
+
+/**
+ * An implementation of BackingStore that appends the serialized state of
+ * every key to a small number of rolling segment files instead of writing
+ * one file per key.
+ *
+ * An in-memory index maps every key to the segment, offset and timestamp of
+ * its latest record, so size() and removeExpired() are answered without
+ * listing or stat-ing the base directory. Segments that are mostly made of
+ * superseded records are compacted by a background thread. On startup the
+ * index is rebuilt by replaying the segments in order.
+ *
+ * Each record is laid out as
+ * <pre>
+ *   type(1) timestamp(8) keyLength(4) valueLength(4) crc(4) key value
+ * </pre>
+ */
+public class SegmentedFileBackingStore<K extends Serializable, V extends Serializable>
+        extends BackingStore<K, V> {
+
+    static final String SEGMENT_SIZE_PROP = "file.store.segment.size.in.bytes";
+
+    static final String COMPACTION_INTERVAL_PROP = "file.store.compaction.interval.in.seconds";
+
+    static final String COMPACTION_THRESHOLD_PROP = "file.store.compaction.threshold";
+
+    private static final String SEGMENT_PREFIX = "segment-";
+
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final byte PUT = 1;
+
+    private static final byte REMOVE = 2;
+
+    private static final byte TOUCH = 3;
+
+    private static final int HEADER_SIZE = 1 + 8 + 4 + 4 + 4;
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private static final int MAX_LOAD_ATTEMPTS = 3;
+
+    protected Logger logger =
+            Logger.getLogger(SegmentedFileBackingStore.class.getName());
+
+    protected File baseDir;
+
+    private volatile boolean shutdown;
+
+    private static Level TRACE_LEVEL = Level.FINE;
+
+    private String debugStr;
+
+    private FileBackingStoreFactory factory;
+
+    private long defaultMaxIdleTimeoutInSeconds = 10L * 60L;
+
+    private long maxSegmentSize = 64L * 1024L * 1024L;
+
+    private long compactionIntervalInSeconds = 60L;
+
+    private double compactionThreshold = 0.5d;
+
+    private final ConcurrentHashMap<K, RecordLocation> index =
+            new ConcurrentHashMap<K, RecordLocation>();
+
+    private final ConcurrentSkipListMap<Integer, Segment> segments =
+            new ConcurrentSkipListMap<Integer, Segment>();
+
+    //Guards appends to the active segment and every update of the index
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    private volatile Segment activeSegment;
+
+    private int nextSegmentId;
+
+    private ScheduledExecutorService compactor;
+
+    /**
+     * No arg constructor
+     */
+    public SegmentedFileBackingStore() {
+    }
+
+    @Override
+    protected void initialize(BackingStoreConfiguration<K, V> conf)
+        throws BackingStoreException {
+
+        if (conf.getLogger() != null) {
+            logger = conf.getLogger();
+        }
+
+        super.initialize(conf);
+        debugStr = "[SegmentedFileBackingStore - " + conf.getStoreName() + "] ";
+
+        baseDir = conf.getBaseDirectory();
+        if ((baseDir.mkdirs() == false) && (! baseDir.isDirectory())) {
+            throw new BackingStoreException("[SegmentedFileBackingStore::initialize] Create base directory ("
+                    + baseDir.getAbsolutePath() + ") failed");
+        }
+
+        Map<String, Object> vendorMap = conf.getVendorSpecificSettings();
+        defaultMaxIdleTimeoutInSeconds = getLongProperty(vendorMap,
+                "max.idle.timeout.in.seconds", defaultMaxIdleTimeoutInSeconds);
+        maxSegmentSize = getLongProperty(vendorMap, SEGMENT_SIZE_PROP, maxSegmentSize);
+        compactionIntervalInSeconds = getLongProperty(vendorMap,
+                COMPACTION_INTERVAL_PROP, compactionIntervalInSeconds);
+        try {
+            Object threshold = vendorMap.get(COMPACTION_THRESHOLD_PROP);
+            if (threshold != null) {
+                compactionThreshold = Double.parseDouble(threshold.toString());
+            }
+        } catch (Exception ex) {
+            //Ignore. Use default
+        }
+
+        writeLock.lock();
+        try {
+            recover();
+        } catch (IOException ioEx) {
+            throw new BackingStoreException(debugStr + "Failed to recover segments under "
+                    + baseDir.getAbsolutePath(), ioEx);
+        } finally {
+            writeLock.unlock();
+        }
+
+        final String threadName = "SegmentedFileBackingStore-Compactor-" + conf.getStoreName();
+        compactor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, threadName);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        compactor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                compact();
+            }
+        }, compactionIntervalInSeconds, compactionIntervalInSeconds, TimeUnit.SECONDS);
+
+        logger.log(Level.INFO, "[SegmentedFileBackingStore::initialize] Successfully Created and initialized store. "
+                + "Working dir: " + baseDir + "; Recovered " + index.size() + " entries from "
+                + (segments.size() - 1) + " segments; Configuration: " + conf);
+    }
+
+    /*package*/ void setFileBackingStoreFactory(FileBackingStoreFactory factory) {
+        this.factory = factory;
+    }
+
+    public BackingStoreFactory getBackingStoreFactory() {
+        return factory;
+    }
+
+    @Override
+    public V load(K key, String version) throws BackingStoreException {
+        if (logger.isLoggable(TRACE_LEVEL)) {
+            logger.log(TRACE_LEVEL, debugStr + "Entered load(" + key + ", " + version + ")");
+        }
+
+        //A concurrent compaction may move the record and close its segment
+        //between the index lookup and the read, so retry with the new location
+        for (int attempt = 0; attempt < MAX_LOAD_ATTEMPTS; attempt++) {
+            RecordLocation location = index.get(key);
+            if (location == null) {
+                return null;
+            }
+            try {
+                Record record = readRecord(location.segment, location.offset, location.segment.size.get());
+                if (record == null || record.type != PUT) {
+                    logger.log(Level.WARNING, debugStr + "Corrupted record for load(" + key + ", " + version + ")");
+                    return null;
+                }
+                ObjectInputStream ois = super.createObjectInputStream(new ByteArrayInputStream(record.value));
+                V value = (V) ois.readObject();
+
+                if (logger.isLoggable(TRACE_LEVEL)) {
+                    logger.log(TRACE_LEVEL, debugStr + "Done load(" + key + ", " + version + ")");
+                }
+                return value;
+            } catch (IOException ioEx) {
+                if (location == index.get(key)) {
+                    logger.log(Level.WARNING, debugStr + "Failed to load(" + key + ", " + version + ")", ioEx);
+                    return null;
+                }
+            } catch (Exception ex) {
+                logger.log(Level.WARNING, debugStr + "Failed to load(" + key + ", " + version + ")", ex);
+                return null;
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public String save(K sessionKey, V value, boolean isNew)
+            throws BackingStoreException {
+
+        if (logger.isLoggable(TRACE_LEVEL)) {
+            logger.log(TRACE_LEVEL, debugStr + "Entered save(" + sessionKey + ")");
+        }
+
+        byte[] keyBytes = getSerializedState(sessionKey);
+        byte[] valueBytes = getSerializedState(value);
+        long now = System.currentTimeMillis();
+
+        writeLock.lock();
+        try {
+            RecordLocation location = append(PUT, now, keyBytes, valueBytes);
+            RecordLocation previous = index.put(sessionKey, location);
+            if (previous != null) {
+                previous.segment.markDead(previous.length);
+            }
+        } catch (IOException ioEx) {
+            logger.log(Level.WARNING, debugStr + "save(" + sessionKey + ") failed", ioEx);
+            throw new BackingStoreException("Could not save session: " + sessionKey, ioEx);
+        } finally {
+            writeLock.unlock();
+        }
+
+        if (logger.isLoggable(TRACE_LEVEL)) {
+            logger.log(TRACE_LEVEL, debugStr + "Done save(" + sessionKey + ")");
+        }
+        return getBackingStoreConfiguration().getInstanceName();
+    }
+
+    public void remove(K sessionKey) {
+        if (logger.isLoggable(TRACE_LEVEL)) {
+            logger.log(TRACE_LEVEL, debugStr + "Entered remove(" + sessionKey + ")");
+        }
+        boolean status = false;
+        try {
+            status = removeEntry(sessionKey, Long.MAX_VALUE);
+        } catch (Exception ex) {
+            logger.log(TRACE_LEVEL, debugStr + "Failed to remove(" + sessionKey + ")", ex);
+        }
+        if (logger.isLoggable(TRACE_LEVEL)) {
+            logger.log(TRACE_LEVEL, debugStr + "Done remove( " + sessionKey + "); status => " + status);
+        }
+    }
+
+    public int removeExpired() {
+        return removeExpired(defaultMaxIdleTimeoutInSeconds * 1000L);
+    }
+
+    public int removeExpired(long idleForMillis) {
+        long threshold = System.currentTimeMillis() - idleForMillis;
+        int expiredSessions = 0;
+        if (logger.isLoggable(TRACE_LEVEL)) {
+            logger.log(TRACE_LEVEL, debugStr + "Entered removeExpired()");
+        }
+        try {
+            for (Map.Entry<K, RecordLocation> entry : index.entrySet()) {
+                if (shutdown) {
+                    break;
+                }
+                if (entry.getValue().timestamp < threshold) {
+                    if (removeEntry(entry.getKey(), threshold)) {
+                        expiredSessions++;
+                    }
+                }
+            }
+            if (logger.isLoggable(TRACE_LEVEL)) {
+                logger.log(TRACE_LEVEL, debugStr + "Done removeExpired(); removed " + expiredSessions);
+            }
+        } catch (Exception ex) {
+            logger.log(Level.WARNING, debugStr + " Exception while removing expired entries", ex);
+        }
+
+        return expiredSessions;
+    }
+
+    @Override
+    public int size() throws BackingStoreException {
+        return index.size();
+    }
+
+    //TODO: deprecate after next shoal integration
+    public void updateTimeStamp(K k, String version, long timeStamp)
+            throws BackingStoreException {
+        updateTimestamp(k, timeStamp);
+    }
+
+    public void updateTimestamp(K sessionKey, long time)
+            throws BackingStoreException {
+        if (logger.isLoggable(TRACE_LEVEL)) {
+            logger.log(TRACE_LEVEL, debugStr + "Entered updateTimestamp(" + sessionKey + ", " + time + ")");
+        }
+        if (!index.containsKey(sessionKey)) {
+            logger.log(Level.WARNING, debugStr
+                    + ": Cannot update timsestamp for: " + sessionKey
+                    + "; Entry does not exist");
+            return;
+        }
+
+        byte[] keyBytes = getSerializedState(sessionKey);
+        writeLock.lock();
+        try {
+            RecordLocation location = index.get(sessionKey);
+            if (location != null) {
+                //The touch record only matters until the PUT record it refers
+                //to is rewritten, so account for it as garbage straight away
+                RecordLocation touch = append(TOUCH, time, keyBytes, EMPTY);
+                touch.segment.markDead(touch.length);
+                index.put(sessionKey, location.withTimestamp(time));
+            }
+        } catch (IOException ioEx) {
+            logger.log(Level.WARNING, debugStr
+                    + ": Exception while updating timestamp", ioEx);
+            throw new BackingStoreException(
+                    "Cannot update timsestamp for: " + sessionKey
+                            + "; Got exception: " + ioEx);
+        } finally {
+            writeLock.unlock();
+        }
+
+        if (logger.isLoggable(TRACE_LEVEL)) {
+            logger.log(TRACE_LEVEL, debugStr + "Done updateTimestamp(" + sessionKey + ", " + time + ")");
+        }
+    }
+
+    public void shutdown() {
+        shutdown = true;
+        if (compactor != null) {
+            compactor.shutdownNow();
+        }
+        //DO NOT DELETE THE WORKING DIRECTORY. Just make sure the
+        //segments are on disk so that the index can be rebuilt on restart
+        for (Segment segment : segments.values()) {
+            try {
+                segment.channel.force(false);
+            } catch (IOException ioEx) {
+                logger.log(Level.FINE, debugStr + "Error while forcing segment " + segment.file, ioEx);
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        try {
+            if (logger.isLoggable(TRACE_LEVEL)) {
+                logger.log(TRACE_LEVEL, debugStr + "Entered destroy()");
+            }
+            shutdown = true;
+            if (compactor != null) {
+                compactor.shutdownNow();
+            }
+
+            writeLock.lock();
+            try {
+                index.clear();
+                for (Segment segment : segments.values()) {
+                    dropSegment(segment);
+                }
+            } finally {
+                writeLock.unlock();
+            }
+
+            if (baseDir.delete() == false) {
+                if (baseDir.exists()) {
+                    logger.log(Level.WARNING, debugStr + " destroy() failed to remove dir: " + baseDir.getAbsolutePath());
+                }
+            }
+            if (logger.isLoggable(TRACE_LEVEL)) {
+                logger.log(TRACE_LEVEL, debugStr + "Done destroy()");
+            }
+        } catch (Throwable th) {
+            logger.log(Level.WARNING, debugStr + " destroy() failed ", th);
+        } finally {
+            FileBackingStoreFactory.removemapping(getBackingStoreConfiguration().getStoreName());
+        }
+    }
+
+    /**
+     * Removes the entry for the given key if its timestamp is older than
+     * the threshold, and appends a tombstone so that the entry is not
+     * resurrected by a replay of an older segment.
+     */
+    private boolean removeEntry(K key, long threshold) throws IOException, BackingStoreException {
+        RecordLocation location = index.get(key);
+        if (location == null || location.timestamp >= threshold) {
+            return false;
+        }
+
+        byte[] keyBytes = getSerializedState(key);
+        writeLock.lock();
+        try {
+            location = index.get(key);
+            if (location == null || location.timestamp >= threshold) {
+                return false;
+            }
+            RecordLocation tombstone = append(REMOVE, System.currentTimeMillis(), keyBytes, EMPTY);
+            tombstone.segment.markDead(tombstone.length);
+            index.remove(key);
+            location.segment.markDead(location.length);
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Rewrites the live records of every sealed segment whose ratio of
+     * superseded bytes exceeds the compaction threshold into the active
+     * segment, and then deletes the old segment.
+     */
+    void compact() {
+        try {
+            //Segments rolled over while compacting only hold moved records
+            for (Segment segment : segments.headMap(activeSegment.id, false).values()) {
+                if (shutdown) {
+                    break;
+                }
+                if (segment.deadRatio() >= compactionThreshold) {
+                    compactSegment(segment);
+                }
+            }
+        } catch (Throwable th) {
+            logger.log(Level.WARNING, debugStr + " Exception during segment compaction", th);
+        }
+    }
+
+    private void compactSegment(Segment segment) throws IOException, BackingStoreException {
+        if (logger.isLoggable(TRACE_LEVEL)) {
+            logger.log(TRACE_LEVEL, debugStr + "Compacting " + segment.file + "; dead ratio: " + segment.deadRatio());
+        }
+
+        //Tombstones only have to survive as long as an older segment could
+        //still hold a PUT record for the same key
+        boolean oldest = segments.firstKey().intValue() == segment.id;
+        long limit = segment.size.get();
+        long position = 0;
+        int moved = 0;
+        while (position < limit) {
+            if (shutdown) {
+                return;
+            }
+            Record record = readRecord(segment, position, limit);
+            if (record == null) {
+                logger.log(Level.WARNING, debugStr + "Corrupted record at " + position
+                        + " in " + segment.file + "; skipping the rest of the segment");
+                break;
+            }
+            position += record.length();
+
+            if (record.type == REMOVE && oldest) {
+                continue;
+            }
+            K key = deserializeKey(record.key);
+
+            writeLock.lock();
+            try {
+                RecordLocation current = index.get(key);
+                switch (record.type) {
+                    case PUT:
+                        if (current != null && current.segment == segment && current.offset == record.offset) {
+                            index.put(key, append(PUT, current.timestamp, record.key, record.value));
+                            moved++;
+                        }
+                        break;
+                    case REMOVE:
+                        if (current == null) {
+                            RecordLocation tombstone = append(REMOVE, record.timestamp, record.key, EMPTY);
+                            tombstone.segment.markDead(tombstone.length);
+                        }
+                        break;
+                    case TOUCH:
+                        //The timestamp of a PUT record living in an older segment is
+                        //only known through this touch, so move the PUT record forward
+                        if (current != null && current.segment.id < segment.id) {
+                            Record live = readRecord(current.segment, current.offset, current.segment.size.get());
+                            if (live != null) {
+                                index.put(key, append(PUT, current.timestamp, live.key, live.value));
+                                current.segment.markDead(current.length);
+                                moved++;
+                            }
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        //The moved records must be on disk before their only other copy goes
+        for (Segment destination : segments.tailMap(segment.id, false).values()) {
+            destination.channel.force(false);
+        }
+        dropSegment(segment);
+        if (logger.isLoggable(TRACE_LEVEL)) {
+            logger.log(TRACE_LEVEL, debugStr + "Done compacting " + segment.file + "; moved " + moved + " records");
+        }
+    }
+
+    private void dropSegment(Segment segment) {
+        segments.remove(segment.id);
+        segment.close();
+        if (!segment.file.delete() && segment.file.exists()) {
+            logger.log(Level.WARNING, debugStr + " Couldn't remove segment: " + segment.file);
+        }
+    }
+
+    /**
+     * Rebuilds the index by replaying the segments found under baseDir in
+     * the order they were written and opens a fresh active segment.
+     * Called with the write lock held.
+     */
+    private void recover() throws IOException, BackingStoreException {
+        List<Integer> ids = new ArrayList<Integer>();
+        String[] fileNames = baseDir.list();
+        if (fileNames != null) {
+            for (String fileName : fileNames) {
+                if (fileName.startsWith(SEGMENT_PREFIX) && fileName.endsWith(SEGMENT_SUFFIX)) {
+                    try {
+                        ids.add(Integer.valueOf(fileName.substring(SEGMENT_PREFIX.length(),
+                                fileName.length() - SEGMENT_SUFFIX.length())));
+                    } catch (NumberFormatException nfEx) {
+                        logger.log(Level.WARNING, debugStr + "Ignoring unknown file: " + fileName);
+                    }
+                }
+            }
+        }
+        Collections.sort(ids);
+
+        for (Integer id : ids) {
+            Segment segment = new Segment(id, segmentFile(id));
+            segments.put(id, segment);
+            replay(segment);
+            nextSegmentId = id + 1;
+        }
+
+        //Never append behind a possibly torn tail of a previous run
+        rollSegment();
+    }
+
+    private void replay(Segment segment) throws IOException, BackingStoreException {
+        long limit = segment.channel.size();
+        long position = 0;
+        while (position + HEADER_SIZE <= limit) {
+            Record record = readRecord(segment, position, limit);
+            if (record == null) {
+                break;
+            }
+            K key = deserializeKey(record.key);
+            RecordLocation current = index.get(key);
+            switch (record.type) {
+                case PUT:
+                    index.put(key, new RecordLocation(segment, position, record.length(), record.timestamp));
+                    if (current != null) {
+                        current.segment.markDead(current.length);
+                    }
+                    break;
+                case REMOVE:
+                    if (current != null) {
+                        index.remove(key);
+                        current.segment.markDead(current.length);
+                    }
+                    segment.markDead(record.length());
+                    break;
+                case TOUCH:
+                    if (current != null && current.timestamp < record.timestamp) {
+                        index.put(key, current.withTimestamp(record.timestamp));
+                    }
+                    segment.markDead(record.length());
+                    break;
+                default:
+                    break;
+            }
+            position += record.length();
+        }
+
+        if (position < limit) {
+            logger.log(Level.WARNING, debugStr + "Truncating " + segment.file + " from "
+                    + limit + " to " + position + " bytes after an incomplete or corrupted record");
+            segment.channel.truncate(position);
+        }
+        segment.size.set(position);
+    }
+
+    /**
+     * Appends a record to the active segment, rolling over to a new segment
+     * if the active one is full. Called with the write lock held.
+     */
+    private RecordLocation append(byte type, long timestamp, byte[] key, byte[] value)
+            throws IOException {
+        int length = HEADER_SIZE + key.length + value.length;
+        if (activeSegment.size.get() > 0 && activeSegment.size.get() + length > maxSegmentSize) {
+            rollSegment();
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.put(type).putLong(timestamp).putInt(key.length).putInt(value.length)
+                .putInt(checksum(type, timestamp, key, value)).put(key).put(value);
+        buffer.flip();
+
+        Segment segment = activeSegment;
+        long offset = segment.append(buffer);
+        return new RecordLocation(segment, offset, length, timestamp);
+    }
+
+    private void rollSegment() throws IOException {
+        int id = nextSegmentId++;
+        Segment segment = new Segment(id, segmentFile(id));
+        segments.put(id, segment);
+        activeSegment = segment;
+        if (logger.isLoggable(TRACE_LEVEL)) {
+            logger.log(TRACE_LEVEL, debugStr + "Rolled over to segment " + segment.file);
+        }
+    }
+
+    private File segmentFile(int id) {
+        StringBuilder sb = new StringBuilder(SEGMENT_PREFIX);
+        String idStr = String.valueOf(id);
+        for (int i = idStr.length(); i < 10; i++) {
+            sb.append('0');
+        }
+        return new File(baseDir, sb.append(idStr).append(SEGMENT_SUFFIX).toString());
+    }
+
+    /**
+     * Reads and validates the record starting at the given offset. Returns
+     * null if the record extends beyond limit or its checksum does not match.
+     */
+    private static Record readRecord(Segment segment, long offset, long limit)
+            throws IOException {
+        if (offset + HEADER_SIZE > limit) {
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        segment.read(header, offset);
+        header.flip();
+        byte type = header.get();
+        long timestamp = header.getLong();
+        int keyLength = header.getInt();
+        int valueLength = header.getInt();
+        int crc = header.getInt();
+        if (type < PUT || type > TOUCH || keyLength < 0 || valueLength < 0
+                || offset + HEADER_SIZE + keyLength + valueLength > limit) {
+            return null;
+        }
+
+        ByteBuffer body = ByteBuffer.allocate(keyLength + valueLength);
+        segment.read(body, offset + HEADER_SIZE);
+        body.flip();
+        byte[] key = new byte[keyLength];
+        byte[] value = valueLength == 0 ? EMPTY : new byte[valueLength];
+        body.get(key);
+        body.get(value);
+        if (checksum(type, timestamp, key, value) != crc) {
+            return null;
+        }
+        return new Record(type, timestamp, key, value, offset);
+    }
+
+    private static int checksum(byte type, long timestamp, byte[] key, byte[] value) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE - 4);
+        header.put(type).putLong(timestamp).putInt(key.length).putInt(value.length);
+        CRC32 crc = new CRC32();
+        crc.update(header.array(), 0, header.capacity());
+        crc.update(key, 0, key.length);
+        crc.update(value, 0, value.length);
+        return (int) crc.getValue();
+    }
+
+    private K deserializeKey(byte[] data) throws BackingStoreException {
+        try {
+            //Keys are usually JDK types, so do not rely on the value class loader
+            BackingStoreConfiguration<K, V> conf = getBackingStoreConfiguration();
+            ClassLoader loader = conf.getKeyClazz() == null ? null : conf.getKeyClazz().getClassLoader();
+            if (loader == null) {
+                loader = conf.getClassLoader();
+            }
+            if (loader == null) {
+                loader = SegmentedFileBackingStore.class.getClassLoader();
+            }
+            ObjectInputStream ois = new ObjectInputStreamWithLoader(new ByteArrayInputStream(data), loader);
+            return (K) ois.readObject();
+        } catch (Exception ex) {
+            throw new BackingStoreException("Error while deserializing key", ex);
+        }
+    }
+
+    private byte[] getSerializedState(Serializable value)
+            throws BackingStoreException {
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = null;
+        try {
+            oos = new ObjectOutputStream(bos);
+            oos.writeObject(value);
+            oos.flush();
+            return bos.toByteArray();
+        } catch (IOException ioEx) {
+            throw new BackingStoreException("Error during getSerializedState", ioEx);
+        } finally {
+            try {
+                if (oos != null) {
+                    oos.close();
+                }
+            } catch (IOException ioEx) {/* Noop */}
+        }
+    }
+
+    private static long getLongProperty(Map<String, Object> vendorMap, String name, long defaultValue) {
+        try {
+            Object value = vendorMap.get(name);
+            if (value != null) {
+                return Long.parseLong(value.toString());
+            }
+        } catch (Exception ex) {
+            //Ignore. Use default
+        }
+        return defaultValue;
+    }
+
+    /**
+     * An append only segment file. Reads use positional reads on the
+     * channel and therefore do not need any locking.
+     */
+    private static final class Segment {
+
+        final int id;
+
+        final File file;
+
+        final RandomAccessFile raf;
+
+        final FileChannel channel;
+
+        final AtomicLong size = new AtomicLong();
+
+        final AtomicLong deadBytes = new AtomicLong();
+
+        Segment(int id, File file) throws IOException {
+            this.id = id;
+            this.file = file;
+            this.raf = new RandomAccessFile(file, "rw");
+            this.channel = raf.getChannel();
+        }
+
+        long append(ByteBuffer buffer) throws IOException {
+            long offset = size.get();
+            long position = offset;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            size.set(position);
+            return offset;
+        }
+
+        void read(ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                int count = channel.read(buffer, position);
+                if (count < 0) {
+                    throw new EOFException("Unexpected end of segment " + file);
+                }
+                position += count;
+            }
+        }
+
+        void markDead(int length) {
+            deadBytes.addAndGet(length);
+        }
+
+        double deadRatio() {
+            long total = size.get();
+            return total == 0 ? 0d : ((double) deadBytes.get()) / total;
+        }
+
+        void close() {
+            try {
+                raf.close();
+            } catch (IOException ioEx) {
+                //Ignore
+            }
+        }
+    }
+
+    /**
+     * Immutable location of the latest record of a key.
+     */
+    private static final class RecordLocation {
+
+        final Segment segment;
+
+        final long offset;
+
+        final int length;
+
+        final long timestamp;
+
+        RecordLocation(Segment segment, long offset, int length, long timestamp) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.timestamp = timestamp;
+        }
+
+        RecordLocation withTimestamp(long time) {
+            return new RecordLocation(segment, offset, length, time);
+        }
+    }
+
+    private static final class Record {
+
+        final byte type;
+
+        final long timestamp;
+
+        final byte[] key;
+
+        final byte[] value;
+
+        final long offset;
+
+        Record(byte type, long timestamp, byte[] key, byte[] value, long offset) {
+            this.type = type;
+            this.timestamp = timestamp;
+            this.key = key;
+            this.value = value;
+            this.offset = offset;
+        }
+
+        int length() {
+            return HEADER_SIZE + key.length + value.length;
+        }
+    }
+}
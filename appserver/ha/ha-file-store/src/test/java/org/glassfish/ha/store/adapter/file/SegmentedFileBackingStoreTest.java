@@ -0,0 +1,234 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.ha.store.adapter.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.util.Arrays;
+
+import org.glassfish.ha.store.api.BackingStoreConfiguration;
+import org.glassfish.ha.store.api.BackingStoreException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SegmentedFileBackingStoreTest {
+
+    private static final long HOUR = 60L * 60L * 1000L;
+
+    private File dir;
+
+    private SegmentedFileBackingStore<String, Value> store;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("segmented", "");
+        dir.delete();
+    }
+
+    @After
+    public void tearDown() {
+        if (store != null) {
+            store.destroy();
+        }
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testRecoveryAfterRestart() throws Exception {
+        store = open();
+        store.save("a", new Value("value-a"), true);
+        store.save("b", new Value("value-b"), true);
+        store.save("c", new Value("value-c"), true);
+        store.save("a", new Value("value-a2"), false);
+        store.remove("b");
+        store.updateTimestamp("a", System.currentTimeMillis() + HOUR);
+        restart();
+
+        assertEquals(2, store.size());
+        assertEquals(new Value("value-a2"), store.load("a", null));
+        assertNull(store.load("b", null));
+        assertEquals(new Value("value-c"), store.load("c", null));
+
+        //the touch of a is recovered, so only c has been idle
+        Thread.sleep(5);
+        assertEquals(1, store.removeExpired(0));
+        assertEquals(new Value("value-a2"), store.load("a", null));
+        assertNull(store.load("c", null));
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        store = open();
+        for (int i = 0; i < 20; i++) {
+            store.save("key" + i, new Value("first" + i), true);
+        }
+        for (int i = 0; i < 20; i += 2) {
+            store.save("key" + i, new Value("second" + i), false);
+        }
+        for (int i = 1; i < 20; i += 4) {
+            store.remove("key" + i);
+        }
+        store.updateTimestamp("key3", System.currentTimeMillis() + HOUR);
+        int segmentsBefore = segmentFiles().length;
+        assertTrue(segmentsBefore > 2);
+
+        store.compact();
+        assertTrue(segmentFiles().length < segmentsBefore);
+        assertContent();
+
+        restart();
+        assertContent();
+        Thread.sleep(5);
+        store.removeExpired(0);
+        assertEquals(new Value("first3"), store.load("key3", null));
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    public void testCorruptedTail() throws Exception {
+        store = open();
+        store.save("a", new Value("value-a"), true);
+        store.save("b", new Value("value-b"), true);
+        store.shutdown();
+
+        //tear the last record of the last written segment
+        File[] files = segmentFiles();
+        File last = null;
+        for (File f : files) {
+            if (f.length() > 0) {
+                last = f;
+            }
+        }
+        RandomAccessFile raf = new RandomAccessFile(last, "rw");
+        try {
+            raf.setLength(raf.length() - 3);
+        } finally {
+            raf.close();
+        }
+
+        store = open();
+        assertEquals(new Value("value-a"), store.load("a", null));
+        assertNull(store.load("b", null));
+        assertEquals(1, store.size());
+
+        store.save("b", new Value("value-b2"), true);
+        restart();
+        assertEquals(new Value("value-a"), store.load("a", null));
+        assertEquals(new Value("value-b2"), store.load("b", null));
+    }
+
+    private void assertContent() throws BackingStoreException {
+        for (int i = 0; i < 20; i++) {
+            String expected;
+            if (i % 4 == 1) {
+                expected = null;
+            } else if (i % 2 == 0) {
+                expected = "second" + i;
+            } else {
+                expected = "first" + i;
+            }
+            assertEquals(expected == null ? null : new Value(expected), store.load("key" + i, null));
+        }
+        assertEquals(15, store.size());
+    }
+
+    private File[] segmentFiles() {
+        File[] files = dir.listFiles();
+        Arrays.sort(files);
+        return files;
+    }
+
+    private void restart() throws BackingStoreException {
+        store.shutdown();
+        store = open();
+    }
+
+    private SegmentedFileBackingStore<String, Value> open() throws BackingStoreException {
+        BackingStoreConfiguration<String, Value> conf = new BackingStoreConfiguration<String, Value>();
+        conf.setStoreName("segmented-test").setInstanceName("instance1").setBaseDirectory(dir)
+                .setKeyClazz(String.class).setValueClazz(Value.class)
+                .setClassLoader(getClass().getClassLoader());
+        conf.getVendorSpecificSettings().put(SegmentedFileBackingStore.SEGMENT_SIZE_PROP, "256");
+        conf.getVendorSpecificSettings().put(SegmentedFileBackingStore.COMPACTION_THRESHOLD_PROP, "0");
+        conf.getVendorSpecificSettings().put(SegmentedFileBackingStore.COMPACTION_INTERVAL_PROP, "3600");
+        SegmentedFileBackingStore<String, Value> s = new SegmentedFileBackingStore<String, Value>();
+        s.initialize(conf);
+        return s;
+    }
+
+    /**
+     * Values are deserialized with the class loader of the value class, which
+     * must not be the bootstrap class loader.
+     */
+    static class Value implements Serializable {
+
+        private final String data;
+
+        Value(String data) {
+            this.data = data;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Value && data.equals(((Value) other).data);
+        }
+
+        @Override
+        public int hashCode() {
+            return data.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return data;
+        }
+    }
+}
@@ -61,11 +61,21 @@ public interface JdbcRAConstants {
      */
     public static final String STATEMENT_CACHE_MISS = "statementCacheMissEvent";
 
+    /**
+     * Represents the statement cache eviction monitoring event.
+     */
+    public static final String STATEMENT_CACHE_EVICTION = "statementCacheEvictionEvent";
+
     /**
      * Represents caching of sql query event.
      */
     public static final String TRACE_SQL = "traceSQLEvent";
 
+    /**
+     * Represents the event of a traced sql query having been executed.
+     */
+    public static final String TRACE_SQL_EXECUTION_TIME = "traceSQLExecutionTimeEvent";
+
     public static final String POTENTIAL_STATEMENT_LEAK = "potentialStatementLeakEvent";
     
     /**
@@ -124,4 +134,15 @@ public interface JdbcRAConstants {
                 "executeQuery",
                 "executeUpdate"
             ));
+
+    /**
+     * List of method names that execute sql, whose execution time is monitored.
+     */
+    public static final List<String> sqlExecutionMethodNames =
+            Collections.unmodifiableList(
+            Arrays.asList(
+                "execute",
+                "executeQuery",
+                "executeUpdate"
+            ));
 }
@@ -67,4 +67,21 @@ public class SQLTraceProbeProvider {
             @ProbeParam("sql") String sql) {
 
     }
+
+    /**
+     * Emits probe event/notification that a sql query of the given connection
+     * pool <code>poolName</code> has been executed
+     *
+     * @param poolName for which sql query has been executed
+     * @param sql sql query that has been executed
+     * @param executionTime time taken by the call, in micro-seconds
+     */
+    @Probe(name=JdbcRAConstants.TRACE_SQL_EXECUTION_TIME)
+    public void traceSQLExecutionTimeEvent(@ProbeParam("poolName") String poolName,
+                                   @ProbeParam("appName") String appName,
+                                   @ProbeParam("moduleName") String moduleName,
+            @ProbeParam("sql") String sql,
+            @ProbeParam("executionTime") long executionTime) {
+
+    }
 }
@@ -0,0 +1,495 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package com.sun.gjc.spi.base.datastructure;
+
+import com.sun.gjc.monitoring.StatementCacheProbeProvider;
+import com.sun.gjc.spi.base.CacheObjectKey;
+import com.sun.gjc.spi.base.PreparedStatementWrapper;
+import com.sun.logging.LogDomains;
+import org.glassfish.resourcebase.resources.api.PoolInfo;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Frequency aware statement cache (W-TinyLFU).
+ * <p/>
+ * New statements enter a small LRU admission window. Statements leaving the
+ * window compete with the least recently used statement of the main space and
+ * only the one that has been requested more often, as estimated by a
+ * {@link FrequencySketch}, stays in the cache. The main space is a segmented
+ * LRU : statements requested again while on probation are promoted to the
+ * protected segment. A burst of statements that are used only once therefore
+ * does not flush the frequently used statements out of the cache.
+ * <p/>
+ * Lookups do not take any lock : the entry is read from a concurrent map and
+ * the access is recorded in a lossy ring buffer which is replayed against the
+ * LRU lists and the sketch by whichever thread next holds the eviction lock.
+ * Hence this implementation is synchronized by itself and is not wrapped in a
+ * {@link SynchronizedCache}. It is selected with the statement cache type
+ * <code>TINYLFU</code>.
+ */
+public class TinyLFUCacheImpl implements Cache {
+
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+    private static final int REMOVED = 3;
+
+    //Read buffer size, must be a power of 2
+    private static final int READ_BUFFER_SIZE = 64;
+    private static final int READ_BUFFER_MASK = READ_BUFFER_SIZE - 1;
+    private static final int READ_BUFFER_DRAIN_THRESHOLD = 16;
+
+    protected final static Logger _logger =
+            LogDomains.getLogger(TinyLFUCacheImpl.class, LogDomains.RSR_LOGGER);
+
+    private final ConcurrentHashMap<CacheObjectKey, Node> map;
+    private final int maxSize;
+    private final int maxWindow;
+    private final int maxProtected;
+
+    //Guards the lists, the segment sizes and the sketch
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final FrequencySketch sketch;
+    private final NodeList window = new NodeList();
+    private final NodeList probation = new NodeList();
+    private final NodeList protectedList = new NodeList();
+
+    private final AtomicReferenceArray<Node> readBuffer =
+            new AtomicReferenceArray<Node>(READ_BUFFER_SIZE);
+    private final AtomicLong readBufferWrites = new AtomicLong();
+    private volatile long readBufferReads;
+
+    private StatementCacheProbeProvider probeProvider = null;
+    private final PoolInfo poolInfo;
+
+    public TinyLFUCacheImpl(PoolInfo poolInfo, int maxSize) {
+        this.poolInfo = poolInfo;
+        this.maxSize = Math.max(1, maxSize);
+        //1% of the cache for the admission window, 80% of the rest is protected
+        this.maxWindow = Math.max(1, this.maxSize / 100);
+        this.maxProtected = (int) ((this.maxSize - maxWindow) * 0.8d);
+        this.map = new ConcurrentHashMap<CacheObjectKey, Node>(Math.min(this.maxSize, 1000));
+        this.sketch = new FrequencySketch(this.maxSize);
+        try {
+            probeProvider = new StatementCacheProbeProvider();
+        } catch (Exception ex) {
+            if (_logger.isLoggable(Level.FINE)) {
+                _logger.log(Level.FINE, "Unable to create statement cache probe provider", ex);
+            }
+        }
+    }
+
+    /**
+     * Check if an entry is found for this key object. The access is recorded
+     * without blocking.
+     *
+     * @param key key whose mapping entry is to be checked.
+     * @return the cached statement wrapper or null when not found in cache
+     */
+    public Object checkAndUpdateCache(CacheObjectKey key) {
+        Node node = map.get(key);
+        if (node != null) {
+            if (_logger.isLoggable(Level.FINEST)) {
+                _logger.finest("Cache Hit");
+            }
+            afterRead(node);
+            if (probeProvider != null) {
+                probeProvider.statementCacheHitEvent(poolInfo.getName(),
+                        poolInfo.getApplicationName(), poolInfo.getModuleName());
+            }
+            return node.value;
+        }
+        if (_logger.isLoggable(Level.FINEST)) {
+            _logger.finest("Cache Miss");
+        }
+        if (probeProvider != null) {
+            probeProvider.statementCacheMissEvent(poolInfo.getName(),
+                    poolInfo.getApplicationName(), poolInfo.getModuleName());
+        }
+        return null;
+    }
+
+    private void afterRead(Node node) {
+        long writes = readBufferWrites.getAndIncrement();
+        //lossy : an access not yet replayed may be overwritten
+        readBuffer.lazySet((int) (writes & READ_BUFFER_MASK), node);
+        if (writes - readBufferReads >= READ_BUFFER_DRAIN_THRESHOLD && evictionLock.tryLock()) {
+            try {
+                drainReadBuffer();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    //Must be called with evictionLock held
+    private void drainReadBuffer() {
+        long writes = readBufferWrites.get();
+        long start = Math.max(readBufferReads, writes - READ_BUFFER_SIZE);
+        for (long i = start; i < writes; i++) {
+            Node node = readBuffer.getAndSet((int) (i & READ_BUFFER_MASK), null);
+            if (node != null) {
+                onAccess(node);
+            }
+        }
+        readBufferReads = writes;
+    }
+
+    //Must be called with evictionLock held
+    private void onAccess(Node node) {
+        sketch.increment(node.key);
+        switch (node.queue) {
+            case WINDOW:
+                window.moveToTail(node);
+                break;
+            case PROBATION:
+                probation.remove(node);
+                node.queue = PROTECTED;
+                protectedList.addLast(node);
+                //demote the least recently used protected entries
+                while (protectedList.size > maxProtected) {
+                    Node demoted = protectedList.removeFirst();
+                    demoted.queue = PROBATION;
+                    probation.addLast(demoted);
+                }
+                break;
+            case PROTECTED:
+                protectedList.moveToTail(node);
+                break;
+            default:
+                //removed from the cache after the read was recorded
+                break;
+        }
+    }
+
+    /**
+     * Add the key and entry value into the cache. Entries may be evicted as a
+     * result, the evicted statements are closed.
+     *
+     * @param key   key that contains the sql string and its type (PS/CS)
+     * @param o     entry that is the wrapper of PreparedStatement or
+     *              CallableStatement
+     * @param force If the already existing key is to be overwritten
+     */
+    public void addToCache(CacheObjectKey key, Object o, boolean force) {
+        List<Object> evicted = new ArrayList<Object>();
+        evictionLock.lock();
+        try {
+            drainReadBuffer();
+            Node existing = map.get(key);
+            if (existing != null) {
+                if (force) {
+                    existing.value = o;
+                    onAccess(existing);
+                }
+                return;
+            }
+            Node node = new Node(key, o);
+            map.put(key, node);
+            sketch.increment(key);
+            window.addLast(node);
+            evict(evicted);
+        } finally {
+            evictionLock.unlock();
+        }
+        closeEvicted(evicted);
+    }
+
+    //Must be called with evictionLock held
+    private void evict(List<Object> evicted) {
+        //entries overflowing the window become candidates on probation
+        while (window.size > maxWindow) {
+            Node candidate = window.removeFirst();
+            candidate.queue = PROBATION;
+            probation.addLast(candidate);
+        }
+        while (map.size() > maxSize) {
+            Node victim = probation.first();
+            Node candidate = probation.last();
+            if (victim == null) {
+                victim = (protectedList.size > 0) ? protectedList.first() : window.first();
+                candidate = victim;
+            }
+            Node toEvict = victim;
+            if (candidate != victim && sketch.frequency(candidate.key) <= sketch.frequency(victim.key)) {
+                //candidate is not used more often than the victim, reject it
+                toEvict = candidate;
+            }
+            removeNode(toEvict);
+            evicted.add(toEvict.value);
+        }
+    }
+
+    //Must be called with evictionLock held
+    private void removeNode(Node node) {
+        map.remove(node.key, node);
+        switch (node.queue) {
+            case WINDOW:
+                window.remove(node);
+                break;
+            case PROBATION:
+                probation.remove(node);
+                break;
+            case PROTECTED:
+                protectedList.remove(node);
+                break;
+            default:
+                break;
+        }
+        node.queue = REMOVED;
+    }
+
+    private void closeEvicted(List<Object> evicted) {
+        for (Object o : evicted) {
+            closeStatement(o);
+            if (probeProvider != null) {
+                probeProvider.statementCacheEvictionEvent(poolInfo.getName(),
+                        poolInfo.getApplicationName(), poolInfo.getModuleName());
+            }
+        }
+    }
+
+    /**
+     * Closes a statement that is no more cached.
+     *
+     * @param o wrapper of the statement
+     */
+    void closeStatement(Object o) {
+        try {
+            PreparedStatementWrapper ps = (PreparedStatementWrapper) o;
+            ps.setCached(false);
+            ps.close();
+        } catch (SQLException e) {
+            //ignore
+        }
+    }
+
+    /**
+     * Clears the statement cache
+     */
+    public void clearCache() {
+        if (_logger.isLoggable(Level.FINE)) {
+            _logger.fine("clearing objects in cache");
+        }
+        evictionLock.lock();
+        try {
+            removeAll();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    public void flushCache() {
+        List<Object> statements;
+        evictionLock.lock();
+        try {
+            statements = removeAll();
+        } finally {
+            evictionLock.unlock();
+        }
+        for (Object o : statements) {
+            closeStatement(o);
+        }
+    }
+
+    //Must be called with evictionLock held
+    private List<Object> removeAll() {
+        List<Object> values = new ArrayList<Object>(map.size());
+        for (Node node : map.values()) {
+            removeNode(node);
+            values.add(node.value);
+        }
+        for (int i = 0; i < READ_BUFFER_SIZE; i++) {
+            readBuffer.set(i, null);
+        }
+        readBufferReads = readBufferWrites.get();
+        return values;
+    }
+
+    /**
+     * Removes and closes the entry that would be evicted next.
+     */
+    public void purge() {
+        Node victim = null;
+        evictionLock.lock();
+        try {
+            drainReadBuffer();
+            victim = probation.first();
+            if (victim == null) {
+                victim = (window.size > 0) ? window.first() : protectedList.first();
+            }
+            if (victim != null) {
+                removeNode(victim);
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+        if (victim != null) {
+            closeStatement(victim.value);
+        }
+    }
+
+    // Used only for purging the bad statements.
+    public void purge(Object obj) {
+        Node purged = null;
+        evictionLock.lock();
+        try {
+            for (Node node : map.values()) {
+                if (node.value.equals(obj)) {
+                    removeNode(node);
+                    purged = node;
+                    break;
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+        if (purged != null) {
+            if (_logger.isLoggable(Level.FINEST)) {
+                _logger.log(Level.FINEST, "Purging an entry from cache");
+            }
+            closeStatement(purged.value);
+        }
+    }
+
+    /**
+     * Returns the number of entries in the statement cache
+     *
+     * @return has integer value
+     */
+    public int getSize() {
+        return map.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public boolean isSynchronized() {
+        return true;
+    }
+
+    /**
+     * Cache entry, linked in one of the window, probation or protected lists.
+     */
+    private static final class Node {
+        private final CacheObjectKey key;
+        private volatile Object value;
+        //guarded by evictionLock
+        private int queue = WINDOW;
+        private Node prev;
+        private Node next;
+
+        private Node(CacheObjectKey key, Object value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Doubly linked list of nodes, head is the least recently used.
+     */
+    private static final class NodeList {
+        private Node head;
+        private Node tail;
+        private int size;
+
+        Node first() {
+            return head;
+        }
+
+        Node last() {
+            return tail;
+        }
+
+        void addLast(Node node) {
+            node.prev = tail;
+            node.next = null;
+            if (tail == null) {
+                head = node;
+            } else {
+                tail.next = node;
+            }
+            tail = node;
+            size++;
+        }
+
+        Node removeFirst() {
+            Node node = head;
+            if (node != null) {
+                remove(node);
+            }
+            return node;
+        }
+
+        void remove(Node node) {
+            if (node.prev == null) {
+                head = node.next;
+            } else {
+                node.prev.next = node.next;
+            }
+            if (node.next == null) {
+                tail = node.prev;
+            } else {
+                node.next.prev = node.prev;
+            }
+            node.prev = null;
+            node.next = null;
+            size--;
+        }
+
+        void moveToTail(Node node) {
+            if (node != tail) {
+                remove(node);
+                addLast(node);
+            }
+        }
+    }
+}
@@ -43,23 +43,49 @@ package com.sun.gjc.util;
 import com.sun.logging.LogDomains;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Iterator;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Timer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * Maintains the Sql Tracing Cache used to store SQL statements used by the
  * applications. This is used by the JDBCRA monitoring to display the most
- * frequently used queries by applications.
+ * frequently used queries and the slowest queries used by applications.
+ * <p/>
+ * The number of distinct queries can be unbounded, hence only a fixed number
+ * of them are monitored, following the space-saving algorithm : a query that
+ * is not monitored replaces the least frequently executed monitored query
+ * once its estimated number of executions is higher. The estimate comes from
+ * a count-min sketch that is updated for every query that is not monitored.
+ * <p/>
+ * Recording an execution of a monitored query does not take any lock. Only
+ * the replacement of a monitored query is serialized. Every
+ * time-to-keep-queries period, counts and execution time histograms are
+ * halved and queries that have not been executed during the period are
+ * dropped, so that the report reflects the recent workload.
  *
  * @author Shalini M
  */
 public class SQLTraceCache {
 
-    //List of sql trace objects
-    private final List<SQLTrace> list;
+    //Number of queries monitored for each query reported
+    private static final int MONITORED_QUERIES_FACTOR = 8;
+    private static final int MIN_MONITORED_QUERIES = 64;
+
+    //Monitored queries
+    private final ConcurrentHashMap<String, QueryStats> queries;
+    private final int maxMonitoredQueries;
+    private final CountMinSketch sketch;
+    private final ReentrantLock replacementLock = new ReentrantLock();
+    //Lowest execution count among monitored queries, refreshed on replacement
+    private volatile long minExecutions;
+
     //Maximum size of the cache.
     private int numTopQueriesToReport = 10;
     private long timeToKeepQueries = 60 * 1000;
@@ -76,11 +102,24 @@ public class SQLTraceCache {
         this.appName = appName;
         this.moduleName = moduleName;
         this.numTopQueriesToReport = maxSize;
-        list = new ArrayList<SQLTrace>();
         this.timeToKeepQueries = timeToKeepQueries * 60 * 1000;
+        this.maxMonitoredQueries = Math.max(MIN_MONITORED_QUERIES, maxSize * MONITORED_QUERIES_FACTOR);
+        this.queries = new ConcurrentHashMap<String, QueryStats>(maxMonitoredQueries);
+        this.sketch = new CountMinSketch(maxMonitoredQueries * 16);
     }
 
+    /**
+     * Returns a snapshot of the monitored queries, most frequently used first.
+     *
+     * @return list of SQLTrace
+     */
     public List<SQLTrace> getSqlTraceList() {
+        List<SQLTrace> list = new ArrayList<SQLTrace>(queries.size());
+        for (QueryStats stats : queries.values()) {
+            list.add(new SQLTrace(stats.sql, (int) Math.min(Integer.MAX_VALUE, stats.executions.sum()),
+                    stats.lastUsageTime));
+        }
+        Collections.sort(list);
         return list;
     }
 
@@ -138,58 +177,112 @@ public class SQLTraceCache {
 
     /**
      * Request for adding a sql query in the form of SQLTrace to this cache.
-     * If the query is already found
-     * in the list, the number of times it is executed is incremented by one
-     * along with the timestamp.
-     * If the query is a new one, it is added to the list.
-     * 
+     *
      * @param cacheObj
-     * @return
+     * @see #recordExecution(String)
      */
     public void checkAndUpdateCache(SQLTrace cacheObj) {
-        synchronized (list) {
-            if (cacheObj != null) {
-                int index = list.indexOf(cacheObj);
-                if (index != -1) {
-                    //If already found in the cache
-                    //equals is invoked here and hence comparison based on query name is done
-                    //Get the object at the index to update the numExecutions
-                    SQLTrace cache = (SQLTrace) list.get(index);
-                    cache.setNumExecutions(cache.getNumExecutions() + 1);
-                    cache.setLastUsageTime(System.currentTimeMillis());
-                } else {
-                    //First occurrence of the query. query to be added.
-                    cacheObj.setNumExecutions(1);
-                    cacheObj.setLastUsageTime(System.currentTimeMillis());
-                    list.add(cacheObj);
-                }
+        if (cacheObj != null && cacheObj.getQueryName() != null) {
+            recordExecution(cacheObj.getQueryName());
+        }
+    }
+
+    /**
+     * Records an execution of the sql query. If the query is already
+     * monitored, its number of executions is incremented along with the
+     * timestamp. Otherwise the query replaces the least frequently used
+     * monitored query when it is estimated to be executed more often.
+     *
+     * @param sql sql query
+     */
+    public void recordExecution(String sql) {
+        long now = System.currentTimeMillis();
+        QueryStats stats = queries.get(sql);
+        if (stats != null) {
+            stats.executions.increment();
+            stats.lastUsageTime = now;
+            return;
+        }
+        long estimate = sketch.increment(sql);
+        if (queries.size() < maxMonitoredQueries) {
+            stats = new QueryStats(sql, estimate, now);
+            if (queries.putIfAbsent(sql, stats) != null) {
+                //concurrently added by another thread
+                recordExecution(sql);
+            }
+        } else if (estimate > minExecutions && replacementLock.tryLock()) {
+            try {
+                replaceLeastFrequent(sql, estimate, now);
+            } finally {
+                replacementLock.unlock();
+            }
+        }
+    }
+
+    //Must be called with replacementLock held
+    private void replaceLeastFrequent(String sql, long estimate, long now) {
+        QueryStats min = null;
+        long minCount = Long.MAX_VALUE;
+        long nextMinCount = Long.MAX_VALUE;
+        for (QueryStats stats : queries.values()) {
+            long count = stats.executions.sum();
+            if (count < minCount) {
+                nextMinCount = minCount;
+                minCount = count;
+                min = stats;
+            } else if (count < nextMinCount) {
+                nextMinCount = count;
             }
         }
+        if (min != null && estimate > minCount && !queries.containsKey(sql)) {
+            if(_logger.isLoggable(Level.FINEST)) {
+                _logger.finest("removing sql=" + min.sql);
+            }
+            queries.remove(min.sql, min);
+            queries.put(sql, new QueryStats(sql, estimate, now));
+            minExecutions = Math.min(estimate, nextMinCount);
+        } else {
+            minExecutions = minCount;
+        }
+    }
+
+    /**
+     * Records the time taken by an execution of the sql query. Only the
+     * execution time of monitored queries is kept.
+     *
+     * @param sql sql query
+     * @param executionTimeInMicros time taken by the execution
+     */
+    public void recordExecutionTime(String sql, long executionTimeInMicros) {
+        QueryStats stats = queries.get(sql);
+        if (stats != null) {
+            stats.executionTimes.record(executionTimeInMicros);
+            stats.totalExecutionTime.add(executionTimeInMicros);
+            stats.timedExecutions.increment();
+        }
     }
 
     /**
-     * Entries are removed from the list after sorting
-     * them in the least frequently used order. Only numTopQueriesToReport number of
-     * entries are maintained in the list after the purgeEntries.
+     * Ages the statistics : counts and execution time histograms are halved
+     * and queries that have not been used during the last timeToKeepQueries
+     * are no more monitored.
      */
     public void purgeEntries() {
-        synchronized(list) {
-            Collections.sort(list, Collections.reverseOrder());
-            Iterator i = list.iterator();
-            while (i.hasNext()) {
-                SQLTrace cacheObj = (SQLTrace) i.next();
-                if (list.size() > numTopQueriesToReport) {
-                    if(_logger.isLoggable(Level.FINEST)) {
-                        _logger.finest("removing sql=" + cacheObj.getQueryName());
-                    }
-                    i.remove();
-                } else {
-                    break;
+        long expiry = System.currentTimeMillis() - timeToKeepQueries;
+        long minCount = Long.MAX_VALUE;
+        for (QueryStats stats : queries.values()) {
+            if (stats.lastUsageTime < expiry) {
+                if(_logger.isLoggable(Level.FINEST)) {
+                    _logger.finest("removing sql=" + stats.sql);
                 }
+                queries.remove(stats.sql, stats);
+            } else {
+                stats.decay();
+                minCount = Math.min(minCount, stats.executions.sum());
             }
-            //sort by most frequently used queries first
-            Collections.sort(list);
         }
+        sketch.decay();
+        minExecutions = (minCount == Long.MAX_VALUE) ? 0 : minCount;
     }
 
     /**
@@ -201,12 +294,144 @@ public class SQLTraceCache {
      * @return string representation of the list of sql queries sorted
      */
     public String getTopQueries() {
-        purgeEntries();
+        List<SQLTrace> list = getSqlTraceList();
         StringBuffer sb = new StringBuffer();
-        for(SQLTrace cache : list) {
+        for (int i = 0; i < list.size() && i < numTopQueriesToReport; i++) {
             sb.append(LINE_BREAK);
-            sb.append(cache.getQueryName());
+            sb.append(list.get(i).getQueryName());
         }
         return sb.toString();
     }
+
+    /**
+     * Returns the String representation of the list of traced sql queries
+     * ordered by average execution time, slowest first, along with the
+     * median, 99th percentile and number of timed executions. Only the top 'n'
+     * queries represented by the numTopQueriesToReport are chosen for display.
+     *
+     * @return string representation of the slowest sql queries
+     */
+    public String getSlowestQueries() {
+        List<QueryReport> list = new ArrayList<QueryReport>();
+        for (QueryStats stats : queries.values()) {
+            long count = stats.timedExecutions.sum();
+            if (count > 0) {
+                list.add(new QueryReport(stats, stats.totalExecutionTime.sum() / count, count));
+            }
+        }
+        Collections.sort(list, new Comparator<QueryReport>() {
+            public int compare(QueryReport o1, QueryReport o2) {
+                return Long.compare(o2.averageExecutionTime, o1.averageExecutionTime);
+            }
+        });
+        StringBuffer sb = new StringBuffer();
+        for (int i = 0; i < list.size() && i < numTopQueriesToReport; i++) {
+            QueryReport report = list.get(i);
+            LatencyHistogram executionTimes = report.stats.executionTimes;
+            sb.append(LINE_BREAK);
+            sb.append(report.stats.sql);
+            sb.append(" [avg=").append(report.averageExecutionTime).append("us");
+            sb.append(", p50=").append(executionTimes.getPercentile(50)).append("us");
+            sb.append(", p99=").append(executionTimes.getPercentile(99)).append("us");
+            sb.append(", count=").append(report.timedExecutions).append("]");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Consistent view of the execution times of a query, used for sorting.
+     */
+    private static final class QueryReport {
+        private final QueryStats stats;
+        private final long averageExecutionTime;
+        private final long timedExecutions;
+
+        private QueryReport(QueryStats stats, long averageExecutionTime, long timedExecutions) {
+            this.stats = stats;
+            this.averageExecutionTime = averageExecutionTime;
+            this.timedExecutions = timedExecutions;
+        }
+    }
+
+    /**
+     * Statistics of a monitored query.
+     */
+    private static final class QueryStats {
+        private final String sql;
+        private final LongAdder executions = new LongAdder();
+        private final LongAdder timedExecutions = new LongAdder();
+        private final LongAdder totalExecutionTime = new LongAdder();
+        private final LatencyHistogram executionTimes = new LatencyHistogram();
+        private volatile long lastUsageTime;
+
+        private QueryStats(String sql, long executions, long lastUsageTime) {
+            this.sql = sql;
+            this.executions.add(executions);
+            this.lastUsageTime = lastUsageTime;
+        }
+
+        private void decay() {
+            executions.add(-(executions.sum() / 2));
+            timedExecutions.add(-(timedExecutions.sum() / 2));
+            totalExecutionTime.add(-(totalExecutionTime.sum() / 2));
+            executionTimes.decay();
+        }
+    }
+
+    /**
+     * Count-min sketch of int counters that can be updated concurrently,
+     * estimating the number of executions of queries that are not monitored.
+     */
+    private static final class CountMinSketch {
+        private static final int DEPTH = 4;
+        private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+        private final AtomicIntegerArray table;
+        private final int width;
+        private final int mask;
+
+        private CountMinSketch(int width) {
+            this.width = Integer.highestOneBit(Math.max(2, width) * 2 - 1);
+            this.mask = this.width - 1;
+            this.table = new AtomicIntegerArray(this.width * DEPTH);
+        }
+
+        /**
+         * @return the estimated count after the increment
+         */
+        private long increment(String item) {
+            int hash = item.hashCode();
+            int estimate = Integer.MAX_VALUE;
+            for (int i = 0; i < DEPTH; i++) {
+                int index = i * width + indexOf(hash, i);
+                int count = table.get(index);
+                estimate = Math.min(estimate, count);
+            }
+            int updated = estimate == Integer.MAX_VALUE ? estimate : estimate + 1;
+            //conservative update : never raise a counter above the new estimate
+            for (int i = 0; i < DEPTH; i++) {
+                int index = i * width + indexOf(hash, i);
+                int count;
+                do {
+                    count = table.get(index);
+                } while (count < updated && !table.compareAndSet(index, count, updated));
+            }
+            return updated;
+        }
+
+        private int indexOf(int hash, int i) {
+            int h = hash * SEEDS[i];
+            h ^= h >>> 16;
+            return h & mask;
+        }
+
+        private void decay() {
+            for (int i = 0; i < table.length(); i++) {
+                int count;
+                do {
+                    count = table.get(i);
+                } while (!table.compareAndSet(i, count, count >>> 1));
+            }
+        }
+    }
 }
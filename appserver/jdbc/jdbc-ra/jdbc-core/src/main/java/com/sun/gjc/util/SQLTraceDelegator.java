@@ -116,26 +116,71 @@ public class SQLTraceDelegator implements SQLTraceListener {
 
         if (record != null) {
             record.setPoolName(poolName);
-            String methodName = record.getMethodName();
-            //Check if the method name is one in which sql query is used
-            if (isMethodValidForCaching(methodName)) {
-                Object[] params = record.getParams();
-                if (params != null && params.length > 0) {
-                    String sqlQuery = null;
-                    for (Object param : params) {
-                        if(param instanceof String) {
-                            sqlQuery = param.toString();
-                        }
-                        break;
-                    }
-                    if (sqlQuery != null) {
-                        probeProvider.traceSQLEvent(poolName, appName, moduleName, sqlQuery);
-                    }
-                }
+            String sqlQuery = getSqlQuery(record);
+            if (sqlQuery != null) {
+                probeProvider.traceSQLEvent(poolName, appName, moduleName, sqlQuery);
             }
         }
     }
 
+   /**
+    * Notifies that the call described by the sql trace record has completed,
+    * so that the execution time of the sql query can be monitored.
+    *
+    * @param record sql trace record passed to sqlTrace before the call
+    * @param executionTimeInMicros time taken by the call
+    */
+   public void sqlTraceCompleted(SQLTraceRecord record, long executionTimeInMicros) {
+       sqlTraceCompleted(record, null, executionTimeInMicros);
+   }
+
+   /**
+    * Notifies that the call described by the sql trace record has completed,
+    * so that the execution time of the sql query can be monitored. Only calls
+    * that execute sql are timed; the execute methods of a prepared statement
+    * have no sql parameter and are attributed to the sql it was prepared with.
+    *
+    * @param record sql trace record passed to sqlTrace before the call
+    * @param statementSql sql query of the prepared statement the call was
+    * made on, or null
+    * @param executionTimeInMicros time taken by the call
+    */
+   public void sqlTraceCompleted(SQLTraceRecord record, String statementSql, long executionTimeInMicros) {
+       if (record != null && JdbcRAConstants.sqlExecutionMethodNames.contains(record.getMethodName())) {
+           String sqlQuery = getSqlQuery(record);
+           if (sqlQuery == null) {
+               sqlQuery = statementSql;
+           }
+           if (sqlQuery != null) {
+               probeProvider.traceSQLExecutionTimeEvent(poolName, appName, moduleName,
+                       sqlQuery, executionTimeInMicros);
+           }
+       }
+   }
+
+   /**
+    * Get the sql query passed to the method of the sql trace record, if any.
+    *
+    * @param record
+    * @return sql query or null
+    */
+   private String getSqlQuery(SQLTraceRecord record) {
+       String sqlQuery = null;
+       //Check if the method name is one in which sql query is used
+       if (isMethodValidForCaching(record.getMethodName())) {
+           Object[] params = record.getParams();
+           if (params != null && params.length > 0) {
+               for (Object param : params) {
+                   if(param instanceof String) {
+                       sqlQuery = param.toString();
+                   }
+                   break;
+               }
+           }
+       }
+       return sqlQuery;
+   }
+
    /**
     * Check if the method name from the sql trace record can be used to 
     * retrieve a sql string for caching purpose. Most of the method names do not
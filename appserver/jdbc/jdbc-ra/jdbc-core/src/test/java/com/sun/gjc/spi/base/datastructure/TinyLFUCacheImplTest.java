@@ -0,0 +1,176 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package com.sun.gjc.spi.base.datastructure;
+
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.sun.gjc.spi.base.CacheObjectKey;
+import org.glassfish.resourcebase.resources.api.PoolInfo;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * The W-TinyLFU statement cache stays within its size, keeps the frequently
+ * used statements over the ones used once, and closes every statement it
+ * evicts or purges.
+ */
+public class TinyLFUCacheImplTest {
+
+    @Test
+    public void testHitAndMiss() {
+        TestCache cache = new TestCache(10);
+        assertNull(cache.checkAndUpdateCache(key("select 1")));
+        cache.addToCache(key("select 1"), "statement 1", false);
+        assertEquals("statement 1", cache.checkAndUpdateCache(key("select 1")));
+        assertEquals(1, cache.getSize());
+
+        //an existing entry is replaced only when forced
+        cache.addToCache(key("select 1"), "statement 2", false);
+        assertEquals("statement 1", cache.checkAndUpdateCache(key("select 1")));
+        cache.addToCache(key("select 1"), "statement 2", true);
+        assertEquals("statement 2", cache.checkAndUpdateCache(key("select 1")));
+        assertEquals(1, cache.getSize());
+        assertTrue(cache.closed.isEmpty());
+    }
+
+    @Test
+    public void testSizeIsBounded() {
+        TestCache cache = new TestCache(10);
+        for (int i = 0; i < 100; i++) {
+            cache.addToCache(key("select " + i), "statement " + i, false);
+            assertTrue(cache.getSize() <= 10);
+        }
+        assertEquals(10, cache.getSize());
+        assertEquals(10, cache.getMaxSize());
+        //every evicted statement is closed
+        assertEquals(90, cache.closed.size());
+        for (Object o : cache.closed) {
+            assertNull(cache.checkAndUpdateCache(key(((String) o).replace("statement", "select"))));
+        }
+    }
+
+    /**
+     * A scan of statements used only once does not flush the frequently used
+     * statements out of the cache, as it would with a LRU cache.
+     */
+    @Test
+    public void testFrequentStatementsSurviveScan() {
+        TestCache cache = new TestCache(100);
+        for (int i = 0; i < 100; i++) {
+            cache.addToCache(key("select hot " + i), "hot " + i, false);
+        }
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 100; i++) {
+                assertNotNull(cache.checkAndUpdateCache(key("select hot " + i)));
+            }
+        }
+        for (int i = 0; i < 1000; i++) {
+            cache.addToCache(key("select cold " + i), "cold " + i, false);
+        }
+
+        assertEquals(100, cache.getSize());
+        int hits = 0;
+        for (int i = 0; i < 100; i++) {
+            if (cache.checkAndUpdateCache(key("select hot " + i)) != null) {
+                hits++;
+            }
+        }
+        assertTrue("frequently used statements evicted: " + (100 - hits), hits >= 90);
+    }
+
+    @Test
+    public void testPurge() {
+        TestCache cache = new TestCache(10);
+        cache.addToCache(key("select 1"), "statement 1", false);
+        cache.addToCache(key("select 2"), "statement 2", false);
+
+        cache.purge("statement 2");
+        assertEquals(1, cache.getSize());
+        assertNull(cache.checkAndUpdateCache(key("select 2")));
+        assertEquals("statement 2", cache.closed.get(0));
+
+        cache.purge();
+        assertEquals(0, cache.getSize());
+        assertEquals("statement 1", cache.closed.get(1));
+        cache.purge();
+        assertEquals(2, cache.closed.size());
+    }
+
+    @Test
+    public void testClearAndFlush() {
+        TestCache cache = new TestCache(10);
+        cache.addToCache(key("select 1"), "statement 1", false);
+        cache.clearCache();
+        assertEquals(0, cache.getSize());
+        //statements are closed by the caller of clearCache
+        assertTrue(cache.closed.isEmpty());
+
+        cache.addToCache(key("select 1"), "statement 1", false);
+        cache.addToCache(key("select 2"), "statement 2", false);
+        cache.flushCache();
+        assertEquals(0, cache.getSize());
+        assertEquals(2, cache.closed.size());
+        assertNull(cache.checkAndUpdateCache(key("select 1")));
+    }
+
+    private static CacheObjectKey key(String sql) {
+        return new CacheObjectKey(sql, CacheObjectKey.PREPARED_STATEMENT,
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+    }
+
+    /**
+     * Records the closed statements instead of closing statement wrappers.
+     */
+    private static class TestCache extends TinyLFUCacheImpl {
+        final List<Object> closed = new ArrayList<Object>();
+
+        TestCache(int maxSize) {
+            super(new PoolInfo("pool"), maxSize);
+        }
+
+        @Override
+        void closeStatement(Object o) {
+            closed.add(o);
+        }
+    }
+}
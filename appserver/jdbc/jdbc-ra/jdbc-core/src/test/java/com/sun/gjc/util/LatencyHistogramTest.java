@@ -0,0 +1,101 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package com.sun.gjc.util;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testEmptyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentile(50));
+        assertEquals(0, histogram.getPercentile(99));
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 98; i++) {
+            histogram.record(10);
+        }
+        histogram.record(1000);
+        histogram.record(100000);
+
+        //10 is in the [8-15] bucket
+        assertEquals(15, histogram.getPercentile(50));
+        assertEquals(15, histogram.getPercentile(98));
+        //1000 is in the [512-1023] bucket
+        assertEquals(1023, histogram.getPercentile(99));
+        assertEquals(131071, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void testBucketBounds() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(0);
+        assertEquals(0, histogram.getPercentile(100));
+        histogram.record(1);
+        assertEquals(1, histogram.getPercentile(100));
+        histogram.record(4);
+        assertEquals(7, histogram.getPercentile(100));
+        histogram.record(Long.MAX_VALUE);
+        assertTrue(histogram.getPercentile(100) > 0);
+    }
+
+    @Test
+    public void testDecay() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 4; i++) {
+            histogram.record(10);
+        }
+        histogram.record(1000);
+        assertEquals(1023, histogram.getPercentile(100));
+
+        //the single slow execution is aged out, 2 fast ones are left
+        histogram.decay();
+        assertEquals(15, histogram.getPercentile(100));
+        histogram.decay();
+        histogram.decay();
+        assertEquals(0, histogram.getPercentile(100));
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package com.sun.gjc.util;
+
+import java.util.List;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SQLTraceCacheTest {
+
+    private static final String LINE_BREAK = "%%%EOL%%%";
+
+    @Test
+    public void testTopQueries() {
+        SQLTraceCache cache = new SQLTraceCache("pool", "app", "module", 2, 5);
+        execute(cache, "select a", 3);
+        execute(cache, "select b", 5);
+        execute(cache, "select c", 1);
+
+        List<SQLTrace> traces = cache.getSqlTraceList();
+        assertEquals(3, traces.size());
+        assertEquals("select b", traces.get(0).getQueryName());
+        assertEquals(5, traces.get(0).getNumExecutions());
+        assertEquals("select a", traces.get(1).getQueryName());
+        assertEquals(3, traces.get(1).getNumExecutions());
+        //only the 2 most frequently executed queries are reported
+        assertEquals(LINE_BREAK + "select b" + LINE_BREAK + "select a", cache.getTopQueries());
+    }
+
+    /**
+     * Once 64 queries are monitored, a frequently executed query still
+     * replaces a query executed only once.
+     */
+    @Test
+    public void testFrequentQueryReplacesOneOffQuery() {
+        SQLTraceCache cache = new SQLTraceCache("pool", "app", "module", 1, 5);
+        for (int i = 0; i < 200; i++) {
+            cache.recordExecution("select " + i);
+        }
+        assertEquals(64, cache.getSqlTraceList().size());
+
+        execute(cache, "select frequent", 10);
+        List<SQLTrace> traces = cache.getSqlTraceList();
+        assertEquals(64, traces.size());
+        assertEquals("select frequent", traces.get(0).getQueryName());
+        assertTrue(traces.get(0).getNumExecutions() > 1);
+        assertEquals(LINE_BREAK + "select frequent", cache.getTopQueries());
+    }
+
+    @Test
+    public void testSlowestQueries() {
+        SQLTraceCache cache = new SQLTraceCache("pool", "app", "module", 5, 5);
+        cache.recordExecution("select fast");
+        cache.recordExecution("select slow");
+        cache.recordExecution("select untimed");
+        cache.recordExecutionTime("select fast", 10);
+        cache.recordExecutionTime("select fast", 30);
+        cache.recordExecutionTime("select slow", 1000);
+        //the time of a query that is not monitored is not kept
+        cache.recordExecutionTime("select unknown", 100000);
+
+        assertEquals(LINE_BREAK + "select slow [avg=1000us, p50=1023us, p99=1023us, count=1]"
+                + LINE_BREAK + "select fast [avg=20us, p50=15us, p99=31us, count=2]",
+                cache.getSlowestQueries());
+    }
+
+    @Test
+    public void testPurgeEntries() throws InterruptedException {
+        SQLTraceCache cache = new SQLTraceCache("pool", "app", "module", 5, 5);
+        execute(cache, "select a", 4);
+        cache.purgeEntries();
+        List<SQLTrace> traces = cache.getSqlTraceList();
+        assertEquals(1, traces.size());
+        assertEquals(2, traces.get(0).getNumExecutions());
+
+        //queries not used for longer than the time to keep are dropped
+        cache = new SQLTraceCache("pool", "app", "module", 5, 0);
+        cache.recordExecution("select a");
+        Thread.sleep(5);
+        cache.purgeEntries();
+        assertTrue(cache.getSqlTraceList().isEmpty());
+        assertEquals("", cache.getTopQueries());
+    }
+
+    private static void execute(SQLTraceCache cache, String sql, int times) {
+        for (int i = 0; i < times; i++) {
+            cache.recordExecution(sql);
+        }
+    }
+}
@@ -90,7 +90,7 @@ public class ProfiledConnectionWrapper40 extends ConnectionHolder40 implements C
         Class intf[] = new Class[]{java.sql.Statement.class};
         try {
             output = (java.sql.Statement) getProxyObject(
-                    new StatementWrapper40(this, super.createStatement()), intf);
+                    new StatementWrapper40(this, super.createStatement()), intf, null);
         } catch (Exception e) {
             //TODO SQLexception or any other type?
             throw new SQLException(e);
@@ -112,7 +112,7 @@ public class ProfiledConnectionWrapper40 extends ConnectionHolder40 implements C
         try{
             output = (java.sql.Statement)getProxyObject(
                     new StatementWrapper40(this, 
-                    super.createStatement(resultSetType, resultSetConcurrency)), intf);
+                    super.createStatement(resultSetType, resultSetConcurrency)), intf, null);
         }catch(Exception e){
             throw new SQLException(e);
         }
@@ -136,7 +136,7 @@ public class ProfiledConnectionWrapper40 extends ConnectionHolder40 implements C
             output = (java.sql.Statement)getProxyObject(
                     new StatementWrapper40(this, 
                     super.createStatement(resultSetType, resultSetConcurrency, resultSetHoldability)), 
-                    intf);
+                    intf, null);
         }catch(Exception e){
             throw new SQLException(e);
         }
@@ -168,7 +168,7 @@ public class ProfiledConnectionWrapper40 extends ConnectionHolder40 implements C
         try{
             output = (java.sql.CallableStatement)getProxyObject(
                     mc.prepareCachedCallableStatement(this,sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY), 
-                    intf);
+                    intf, sql);
         }catch(Exception e){
             throw new SQLException(e);
         }
@@ -192,7 +192,7 @@ public class ProfiledConnectionWrapper40 extends ConnectionHolder40 implements C
         try{
             output = (java.sql.CallableStatement)getProxyObject(
                     mc.prepareCachedCallableStatement(this, sql, resultSetType, resultSetConcurrency), 
-                    intf);
+                    intf, sql);
         }catch(Exception e){
             throw new SQLException(e);
         }
@@ -218,7 +218,7 @@ public class ProfiledConnectionWrapper40 extends ConnectionHolder40 implements C
         try{
             output = (java.sql.CallableStatement)getProxyObject(
                     mc.prepareCachedCallableStatement(this, sql, resultSetType, resultSetConcurrency, resultSetHoldability), 
-                    intf);
+                    intf, sql);
         }catch(Exception e){
             throw new SQLException(e);
         }
@@ -241,7 +241,7 @@ public class ProfiledConnectionWrapper40 extends ConnectionHolder40 implements C
             output = (PreparedStatement)getProxyObject(
                     mc.prepareCachedStatement(this, sql, 
                     ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY),
-                    intf);
+                    intf, sql);
         }catch(Exception e){
             throw new SQLException(e);
         }
@@ -262,7 +262,7 @@ public class ProfiledConnectionWrapper40 extends ConnectionHolder40 implements C
         Class intf[] = new Class[]{java.sql.PreparedStatement.class};
         try{
             output = (PreparedStatement)getProxyObject(
-                    mc.prepareCachedStatement(this, sql, autoGeneratedKeys), intf);
+                    mc.prepareCachedStatement(this, sql, autoGeneratedKeys), intf, sql);
         }catch(Exception e){
             throw new SQLException(e);
         }
@@ -284,7 +284,7 @@ public class ProfiledConnectionWrapper40 extends ConnectionHolder40 implements C
         Class intf[] = new Class[]{java.sql.PreparedStatement.class};
         try{
             output = (PreparedStatement)getProxyObject(
-                    mc.prepareCachedStatement(this, sql, columnIndexes), intf);
+                    mc.prepareCachedStatement(this, sql, columnIndexes), intf, sql);
         }catch(Exception e){
             throw new SQLException(e);
         }
@@ -308,7 +308,7 @@ public class ProfiledConnectionWrapper40 extends ConnectionHolder40 implements C
         try{
             output = (PreparedStatement)getProxyObject(
                     mc.prepareCachedStatement(this, sql, resultSetType, resultSetConcurrency), 
-                    intf);
+                    intf, sql);
         }catch(Exception e){
             throw new SQLException(e);
         }
@@ -334,7 +334,7 @@ public class ProfiledConnectionWrapper40 extends ConnectionHolder40 implements C
         try{
             output = (PreparedStatement)getProxyObject(
                     mc.prepareCachedStatement(this, sql, resultSetType, resultSetConcurrency, resultSetHoldability), 
-                    intf);
+                    intf, sql);
         }catch(Exception e){
             throw new SQLException(e);
         }
@@ -357,7 +357,7 @@ public class ProfiledConnectionWrapper40 extends ConnectionHolder40 implements C
         Class intf[] = new Class[]{java.sql.PreparedStatement.class};
         try{
             output = (PreparedStatement)getProxyObject(mc.prepareCachedStatement(this, sql, columnNames), 
-                    intf);
+                    intf, sql);
         }catch(Exception e){
             throw new SQLException(e);
         }
@@ -418,7 +418,8 @@ public class ProfiledConnectionWrapper40 extends ConnectionHolder40 implements C
     }
 
     //TODO refactor this method and move to a higher level
-    private <T> T getProxyObject(final Object actualObject, Class<T>[] ifaces) throws Exception {
+    private <T> T getProxyObject(final Object actualObject, Class<T>[] ifaces,
+            final String sql) throws Exception {
         
         T result;
         InvocationHandler ih = new InvocationHandler() {
@@ -432,7 +433,12 @@ public class ProfiledConnectionWrapper40 extends ConnectionHolder40 implements C
                 record.setThreadID(Thread.currentThread().getId());
                 record.setTimeStamp(System.currentTimeMillis());
                 sqlTraceDelegator.sqlTrace(record);
-                return method.invoke(actualObject, args);
+                long start = System.nanoTime();
+                try {
+                    return method.invoke(actualObject, args);
+                } finally {
+                    sqlTraceDelegator.sqlTraceCompleted(record, sql, (System.nanoTime() - start) / 1000);
+                }
             }
         };
         result = (T) Proxy.newProxyInstance(actualObject.getClass().getClassLoader(), ifaces, ih);
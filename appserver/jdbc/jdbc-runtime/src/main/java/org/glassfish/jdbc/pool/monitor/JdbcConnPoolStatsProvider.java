@@ -43,14 +43,17 @@ package org.glassfish.jdbc.pool.monitor;
 import com.sun.enterprise.connectors.ConnectorRuntime;
 import com.sun.enterprise.resource.pool.PoolLifeCycleListenerRegistry;
 import com.sun.enterprise.resource.pool.PoolStatus;
+import com.sun.enterprise.resource.pool.monitor.WaitTimeHistogram;
 import org.glassfish.external.probe.provider.annotations.ProbeListener;
 import org.glassfish.external.probe.provider.annotations.ProbeParam;
 import org.glassfish.external.statistics.CountStatistic;
 import org.glassfish.external.statistics.RangeStatistic;
+import org.glassfish.external.statistics.StringStatistic;
 import org.glassfish.external.statistics.annotations.Reset;
 import org.glassfish.external.statistics.impl.CountStatisticImpl;
 import org.glassfish.external.statistics.impl.RangeStatisticImpl;
 import org.glassfish.external.statistics.impl.StatisticImpl;
+import org.glassfish.external.statistics.impl.StringStatisticImpl;
 import org.glassfish.gmbal.AMXMetadata;
 import org.glassfish.gmbal.Description;
 import org.glassfish.gmbal.ManagedAttribute;
@@ -137,6 +140,19 @@ public class JdbcConnPoolStatsProvider {
     private CountStatisticImpl waitQueueLength = new CountStatisticImpl(
             "WaitQueueLength", StatisticImpl.UNIT_COUNT, 
             "Number of connection requests in the queue waiting to be serviced.");
+    private WaitTimeHistogram connRequestWaitTimeHistogram = new WaitTimeHistogram();
+    private CountStatisticImpl connRequestWaitTimeP50 = new CountStatisticImpl(
+            "ConnRequestWaitTimeP50", StatisticImpl.UNIT_MILLISECOND,
+            "Median wait time of successful connection requests");
+    private CountStatisticImpl connRequestWaitTimeP99 = new CountStatisticImpl(
+            "ConnRequestWaitTimeP99", StatisticImpl.UNIT_MILLISECOND,
+            "99th percentile wait time of successful connection requests");
+    private CountStatisticImpl connRequestWaitTimeP999 = new CountStatisticImpl(
+            "ConnRequestWaitTimeP999", StatisticImpl.UNIT_MILLISECOND,
+            "99.9th percentile wait time of successful connection requests");
+    private StringStatisticImpl connRequestWaitTimeHistogramStat = new StringStatisticImpl(
+            "ConnRequestWaitTimeHistogram", "List",
+            "Number of successful connection requests per wait time range");
     private static final String JDBC_PROBE_LISTENER = "glassfish:jdbc:connection-pool:";
 
 
@@ -372,6 +388,7 @@ public class JdbcConnPoolStatsProvider {
             }
             connRequestWaitTime.setCurrent(timeTakenInMillis);
             totalConnRequestWaitTime.increment(timeTakenInMillis);
+            connRequestWaitTimeHistogram.record(timeTakenInMillis);
         }        
     }  
     
@@ -482,6 +499,7 @@ public class JdbcConnPoolStatsProvider {
         averageConnWaitTime.reset();
         totalConnRequestWaitTime.reset();
         waitQueueLength.reset();        
+        connRequestWaitTimeHistogram.reset();
     }
     
     /**
@@ -710,4 +728,28 @@ public class JdbcConnPoolStatsProvider {
     public CountStatistic getWaitQueueLength() {
         return waitQueueLength;
     }
+
+    @ManagedAttribute(id="connrequestwaittimep50")
+    public CountStatistic getConnRequestWaitTimeP50() {
+        connRequestWaitTimeP50.setCount(connRequestWaitTimeHistogram.getPercentile(50));
+        return connRequestWaitTimeP50;
+    }
+
+    @ManagedAttribute(id="connrequestwaittimep99")
+    public CountStatistic getConnRequestWaitTimeP99() {
+        connRequestWaitTimeP99.setCount(connRequestWaitTimeHistogram.getPercentile(99));
+        return connRequestWaitTimeP99;
+    }
+
+    @ManagedAttribute(id="connrequestwaittimep999")
+    public CountStatistic getConnRequestWaitTimeP999() {
+        connRequestWaitTimeP999.setCount(connRequestWaitTimeHistogram.getPercentile(99.9));
+        return connRequestWaitTimeP999;
+    }
+
+    @ManagedAttribute(id="connrequestwaittimehistogram")
+    public StringStatistic getConnRequestWaitTimeHistogram() {
+        connRequestWaitTimeHistogramStat.setCurrent(connRequestWaitTimeHistogram.toString());
+        return connRequestWaitTimeHistogramStat;
+    }
 }
@@ -67,13 +67,13 @@ import com.sun.logging.LogDomains;
  * If jtsTx!=null, all calls are delegated to jtsTx.
  *
 
- * Time out capability is added to the local transactions. This class extends the TimerTask.
- * When the transaction needs to be timedout, this schedules with the timer. At the commit 
- * and rollback time, task will be cancelled.  If the transaction is timedout, run() method
- * will be called and transaction will be marked for rollback.
+ * Time out capability is added to the local transactions. When the transaction needs
+ * to be timedout, this arms a timeout in the shared TimeoutWheel. At the commit
+ * and rollback time, the timeout will be cancelled.  If the transaction is timedout,
+ * run() method will be called and transaction will be marked for rollback.
  */
-public final class JavaEETransactionImpl extends TimerTask implements
-        JavaEETransaction {
+public final class JavaEETransactionImpl implements
+        JavaEETransaction, Runnable {
 
     static Logger _logger = LogDomains.getLogger(JavaEETransactionImpl.class, LogDomains.JTA_LOGGER);
 
@@ -107,6 +107,7 @@ public final class JavaEETransactionImpl extends TimerTask implements
     // START: local transaction timeout
     private boolean timedOut = false;
     private boolean isTimerTask = false;
+    private TimeoutWheel.Timeout timerTask = null;
     private int timeout = 0;
     // END: local transaction timeout
     private boolean imported = false;
@@ -128,17 +129,6 @@ public final class JavaEETransactionImpl extends TimerTask implements
     // tx-specific ejb container info associated with this tx
     private Object containerData = null;
 
-    static private boolean isTimerInitialized = false;
-    static private Timer timer = null;
-    static private long timerTasksScheduled = 0; // Global counter
-
-    static synchronized private void initializeTimer() {
-        if (isTimerInitialized)
-            return;
-        timer = new Timer(true); // daemon 
-        isTimerInitialized = true;
-    }
-
     JavaEETransactionImpl(JavaEETransactionManager javaEETM) {
         this.javaEETM = javaEETM;
         this.txId = getNewTxId();
@@ -154,10 +144,7 @@ public final class JavaEETransactionImpl extends TimerTask implements
     // START: local transaction timeout
     JavaEETransactionImpl(int timeout, JavaEETransactionManager javaEETM) {
         this(javaEETM);
-        if (!isTimerInitialized)
-            initializeTimer();
-        timer.schedule(this,timeout * 1000L);
-        timerTasksScheduled++;
+        timerTask = TimeoutWheel.getInstance().arm(timeout * 1000L, this);
         isTimerTask = true;
         this.timeout = timeout;
     }
@@ -170,7 +157,7 @@ public final class JavaEETransactionImpl extends TimerTask implements
     }
 
     // START: local transaction timeout
-    // TimerTask run() method implementation
+    // Runnable run() method implementation, called by the TimeoutWheel
     public void run() {
         timedOut = true;
         try {
@@ -193,15 +180,10 @@ public final class JavaEETransactionImpl extends TimerTask implements
     }
 
     // Cancels the timertask and returns the timeout
+    // The cancelled timeout is unlinked from the wheel at once: there is
+    // nothing left to purge.
     public int cancelTimerTask() {
-        cancel();
-        int mod = javaEETM.getPurgeCancelledTtransactionsAfter();
-        if (mod > 0 && timerTasksScheduled % mod == 0) {
-            int purged = timer.purge();
-            if (_logger.isLoggable(Level.FINE)) {
-                _logger.log(Level.FINE, "Purged " + purged + " timer tasks from canceled queue");
-            } 
-        }
+        timerTask.cancel();
         return timeout;
     }
 
@@ -1039,6 +1039,8 @@ public class JavaEETransactionManagerSimplified
     /**
      * Modify the value to be used to purge transaction tasks after the 
      * specified number of cancelled tasks.
+     * The local transaction timeouts are now unlinked from the TimeoutWheel
+     * as soon as they are cancelled, so the value is no longer used.
      */
     public void setPurgeCancelledTtransactionsAfter(int num) {
         purgeCancelledTtransactions = num;
@@ -1249,6 +1251,10 @@ public class JavaEETransactionManagerSimplified
                     _logger.log(Level.INFO, (String)entry.getKey() + ": " + entry.getValue());
                 }
             }
+            TimeoutWheel wheel = TimeoutWheel.getInstance();
+            _logger.log(Level.INFO, "Transaction timeouts armed: " + wheel.getArmedCount()
+                    + ", fired: " + wheel.getFiredCount()
+                    + ", cancelled: " + wheel.getCancelledCount());
         }
     }
 
@@ -0,0 +1,320 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package com.sun.enterprise.transaction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.sun.logging.LogDomains;
+
+/**
+ * A hashed timing wheel for the transaction timeouts, shared by the JTA
+ * local transactions and the JTS TimeoutManager.
+ * <p>
+ * A timeout is hashed by its deadline, in ticks, to a bucket of the wheel
+ * and linked into it: arming and cancelling a timeout is O(1), and only
+ * locks its bucket, so that concurrent transactions rarely contend. A single
+ * daemon thread advances the wheel every tick and runs the expired timeouts
+ * of the current bucket; the timeouts due in a later revolution of the
+ * wheel stay in the bucket until then. The timeout tasks run on that thread,
+ * and must be short.
+ */
+public final class TimeoutWheel {
+
+    static Logger _logger = LogDomains.getLogger(TimeoutWheel.class, LogDomains.JTA_LOGGER);
+
+    /**
+     * The default duration of a tick in milliseconds, set with the
+     * com.sun.enterprise.transaction.timeoutWheelTick system property.
+     */
+    private static final long DEFAULT_TICK_MILLIS = 100;
+
+    /**
+     * The number of buckets of the wheel, a power of 2.
+     */
+    private static final int WHEEL_SIZE = 512;
+
+    private static TimeoutWheel instance = null;
+
+    private final long tickNanos;
+    private final long startNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+
+    /**
+     * The tick the wheel is at, the bucket of which is expiring.
+     */
+    private volatile long currentTick = 0;
+
+    private final AtomicLong armedCount = new AtomicLong();
+    private final AtomicLong firedCount = new AtomicLong();
+    private final AtomicLong cancelledCount = new AtomicLong();
+
+    /**
+     * Returns the timing wheel shared by the transaction managers, starting
+     * it the first time.
+     */
+    public static synchronized TimeoutWheel getInstance() {
+        if (instance == null) {
+            long tickMillis = DEFAULT_TICK_MILLIS;
+            try {
+                String v = System.getProperty("com.sun.enterprise.transaction.timeoutWheelTick");
+                if (v != null && Long.parseLong(v) > 0) {
+                    tickMillis = Long.parseLong(v);
+                }
+            } catch (NumberFormatException ex) {
+                // ignore
+            }
+            instance = new TimeoutWheel(tickMillis, WHEEL_SIZE);
+            instance.start("transaction-timeout-wheel");
+        }
+        return instance;
+    }
+
+    TimeoutWheel(long tickMillis, int size) {
+        tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        startNanos = System.nanoTime();
+        int n = Integer.highestOneBit(Math.max(size, 2) * 2 - 1);
+        wheel = new Bucket[n];
+        for (int i = 0; i < n; i++) {
+            wheel[i] = new Bucket();
+        }
+        mask = n - 1;
+    }
+
+    void start(String name) {
+        Thread ticker = new Thread(name) {
+            public void run() {
+                for (;;) {
+                    try {
+                        advance();
+                    } catch (InterruptedException ex) {
+                        return;
+                    } catch (Throwable t) {
+                        _logger.log(Level.WARNING, "enterprise_distributedtx.some_excep", t);
+                    }
+                }
+            }
+        };
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    /**
+     * Arms a timeout running the given task once the given delay has elapsed.
+     *
+     * @param delayMillis the delay in milliseconds
+     * @param task the task to run on expiry
+     * @return the timeout, to be cancelled
+     */
+    public Timeout arm(long delayMillis, Runnable task) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        long ticks = (deadline - startNanos + tickNanos - 1) / tickNanos;
+        Timeout timeout = new Timeout(task, deadline);
+        armedCount.incrementAndGet();
+        for (;;) {
+            long tick = Math.max(ticks, currentTick + 1);
+            Bucket bucket = wheel[(int) (tick & mask)];
+            synchronized (bucket) {
+                // The wheel may have expired the bucket meanwhile
+                if (tick > currentTick) {
+                    timeout.tick = tick;
+                    bucket.add(timeout);
+                    return timeout;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of timeouts armed, neither expired nor cancelled.
+     */
+    public long getArmedCount() {
+        return armedCount.get();
+    }
+
+    /**
+     * Returns the number of timeouts which have expired.
+     */
+    public long getFiredCount() {
+        return firedCount.get();
+    }
+
+    /**
+     * Returns the number of timeouts which have been cancelled.
+     */
+    public long getCancelledCount() {
+        return cancelledCount.get();
+    }
+
+    /**
+     * Waits for the next tick, and runs the timeouts expiring with it, or
+     * with the ticks missed if the wheel is late.
+     */
+    void advance() throws InterruptedException {
+        long next = currentTick + 1;
+        long wait = startNanos + next * tickNanos - System.nanoTime();
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+        long now = (System.nanoTime() - startNanos) / tickNanos;
+        for (long tick = next; tick <= now; tick++) {
+            expire(tick);
+        }
+    }
+
+    private void expire(long tick) {
+        List<Timeout> expired = null;
+        Bucket bucket = wheel[(int) (tick & mask)];
+        synchronized (bucket) {
+            currentTick = tick;
+            Timeout timeout = bucket.head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.tick <= tick) {
+                    bucket.remove(timeout);
+                    if (expired == null) {
+                        expired = new ArrayList<Timeout>();
+                    }
+                    expired.add(timeout);
+                }
+                timeout = next;
+            }
+        }
+
+        if (expired != null) {
+            armedCount.addAndGet(-expired.size());
+            firedCount.addAndGet(expired.size());
+            for (Timeout timeout : expired) {
+                try {
+                    timeout.task.run();
+                } catch (Throwable t) {
+                    _logger.log(Level.WARNING, "enterprise_distributedtx.some_excep", t);
+                }
+            }
+        }
+    }
+
+    /**
+     * A bucket of the wheel: a doubly linked list of timeouts, guarded by
+     * the bucket itself.
+     */
+    private static final class Bucket {
+        Timeout head;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            timeout.next = head;
+            if (head != null) {
+                head.prev = timeout;
+            }
+            head = timeout;
+        }
+
+        void remove(Timeout timeout) {
+            if (timeout.prev != null) {
+                timeout.prev.next = timeout.next;
+            } else {
+                head = timeout.next;
+            }
+            if (timeout.next != null) {
+                timeout.next.prev = timeout.prev;
+            }
+            timeout.bucket = null;
+            timeout.prev = null;
+            timeout.next = null;
+        }
+    }
+
+    /**
+     * A timeout armed in the wheel.
+     */
+    public final class Timeout {
+        private final Runnable task;
+        private final long deadline;
+
+        // guarded by the lock of the bucket
+        private long tick;
+        private volatile Bucket bucket;
+        private Timeout prev;
+        private Timeout next;
+
+        Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancels this timeout.
+         *
+         * @return true if the timeout was armed, false if it has expired or
+         * been cancelled already
+         */
+        public boolean cancel() {
+            for (;;) {
+                Bucket b = bucket;
+                if (b == null) {
+                    return false;
+                }
+                synchronized (b) {
+                    if (bucket == b) {
+                        b.remove(this);
+                        armedCount.decrementAndGet();
+                        cancelledCount.incrementAndGet();
+                        return true;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Returns the time left before this timeout expires in milliseconds,
+         * 0 if its deadline has passed.
+         */
+        public long getDelay() {
+            return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+        }
+    }
+}
@@ -53,6 +53,7 @@ import org.glassfish.gmbal.Description;
 import org.glassfish.gmbal.ManagedAttribute;
 import org.glassfish.gmbal.ManagedObject;
 
+import com.sun.enterprise.transaction.TimeoutWheel;
 import com.sun.enterprise.transaction.api.JavaEETransactionManager;
 import com.sun.enterprise.transaction.api.TransactionAdminBean;
 
@@ -78,6 +79,12 @@ public class TransactionServiceStatsProvider {
     private CountStatisticImpl rolledbackCount = new CountStatisticImpl("RolledbackCount", "count", 
             "Provides the number of transactions that have been rolled back.");
 
+    private CountStatisticImpl armedTimeoutCount = new CountStatisticImpl("ArmedTimeoutCount", "count", 
+            "Provides the number of transaction timeouts that are currently armed.");
+
+    private CountStatisticImpl firedTimeoutCount = new CountStatisticImpl("FiredTimeoutCount", "count", 
+            "Provides the number of transaction timeouts that have expired.");
+
     private StringStatisticImpl inflightTransactions = new StringStatisticImpl("ActiveIds", "List", 
                 "Provides the IDs of the transactions that are currently active a.k.a. in-flight " 
                 + "transactions. Every such transaction can be rolled back after freezing the transaction " 
@@ -115,6 +122,20 @@ public class TransactionServiceStatsProvider {
         return rolledbackCount;
     }
     
+    @ManagedAttribute(id="armedtimeoutcount")
+    @Description( "Provides the number of transaction timeouts that are currently armed." )
+    public CountStatistic getArmedTimeoutCount() {
+        armedTimeoutCount.setCount(TimeoutWheel.getInstance().getArmedCount());
+        return armedTimeoutCount;
+    }
+
+    @ManagedAttribute(id="firedtimeoutcount")
+    @Description( "Provides the number of transaction timeouts that have expired." )
+    public CountStatistic getFiredTimeoutCount() {
+        firedTimeoutCount.setCount(TimeoutWheel.getInstance().getFiredCount());
+        return firedTimeoutCount;
+    }
+
     @ManagedAttribute(id="state")
     @Description( "Indicates if the transaction service has been frozen." )
     public StringStatistic getState() {
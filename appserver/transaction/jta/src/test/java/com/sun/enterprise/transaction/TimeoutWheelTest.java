@@ -0,0 +1,227 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package com.sun.enterprise.transaction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the timing wheel of the transaction timeouts.
+ */
+public class TimeoutWheelTest extends TestCase {
+
+    private static final long TICK_MILLIS = 10;
+
+    // 8 buckets of 10 ms, a revolution of the wheel is 80 ms
+    private static final int SIZE = 8;
+
+    public TimeoutWheelTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * Test that a timeout fires once, not before its delay, including
+     * in a later revolution of the wheel.
+     */
+    public void testFire() throws Exception {
+        TimeoutWheel wheel = new TimeoutWheel(TICK_MILLIS, SIZE);
+        long start = System.nanoTime();
+        Task shortTask = new Task();
+        Task longTask = new Task();
+        wheel.arm(25, shortTask);
+        wheel.arm(250, longTask);
+        assertEquals(2, wheel.getArmedCount());
+
+        advanceUntil(wheel, 1000, shortTask, longTask);
+        assertEquals(1, shortTask.runs.get());
+        assertEquals(1, longTask.runs.get());
+        assertTrue(shortTask.firedAt.get() - start >= TimeUnit.MILLISECONDS.toNanos(25));
+        assertTrue(longTask.firedAt.get() - start >= TimeUnit.MILLISECONDS.toNanos(250));
+        assertEquals(0, wheel.getArmedCount());
+        assertEquals(2, wheel.getFiredCount());
+        assertEquals(0, wheel.getCancelledCount());
+    }
+
+    /**
+     * Test that a failing task does not prevent the others from running.
+     */
+    public void testFailingTask() throws Exception {
+        TimeoutWheel wheel = new TimeoutWheel(TICK_MILLIS, SIZE);
+        wheel.arm(10, new Runnable() {
+            public void run() {
+                throw new IllegalStateException("expected");
+            }
+        });
+        Task task = new Task();
+        wheel.arm(10, task);
+        advanceUntil(wheel, 1000, task);
+        assertEquals(1, task.runs.get());
+        assertEquals(2, wheel.getFiredCount());
+    }
+
+    /**
+     * Test that a cancelled timeout does not fire, and that only an armed
+     * timeout can be cancelled.
+     */
+    public void testCancel() throws Exception {
+        TimeoutWheel wheel = new TimeoutWheel(TICK_MILLIS, SIZE);
+        Task cancelled = new Task();
+        Task fired = new Task();
+        TimeoutWheel.Timeout timeout = wheel.arm(30, cancelled);
+        TimeoutWheel.Timeout other = wheel.arm(30, fired);
+        assertTrue(timeout.cancel());
+        assertFalse(timeout.cancel());
+        assertEquals(1, wheel.getArmedCount());
+        assertEquals(1, wheel.getCancelledCount());
+
+        advanceUntil(wheel, 1000, fired);
+        assertEquals(0, cancelled.runs.get());
+        assertFalse(other.cancel());
+        assertEquals(0, wheel.getArmedCount());
+        assertEquals(1, wheel.getFiredCount());
+        assertEquals(1, wheel.getCancelledCount());
+    }
+
+    /**
+     * Test that the timeouts armed while the wheel expires their bucket are
+     * not lost, and that each timeout either fires or is cancelled, once.
+     */
+    public void testConcurrentArmAndCancel() throws Exception {
+        final TimeoutWheel wheel = new TimeoutWheel(1, SIZE);
+        final int threads = 8;
+        final int perThread = 2000;
+        final List<Task> tasks = new ArrayList<Task>();
+        final List<TimeoutWheel.Timeout> timeouts = new ArrayList<TimeoutWheel.Timeout>();
+        for (int i = 0; i < threads * perThread; i++) {
+            tasks.add(new Task());
+            timeouts.add(null);
+        }
+        final boolean[] cancelled = new boolean[tasks.size()];
+
+        final AtomicInteger stop = new AtomicInteger();
+        Thread ticker = new Thread() {
+            public void run() {
+                try {
+                    while (stop.get() == 0) {
+                        wheel.advance();
+                    }
+                } catch (InterruptedException ex) {
+                    // stopped
+                }
+            }
+        };
+        ticker.start();
+
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final int first = t * perThread;
+            new Thread() {
+                public void run() {
+                    try {
+                        Random random = new Random(first);
+                        for (int i = first; i < first + perThread; i++) {
+                            TimeoutWheel.Timeout timeout = wheel.arm(random.nextInt(5), tasks.get(i));
+                            if (random.nextBoolean()) {
+                                cancelled[i] = timeout.cancel();
+                            }
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (wheel.getArmedCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        stop.set(1);
+        ticker.join();
+
+        assertEquals(0, wheel.getArmedCount());
+        int fired = 0;
+        for (int i = 0; i < tasks.size(); i++) {
+            assertEquals("timeout " + i, cancelled[i] ? 0 : 1, tasks.get(i).runs.get());
+            fired += tasks.get(i).runs.get();
+        }
+        assertEquals(fired, wheel.getFiredCount());
+        assertEquals(tasks.size() - fired, wheel.getCancelledCount());
+    }
+
+    /**
+     * Advances the wheel until the given tasks have run, or the given time
+     * has elapsed.
+     */
+    private static void advanceUntil(TimeoutWheel wheel, long millis, Task... tasks)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + millis;
+        while (System.currentTimeMillis() < deadline) {
+            wheel.advance();
+            boolean all = true;
+            for (Task task : tasks) {
+                all &= task.runs.get() > 0;
+            }
+            if (all) {
+                return;
+            }
+        }
+        fail("the timeouts have not fired");
+    }
+
+    private static class Task implements Runnable {
+        final AtomicInteger runs = new AtomicInteger();
+        final AtomicLong firedAt = new AtomicLong();
+
+        public void run() {
+            firedAt.set(System.nanoTime());
+            runs.incrementAndGet();
+        }
+    }
+}
@@ -208,6 +208,28 @@ public class Configuration extends Object {
      */
     public final static String KEYPOINT_COUNT = "com.sun.jts.keypointCount"/*#Frozen*/;
 
+    /**The property key used to enable group commit of the transaction log.
+     * The records which must be forced to the log, when transactions commit,
+     * are then forced by batches instead of one at a time.
+     * <p>
+     * The value is <em><b>com.sun.jts.logGroupCommit</b></em>.
+     * <p>
+     * The default is to force every record on its own.  If the value is
+     * 'true', group commit is enabled.
+     */
+    public final static String LOG_GROUP_COMMIT = "com.sun.jts.logGroupCommit"/*#Frozen*/;
+
+    /**The property key used to specify how long, in microseconds, group
+     * commit waits for more records before forcing a batch.  A longer delay
+     * forces larger batches, at the cost of the commit latency.
+     * <p>
+     * The value is <em><b>com.sun.jts.logGroupCommitDelay</b></em>.
+     * <p>
+     * The default value for this property is 0: a batch holds the records
+     * written while the previous one was forced.
+     */
+    public final static String LOG_GROUP_COMMIT_DELAY = "com.sun.jts.logGroupCommitDelay"/*#Frozen*/;
+
     // Property to specify the instance name
     public final static String INSTANCE_NAME = "com.sun.jts.instancename"/*#Frozen*/;
 
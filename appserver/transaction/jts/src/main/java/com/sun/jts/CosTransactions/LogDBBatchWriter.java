@@ -0,0 +1,373 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package com.sun.jts.CosTransactions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.sql.*;
+import javax.sql.*;
+import java.lang.reflect.Method;
+
+import java.util.logging.Logger;
+import java.util.logging.Level;
+import com.sun.logging.LogDomains;
+
+/** The LogDBBatchWriter class writes the inserts and deletes of the
+  * transaction log records of LogDBHelper by JDBC batches.
+  * <p>
+  * A single writer thread keeps a connection open, with a prepared statement
+  * for the inserts and one for the deletes. The operations requested by the
+  * transactions meanwhile are written together, and committed at once, by
+  * the next batch. An insert waits for its batch to be committed, as the
+  * transaction cannot commit before its record is in the log; a delete does
+  * not wait, but is written within the flush interval.
+*/
+
+class LogDBBatchWriter {
+
+    private static Logger _logger = LogDomains.getLogger(LogDBBatchWriter.class, LogDomains.TRANSACTION_LOGGER);
+
+    private static final int INSERT = 0;
+    private static final int DELETE = 1;
+    private static final int FLUSH  = 2;
+
+    /** An operation waiting to be written.
+     */
+    private static final class Op {
+        final int type;
+        final String localTID;
+        final String serverName;
+        final String instanceName;
+        final byte[] data;
+
+        // guarded by the lock of the writer
+        boolean done = false;
+        boolean result = false;
+
+        Op(int type, String localTID, String serverName, String instanceName, byte[] data) {
+            this.type = type;
+            this.localTID = localTID;
+            this.serverName = serverName;
+            this.instanceName = instanceName;
+            this.data = data;
+        }
+    }
+
+    private final DataSource ds;
+    private final Method getNonTxConnectionMethod;
+    private final String insertStatement;
+    private final String deleteStatement;
+    private final long flushInterval;
+
+    private final Object lock = new Object();
+
+    // guarded by lock
+    private List<Op> pending = new ArrayList<Op>();
+    private int waitersPending = 0;
+    private boolean closed = false;
+    private long batchCount = 0;
+    private long opCount = 0;
+
+    // used by the writer thread only
+    private Connection conn = null;
+    private PreparedStatement insertStmt = null;
+    private PreparedStatement deleteStmt = null;
+
+    private final Thread writer;
+
+    /** Creates the writer, and starts its thread.
+     *
+     * @param ds the data source of the log
+     * @param getNonTxConnectionMethod the method getting a non transactional
+     *        connection from the data source, or null to get a connection
+     * @param insertStatement the statement inserting a record
+     * @param deleteStatement the statement deleting a record
+     * @param flushInterval the longest time a delete waits to be written,
+     *        in milliseconds
+     */
+    LogDBBatchWriter(DataSource ds, Method getNonTxConnectionMethod,
+            String insertStatement, String deleteStatement, long flushInterval) {
+        this.ds = ds;
+        this.getNonTxConnectionMethod = getNonTxConnectionMethod;
+        this.insertStatement = insertStatement;
+        this.deleteStatement = deleteStatement;
+        this.flushInterval = flushInterval;
+
+        writer = new Thread("JTS DB Log Writer") {
+            public void run() {
+                writeBatches();
+            }
+        };
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /** Inserts a record, and waits for it to be committed.
+     *
+     * @return true if the record has been committed
+     */
+    boolean insert(String localTID, String serverName, String instanceName, byte[] data) {
+        return submit(new Op(INSERT, localTID, serverName, instanceName, data), true);
+    }
+
+    /** Deletes a record, without waiting for it to be written.
+     */
+    void delete(String localTID, String serverName) {
+        submit(new Op(DELETE, localTID, serverName, null, null), false);
+    }
+
+    /** Waits for the operations submitted so far to be written.
+     */
+    void flush() {
+        submit(new Op(FLUSH, null, null, null, null), true);
+    }
+
+    /** Writes the pending operations, and stops the writer thread.
+     */
+    void close() {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        if (_logger.isLoggable(Level.FINE)) {
+            _logger.fine("LogDBBatchWriter wrote " + getOpCount() + " operations in " + getBatchCount() + " batches");
+        }
+    }
+
+    /** Returns the number of batches written.
+     */
+    long getBatchCount() {
+        synchronized (lock) {
+            return batchCount;
+        }
+    }
+
+    /** Returns the number of inserts and deletes written.
+     */
+    long getOpCount() {
+        synchronized (lock) {
+            return opCount;
+        }
+    }
+
+    private boolean submit(Op op, boolean wait) {
+        boolean interrupted = false;
+        try {
+            synchronized (lock) {
+                if (closed) {
+                    return false;
+                }
+                pending.add(op);
+                if (wait) {
+                    waitersPending++;
+                }
+                lock.notifyAll();
+
+                if (!wait) {
+                    return true;
+                }
+                while (!op.done) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException ex) {
+                        interrupted = true;
+                    }
+                }
+                return op.result;
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void writeBatches() {
+        for (;;) {
+            List<Op> batch;
+            synchronized (lock) {
+                while (pending.isEmpty() && !closed) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException ex) {
+                        // The writer stops when closed only
+                    }
+                }
+                if (pending.isEmpty()) {
+                    break;
+                }
+
+                // Nobody waits for deletes: give them the flush interval to
+                // be written with other operations.
+
+                long deadline = System.currentTimeMillis() + flushInterval;
+                while (waitersPending == 0 && !closed) {
+                    long wait = deadline - System.currentTimeMillis();
+                    if (wait <= 0) {
+                        break;
+                    }
+                    try {
+                        lock.wait(wait);
+                    } catch (InterruptedException ex) {
+                        break;
+                    }
+                }
+
+                batch = pending;
+                pending = new ArrayList<Op>();
+                waitersPending = 0;
+            }
+
+            boolean result = write(batch);
+
+            synchronized (lock) {
+                for (Op op : batch) {
+                    op.result = result;
+                    op.done = true;
+                    if (op.type != FLUSH) {
+                        opCount++;
+                    }
+                }
+                batchCount++;
+                lock.notifyAll();
+            }
+        }
+        closeConnection();
+    }
+
+    /** Writes the given operations in a single database transaction,
+     * retrying once on a new connection, as the current one may be broken.
+     */
+    private boolean write(List<Op> batch) {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                if (conn == null) {
+                    openConnection();
+                }
+
+                // Delete first: a record deleted before being inserted again
+                // with the same local id must survive the batch.
+
+                boolean deletes = false;
+                boolean inserts = false;
+                for (Op op : batch) {
+                    if (op.type == DELETE) {
+                        deleteStmt.setString(1, op.localTID);
+                        deleteStmt.setString(2, op.serverName);
+                        deleteStmt.addBatch();
+                        deletes = true;
+                    }
+                }
+                if (deletes) {
+                    deleteStmt.executeBatch();
+                }
+                for (Op op : batch) {
+                    if (op.type == INSERT) {
+                        insertStmt.setString(1, op.localTID);
+                        insertStmt.setString(2, op.serverName);
+                        insertStmt.setString(3, op.instanceName);
+                        insertStmt.setBytes(4, op.data);
+                        insertStmt.addBatch();
+                        inserts = true;
+                    }
+                }
+                if (inserts) {
+                    insertStmt.executeBatch();
+                }
+                conn.commit();
+                return true;
+            } catch (Throwable ex) {
+                if (attempt > 0) {
+                    _logger.log(Level.SEVERE,"jts.exception_in_db_log_resource",ex);
+                } else if (_logger.isLoggable(Level.FINE)) {
+                    _logger.log(Level.FINE, "LogDBBatchWriter retrying batch on a new connection", ex);
+                }
+                try {
+                    if (conn != null) {
+                        conn.rollback();
+                    }
+                } catch (Exception ex1) {
+                    // The connection is dropped anyway
+                }
+                closeConnection();
+                if (attempt > 0) {
+                    return false;
+                }
+            }
+        }
+    }
+
+    private void openConnection() throws Exception {
+        if (getNonTxConnectionMethod != null) {
+            // To avoid compile time dependency to get NonTxConnection
+            conn = (Connection)(getNonTxConnectionMethod.invoke(ds, null));
+        } else {
+            conn = ds.getConnection();
+        }
+        conn.setAutoCommit(false);
+        insertStmt = conn.prepareStatement(insertStatement);
+        deleteStmt = conn.prepareStatement(deleteStatement);
+    }
+
+    private void closeConnection() {
+        try {
+            if (insertStmt != null)
+                insertStmt.close();
+            if (deleteStmt != null)
+                deleteStmt.close();
+            if (conn != null) {
+                conn.setAutoCommit(true);
+                conn.close();
+            }
+        } catch (Exception ex1) {
+            _logger.log(Level.FINE,"jts.exception_in_db_log_resource",ex1);
+        } finally {
+            insertStmt = null;
+            deleteStmt = null;
+            conn = null;
+        }
+    }
+}
@@ -69,6 +69,7 @@ class LogDBHelper {
 
     private DataSource ds = null;
     private Method getNonTxConnectionMethod = null;
+    private volatile LogDBBatchWriter batchWriter = null;
     private static final String insertStatement = 
 	         System.getProperty("com.sun.jts.dblogging.insertquery",
                  "insert into  txn_log_table values ( ? , ? , ? , ? )");
@@ -83,6 +84,12 @@ class LogDBHelper {
                  "select distinct servername from txn_log_table where instancename = ? ");
     private static final String createTableStatement = 
                  "create table txn_log_table (localtid varchar(20), servername varchar(150), instancename varchar(150), gtrid blob)";
+    private static final String createIndexStatement = 
+	         System.getProperty("com.sun.jts.dblogging.createindexquery",
+                 "create index txn_log_table_idx on txn_log_table (servername, localtid)");
+    // Write the records by JDBC batches, see LogDBBatchWriter
+    private static final boolean useBatchWriter = Boolean.getBoolean("com.sun.jts.dblogging.batch");
+    private static final long batchFlushInterval = Long.getLong("com.sun.jts.dblogging.batch.flushinterval", 100L);
     private static final boolean useNonTxConnectionForAddRecord = Boolean.getBoolean("com.sun.jts.dblogging.use.nontx.connection.for.add");
     private static Logger _logger = LogDomains.getLogger(LogDBHelper.class, LogDomains.TRANSACTION_LOGGER);
     private static LogDBHelper _instance = new LogDBHelper();
@@ -98,12 +105,7 @@ class LogDBHelper {
         }
         try {
             InitialContext ctx = new InitialContext();
-            ds = (DataSource)ctx.lookup(resName);
-	    Class cls = ds.getClass();
-	    getNonTxConnectionMethod = cls.getMethod("getNonTxConnection", null);
-
-            createTable();
-
+            init((DataSource)ctx.lookup(resName), useBatchWriter ? batchFlushInterval : -1);
         } catch (Throwable t) {
             _logger.log(Level.SEVERE,"jts.unconfigured_db_log_resource",resName);
             _logger.log(Level.SEVERE,"",t);
@@ -115,6 +117,30 @@ class LogDBHelper {
         }
     }
 
+    /** Creates a helper writing the log of the given instance to the given
+     *  data source, which must have a getNonTxConnection method.
+     *
+     * @param batchFlushInterval the flush interval of the batch writer, or a
+     *        negative value to write the records one by one
+     */
+    LogDBHelper(DataSource ds0, String instanceName0, long batchFlushInterval) throws Exception {
+        instanceName = instanceName0;
+        init(ds0, batchFlushInterval);
+    }
+
+    private void init(DataSource ds0, long batchFlushInterval) throws Exception {
+        ds = ds0;
+        Class cls = ds.getClass();
+        getNonTxConnectionMethod = cls.getMethod("getNonTxConnection", null);
+
+        createTable();
+
+        if (batchFlushInterval >= 0) {
+            batchWriter = new LogDBBatchWriter(ds, getNonTxConnectionMethod,
+                    insertStatement, deleteStatement, batchFlushInterval);
+        }
+    }
+
     void setServerName() {
         // Add a mapping between the serverName and the instanceName
         String serverName0 = Configuration.getServerName();
@@ -152,6 +178,10 @@ class LogDBHelper {
                 _logger.fine("LogDBHelper.addRecord for serverName: " + serverName);
                 _logger.fine("LogDBHelper.addRecord for instanceName: " + instanceName);
             }
+            LogDBBatchWriter writer = batchWriter;
+            if (writer != null) {
+                return writer.insert(Long.toString(localTID), serverName, instanceName, data);
+            }
             Connection conn = null;
             PreparedStatement prepStmt1 = null;    
             try {
@@ -196,6 +226,11 @@ class LogDBHelper {
             if (_logger.isLoggable(Level.FINE)) {
                 _logger.fine("LogDBHelper.deleteRecord for localTID: " + localTID + " and serverName: " + serverName0);
             }
+            LogDBBatchWriter writer = batchWriter;
+            if (writer != null) {
+                writer.delete(Long.toString(localTID), serverName0);
+                return true;
+            }
             Connection conn = null;
             PreparedStatement prepStmt1 = null;    
             try {
@@ -233,6 +268,8 @@ class LogDBHelper {
             if (_logger.isLoggable(Level.FINE)) {
                 _logger.fine("LogDBHelper get records for serverName: " + serverName0);
             }
+            // The deletes still pending would be recovered
+            flushBatchWriter();
             Connection conn = null;
             PreparedStatement prepStmt1 = null;    
             ResultSet rs = null;
@@ -286,6 +323,7 @@ class LogDBHelper {
             if (_logger.isLoggable(Level.FINE)) {
                 _logger.fine("LogDBHelper get serverName for instanceName: " + instanceName0);
             }
+            flushBatchWriter();
             Connection conn = null;
             PreparedStatement prepStmt1 = null;    
             ResultSet rs = null;
@@ -327,6 +365,26 @@ class LogDBHelper {
         return serverName0;
     }
 
+    /** Writes the operations submitted so far to the batch writer, if any.
+     */
+    void flushBatchWriter() {
+        LogDBBatchWriter writer = batchWriter;
+        if (writer != null) {
+            writer.flush();
+        }
+    }
+
+    /** Writes the pending operations and stops the batch writer, if any.
+     *  The records are then written one by one.
+     */
+    void shutdown() {
+        LogDBBatchWriter writer = batchWriter;
+        batchWriter = null;
+        if (writer != null) {
+            writer.close();
+        }
+    }
+
     private void createTable() {
         if (ds != null) {
             if (_logger.isLoggable(Level.FINE)) {
@@ -342,6 +400,15 @@ class LogDBHelper {
             } catch (Exception ex) {
                 _logger.log(Level.INFO,"jts.exception_in_db_log_resource_create");
                 _logger.log(Level.FINE,"jts.exception_in_db_log_table_create_error", ex);
+            }
+            // The records of a server are selected on recovery, and
+            // deleted by local id
+            try {
+                if (stmt1 != null) {
+                    stmt1.execute(createIndexStatement);
+                }
+            } catch (Exception ex) {
+                _logger.log(Level.FINE,"jts.exception_in_db_log_index_create_error", ex);
             } finally {
                 try {
                 if (stmt1 != null)
@@ -149,19 +149,26 @@ class LogFile {
      *
      * @see
      */
-    synchronized boolean write( int    writeType,
-                                byte[] record,
-                                int    recordType,
-                                LogLSN recordLSN ) {
+    boolean write( int    writeType,
+                   byte[] record,
+                   int    recordType,
+                   LogLSN recordLSN ) {
 
         boolean result = true;
 
         // Write the record.
         // Set the result based on return code from log write.
+        // The record is forced without the lock, so that concurrent forced
+        // writes can be forced together by group commit.
 
         try {
-            LogLSN resultLSN = handle.writeRecord(record,recordType,
-                                                  (writeType==LogFile.FORCED ? LogHandle.FORCE : LogHandle.BUFFER));
+            LogLSN resultLSN;
+            synchronized( this ) {
+                resultLSN = handle.writeRecord(record,recordType,
+                                               (writeType==LogFile.FORCED ? LogHandle.FORCE : LogHandle.BUFFER));
+            }
+            if( writeType == LogFile.FORCED )
+                handle.forceRecord(resultLSN);
             if( recordLSN != null )
                 recordLSN.copy(resultLSN);
         } catch( LogException le ) {
@@ -495,6 +495,63 @@ class LogFileHandle {
 
     }
 
+    /**Writes the updated part of the buffer to the file, without synchronising
+     * the file with the file system; fileForce must be called to do so.
+     *
+     * @param
+     *
+     * @return  Whether the file must be forced.
+     *
+     * @exception LogException The write failed
+     *
+     * @see
+     */
+    boolean fileFlush() throws LogException {
+
+        // As for fileSync, only buffered files which have been updated are
+        // written.
+
+        if( bufferUpdateStart == -1 )
+            return false;
+
+        try {
+            fhandle.seek(bufferUpdateStart);
+            fhandle.write(bufferData,bufferUpdateStart,bufferUpdateEnd-bufferUpdateStart);
+
+            bufferUpdateStart = -1;
+            bufferUpdateEnd   = -1;
+        } catch (Throwable e) {
+            throw new LogException(LogException.LOG_READ_FAILURE,1,
+                    sm.getString("jts.log_file_sync_failed"), e);
+        }
+
+        return true;
+    }
+
+    /**Synchronises the data written by fileFlush with the file system.
+     * <p>
+     * This does not access the buffer, so it may be called while other
+     * threads write to it.
+     *
+     * @param
+     *
+     * @return
+     *
+     * @exception LogException The sync failed
+     *
+     * @see
+     */
+    void fileForce() throws LogException {
+
+        if (dsyncProp == null)
+            try {
+                fd.sync();
+            } catch (Throwable e) {
+                throw new LogException(LogException.LOG_READ_FAILURE,1,
+                        sm.getString("jts.log_file_sync_failed"), e);
+            }
+    }
+
     /**Reads a vector of records from the file.
      *
      * @param vector  The vector to contain the records to be read.
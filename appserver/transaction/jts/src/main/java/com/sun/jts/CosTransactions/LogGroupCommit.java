@@ -0,0 +1,311 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package com.sun.jts.CosTransactions;
+
+// Import required classes.
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.sun.enterprise.util.i18n.StringManager;
+import com.sun.logging.LogDomains;
+
+/**Forces the records written to a log in FORCE mode by group commit.
+ * <p>
+ * The records are written to the log buffers without being forced. The first
+ * thread which has to wait for its record to be forced becomes the leader: it
+ * writes the buffers of the updated extents, and then forces them to
+ * permanent storage outside of the lock of the log, so that the other threads
+ * keep writing their records meanwhile. The records written before the
+ * buffers were written are then durable, and their threads are released; the
+ * next thread still waiting becomes the next leader, and forces all the
+ * records written during the previous force at once.
+ *
+ * @see LogHandle
+*/
+class LogGroupCommit {
+    private static final StringManager sm = StringManager.getManager(LogGroupCommit.class);
+
+	/*
+		Logger to log transaction messages
+	*/
+	static Logger _logger = LogDomains.getLogger(LogGroupCommit.class, LogDomains.TRANSACTION_LOGGER);
+
+    private final LogHandle logHandle;
+
+    /**How long the leader waits for more records before forcing a batch.
+     */
+    private final long maxBatchDelayNanos;
+
+    private final Object lock = new Object();
+
+    // The following are guarded by lock.
+
+    /**The LSN of the last record forced.
+     */
+    private LogLSN forcedLSN = new LogLSN(LogLSN.NULL_LSN);
+
+    /**Whether a leader is forcing a batch.
+     */
+    private boolean forcing = false;
+
+    /**The records of the last batch which could not be forced.
+     */
+    private LogLSN failedFromLSN = null;
+    private LogLSN failedToLSN = null;
+    private LogException failure = null;
+
+    // Metrics.
+
+    private long batchCount = 0;
+    private long recordCount = 0;
+    private int maxBatchSize = 0;
+    private long totalForceNanos = 0;
+    private long maxForceNanos = 0;
+
+    /**Creates the group commit of the given log.
+     *
+     * @param handle         The log.
+     * @param maxBatchDelay  How long the leader waits for more records before
+     *                       forcing a batch, in microseconds.
+     *
+     * @return
+     *
+     * @see
+     */
+    LogGroupCommit( LogHandle handle,
+                    long      maxBatchDelay ) {
+        logHandle = handle;
+        maxBatchDelayNanos = maxBatchDelay * 1000;
+    }
+
+    /**Waits until the record with the given LSN is forced to permanent
+     * storage, forcing it if no other thread is.
+     *
+     * @param recordLSN  The LSN of the record written in FORCE mode.
+     *
+     * @return
+     *
+     * @exception LogException The record could not be forced.
+     *
+     * @see
+     */
+    void waitForced( LogLSN recordLSN ) throws LogException {
+
+        boolean interrupted = false;
+
+        synchronized( lock ) {
+            try {
+                for(;;) {
+                    if( failedToLSN != null &&
+                        failedFromLSN.lessThan(recordLSN) &&
+                        !failedToLSN.lessThan(recordLSN) )
+                        throw new LogException(LogException.LOG_ERROR_FORCING_LOG, 1,
+                                sm.getString("jts.log_file_sync_failed"), failure);
+
+                    if( !forcedLSN.lessThan(recordLSN) )
+                        return;
+
+                    if( !forcing )
+                        break;
+
+                    try {
+                        lock.wait();
+                    } catch( InterruptedException e ) {
+                        interrupted = true;
+                    }
+                }
+                forcing = true;
+            } finally {
+                if( interrupted )
+                    Thread.currentThread().interrupt();
+            }
+        }
+
+        // This thread is the leader.
+
+        forceBatch();
+
+        // The batch covers the record of the leader, unless it failed.
+
+        waitForced(recordLSN);
+    }
+
+    /**Forces the records written so far, as the leader.
+     *
+     * @param
+     *
+     * @return
+     *
+     * @see
+     */
+    private void forceBatch() {
+
+        // Give the other threads committing concurrently a chance to write
+        // their records in the same batch.
+
+        if( maxBatchDelayNanos > 0 )
+            LockSupport.parkNanos(maxBatchDelayNanos);
+
+        LogLSN fromLSN;
+        synchronized( lock ) {
+            fromLSN = new LogLSN(forcedLSN);
+        }
+
+        LogLSN toLSN = null;
+        int batchSize = 0;
+        long forceNanos = 0;
+        LogException error = null;
+
+        try {
+
+            // Write the buffers of the updated extents under the lock of the
+            // log, as the records are written to them.
+
+            List<LogExtent> extents = new ArrayList<LogExtent>();
+            synchronized( logHandle ) {
+                toLSN = new LogLSN(logHandle.logControlDescriptor.headLSN);
+                batchSize = logHandle.unforcedRecords;
+                logHandle.unforcedRecords = 0;
+                logHandle.flushExtents(extents);
+            }
+
+            // Force them without the lock of the log.
+
+            long start = System.nanoTime();
+            for( LogExtent extent : extents )
+                extent.fileHandle.fileForce();
+            forceNanos = System.nanoTime() - start;
+
+        } catch( LogException le ) {
+            error = le;
+        } catch( RuntimeException e ) {
+            error = new LogException(LogException.LOG_ERROR_FORCING_LOG, 2,
+                    sm.getString("jts.log_file_sync_failed"), e);
+        }
+
+        synchronized( lock ) {
+            forcing = false;
+
+            if( error == null ) {
+                if( forcedLSN.lessThan(toLSN) )
+                    forcedLSN = toLSN;
+
+                batchCount++;
+                recordCount += batchSize;
+                if( batchSize > maxBatchSize )
+                    maxBatchSize = batchSize;
+                totalForceNanos += forceNanos;
+                if( forceNanos > maxForceNanos )
+                    maxForceNanos = forceNanos;
+            } else {
+                failedFromLSN = fromLSN;
+                failedToLSN = (toLSN != null) ? toLSN : fromLSN;
+                failure = error;
+            }
+
+            lock.notifyAll();
+        }
+    }
+
+    /**Returns the number of batches forced.
+     */
+    long getBatchCount() {
+        synchronized( lock ) {
+            return batchCount;
+        }
+    }
+
+    /**Returns the number of records forced.
+     */
+    long getRecordCount() {
+        synchronized( lock ) {
+            return recordCount;
+        }
+    }
+
+    /**Returns the largest number of records forced in a batch.
+     */
+    int getMaxBatchSize() {
+        synchronized( lock ) {
+            return maxBatchSize;
+        }
+    }
+
+    /**Returns the average time spent forcing a batch, in microseconds.
+     */
+    long getAverageForceTime() {
+        synchronized( lock ) {
+            return (batchCount == 0) ? 0 : totalForceNanos / batchCount / 1000;
+        }
+    }
+
+    /**Returns the longest time spent forcing a batch, in microseconds.
+     */
+    long getMaxForceTime() {
+        synchronized( lock ) {
+            return maxForceNanos / 1000;
+        }
+    }
+
+    /**Logs the metrics of the group commit.
+     *
+     * @param
+     *
+     * @return
+     *
+     * @see
+     */
+    void logMetrics() {
+        if( _logger.isLoggable(Level.FINE) ) {
+            synchronized( lock ) {
+                _logger.log(Level.FINE, "Group commit of log " + logHandle.logFileName +
+                            ": " + recordCount + " records forced in " + batchCount +
+                            " batches, max batch size " + maxBatchSize +
+                            ", average force time " + getAverageForceTime() +
+                            " us, max force time " + getMaxForceTime() + " us");
+            }
+        }
+    }
+}
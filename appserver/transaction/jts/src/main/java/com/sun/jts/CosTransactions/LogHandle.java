@@ -235,6 +235,8 @@ class LogHandle {
     LogFileHandle        logFileHandle = null;
     LogControlDescriptor logControlDescriptor = null;
     LogControl           logControl = null;
+    LogGroupCommit       groupCommit = null;
+    int                  unforcedRecords = 0;
 
 
     /**Creates a LogHandle object for the given log instance.
@@ -267,6 +269,19 @@ class LogHandle {
         cursors = new ArrayList();
         extentTable = new Hashtable(EXTENT_TABLE_SIZE);
 
+        // If group commit is enabled, the records written in FORCE mode are
+        // forced by batches, see forceRecord.
+
+        if( "true".equals(Configuration.getPropertyValue(Configuration.LOG_GROUP_COMMIT)) ) {
+            long maxBatchDelay = 0;
+            String delay = Configuration.getPropertyValue(Configuration.LOG_GROUP_COMMIT_DELAY);
+            if( delay != null )
+                try {
+                    maxBatchDelay = Long.parseLong(delay.trim());
+                } catch( NumberFormatException e ) {}
+            groupCommit = new LogGroupCommit(this,maxBatchDelay);
+        }
+
     }
 
     /**Writes a record to the log.
@@ -561,8 +576,11 @@ class LogHandle {
         //         Return LOG_ERROR_FORCING_LOG
         //       Set 'extent written' flag to FALSE
         //   ENDLOOP
+        // With group commit, the caller forces the record with forceRecord.
 
-        if( writeMode == FORCE ) {
+        if( writeMode == FORCE && groupCommit != null )
+            unforcedRecords++;
+        else if( writeMode == FORCE ) {
             Enumeration extents = extentTable.elements();
             while( extents.hasMoreElements() ) {
                 LogExtent nextEDP = (LogExtent)extents.nextElement();
@@ -611,6 +629,53 @@ class LogHandle {
         return result;
     }
 
+    /**Waits until the given record, written in FORCE mode, is forced to
+     * permanent storage.
+     * <p>
+     * With group commit, writeRecord does not force the records written in
+     * FORCE mode: they are forced by batches, without the lock of the log,
+     * and this method must be called once the record is written, without
+     * holding the lock either. Otherwise the record is forced already.
+     *
+     * @param recordLSN  The LSN of the record.
+     *
+     * @return
+     *
+     * @exception LogException The record could not be forced.
+     *
+     * @see
+     */
+    void forceRecord( LogLSN recordLSN ) throws LogException {
+        if( groupCommit != null )
+            groupCommit.waitForced(recordLSN);
+    }
+
+    /**Writes the buffers of the extents written since the last force to
+     * their files, for group commit, and returns those which must be
+     * forced.
+     * <p>
+     * This internal method must be called with the lock of the log held.
+     *
+     * @param extents  The list the extents to be forced are added to.
+     *
+     * @return
+     *
+     * @exception LogException The write failed.
+     *
+     * @see
+     */
+    void flushExtents( List<LogExtent> extents ) throws LogException {
+        Enumeration elements = extentTable.elements();
+        while( elements.hasMoreElements() ) {
+            LogExtent logEDP = (LogExtent)elements.nextElement();
+            if( logEDP.writtenSinceLastForce ) {
+                if( logEDP.fileHandle.fileFlush() )
+                    extents.add(logEDP);
+                logEDP.writtenSinceLastForce = false;
+            }
+        }
+    }
+
     /**Reads a record from the log.
      *
      * @param readLSN  The LSN of the record to be read.
@@ -946,6 +1011,9 @@ class LogHandle {
 
         blockValid = null;
 
+        if( groupCommit != null )
+            groupCommit.logMetrics();
+
         // LOOP for each of the 16 elements in the log file's extent hash table
 
         boolean forced = false;
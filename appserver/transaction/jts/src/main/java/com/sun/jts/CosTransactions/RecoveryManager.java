@@ -782,6 +782,12 @@ public class RecoveryManager {
             CoordinatorLog.finalizeAll();
         }
 
+        // Write the deletes still pending in the database log.
+
+        if (Configuration.isDBLoggingEnabled()) {
+            LogDBHelper.getInstance().shutdown();
+        }
+
         //$Continue with shutdown/quiesce.
     }
 
@@ -63,8 +63,12 @@
 package com.sun.jts.CosTransactions;
 
 import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import org.omg.CosTransactions.*;
+import com.sun.enterprise.transaction.TimeoutWheel;
 import com.sun.jts.jtsxa.XID;
 
 import com.sun.jts.trace.*;
@@ -76,7 +80,11 @@ import com.sun.jts.utils.LogFormatter;
 
 /**
  * This class records state for timing out transactions, and runs a thread
- * which performs occasional checks to time out transactions.
+ * which times out the transactions.
+ * <p>
+ * Each timeout is armed in the TimeoutWheel shared with the local
+ * transactions, which queues it for the timeout thread once expired, so
+ * that the timeouts are neither scanned nor processed under a lock.
  *
  * @version 0.01
  *
@@ -106,8 +114,9 @@ class TimeoutManager {
      */
     private static boolean initialised = false;
 
-    private static Hashtable     pendingTimeouts = new Hashtable();
-    private static Hashtable     indoubtTimeouts = new Hashtable();
+    private static Map<Long,TimeoutInfo> pendingTimeouts = new ConcurrentHashMap<Long,TimeoutInfo>();
+    private static Map<Long,TimeoutInfo> indoubtTimeouts = new ConcurrentHashMap<Long,TimeoutInfo>();
+    private static BlockingQueue<TimeoutInfo> expiredTimeouts = new LinkedBlockingQueue<TimeoutInfo>();
     private static TimeoutThread timeoutThread = null;
     private static boolean       timeoutActive = false;
     private static boolean       quiescing = false;
@@ -195,7 +204,8 @@ class TimeoutManager {
                     new Date().getTime() + seconds * 1000L;
                  timeoutInfo.localTID    = localTID;
                  timeoutInfo.timeoutType = timeoutType;
-                 pendingTimeouts.put(localTID,timeoutInfo);
+                 cancel(pendingTimeouts.put(localTID,timeoutInfo));
+                 timeoutInfo.arm(seconds * 1000L);
                  break;
             case TimeoutManager.IN_DOUBT_TIMEOUT :
 		 if (!isSetTimeout) {
@@ -207,7 +217,8 @@ class TimeoutManager {
                     new Date().getTime() + seconds * 1000L;
                 timeoutInfo.localTID    = localTID;
                 timeoutInfo.timeoutType = timeoutType;
-                indoubtTimeouts.put(localTID,timeoutInfo);
+                cancel(indoubtTimeouts.put(localTID,timeoutInfo));
+                timeoutInfo.arm(seconds * 1000L);
                 break;
 
             // For any other type, remove the timeout if there is one.
@@ -215,16 +226,16 @@ class TimeoutManager {
             default:
 		if (!isSetTimeout)
 		  break;
-                   result = (pendingTimeouts.remove(localTID) != null);
+                   result = cancel(pendingTimeouts.remove(localTID));
 		   if (!result)
-                      result = (indoubtTimeouts.remove(localTID) != null);
+                      result = cancel(indoubtTimeouts.remove(localTID));
 
                     // If the transaction service is quiescing and
                     // there are no more pending timeouts,
                     // deactivate timeout and stop the timeout thread.
 
                     if (quiescing && pendingTimeouts.isEmpty() && indoubtTimeouts.isEmpty()) {
-                        timeoutThread.stop();
+                        timeoutThread.interrupt();
                         timeoutActive = false;
                         // pendingTimeouts = null;
                     }
@@ -360,99 +371,73 @@ class TimeoutManager {
     }
 
     /**
-     * Periodically checks the existing timeouts.
+     * Cancels the given timeout, if any.
+     *
+     * @param timeoutInfo  The timeout removed from the tables.
+     *
+     * @return  Indicates whether there was a timeout.
+     *
+     * @see
+     */
+    private static boolean cancel(TimeoutInfo timeoutInfo) {
+        if (timeoutInfo == null) {
+            return false;
+        }
+        timeoutInfo.cancel();
+        return true;
+    }
+
+    /**
+     * Queues an expired timeout for the timeout thread.
      * <p>
-     * This is done to discover if any transactions have overrun their allotted
-     * time.  Those which have are returned as an Enumeration.
+     * This is called by the TimeoutWheel, which must not be held up by the
+     * processing of the timeout, and does not reference the TimeoutManager's
+     * tables.
+     *
+     * @param timeoutInfo  The information for the transaction which has
+     *                     timed out.
+     *
+     * @return
+     *
+     * @see
+     */
+    static void expired(TimeoutInfo timeoutInfo) {
+        expiredTimeouts.offer(timeoutInfo);
+    }
+
+    /**
+     * Waits for the next expired timeout.
      * <p>
-     * Note that this method should not do anything that will cause a
-     * synchronized method in the RecoveryManager to be called, as this could
-     * cause a deadlock when RecoveryManager methods on other threads call
-     * setTimeout.
+     * The timeout processing is not carried out under any lock, because we
+     * would get deadlocked with addCoordinator or removeCoordinator that also
+     * update the timeout tables.
      *
      * @param
      *
-     * @return  The information for transactions which have timed out.
+     * @return  The information for a transaction which has timed out.
+     *
+     * @exception InterruptedException  The timeout thread is stopped.
      *
      * @see
      */
-     static Enumeration checkTimeouts() {
-        if (!isSetTimeout)
-           return null;
-
-        Enumeration result = null;
-
-        // When woken up, go through all current timeouts and identify those
-        // which have expired.
-
-        if (timeoutActive && ((pendingTimeouts.size() != 0) || (indoubtTimeouts.size() != 0))) {
-            Vector timedOut = null;
-
-            Enumeration timeouts = null;
-          
-            synchronized (pendingTimeouts) {
-                timeouts = pendingTimeouts.elements();
-
-                while (timeouts.hasMoreElements()) {
-
-                    TimeoutInfo timeoutInfo = (TimeoutInfo)timeouts.nextElement();
-
-                    // For each timeout in the list, check whether it has expired.
-                    // If so, look up the Coordinator and roll it back.
-
-                    if (new Date().getTime() > timeoutInfo.expireTime) {
-
-                       // Add the TimeoutInfo to the queue of
-                       //those that have timed out.
-
-                       if (timedOut == null) {
-                           timedOut = new Vector();
-                       }
-
-                       timedOut.addElement(timeoutInfo);
-                    }
-               }
-            }
-
-	    synchronized (indoubtTimeouts) {
-
-                timeouts = indoubtTimeouts.elements();
-
-                while (timeouts.hasMoreElements()) {
-
-                    TimeoutInfo timeoutInfo = (TimeoutInfo)timeouts.nextElement();
-
-                    // For each timeout in the list, check whether it has expired.
-                    // If so, look up the Coordinator and roll it back.
-
-                    if (new Date().getTime() > timeoutInfo.expireTime) {
-
-                       // Add the TimeoutInfo to the queue of
-                       //those that have timed out.
-
-                       if (timedOut == null) {
-                           timedOut = new Vector();
-                       }
-
-                       timedOut.addElement(timeoutInfo);
-                    }
-                }
-
-            }
-            // Enumerate the transactions which have timed out.
-
-            if (timedOut != null) {
-                result = timedOut.elements();
-            }
-           }
-
-        // The remainder of the timeout processing is not carried out here
-        // because we would get deadlocked with addCoordinator or
-        // removeCoordinator that also update the timeout list.  Hence the
-        // returned enumeration, which may be processed with
-        // no concurrency control.
+    static TimeoutInfo takeExpired() throws InterruptedException {
+        return expiredTimeouts.take();
+    }
 
-        return result;
+    /**
+     * Checks whether the given timeout is still set for its transaction,
+     * that is, it has neither been cancelled nor replaced.
+     *
+     * @param timeoutInfo  The timeout information.
+     *
+     * @return  Indicates whether the timeout is still set.
+     *
+     * @see
+     */
+    static boolean isCurrent(TimeoutInfo timeoutInfo) {
+        Map<Long,TimeoutInfo> timeouts =
+            (timeoutInfo.timeoutType == IN_DOUBT_TIMEOUT) ? indoubtTimeouts : pendingTimeouts;
+        return timeouts.get(timeoutInfo.localTID) == timeoutInfo;
     }
 
     /**
@@ -460,14 +445,9 @@ class TimeoutManager {
      */
     static XID[] getInDoubtXids() {
         
-       synchronized (indoubtTimeouts) {
         Vector inDoubtList = new Vector();
-        
-        Enumeration timeouts = indoubtTimeouts.elements();
-
-        while (timeouts.hasMoreElements()) {
 
-            TimeoutInfo timeoutInfo = (TimeoutInfo) timeouts.nextElement();
+        for (TimeoutInfo timeoutInfo : indoubtTimeouts.values()) {
 
             // Look up the Coordinator for the transaction.
             // If there is none, then the transaction has already gone.
@@ -484,7 +464,6 @@ class TimeoutManager {
         }
         
         return (XID[]) inDoubtList.toArray(new XID[] {});
-       }
     }
 
     /**
@@ -500,9 +479,9 @@ class TimeoutManager {
      */
     static long timeLeft(Long localTID) {
 
-        TimeoutInfo timeoutInfo = (TimeoutInfo) pendingTimeouts.get(localTID);
+        TimeoutInfo timeoutInfo = pendingTimeouts.get(localTID);
         if (timeoutInfo == null)
-            timeoutInfo = (TimeoutInfo) indoubtTimeouts.get(localTID);
+            timeoutInfo = indoubtTimeouts.get(localTID);
         long result = -1;
         if (timeoutInfo != null) {
             result = timeoutInfo.expireTime - new Date().getTime();
@@ -535,17 +514,23 @@ class TimeoutManager {
         // timeouts, there is nothing to quiesce so
         // shutdown immediately regardless.
 
-        if (immediate ||
-                pendingTimeouts == null || pendingTimeouts.isEmpty()) {
+        if (immediate || pendingTimeouts.isEmpty()) {
             if (timeoutThread != null) {
-                timeoutThread.stop();
+                timeoutThread.interrupt();
             }
 
-            if (pendingTimeouts != null) {
-                pendingTimeouts.clear();
+            // The timeouts are armed in the shared wheel, which outlives
+            // the transaction service
+            for (TimeoutInfo timeoutInfo : pendingTimeouts.values()) {
+                timeoutInfo.cancel();
             }
+            pendingTimeouts.clear();
+            for (TimeoutInfo timeoutInfo : indoubtTimeouts.values()) {
+                timeoutInfo.cancel();
+            }
+            indoubtTimeouts.clear();
+            expiredTimeouts.clear();
 
-            pendingTimeouts = null;
             timeoutThread = null;
             timeoutActive = false;
         } else {
@@ -614,15 +599,58 @@ class TimeoutManager {
 //   0.1   SAJH   Initial implementation.
 //----------------------------------------------------------------------------
 
-class TimeoutInfo extends Object {
+class TimeoutInfo extends Object implements Runnable {
     Long localTID = null;
     long expireTime = 0;
     int  timeoutType = TimeoutManager.NO_TIMEOUT;
+    private volatile TimeoutWheel.Timeout timeout = null;
+
+    /**
+     * Arms the timeout in the shared TimeoutWheel.
+     *
+     * @param millis  The time left before the timeout.
+     *
+     * @return
+     *
+     * @see
+     */
+    void arm(long millis) {
+        timeout = TimeoutWheel.getInstance().arm(millis, this);
+    }
+
+    /**
+     * Cancels the timeout armed in the TimeoutWheel, if any.
+     *
+     * @param
+     *
+     * @return
+     *
+     * @see
+     */
+    void cancel() {
+        TimeoutWheel.Timeout t = timeout;
+        if (t != null) {
+            t.cancel();
+        }
+    }
+
+    /**
+     * Called by the TimeoutWheel when the timeout expires.
+     *
+     * @param
+     *
+     * @return
+     *
+     * @see
+     */
+    public void run() {
+        TimeoutManager.expired(this);
+    }
 }
 
 /**
- * This class represents a thread on which the TimeoutManager can perform
- * timeout checking.
+ * This class represents a thread on which the TimeoutManager processes the
+ * expired timeouts.
  *
  * @version 0.01
  *
@@ -675,7 +703,11 @@ class TimeoutThread extends Thread {
     }
 
     /**
-     * Performs timeout checking on a regular basis (every ten seconds or so).
+     * Processes the expired timeouts as the TimeoutWheel queues them.
+     * <p>
+     * A timeout which is still set once processed, because the transaction
+     * could not be completed yet, is armed again to be processed after the
+     * timeout interval (ten seconds or so).
      *
      * @param
      *
@@ -687,33 +719,22 @@ class TimeoutThread extends Thread {
         try {
             while (true) {
 
-                // Sleep for a while between checks.
+                TimeoutInfo timeoutInfo = TimeoutManager.takeExpired();
 
-                Thread.sleep(TIMEOUT_INTERVAL);
+                // Look up the Coordinator and tell it to roll back
+                // if it still exists. Note that we rely on the
+                // Coordinator calling removeCoordinator when it
+                // has finished, which will remove the timeout from
+                // the list, and remove other associations as well.
 
-                // Perform timeout checks, getting a list of timed-out
-                // transactions.
-
-                Enumeration timedOut = TimeoutManager.checkTimeouts();
-
-                // Now we must go through the list, telling each
-                // timed-out Coordinator to do something appropriate.
-
-                if (timedOut != null) {
-                    while (timedOut.hasMoreElements()) {
-                        TimeoutInfo timeoutInfo =
-                            (TimeoutInfo) timedOut.nextElement();
-
-                        // Look up the Coordinator and tell it to roll back
-                        // if it still exists. Note that we rely on the
-                        // Coordinator calling removeCoordinator when it
-                        // has finished, which will remove the timeout from 
-                        // the list, and remove other associations as well.
+                if (TimeoutManager.isCurrent(timeoutInfo)) {
+                    TimeoutManager.
+                        timeoutCoordinator(timeoutInfo.localTID,
+                                           timeoutInfo.timeoutType);
+                }
 
-                        TimeoutManager.
-                            timeoutCoordinator(timeoutInfo.localTID,
-                                               timeoutInfo.timeoutType);
-                    }
+                if (TimeoutManager.isCurrent(timeoutInfo)) {
+                    timeoutInfo.arm(TIMEOUT_INTERVAL);
                 }
             }
         } catch (InterruptedException exc) {
@@ -142,6 +142,16 @@ public class TransactionServiceProperties {
                                 dbLoggingResource = "jdbc/TxnDS";
                             }
         
+                        } else if (name.equals("log-group-commit")) {
+                            if (isValueSet(value)) {
+                                jtsProperties.put(Configuration.LOG_GROUP_COMMIT, value);
+                            }
+
+                        } else if (name.equals("log-group-commit-delay")) {
+                            if (isValueSet(value)) {
+                                jtsProperties.put(Configuration.LOG_GROUP_COMMIT_DELAY, value);
+                            }
+
                         } else if (name.equals("xa-servername")) {
                             if (isValueSet(value)) {
                                 jtsProperties.put(JTS_XA_SERVER_NAME, value);
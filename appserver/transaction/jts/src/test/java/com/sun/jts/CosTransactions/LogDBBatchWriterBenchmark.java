@@ -0,0 +1,150 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package com.sun.jts.CosTransactions;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+
+import org.apache.derby.jdbc.EmbeddedDataSource;
+
+import junit.framework.TestCase;
+
+/**
+ * Compares the batched transaction log writer of LogDBHelper with a round
+ * trip per record, against an embedded Derby database. Not part of the unit
+ * tests, run with the benchmark profile.
+ */
+public class LogDBBatchWriterBenchmark extends TestCase {
+
+    private static final int THREADS = 16;
+    private static final int RECORDS_PER_THREAD = 200;
+    private static final int OPERATIONS = THREADS * RECORDS_PER_THREAD * 3 / 2;
+
+    private EmbeddedDataSource ds;
+
+    public LogDBBatchWriterBenchmark(String testName) {
+        super(testName);
+    }
+
+    public void setUp() throws Exception {
+        ds = LogDBBatchWriterTest.createDataSource();
+        LogDBBatchWriterTest.createTable(ds);
+    }
+
+    public void testBatched() throws Exception {
+        final LogDBBatchWriter writer = new LogDBBatchWriter(ds, null,
+                LogDBBatchWriterTest.INSERT, LogDBBatchWriterTest.DELETE, 50);
+        long time = run(new Runnable() {
+            public void run() {
+                for (int i = 0; i < RECORDS_PER_THREAD; i++) {
+                    String localTID = Thread.currentThread().getName() + "-" + i;
+                    writer.insert(localTID, "server", "instance", new byte[64]);
+                    if (i % 2 == 0) {
+                        writer.delete(localTID, "server");
+                    }
+                }
+            }
+        });
+        writer.flush();
+        time = Math.max(time, 1);
+        System.out.println("LogDBBatchWriter: " + writer.getOpCount() + " operations in "
+                + writer.getBatchCount() + " batches, " + time + " ms, "
+                + (writer.getOpCount() * 1000 / time) + " operations/s");
+        writer.close();
+    }
+
+    /**
+     * The behavior without batches: a connection, a statement and a commit
+     * per record.
+     */
+    public void testUnbatched() throws Exception {
+        long time = run(new Runnable() {
+            public void run() {
+                try {
+                    for (int i = 0; i < RECORDS_PER_THREAD; i++) {
+                        String localTID = Thread.currentThread().getName() + "-" + i;
+                        execute(LogDBBatchWriterTest.INSERT, localTID, new byte[64]);
+                        if (i % 2 == 0) {
+                            execute(LogDBBatchWriterTest.DELETE, localTID, null);
+                        }
+                    }
+                } catch (Exception ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+        });
+        time = Math.max(time, 1);
+        System.out.println("Unbatched: " + OPERATIONS + " operations, " + time + " ms, "
+                + (OPERATIONS * 1000L / time) + " operations/s");
+    }
+
+    private long run(Runnable task) throws InterruptedException {
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            threads[t] = new Thread(task, "tx" + t);
+        }
+        long start = System.currentTimeMillis();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return System.currentTimeMillis() - start;
+    }
+
+    private void execute(String sql, String localTID, byte[] data) throws Exception {
+        Connection conn = ds.getConnection();
+        try {
+            PreparedStatement stmt = conn.prepareStatement(sql);
+            stmt.setString(1, localTID);
+            stmt.setString(2, "server");
+            if (data != null) {
+                stmt.setString(3, "instance");
+                stmt.setBytes(4, data);
+            }
+            stmt.executeUpdate();
+            stmt.close();
+        } finally {
+            conn.close();
+        }
+    }
+}
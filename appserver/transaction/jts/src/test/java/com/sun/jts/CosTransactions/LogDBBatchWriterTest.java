@@ -0,0 +1,221 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package com.sun.jts.CosTransactions;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.derby.jdbc.EmbeddedDataSource;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the batched transaction log writer of LogDBHelper against an
+ * embedded Derby database.
+ */
+public class LogDBBatchWriterTest extends TestCase {
+
+    static final String INSERT = "insert into  txn_log_table values ( ? , ? , ? , ? )";
+    static final String DELETE = "delete from txn_log_table where localtid = ? and servername = ? ";
+
+    private static final int THREADS = 16;
+    private static final int RECORDS_PER_THREAD = 50;
+
+    private NonTxDataSource ds;
+
+    public LogDBBatchWriterTest(String testName) {
+        super(testName);
+    }
+
+    public void setUp() throws Exception {
+        ds = createDataSource();
+    }
+
+    /**
+     * Test that the records inserted and deleted concurrently are all
+     * written, and written by batches.
+     */
+    public void testBatchedInsertsAndDeletes() throws Exception {
+        createTable(ds);
+        final LogDBBatchWriter writer = new LogDBBatchWriter(ds, null, INSERT, DELETE, 50);
+        final AtomicInteger failures = new AtomicInteger();
+
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            threads[t] = new Thread("tx" + t) {
+                public void run() {
+                    for (int i = 0; i < RECORDS_PER_THREAD; i++) {
+                        String localTID = getName() + "-" + i;
+                        if (!writer.insert(localTID, "server", "instance", new byte[64])) {
+                            failures.incrementAndGet();
+                        }
+                        if (i % 2 == 0) {
+                            writer.delete(localTID, "server");
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        writer.flush();
+        assertEquals(0, failures.get());
+        assertEquals(THREADS * RECORDS_PER_THREAD / 2, count(ds, "server"));
+        assertEquals(THREADS * RECORDS_PER_THREAD * 3 / 2, writer.getOpCount());
+        assertTrue(writer.getBatchCount() < writer.getOpCount());
+        writer.close();
+    }
+
+    /**
+     * Test that a delete still pending when the records are read for
+     * recovery is written first.
+     */
+    public void testFlushBeforeSelect() throws Exception {
+        LogDBHelper helper = new LogDBHelper(ds, "instance", 60000);
+        insertMappingRecord(ds, "server", "instance");
+        assertEquals("server", helper.getServerNameForInstanceName("instance"));
+
+        assertTrue(helper.deleteRecord(0, "server"));
+        assertNull(helper.getServerNameForInstanceName("instance"));
+        assertEquals(0, count(ds, "server"));
+        helper.shutdown();
+    }
+
+    /**
+     * Test that the deletes pending on shutdown are written, and that the
+     * records are written one by one after the shutdown.
+     */
+    public void testShutdown() throws Exception {
+        LogDBHelper helper = new LogDBHelper(ds, "instance", 60000);
+        insertMappingRecord(ds, "server", "instance");
+        insertMappingRecord(ds, "server2", "instance2");
+
+        assertTrue(helper.deleteRecord(0, "server"));
+        helper.shutdown();
+        assertEquals(0, count(ds, "server"));
+
+        assertTrue(helper.deleteRecord(0, "server2"));
+        assertEquals(0, count(ds, "server2"));
+    }
+
+    /**
+     * Test that a closed writer rejects new records.
+     */
+    public void testClosedWriter() throws Exception {
+        createTable(ds);
+        LogDBBatchWriter writer = new LogDBBatchWriter(ds, null, INSERT, DELETE, 60000);
+        assertTrue(writer.insert("1", "server", "instance", new byte[8]));
+        writer.delete("1", "server");
+        writer.close();
+        assertEquals(0, count(ds, "server"));
+
+        assertFalse(writer.insert("2", "server", "instance", new byte[8]));
+        assertEquals(0, count(ds, "server"));
+    }
+
+    static NonTxDataSource createDataSource() {
+        NonTxDataSource ds = new NonTxDataSource();
+        ds.setDatabaseName("memory:txnlog" + System.nanoTime());
+        ds.setCreateDatabase("create");
+        return ds;
+    }
+
+    static void createTable(EmbeddedDataSource ds) throws SQLException {
+        Connection conn = ds.getConnection();
+        try {
+            Statement stmt = conn.createStatement();
+            stmt.execute("create table txn_log_table (localtid varchar(20), servername varchar(150), instancename varchar(150), gtrid blob)");
+            stmt.execute("create index txn_log_table_idx on txn_log_table (servername, localtid)");
+            stmt.close();
+        } finally {
+            conn.close();
+        }
+    }
+
+    private static void insertMappingRecord(EmbeddedDataSource ds, String serverName,
+            String instanceName) throws SQLException {
+        Connection conn = ds.getConnection();
+        try {
+            PreparedStatement stmt = conn.prepareStatement(INSERT);
+            stmt.setString(1, "0");
+            stmt.setString(2, serverName);
+            stmt.setString(3, instanceName);
+            stmt.setBytes(4, null);
+            stmt.executeUpdate();
+            stmt.close();
+        } finally {
+            conn.close();
+        }
+    }
+
+    static int count(EmbeddedDataSource ds, String serverName) throws SQLException {
+        Connection conn = ds.getConnection();
+        try {
+            PreparedStatement stmt = conn.prepareStatement("select count(*) from txn_log_table where servername = ?");
+            stmt.setString(1, serverName);
+            ResultSet rs = stmt.executeQuery();
+            rs.next();
+            int count = rs.getInt(1);
+            stmt.close();
+            return count;
+        } finally {
+            conn.close();
+        }
+    }
+
+    /**
+     * Data source with the getNonTxConnection method LogDBHelper gets its
+     * connections from.
+     */
+    static class NonTxDataSource extends EmbeddedDataSource {
+
+        public Connection getNonTxConnection() throws SQLException {
+            return getConnection();
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package com.sun.jts.CosTransactions;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the group commit of the transaction log.
+ */
+public class LogGroupCommitTest extends TestCase {
+
+    private static final String SERVER_NAME = "server";
+
+    private static final int THREADS = 8;
+    private static final int RECORDS_PER_THREAD = 50;
+
+    private File logDir;
+
+    public LogGroupCommitTest(String testName) {
+        super(testName);
+    }
+
+    public void setUp() throws Exception {
+        logDir = File.createTempFile("jtslog", "");
+        logDir.delete();
+        logDir.mkdirs();
+        enableGroupCommit();
+    }
+
+    public void tearDown() {
+        delete(logDir);
+    }
+
+    /**
+     * Test that the records written concurrently in FORCED mode are all
+     * in the log once reopened, and forced by batches.
+     */
+    public void testConcurrentForcedWrites() throws Exception {
+        Log log = new Log(logDir.getPath());
+        log.initialise();
+        final LogFile logFile = log.open(SERVER_NAME, null);
+        assertNotNull(logFile.handle.groupCommit);
+
+        final AtomicInteger failures = new AtomicInteger();
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            final int thread = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < RECORDS_PER_THREAD; i++) {
+                        byte[] record = record(thread * RECORDS_PER_THREAD + i);
+                        if (!logFile.write(LogFile.FORCED, record, LogFile.NORMAL, null)) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, failures.get());
+
+        LogGroupCommit groupCommit = logFile.handle.groupCommit;
+        assertEquals(THREADS * RECORDS_PER_THREAD, groupCommit.getRecordCount());
+        assertTrue(groupCommit.getBatchCount() > 0);
+        assertTrue(groupCommit.getBatchCount() <= groupCommit.getRecordCount());
+        assertTrue(groupCommit.getMaxBatchSize() >= 1);
+
+        logFile.close(false);
+        log.terminate();
+
+        assertEquals(expected(THREADS * RECORDS_PER_THREAD), readRecords(logDir));
+    }
+
+    /**
+     * Test that the records acknowledged as forced are in the log after the
+     * process writing them has been killed.
+     */
+    public void testForcedWritesSurviveKill() throws Exception {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        ProcessBuilder pb = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                Writer.class.getName(), logDir.getPath());
+        pb.redirectErrorStream(false);
+        Process process = pb.start();
+
+        // Kill the writer once it has acknowledged enough records.
+
+        int acknowledged = -1;
+        BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream()));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                acknowledged = Integer.parseInt(line.trim());
+                if (acknowledged >= 200) {
+                    break;
+                }
+            }
+        } finally {
+            process.destroyForcibly();
+            process.waitFor();
+            in.close();
+        }
+        assertTrue(acknowledged >= 0);
+
+        Set<String> records = readRecords(logDir);
+        for (int i = 0; i <= acknowledged; i++) {
+            assertTrue("record " + i + " lost", records.contains(new String(record(i))));
+        }
+    }
+
+    /**
+     * Writes FORCED records until killed, printing the index of every record
+     * once its write has returned.
+     */
+    public static class Writer {
+        public static void main(String[] args) throws Exception {
+            enableGroupCommit();
+            Log log = new Log(args[0]);
+            log.initialise();
+            LogFile logFile = log.open(SERVER_NAME, null);
+            for (int i = 0; ; i++) {
+                if (!logFile.write(LogFile.FORCED, record(i), LogFile.NORMAL, null)) {
+                    System.exit(1);
+                }
+                System.out.println(i);
+                System.out.flush();
+            }
+        }
+    }
+
+    private static void enableGroupCommit() {
+        Properties props = new Properties();
+        props.setProperty(Configuration.LOG_GROUP_COMMIT, "true");
+        props.setProperty(Configuration.LOG_GROUP_COMMIT_DELAY, "100");
+        Configuration.setProperties(props);
+    }
+
+    private static byte[] record(int i) {
+        return ("record-" + i).getBytes();
+    }
+
+    private static Set<String> expected(int count) {
+        Set<String> records = new HashSet<String>();
+        for (int i = 0; i < count; i++) {
+            records.add(new String(record(i)));
+        }
+        return records;
+    }
+
+    private static Set<String> readRecords(File dir) {
+        Log log = new Log(dir.getPath());
+        log.initialise();
+        LogFile logFile = log.open(SERVER_NAME, null);
+        Vector logRecords = logFile.getLogRecords();
+        logFile.close(false);
+        log.terminate();
+
+        Set<String> records = new HashSet<String>();
+        for (Object record : logRecords) {
+            records.add(new String((byte[]) record));
+        }
+        return records;
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                delete(f);
+            }
+        }
+        file.delete();
+    }
+}
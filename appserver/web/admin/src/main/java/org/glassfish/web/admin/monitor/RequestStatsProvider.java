@@ -48,6 +48,7 @@ import org.glassfish.external.statistics.impl.CountStatisticImpl;
 import org.glassfish.external.statistics.impl.StatisticImpl;
 import org.glassfish.external.statistics.impl.TimeStatisticImpl;
 import org.glassfish.external.probe.provider.annotations.*;
+import org.glassfish.flashlight.statistics.impl.HistogramStatisticImpl;
 import org.glassfish.gmbal.AMXMetadata;
 import org.glassfish.gmbal.Description;
 import org.glassfish.gmbal.ManagedObject;
@@ -74,6 +75,8 @@ public class RequestStatsProvider {
         "Longest response time for a request; not a cumulative value, but the largest response time from among the response times";
     private static final String PROCESSING_TIME_DESCRIPTION = 
         "Average request processing time";
+    private static final String REQUEST_LATENCY_DESCRIPTION =
+        "Distribution of the request processing times: percentiles since the last reset and requests per second over the last minute";
 
     private CountStatisticImpl errorCount = new CountStatisticImpl("ErrorCount",
             StatisticImpl.UNIT_COUNT, ERROR_COUNT_DESCRIPTION);
@@ -86,22 +89,16 @@ public class RequestStatsProvider {
 
     private TimeStatisticImpl requestProcessTime = new TimeStatisticImpl(0L, 0L, 0L, 0L,
             "", "", "", System.currentTimeMillis(), -1L);
+
+    private HistogramStatisticImpl requestLatency = new HistogramStatisticImpl("RequestLatency",
+            StatisticImpl.UNIT_MILLISECOND, REQUEST_LATENCY_DESCRIPTION);
     
     private String virtualServerName = null;
     private String moduleName = null;
 
     private ThreadLocal<TimeStatData> timeStatDataLocal = new ThreadLocal<TimeStatData> (){
-        TimeStatData tsd;
-
         protected TimeStatData initialValue (){
-            tsd = new TimeStatData ();
-            return tsd;
-        }
-        public TimeStatData get (){
-            if (tsd == null) {
-                tsd = new TimeStatData();
-            }
-            return tsd;
+            return new TimeStatData ();
         }
     };
 
@@ -142,6 +139,12 @@ public class RequestStatsProvider {
         return processingTime;
     }
 
+    @ManagedAttribute(id="requestlatency")
+    @Description(REQUEST_LATENCY_DESCRIPTION)
+    public HistogramStatisticImpl getRequestLatency() {
+        return requestLatency;
+    }
+
     @ProbeListener("glassfish:web:http-service:requestStartEvent")
     public void requestStartEvent(
             @ProbeParam("appName") String appName,
@@ -218,6 +221,7 @@ public class RequestStatsProvider {
                 TimeStatData tsd = timeStatDataLocal.get();
                 tsd.setExitTime(System.currentTimeMillis());
                 requestProcessTime.incrementCount(tsd.getTotalTime());
+                requestLatency.record(tsd.getTotalTime());
 
                 if (statusCode >= 400) {
                     errorCount.increment();
@@ -236,6 +240,7 @@ public class RequestStatsProvider {
             TimeStatData tsd = timeStatDataLocal.get();
             tsd.setExitTime(System.currentTimeMillis());
             requestProcessTime.incrementCount(tsd.getTotalTime());
+            requestLatency.record(tsd.getTotalTime());
 
             if (statusCode >= 400) {
                 errorCount.increment();
@@ -268,6 +273,7 @@ public class RequestStatsProvider {
     @Reset
     public void reset() {
         this.requestProcessTime.reset();
+        this.requestLatency.reset();
         this.errorCount.reset();
         this.maxTime.reset();
         this.processingTime.reset();
@@ -0,0 +1,145 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.web.admin.monitor;
+
+import org.glassfish.external.statistics.CountStatistic;
+import org.glassfish.external.statistics.impl.CountStatisticImpl;
+import org.glassfish.external.statistics.impl.StatisticImpl;
+import org.glassfish.gmbal.AMXMetadata;
+import org.glassfish.gmbal.Description;
+import org.glassfish.gmbal.ManagedAttribute;
+import org.glassfish.gmbal.ManagedObject;
+
+/**
+ * Provides the monitoring data of the static resource cache of a web module.
+ * <p>
+ * The counters are kept by the cache itself and read when the statistics are.
+ */
+@AMXMetadata(type="resource-cache-mon", group="monitoring")
+@ManagedObject
+@Description("Web Module Resource Cache Statistics")
+public class ResourceCacheStatsProvider {
+
+    private static final String HIT_COUNT_DESCRIPTION =
+        "Number of lookups answered by the resource cache";
+
+    private static final String MISS_COUNT_DESCRIPTION =
+        "Number of lookups not answered by the resource cache";
+
+    private static final String EVICTION_COUNT_DESCRIPTION =
+        "Number of resources evicted from the resource cache";
+
+    private static final String CACHE_SIZE_DESCRIPTION =
+        "Size of the resources in the resource cache, in KB";
+
+    private static final String ENTRY_COUNT_DESCRIPTION =
+        "Number of resources in the resource cache";
+
+    private String moduleName;
+    private String vsName;
+    private ResourceCacheStats cacheStats;
+    private CountStatisticImpl hitCount;
+    private CountStatisticImpl missCount;
+    private CountStatisticImpl evictionCount;
+    private CountStatisticImpl cacheSize;
+    private CountStatisticImpl entryCount;
+
+    public ResourceCacheStatsProvider(String moduleName, String vsName,
+            ResourceCacheStats cacheStats) {
+        this.moduleName = moduleName;
+        this.vsName = vsName;
+        this.cacheStats = cacheStats;
+        hitCount = new CountStatisticImpl(
+            "HitCount", StatisticImpl.UNIT_COUNT, HIT_COUNT_DESCRIPTION);
+        missCount = new CountStatisticImpl(
+            "MissCount", StatisticImpl.UNIT_COUNT, MISS_COUNT_DESCRIPTION);
+        evictionCount = new CountStatisticImpl(
+            "EvictionCount", StatisticImpl.UNIT_COUNT,
+            EVICTION_COUNT_DESCRIPTION);
+        cacheSize = new CountStatisticImpl(
+            "CacheSize", "KB", CACHE_SIZE_DESCRIPTION);
+        entryCount = new CountStatisticImpl(
+            "EntryCount", StatisticImpl.UNIT_COUNT, ENTRY_COUNT_DESCRIPTION);
+    }
+
+    @ManagedAttribute(id="hitcount")
+    @Description(HIT_COUNT_DESCRIPTION)
+    public CountStatistic getHitCount() {
+        hitCount.setCount(cacheStats.getHitCount());
+        return hitCount;
+    }
+
+    @ManagedAttribute(id="misscount")
+    @Description(MISS_COUNT_DESCRIPTION)
+    public CountStatistic getMissCount() {
+        missCount.setCount(cacheStats.getMissCount());
+        return missCount;
+    }
+
+    @ManagedAttribute(id="evictioncount")
+    @Description(EVICTION_COUNT_DESCRIPTION)
+    public CountStatistic getEvictionCount() {
+        evictionCount.setCount(cacheStats.getEvictionCount());
+        return evictionCount;
+    }
+
+    @ManagedAttribute(id="cachesize")
+    @Description(CACHE_SIZE_DESCRIPTION)
+    public CountStatistic getCacheSize() {
+        cacheSize.setCount(cacheStats.getCacheSize());
+        return cacheSize;
+    }
+
+    @ManagedAttribute(id="entrycount")
+    @Description(ENTRY_COUNT_DESCRIPTION)
+    public CountStatistic getEntryCount() {
+        entryCount.setCount(cacheStats.getEntryCount());
+        return entryCount;
+    }
+
+    public String getModuleName() {
+        return moduleName;
+    }
+
+    public String getVSName() {
+        return vsName;
+    }
+}
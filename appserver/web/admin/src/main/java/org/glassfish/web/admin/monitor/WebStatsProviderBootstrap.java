@@ -113,6 +113,18 @@ public class WebStatsProviderBootstrap implements PostConstruct {
 
     public void registerApplicationStatsProviders(String monitoringName,
             String vsName, List<String> servletNames) {
+        registerApplicationStatsProviders(monitoringName, vsName,
+                servletNames, null);
+    }
+
+    /**
+     * Same as registerApplicationStatsProviders(String, String, List), also
+     * registers the statistics of the static resource cache of the
+     * application, if it has one.
+     */
+    public void registerApplicationStatsProviders(String monitoringName,
+            String vsName, List<String> servletNames,
+            ResourceCacheStats resourceCacheStats) {
 
         // try register again as it may be unregistered
         registerWebStatsProviders();
@@ -175,6 +187,16 @@ public class WebStatsProviderBootstrap implements PostConstruct {
         }
 
         statspList.add(websp);
+
+        if (resourceCacheStats != null) {
+            ResourceCacheStatsProvider resourceCacheStatsProvider =
+                    new ResourceCacheStatsProvider(monitoringName, vsName,
+                        resourceCacheStats);
+            StatsProviderManager.register(
+                    "web-container", PluginPoint.APPLICATIONS, node,
+                    resourceCacheStatsProvider);
+            statspList.add(resourceCacheStatsProvider);
+        }
     }
 
     public void unregisterApplicationStatsProviders(String monitoringName,
@@ -0,0 +1,271 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.web.loader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * Index of the JAR files of a WebappClassLoader by directory: for every
+ * directory holding entries, the JAR files which have entries in it, in
+ * search order. A resource is then only looked up in the JAR files which
+ * may have it, and a resource in none of them is known to be missing
+ * without looking up any JAR file.
+ * <p>
+ * The index can be saved next to the generated files of the application,
+ * so that it is only rebuilt when a JAR file has changed.
+ */
+final class JarEntryIndex {
+
+    private static final int VERSION = 1;
+
+    private static final int[] NONE = new int[0];
+
+    /**
+     * The indexes of the JAR files, keyed by directory.
+     */
+    private final Map<String, int[]> jarsByDirectory;
+
+
+    private JarEntryIndex(Map<String, int[]> jarsByDirectory) {
+        this.jarsByDirectory = jarsByDirectory;
+    }
+
+
+    /**
+     * Index the entries of the given JAR files.
+     */
+    static JarEntryIndex build(JarFile[] jarFiles) {
+        Map<String, List<Integer>> jars = new HashMap<String, List<Integer>>();
+        for (int i = 0; i < jarFiles.length; i++) {
+            if (jarFiles[i] != null) {
+                addEntries(jars, i, jarFiles[i]);
+            }
+        }
+        return new JarEntryIndex(toArrays(jars));
+    }
+
+
+    /**
+     * Return the index with the entries of the given JAR file, searched
+     * after the ones already indexed.
+     */
+    JarEntryIndex add(int index, JarFile jarFile) {
+        Map<String, List<Integer>> jars = new HashMap<String, List<Integer>>();
+        addEntries(jars, index, jarFile);
+        Map<String, int[]> result = new HashMap<String, int[]>(jarsByDirectory);
+        for (Map.Entry<String, List<Integer>> e : jars.entrySet()) {
+            int[] previous = result.get(e.getKey());
+            if (previous == null) {
+                previous = NONE;
+            }
+            int[] merged = new int[previous.length + 1];
+            System.arraycopy(previous, 0, merged, 0, previous.length);
+            merged[previous.length] = index;
+            result.put(e.getKey(), merged);
+        }
+        return new JarEntryIndex(result);
+    }
+
+
+    /**
+     * Return the indexes of the JAR files which have entries in the
+     * directory of the given path, in search order.
+     */
+    int[] getJars(String path) {
+        int[] jars = jarsByDirectory.get(getDirectory(path));
+        return (jars != null) ? jars : NONE;
+    }
+
+
+    /**
+     * Load the index saved in the given file, if it has been built from
+     * the given JAR files, as they are now.
+     *
+     * @return the index, or null if it must be built again
+     */
+    static JarEntryIndex load(File file, File[] jarRealFiles)
+            throws IOException {
+
+        if (!file.isFile()) {
+            return null;
+        }
+
+        DataInputStream in = new DataInputStream(
+            new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != VERSION) {
+                return null;
+            }
+            int count = in.readInt();
+            if (count != jarRealFiles.length) {
+                return null;
+            }
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                long length = in.readLong();
+                long lastModified = in.readLong();
+                File jar = jarRealFiles[i];
+                if (!jar.getPath().equals(path)
+                        || jar.length() != length
+                        || jar.lastModified() != lastModified) {
+                    return null;
+                }
+            }
+            int directories = in.readInt();
+            Map<String, int[]> jarsByDirectory =
+                new HashMap<String, int[]>(directories * 2);
+            for (int i = 0; i < directories; i++) {
+                String directory = in.readUTF();
+                int[] jars = new int[in.readInt()];
+                for (int j = 0; j < jars.length; j++) {
+                    jars[j] = in.readInt();
+                }
+                jarsByDirectory.put(directory, jars);
+            }
+            return new JarEntryIndex(jarsByDirectory);
+        } finally {
+            in.close();
+        }
+    }
+
+
+    /**
+     * Save this index, built from the given JAR files, in the given file.
+     */
+    void save(File file, File[] jarRealFiles) throws IOException {
+
+        File dir = file.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException(dir.getPath());
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(VERSION);
+            out.writeInt(jarRealFiles.length);
+            for (File jar : jarRealFiles) {
+                out.writeUTF(jar.getPath());
+                out.writeLong(jar.length());
+                out.writeLong(jar.lastModified());
+            }
+            out.writeInt(jarsByDirectory.size());
+            for (Map.Entry<String, int[]> e : jarsByDirectory.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeInt(e.getValue().length);
+                for (int jar : e.getValue()) {
+                    out.writeInt(jar);
+                }
+            }
+        } finally {
+            out.close();
+        }
+
+        if (!tmp.renameTo(file)) {
+            if (!file.delete() || !tmp.renameTo(file)) {
+                tmp.delete();
+                throw new IOException(file.getPath());
+            }
+        }
+    }
+
+
+    private static void addEntries(Map<String, List<Integer>> jars,
+                                   int index, JarFile jarFile) {
+        Enumeration<JarEntry> entries = jarFile.entries();
+        while (entries.hasMoreElements()) {
+            String directory = getDirectory(entries.nextElement().getName());
+            List<Integer> list = jars.get(directory);
+            if (list == null) {
+                list = new ArrayList<Integer>(2);
+                jars.put(directory, list);
+            }
+            if (list.isEmpty() || list.get(list.size() - 1) != index) {
+                list.add(index);
+            }
+        }
+    }
+
+
+    private static Map<String, int[]> toArrays(
+            Map<String, List<Integer>> jars) {
+        Map<String, int[]> result = new HashMap<String, int[]>(jars.size() * 2);
+        for (Map.Entry<String, List<Integer>> e : jars.entrySet()) {
+            List<Integer> list = e.getValue();
+            int[] array = new int[list.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = list.get(i);
+            }
+            result.put(e.getKey(), array);
+        }
+        return result;
+    }
+
+
+    /**
+     * Return the directory of the given path, which has no leading '/', as
+     * it is for the entries of a JAR file.
+     */
+    static String getDirectory(String path) {
+        int end = path.length();
+        if (end > 0 && path.charAt(end - 1) == '/') {
+            end--;
+        }
+        int slash = path.lastIndexOf('/', end - 1);
+        return (slash > 0) ? path.substring(0, slash) : "";
+    }
+
+}
@@ -176,6 +176,19 @@ public class WebappClassLoader
     private static final Permission ALL_PERMISSION = new AllPermission();
 
 
+    /**
+     * Name of the file, in the work directory, the index of the JAR files
+     * is saved to.
+     */
+    private static final String JAR_ENTRY_INDEX_FILE = "jar-entry.index";
+
+
+    static {
+        // Classes are loaded under a lock per class name
+        registerAsParallelCapable();
+    }
+
+
     // ----------------------------------------------------- Instance Variables
 
     // START PE 4989455
@@ -301,6 +314,17 @@ public class WebappClassLoader
 
     protected String canonicalLoaderDir = null;
 
+    /**
+     * The file the index of the JAR files is saved to, if any.
+     */
+    protected File jarEntryIndexFile = null;
+
+    /**
+     * The index of the JAR files by directory, built when this class loader
+     * is started.
+     */
+    private volatile JarEntryIndex jarEntryIndex = null;
+
     /**
      * The PermissionCollection for each CodeSource for a web
      * application context.
@@ -680,6 +704,7 @@ public class WebappClassLoader
      */
     public void setWorkDir(File workDir) {
         this.loaderDir = new File(workDir, "loader_" + this.hashCode());
+        this.jarEntryIndexFile = new File(workDir, JAR_ENTRY_INDEX_FILE);
         try {
             canonicalLoaderDir = this.loaderDir.getCanonicalPath();
             if (!canonicalLoaderDir.endsWith(File.separator)) {
@@ -865,6 +890,12 @@ public class WebappClassLoader
         }
         result4[jarRealFiles.length] = file;
         jarRealFiles = result4;
+
+        // Only JAR files added once started are indexed here
+        JarEntryIndex index = jarEntryIndex;
+        if (index != null) {
+            jarEntryIndex = index.add(jarFiles.length - 1, jarFile);
+        }
     }
 
 
@@ -1034,7 +1065,7 @@ public class WebappClassLoader
                 // Create the code source object
                 CodeSource codeSource =
                     new CodeSource(entry.codeBase, entry.certificates);
-                synchronized (this) {
+                synchronized (getClassLoadingLock(name)) {
                     if (entry.loadedClass == null) {
                         /* START GlassFish [680]
                         clazz = defineClass(name, entry.binaryContent, 0,
@@ -1498,7 +1529,16 @@ public class WebappClassLoader
      * @exception ClassNotFoundException if the class was not found
      */
     @Override
-    protected synchronized Class<?> loadClass(String name, boolean resolve)
+    protected Class<?> loadClass(String name, boolean resolve)
+        throws ClassNotFoundException {
+
+        synchronized (getClassLoadingLock(name)) {
+            return loadClass0(name, resolve);
+        }
+    }
+
+
+    private Class<?> loadClass0(String name, boolean resolve)
         throws ClassNotFoundException {
 
         if (logger.isLoggable(Level.FINER)) {
@@ -1755,6 +1795,9 @@ public class WebappClassLoader
      * Start the class loader.
      */
     public void start() {
+        if (jarFiles.length > 0) {
+            jarEntryIndex = loadJarEntryIndex();
+        }
         started = true;
     }
 
@@ -1839,6 +1882,7 @@ public class WebappClassLoader
         files = null;
         jarFiles = null;
         jarRealFiles = null;
+        jarEntryIndex = null;
         jarPath = null;
         jarNames.clear();
         lastModifiedDates = null;
@@ -2532,6 +2576,45 @@ public class WebappClassLoader
     // ------------------------------------------------------ Protected Methods
 
 
+    /**
+     * Load the index of the JAR files saved in the work directory, if it
+     * is up to date, or build it and save it.
+     */
+    private JarEntryIndex loadJarEntryIndex() {
+        JarFile[] jarFiles = this.jarFiles;
+        for (JarFile jarFile : jarFiles) {
+            if (jarFile == null) {
+                // Closed, an incomplete index would miss resources
+                return null;
+            }
+        }
+        File indexFile = jarEntryIndexFile;
+        JarEntryIndex index = null;
+        if (indexFile != null) {
+            try {
+                index = JarEntryIndex.load(indexFile, jarRealFiles);
+            } catch (IOException e) {
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.log(Level.FINE, "Failed to load JAR entry index", e);
+                }
+            }
+        }
+        if (index == null) {
+            index = JarEntryIndex.build(jarFiles);
+            if (indexFile != null) {
+                try {
+                    index.save(indexFile, jarRealFiles);
+                } catch (IOException e) {
+                    if (logger.isLoggable(Level.FINE)) {
+                        logger.log(Level.FINE, "Failed to save JAR entry index", e);
+                    }
+                }
+            }
+        }
+        return index;
+    }
+
+
     /**
      * Used to periodically signal to the classloader to release JAR resources.
      */
@@ -2583,7 +2666,7 @@ public class WebappClassLoader
         if (entry == null)
                throw new ClassNotFoundException(name);
 
-        synchronized (this) {
+        synchronized (getClassLoadingLock(name)) {
             Class<?> clazz = entry.loadedClass;
             if (clazz != null)
                 return entry;
@@ -2687,9 +2770,7 @@ public class WebappClassLoader
         entry = findResourceInternalFromRepositories(name, path);
 
         if (entry == null) {
-            synchronized (jarFiles) {
-                entry = findResourceInternalFromJars(name, path);
-            }
+            entry = findResourceInternalFromJars(name, path);
         }
 
         if (entry == null) {
@@ -2815,9 +2896,21 @@ public class WebappClassLoader
             return null;
         }
 
+        JarFile[] jarFiles = this.jarFiles;
         int jarFilesLength = jarFiles.length;
 
-        for (int i=0; (entry == null) && (i < jarFilesLength); i++) {
+        // Only look up the JAR files which have entries in the directory
+        // of the resource
+        JarEntryIndex index = jarEntryIndex;
+        int[] candidates = (index != null) ? index.getJars(path) : null;
+        int candidatesLength =
+            (candidates != null) ? candidates.length : jarFilesLength;
+
+        for (int k=0; (entry == null) && (k < candidatesLength); k++) {
+            int i = (candidates != null) ? candidates[k] : k;
+            if (i >= jarFilesLength || jarFiles[i] == null) {
+                continue;
+            }
             jarEntry = jarFiles[i].getJarEntry(path);
 
             if (jarEntry != null) {
@@ -3041,9 +3134,7 @@ public class WebappClassLoader
 
         ResourceEntry entry = resourceEntries.get(name);
         if (entry != null) {
-            synchronized(this) {
-                return entry.loadedClass;
-            }
+            return entry.loadedClass;
         }
         return (null);  // FIXME - findLoadedResource()
 
@@ -0,0 +1,259 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.web.loader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * The JAR files of a JarEntryIndex are found by directory in search order,
+ * and a saved index is only loaded back for the very same JAR files.
+ */
+public class JarEntryIndexTest {
+
+    private File dir;
+    private JarFile[] jarFiles;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("jarindex").toFile();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        close();
+        deleteDir(dir);
+    }
+
+    @Test
+    public void testGetJars() throws Exception {
+        open(jar("0.jar", "a/A.class", "a/b/B.class"),
+             jar("1.jar", "a/X.class", "c/C.class"),
+             jar("2.jar", "a/b/Y.class", "Top.class"));
+        JarEntryIndex index = JarEntryIndex.build(jarFiles);
+
+        assertArrayEquals(new int[] { 0, 1 }, index.getJars("a/Z.class"));
+        assertArrayEquals(new int[] { 0, 2 }, index.getJars("a/b/Z.class"));
+        assertArrayEquals(new int[] { 1 }, index.getJars("c/C.class"));
+        assertArrayEquals(new int[] { 2 }, index.getJars("Other.class"));
+        assertArrayEquals(new int[0], index.getJars("d/D.class"));
+        assertArrayEquals(new int[0], index.getJars("a/b/c/Z.class"));
+    }
+
+    @Test
+    public void testGetJarsSkipsClosedJars() throws Exception {
+        open(jar("0.jar", "a/A.class"),
+             jar("1.jar", "a/B.class"),
+             jar("2.jar", "a/C.class"));
+        jarFiles[1].close();
+        jarFiles[1] = null;
+        JarEntryIndex index = JarEntryIndex.build(jarFiles);
+
+        assertArrayEquals(new int[] { 0, 2 }, index.getJars("a/B.class"));
+    }
+
+    @Test
+    public void testAdd() throws Exception {
+        open(jar("0.jar", "a/A.class"),
+             jar("1.jar", "a/B.class", "c/C.class"));
+        JarEntryIndex index =
+            JarEntryIndex.build(new JarFile[] { jarFiles[0] });
+        JarEntryIndex added = index.add(1, jarFiles[1]);
+
+        // searched after the JAR files already indexed
+        assertArrayEquals(new int[] { 0, 1 }, added.getJars("a/B.class"));
+        assertArrayEquals(new int[] { 1 }, added.getJars("c/C.class"));
+
+        // the index added to is left as is
+        assertArrayEquals(new int[] { 0 }, index.getJars("a/B.class"));
+        assertArrayEquals(new int[0], index.getJars("c/C.class"));
+    }
+
+    @Test
+    public void testGetDirectory() {
+        assertEquals("a/b", JarEntryIndex.getDirectory("a/b/C.class"));
+        assertEquals("", JarEntryIndex.getDirectory("C.class"));
+        assertEquals("", JarEntryIndex.getDirectory(""));
+
+        // a directory is in its parent directory
+        assertEquals("a", JarEntryIndex.getDirectory("a/b/"));
+        assertEquals("a", JarEntryIndex.getDirectory("a/b"));
+        assertEquals("", JarEntryIndex.getDirectory("a/"));
+        assertEquals("", JarEntryIndex.getDirectory("/"));
+    }
+
+    @Test
+    public void testDirectoryEntries() throws Exception {
+        open(jar("0.jar", "a/", "a/b/"),
+             jar("1.jar", "a/b/C.class"));
+        JarEntryIndex index = JarEntryIndex.build(jarFiles);
+
+        assertArrayEquals(new int[] { 0 }, index.getJars("a/b/"));
+        assertArrayEquals(new int[] { 0 }, index.getJars("a/"));
+        assertArrayEquals(new int[] { 1 }, index.getJars("a/b/C.class"));
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        File[] jars = {
+            jar("0.jar", "a/A.class", "META-INF/MANIFEST.MF"),
+            jar("1.jar", "a/B.class", "c/C.class")
+        };
+        open(jars);
+        File file = new File(dir, "work/jar-entry.index");
+        JarEntryIndex.build(jarFiles).save(file, jars);
+
+        JarEntryIndex index = JarEntryIndex.load(file, jars);
+        assertNotNull(index);
+        assertArrayEquals(new int[] { 0, 1 }, index.getJars("a/Z.class"));
+        assertArrayEquals(new int[] { 1 }, index.getJars("c/C.class"));
+        assertArrayEquals(new int[] { 0 }, index.getJars("META-INF/x"));
+        assertArrayEquals(new int[0], index.getJars("d/D.class"));
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+
+        // saved over
+        JarEntryIndex.build(new JarFile[] { jarFiles[1], jarFiles[0] })
+            .save(file, new File[] { jars[1], jars[0] });
+        index = JarEntryIndex.load(file, new File[] { jars[1], jars[0] });
+        assertArrayEquals(new int[] { 1 }, index.getJars("META-INF/x"));
+    }
+
+    @Test
+    public void testLoadMissing() throws Exception {
+        assertNull(JarEntryIndex.load(new File(dir, "none.index"),
+                                      new File[0]));
+    }
+
+    @Test
+    public void testLoadStale() throws Exception {
+        File[] jars = {
+            jar("0.jar", "a/A.class"),
+            jar("1.jar", "b/B.class")
+        };
+        open(jars);
+        File file = new File(dir, "jar-entry.index");
+        JarEntryIndex.build(jarFiles).save(file, jars);
+        close();
+        assertNotNull(JarEntryIndex.load(file, jars));
+
+        // another JAR file
+        assertNull(JarEntryIndex.load(file, new File[] { jars[0] }));
+        assertNull(JarEntryIndex.load(file,
+            new File[] { jars[0], jars[1], jars[1] }));
+
+        // the JAR file moved
+        File moved = new File(dir, "moved.jar");
+        Files.copy(jars[1].toPath(), moved.toPath());
+        moved.setLastModified(jars[1].lastModified());
+        assertNull(JarEntryIndex.load(file, new File[] { jars[0], moved }));
+
+        // the JAR file modified
+        long lastModified = jars[1].lastModified();
+        jars[1].setLastModified(lastModified - 10000);
+        assertNull(JarEntryIndex.load(file, jars));
+        jars[1].setLastModified(lastModified);
+        assertNotNull(JarEntryIndex.load(file, jars));
+
+        // the JAR file replaced, with the same last modified time
+        jar("1.jar", "b/B.class", "c/C.class");
+        jars[1].setLastModified(lastModified);
+        assertNull(JarEntryIndex.load(file, jars));
+    }
+
+    /*
+     * Write a JAR file with the given entries, each holding its path.
+     */
+    private File jar(String name, String... paths) throws IOException {
+        File file = new File(dir, name);
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(file));
+        try {
+            for (String path : paths) {
+                out.putNextEntry(new JarEntry(path));
+                if (!path.endsWith("/")) {
+                    out.write(path.getBytes("UTF-8"));
+                }
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private void open(File... jars) throws IOException {
+        jarFiles = new JarFile[jars.length];
+        for (int i = 0; i < jars.length; i++) {
+            jarFiles[i] = new JarFile(jars[i]);
+        }
+    }
+
+    private void close() throws IOException {
+        if (jarFiles != null) {
+            for (JarFile jarFile : jarFiles) {
+                if (jarFile != null) {
+                    jarFile.close();
+                }
+            }
+            jarFiles = null;
+        }
+    }
+
+    static void deleteDir(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                deleteDir(file);
+            }
+        }
+        dir.delete();
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.web.loader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.naming.NamingException;
+import javax.naming.directory.DirContext;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * The resources of the JAR files of a WebappClassLoader are looked up
+ * through its JAR entry index in search order, including the JAR files
+ * added once started, and a class is defined once however many threads
+ * load it.
+ */
+public class WebappClassLoaderTest {
+
+    private static final String HELLO = Hello.class.getName();
+
+    private File dir;
+    private File workDir;
+    private final List<WebappClassLoader> loaders =
+        new ArrayList<WebappClassLoader>();
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("webappcl").toFile();
+        workDir = new File(dir, "work");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (WebappClassLoader loader : loaders) {
+            loader.closeJARs(true);
+        }
+        JarEntryIndexTest.deleteDir(dir);
+    }
+
+    @Test
+    public void testSearchOrder() throws Exception {
+        WebappClassLoader loader = newLoader();
+        addJar(loader, jar("0.jar", "res/r.txt", "res/only0.txt"));
+        addJar(loader, jar("1.jar", "res/r.txt", "res/only1.txt",
+                                    "other/o.txt"));
+        loader.start();
+
+        assertEquals("0.jar", read(loader, "res/r.txt"));
+        assertEquals("0.jar", read(loader, "res/only0.txt"));
+        assertEquals("1.jar", read(loader, "res/only1.txt"));
+        assertEquals("1.jar", read(loader, "other/o.txt"));
+        assertNull(read(loader, "res/none.txt"));
+        assertNull(read(loader, "none/none.txt"));
+    }
+
+    @Test
+    public void testJarAddedAfterStart() throws Exception {
+        WebappClassLoader loader = newLoader();
+        addJar(loader, jar("0.jar", "res/r.txt"));
+        loader.start();
+        addJar(loader, jar("1.jar", "res/r.txt", "res/added.txt",
+                                    "added/a.txt"));
+
+        assertEquals("0.jar", read(loader, "res/r.txt"));
+        assertEquals("1.jar", read(loader, "res/added.txt"));
+        assertEquals("1.jar", read(loader, "added/a.txt"));
+    }
+
+    @Test
+    public void testFirstJarAddedAfterStart() throws Exception {
+        WebappClassLoader loader = newLoader();
+        loader.start();
+        addJar(loader, jar("0.jar", "res/r.txt"));
+
+        assertEquals("0.jar", read(loader, "res/r.txt"));
+    }
+
+    @Test
+    public void testIndexSavedAndReused() throws Exception {
+        File jar0 = jar("0.jar", "res/r.txt");
+        File jar1 = jar("1.jar", "res/r.txt", "other/o.txt");
+
+        WebappClassLoader loader = newLoader();
+        addJar(loader, jar0);
+        addJar(loader, jar1);
+        loader.start();
+        File indexFile = new File(workDir, "jar-entry.index");
+        assertTrue(indexFile.isFile());
+        assertEquals("1.jar", read(loader, "other/o.txt"));
+
+        // reused by the next class loader of the same JAR files
+        long lastModified = indexFile.lastModified() - 10000;
+        indexFile.setLastModified(lastModified);
+        loader = newLoader();
+        addJar(loader, jar0);
+        addJar(loader, jar1);
+        loader.start();
+        assertEquals(lastModified, indexFile.lastModified());
+        assertEquals("1.jar", read(loader, "other/o.txt"));
+    }
+
+    @Test
+    public void testStaleIndexRebuilt() throws Exception {
+        File jar0 = jar("0.jar", "res/r.txt");
+        File jar1 = jar("1.jar", "other/o.txt");
+
+        WebappClassLoader loader = newLoader();
+        addJar(loader, jar0);
+        addJar(loader, jar1);
+        loader.start();
+        assertEquals("1.jar", read(loader, "other/o.txt"));
+        loader.closeJARs(true);
+
+        // the redeployed JAR file has entries the saved index lacks
+        jar("1.jar", "other/o.txt", "added/a.txt");
+        jar1.setLastModified(jar1.lastModified() + 10000);
+        loader = newLoader();
+        addJar(loader, jar0);
+        addJar(loader, jar1);
+        loader.start();
+        assertEquals("1.jar", read(loader, "added/a.txt"));
+    }
+
+    @Test
+    public void testConcurrentLoadClass() throws Exception {
+        Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+        String path = HELLO.replace('.', '/') + ".class";
+        InputStream in = getClass().getClassLoader().getResourceAsStream(path);
+        entries.put(path, toBytes(in));
+        final WebappClassLoader loader = newLoader();
+        addJar(loader, jar("hello.jar", entries));
+        loader.start();
+
+        int threads = 16;
+        final CountDownLatch start = new CountDownLatch(1);
+        final Class<?>[] loaded = new Class<?>[threads];
+        final Throwable[] failures = new Throwable[threads];
+        List<Thread> loading = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final int i = t;
+            Thread thread = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        loaded[i] = loader.loadClass(HELLO);
+                    } catch (Throwable e) {
+                        failures[i] = e;
+                    }
+                }
+            };
+            thread.start();
+            loading.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : loading) {
+            thread.join();
+        }
+
+        for (int t = 0; t < threads; t++) {
+            assertNull(failures[t]);
+            assertSame(loaded[0], loaded[t]);
+        }
+        assertSame(loader, loaded[0].getClassLoader());
+        assertNotSame(Hello.class, loaded[0]);
+        assertSame(loaded[0], loader.loadClass(HELLO));
+    }
+
+    private WebappClassLoader newLoader() {
+        WebappClassLoader loader =
+            new WebappClassLoader(getClass().getClassLoader());
+        loader.setResources(resources());
+        loader.setWorkDir(workDir);
+        loaders.add(loader);
+        return loader;
+    }
+
+    private static void addJar(WebappClassLoader loader, File jar)
+            throws IOException {
+        loader.addJar("/WEB-INF/lib/" + jar.getName(), new JarFile(jar), jar);
+    }
+
+    /*
+     * Write a JAR file with the given entries, each holding the name of
+     * the JAR file.
+     */
+    private File jar(String name, String... paths) throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+        for (String path : paths) {
+            entries.put(path, name.getBytes("UTF-8"));
+        }
+        return jar(name, entries);
+    }
+
+    private File jar(String name, Map<String, byte[]> entries)
+            throws IOException {
+        File file = new File(dir, name);
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(file));
+        try {
+            for (Map.Entry<String, byte[]> e : entries.entrySet()) {
+                out.putNextEntry(new JarEntry(e.getKey()));
+                out.write(e.getValue());
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static String read(ClassLoader loader, String name)
+            throws IOException {
+        InputStream in = loader.getResourceAsStream(name);
+        return (in != null) ? new String(toBytes(in), "UTF-8") : null;
+    }
+
+    private static byte[] toBytes(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    /*
+     * The resources of a web application without any, as far as the JAR
+     * files are concerned.
+     */
+    private static DirContext resources() {
+        return (DirContext) Proxy.newProxyInstance(
+            WebappClassLoaderTest.class.getClassLoader(),
+            new Class<?>[] { DirContext.class },
+            new InvocationHandler() {
+                public Object invoke(Object proxy, Method method,
+                                     Object[] args) throws NamingException {
+                    throw new NamingException(method.getName());
+                }
+            });
+    }
+
+    public static class Hello {
+    }
+}
@@ -3647,4 +3647,10 @@ public class LogFacade {
             level = "WARNING"
     )
     public static final String REPOSITORY_PATH_CONTAIN_NULL_CHARACTER = prefix + "00550";
+
+    @LogMessageInfo(
+            message = "Only [{0}] bytes available when [{1}] were requested",
+            level = "WARNING"
+    )
+    public static final String SENDFILE_TRUNCATED_EXCEPTION = prefix + "00551";
 }
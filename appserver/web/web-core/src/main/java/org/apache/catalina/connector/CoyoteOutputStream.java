@@ -63,6 +63,7 @@ import org.apache.catalina.LogFacade;
 import javax.servlet.ServletOutputStream;
 import javax.servlet.WriteListener;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ResourceBundle;
 
 /**
@@ -155,6 +156,21 @@ public class CoyoteOutputStream
     }
 
 
+    /**
+     * Writes the remaining bytes of the given buffer without copying them
+     * in the response buffer.
+     */
+    public void write(ByteBuffer buffer)
+        throws IOException {
+        // Disallow operation if the object has gone out of scope
+        if (ob == null) {
+            throw new IllegalStateException(rb.getString(LogFacade.OBJECT_INVALID_SCOPE_EXCEPTION));
+        }
+
+        ob.writeByteBuffer(buffer);
+    }
+
+
     /**
      * Will send the buffer to the client.
      */
@@ -60,6 +60,7 @@ package org.apache.catalina.connector;
 
 import java.io.IOException;
 import java.io.Writer;
+import java.nio.ByteBuffer;
 import java.nio.channels.InterruptedByTimeoutException;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
@@ -340,6 +341,33 @@ public class OutputBuffer extends Writer
     }
 
 
+    /**
+     * Writes the remaining bytes of the given buffer, typically a slice of
+     * the direct buffer the resource cache keeps a resource in, without
+     * copying them: the buffer is handed as is to the Grizzly output, and
+     * must not be modified afterwards.
+     *
+     * @param buffer Bytes to be written to the response
+     *
+     * @throws IOException An underlying IOException occurred
+     */
+    public void writeByteBuffer(ByteBuffer buffer) throws IOException {
+
+        if (suspended)
+            return;
+
+        if (grizzlyOutputBuffer.isClosed())
+            return;
+        if (log.isLoggable(Level.FINE))
+            log.log(Level.FINE, "writeByteBuffer(" + buffer.remaining() + ")");
+
+        int len = buffer.remaining();
+        grizzlyOutputBuffer.writeByteBuffer(buffer);
+        bytesWritten += len;
+
+    }
+
+
     // XXX Char or byte ?
     public void writeByte(int b)
         throws IOException {
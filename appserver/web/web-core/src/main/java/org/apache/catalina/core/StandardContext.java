@@ -598,6 +598,21 @@ public class StandardContext
      */
     protected int cacheTTL = 5000;
 
+    /**
+     * Cache TTL of the missing resources in ms, -1 for the cache TTL.
+     */
+    protected int notFoundCacheTTL = -1;
+
+    /**
+     * Where the cache keeps the content of the large resources.
+     */
+    protected String cacheContentStorage = "heap";
+
+    /**
+     * Max size of the content cached outside of the heap in KB.
+     */
+    protected int offHeapCacheMaxSize = 65536; // 64 MB
+
     /**
      * Non proxied resources.
      */
@@ -864,6 +879,50 @@ public class StandardContext
         this.cacheMaxSize = cacheMaxSize;
     }
 
+    /**
+     * Set the cache TTL of the missing resources.
+     */
+    public void setNotFoundCacheTTL(int notFoundCacheTTL) {
+        this.notFoundCacheTTL = notFoundCacheTTL;
+    }
+
+    /**
+     * Get the cache TTL of the missing resources.
+     */
+    public int getNotFoundCacheTTL() {
+        return notFoundCacheTTL;
+    }
+
+    /**
+     * Set where the cache keeps the content of the large resources: heap
+     * (it does not), direct or mapped.
+     */
+    public void setCacheContentStorage(String cacheContentStorage) {
+        this.cacheContentStorage = cacheContentStorage;
+    }
+
+    /**
+     * Get where the cache keeps the content of the large resources.
+     */
+    public String getCacheContentStorage() {
+        return cacheContentStorage;
+    }
+
+    /**
+     * Return the maximum size of the content cached outside of the heap
+     * in KB.
+     */
+    public int getOffHeapCacheMaxSize() {
+        return offHeapCacheMaxSize;
+    }
+
+    /**
+     * Set the maximum size of the content cached outside of the heap in KB.
+     */
+    public void setOffHeapCacheMaxSize(int offHeapCacheMaxSize) {
+        this.offHeapCacheMaxSize = offHeapCacheMaxSize;
+    }
+
     /**
      * Return the "follow standard delegation model" flag used to configure
      * our ClassLoader.
@@ -1850,6 +1909,9 @@ public class StandardContext
             baseDirContext.setCached(isCachingAllowed());
             baseDirContext.setCacheTTL(getCacheTTL());
             baseDirContext.setCacheMaxSize(getCacheMaxSize());
+            baseDirContext.setNotFoundCacheTTL(getNotFoundCacheTTL());
+            baseDirContext.setCacheContentStorage(getCacheContentStorage());
+            baseDirContext.setOffHeapCacheMaxSize(getOffHeapCacheMaxSize());
         }
         if (resources instanceof FileDirContext) {
             filesystemBased = true;
@@ -1885,6 +1947,12 @@ public class StandardContext
             ((BaseDirContext) resources).setCached(isCachingAllowed());
             ((BaseDirContext) resources).setCacheTTL(getCacheTTL());
             ((BaseDirContext) resources).setCacheMaxSize(getCacheMaxSize());
+            ((BaseDirContext) resources).setNotFoundCacheTTL(
+                getNotFoundCacheTTL());
+            ((BaseDirContext) resources).setCacheContentStorage(
+                getCacheContentStorage());
+            ((BaseDirContext) resources).setOffHeapCacheMaxSize(
+                getOffHeapCacheMaxSize());
         }
         if (resources instanceof FileDirContext) {
             filesystemBased = true;
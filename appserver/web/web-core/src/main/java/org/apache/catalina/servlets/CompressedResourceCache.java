@@ -0,0 +1,223 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.apache.catalina.servlets;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.naming.resources.CacheEntry;
+import org.apache.naming.resources.Resource;
+import org.apache.naming.resources.ResourceAttributes;
+
+/**
+ * Cache of the gzip encoded variants of the static resources served by
+ * DefaultServlet, within a budget in bytes.
+ * <p>
+ * A variant is keyed by the name and the ETag of its resource: once the
+ * resource cache entry is reloaded with a new version of the resource, the
+ * old variant is no longer found and ages out of the cache. Resources which
+ * do not get smaller are remembered as such, so that they are only
+ * compressed once as well.
+ * <p>
+ * Every variant counts in the budget for its content, if any, and for an
+ * estimate of the memory used by its entry, so that the resources which
+ * are only remembered are evicted too.
+ */
+class CompressedResourceCache {
+
+
+    // ----------------------------------------------------- Constants
+
+
+    /**
+     * Estimate of the bytes used by an entry besides its content and its
+     * key: the map entry, the CacheEntry and the ResourceAttributes.
+     */
+    static final int ENTRY_OVERHEAD = 256;
+
+
+    // ----------------------------------------------------- Instance Variables
+
+
+    private final long maxSize;
+
+    private long size = 0;
+
+    private final LinkedHashMap<String, CacheEntry> variants =
+        new LinkedHashMap<String, CacheEntry>(16, 0.75f, true);
+
+
+    // ----------------------------------------------------------- Constructors
+
+
+    /**
+     * @param maxSize Maximum size of the cached variants in bytes
+     */
+    CompressedResourceCache(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+
+    // --------------------------------------------------------- Public Methods
+
+
+    /**
+     * Return the largest resource which is compressed.
+     */
+    long getMaxObjectSize() {
+        return Math.min(maxSize / 20, Integer.MAX_VALUE);
+    }
+
+
+    /**
+     * Return the size of the cached variants in bytes.
+     */
+    synchronized long getSize() {
+        return size;
+    }
+
+
+    /**
+     * Return the number of cached variants, including the resources which
+     * do not get smaller.
+     */
+    synchronized int getVariantCount() {
+        return variants.size();
+    }
+
+
+    /**
+     * Return the gzip encoded variant of the given resource, compressing it
+     * if it is not cached, or null if the resource does not get smaller.
+     *
+     * @exception IOException if the resource could not be read
+     */
+    CacheEntry getVariant(CacheEntry source) throws IOException {
+
+        String key = source.name + source.attributes.getETag();
+        CacheEntry variant;
+        synchronized (this) {
+            variant = variants.get(key);
+        }
+        if (variant == null) {
+            variant = compress(source, key);
+            synchronized (this) {
+                CacheEntry previous = variants.put(key, variant);
+                if (previous != null) {
+                    size -= previous.size;
+                }
+                size += variant.size;
+                Iterator<CacheEntry> it = variants.values().iterator();
+                while ((size > maxSize) && it.hasNext()) {
+                    size -= it.next().size;
+                    it.remove();
+                }
+            }
+        }
+        return (variant.exists) ? variant : null;
+
+    }
+
+
+    // -------------------------------------------------------- Private Methods
+
+
+    private static CacheEntry compress(CacheEntry source, String key)
+        throws IOException {
+
+        long length = source.attributes.getContentLength();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+            (int) Math.max(64, length / 4));
+        InputStream is = source.resource.streamContent();
+        try {
+            GZIPOutputStream gzip = new GZIPOutputStream(bytes, 8192);
+            byte buffer[] = new byte[8192];
+            int len;
+            while ((len = is.read(buffer)) != -1) {
+                gzip.write(buffer, 0, len);
+            }
+            gzip.close();
+        } finally {
+            is.close();
+        }
+
+        CacheEntry variant = new CacheEntry();
+        variant.name = source.name;
+        // the key is the name followed by the ETag, two bytes per char
+        variant.size = ENTRY_OVERHEAD + 2 * key.length();
+        if (bytes.size() >= length) {
+            // Not worth it, only remember it
+            variant.exists = false;
+            return variant;
+        }
+
+        byte content[] = bytes.toByteArray();
+        ResourceAttributes attributes = new ResourceAttributes();
+        attributes.setContentLength(content.length);
+        attributes.setLastModified(source.attributes.getLastModified());
+        attributes.setETag(variantETag(source.attributes.getETag()));
+        variant.attributes = attributes;
+        variant.resource = new Resource(content);
+        variant.size += content.length;
+        return variant;
+
+    }
+
+
+    /**
+     * The variant has its own ETag, derived from the one of the resource.
+     */
+    private static String variantETag(String eTag) {
+        if (eTag == null) {
+            return null;
+        }
+        if (eTag.endsWith("\"")) {
+            return eTag.substring(0, eTag.length() - 1) + "-gzip\"";
+        }
+        return eTag + "-gzip";
+    }
+
+
+}
@@ -68,15 +68,20 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.RandomAccessFile;
 import java.io.Reader;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.security.AccessController;
 import java.text.MessageFormat;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import javax.naming.InitialContext;
 import javax.naming.NameClassPair;
 import javax.naming.NamingException;
@@ -102,6 +107,7 @@ import javax.xml.transform.stream.StreamSource;
 
 import org.apache.catalina.Globals;
 import org.apache.catalina.LogFacade;
+import org.apache.catalina.connector.CoyoteOutputStream;
 import org.apache.catalina.core.ContextsAdapterUtility;
 import org.apache.catalina.util.ServerInfo;
 import org.apache.catalina.util.URLEncoder;
@@ -263,6 +269,19 @@ public class DefaultServlet
      * Minimum size for sendfile usage in bytes.
      */
     protected int sendfileSize = 48 * 1024;
+
+
+    /**
+     * Size of the buffers the file regions are read in by sendfile.
+     */
+    protected static final int SENDFILE_BUFFER_SIZE = 128 * 1024;
+
+
+    /**
+     * Buffers of sendfile, reused from a request to the next.
+     */
+    private final ConcurrentLinkedQueue<byte[]> sendfileBuffers =
+        new ConcurrentLinkedQueue<byte[]>();
     
     
     /**
@@ -282,6 +301,50 @@ public class DefaultServlet
      */
     protected int maxHeaderRangeItems = 10;
 
+
+    /**
+     * Should the .br and .gz siblings of the resources be served to the
+     * clients which accept these encodings?
+     */
+    protected boolean precompressed = false;
+
+
+    /**
+     * Size of the cache of the gzip encoded variants of the resources
+     * without sibling, in bytes. The variants are compressed on the fly
+     * when precompressed is set and the size is positive.
+     */
+    protected int compressionCacheSize = 10240 * 1024;
+
+
+    /**
+     * Minimum size of the resources compressed on the fly, in bytes.
+     */
+    protected int compressionMinSize = 1024;
+
+
+    /**
+     * Mime types of the resources compressed on the fly.
+     */
+    protected String[] compressableMimeTypes = {
+        "text/html", "text/xml", "text/plain", "text/css",
+        "text/javascript", "application/javascript", "application/json",
+        "application/xml", "image/svg+xml" };
+
+
+    /**
+     * Content encodings of the precompressed siblings, in order of
+     * preference, and the extensions of the siblings.
+     */
+    protected static final String[][] PRECOMPRESSED_ENCODINGS = {
+        { "br", ".br" }, { "gzip", ".gz" } };
+
+
+    /**
+     * Cache of the variants compressed on the fly.
+     */
+    private CompressedResourceCache compressedResourceCache = null;
+
     
     // ----------------------------------------------------- Static Initializer
 
@@ -381,6 +444,25 @@ public class DefaultServlet
         if (sc.getInitParameter("useAcceptRanges") != null)
             useAcceptRanges = Boolean.parseBoolean(sc.getInitParameter("useAcceptRanges"));
 
+        if (sc.getInitParameter("precompressed") != null)
+            precompressed = Boolean.parseBoolean(sc.getInitParameter("precompressed"));
+
+        if (sc.getInitParameter("compressionCacheSize") != null)
+            compressionCacheSize =
+                Integer.parseInt(sc.getInitParameter("compressionCacheSize")) * 1024;
+
+        if (sc.getInitParameter("compressionMinSize") != null)
+            compressionMinSize =
+                Integer.parseInt(sc.getInitParameter("compressionMinSize"));
+
+        if (sc.getInitParameter("compressableMimeType") != null)
+            compressableMimeTypes =
+                sc.getInitParameter("compressableMimeType").trim().split("\\s*,\\s*");
+
+        if (precompressed && (compressionCacheSize > 0))
+            compressedResourceCache =
+                new CompressedResourceCache(compressionCacheSize);
+
         // Sanity check on the specified buffer sizes
         if (input < 256)
             input = 256;
@@ -820,6 +902,7 @@ public class DefaultServlet
 
         CacheEntry cacheEntry = null;
         ProxyDirContext proxyDirContext = resources;
+        ProxyDirContext entryDirContext = proxyDirContext;
         if (alternateDocBases == null
                 || alternateDocBases.size() == 0) {
             cacheEntry = proxyDirContext.lookupCache(path);
@@ -827,7 +910,8 @@ public class DefaultServlet
             AlternateDocBase match = AlternateDocBase.findMatch(
                                             path, alternateDocBases);
             if (match != null) {
-                cacheEntry = ((ProxyDirContext) ContextsAdapterUtility.unwrap(match.getResources())).lookupCache(path);
+                entryDirContext = (ProxyDirContext) ContextsAdapterUtility.unwrap(match.getResources());
+                cacheEntry = entryDirContext.lookupCache(path);
             } else {
                 // None of the url patterns for alternate docbases matched
                 cacheEntry = proxyDirContext.lookupCache(path);
@@ -888,13 +972,58 @@ public class DefaultServlet
             }
         }
 
+        // Find content type.
+        String contentType = cacheEntry.attributes.getMimeType();
+        if (contentType == null && !cacheEntry.attributes.isMimeTypeInitialized()) {
+            contentType = getServletContext().getMimeType(cacheEntry.name);
+            cacheEntry.attributes.setMimeType(contentType);
+        }
+
+        boolean included =
+            (request.getAttribute(RequestDispatcher.INCLUDE_CONTEXT_PATH) != null);
+
+        // Select the encoded variant of the resource, if any: the rest of
+        // the response, including the ranges, is about the variant
+        String contentEncoding = null;
+        if ((cacheEntry.context == null) && precompressed && !included) {
+            String acceptEncoding = request.getHeader("Accept-Encoding");
+            boolean vary = false;
+            for (String[] encoding : PRECOMPRESSED_ENCODINGS) {
+                CacheEntry sibling =
+                    entryDirContext.lookupCache(path + encoding[1]);
+                if ((sibling == null) || !sibling.exists
+                        || (sibling.context != null)
+                        || (sibling.resource == null)) {
+                    continue;
+                }
+                vary = true;
+                if (acceptsEncoding(acceptEncoding, encoding[0])) {
+                    cacheEntry = sibling;
+                    contentEncoding = encoding[0];
+                    break;
+                }
+            }
+            if ((contentEncoding == null) && isCompressable(cacheEntry, contentType)) {
+                vary = true;
+                if (acceptsEncoding(acceptEncoding, "gzip")) {
+                    CacheEntry variant =
+                        compressedResourceCache.getVariant(cacheEntry);
+                    if (variant != null) {
+                        cacheEntry = variant;
+                        contentEncoding = "gzip";
+                    }
+                }
+            }
+            if (vary) {
+                response.addHeader("Vary", "Accept-Encoding");
+            }
+        }
+
         // Check if the conditions specified in the optional If headers are
         // satisfied.
         if (cacheEntry.context == null) {
 
             // Checking If headers
-            boolean included =
-                (request.getAttribute(RequestDispatcher.INCLUDE_CONTEXT_PATH) != null);
             if (!included
                 && !checkIfHeaders(request, response, cacheEntry.attributes)) {
                 return;
@@ -902,13 +1031,6 @@ public class DefaultServlet
 
         }
 
-        // Find content type.
-        String contentType = cacheEntry.attributes.getMimeType();
-        if (contentType == null && !cacheEntry.attributes.isMimeTypeInitialized()) {
-            contentType = getServletContext().getMimeType(cacheEntry.name);
-            cacheEntry.attributes.setMimeType(contentType);
-        }
-
         ArrayList<Range> ranges = null;
         long contentLength = -1L;
 
@@ -934,6 +1056,11 @@ public class DefaultServlet
                 response.setHeader("Accept-Ranges", "bytes");
             }
 
+            // Content-Encoding header
+            if (contentEncoding != null) {
+                response.setHeader("Content-Encoding", contentEncoding);
+            }
+
             // Parse range specifier
             ranges = parseRange(request, response, cacheEntry.attributes);
 
@@ -1020,7 +1147,8 @@ public class DefaultServlet
                     // Silent catch
                 }
                 if (ostream != null) {
-                    if (!checkSendfile(request, response, cacheEntry, contentLength, null))
+                    if (!checkSendfile(cacheEntry, ostream, contentLength)
+                            || !sendfile(cacheEntry, ostream, 0, contentLength - 1))
                         copy(cacheEntry, renderResult, ostream);
                 } else {
                     copy(cacheEntry, renderResult, writer);
@@ -1070,7 +1198,8 @@ public class DefaultServlet
                         // Silent catch
                     }
                     if (ostream != null) {
-                        if (!checkSendfile(request, response, cacheEntry, range.end - range.start + 1, range))
+                        if (!checkSendfile(cacheEntry, ostream, length)
+                                || !sendfile(cacheEntry, ostream, range.start, range.end))
                             copy(cacheEntry, ostream, range);
                     } else {
                         copy(cacheEntry, writer, range);
@@ -1908,32 +2037,189 @@ public class DefaultServlet
 
 
     /**
-     * Check if sendfile can be used.
+     * Check if the client accepts the given content encoding.
+     *
+     * @param acceptEncoding The Accept-Encoding header of the request
+     * @param encoding The content encoding
      */
-    protected boolean checkSendfile(HttpServletRequest request,
-                                  HttpServletResponse response,
-                                  CacheEntry entry,
-                                  long length, Range range) {
-        if ((sendfileSize > 0)
-            && (entry.resource != null)
-            && ((length > sendfileSize) || (entry.resource.getContent() == null))
-            && (entry.attributes.getCanonicalPath() != null)
-            && (Boolean.TRUE.equals(request.getAttribute("org.apache.tomcat.sendfile.support")))
-            && (request.getClass().getName().equals("org.apache.catalina.connector.RequestFacade"))
-            && (response.getClass().getName().equals("org.apache.catalina.connector.ResponseFacade"))) {
-            request.setAttribute("org.apache.tomcat.sendfile.filename", entry.attributes.getCanonicalPath());
-            if (range == null) {
-                request.setAttribute("org.apache.tomcat.sendfile.start", Long.valueOf(0L));
-                request.setAttribute("org.apache.tomcat.sendfile.end", Long.valueOf(length));
-            } else {
-                request.setAttribute("org.apache.tomcat.sendfile.start", Long.valueOf(range.start));
-                request.setAttribute("org.apache.tomcat.sendfile.end", Long.valueOf(range.end + 1));
+    protected boolean acceptsEncoding(String acceptEncoding,
+                                      String encoding) {
+        if (acceptEncoding == null)
+            return false;
+        boolean accepted = false;
+        StringTokenizer tokenizer = new StringTokenizer(acceptEncoding, ",");
+        while (tokenizer.hasMoreTokens()) {
+            String token = tokenizer.nextToken().trim();
+            String coding = token;
+            double quality = 1;
+            int semicolon = token.indexOf(';');
+            if (semicolon >= 0) {
+                coding = token.substring(0, semicolon).trim();
+                String parameter = token.substring(semicolon + 1).trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        quality = Double.parseDouble(parameter.substring(2));
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
             }
-            request.setAttribute("org.apache.tomcat.sendfile.token", this);
+            if (coding.equalsIgnoreCase(encoding)) {
+                // An explicit q=0 refuses the encoding, even with *
+                return (quality > 0);
+            }
+            if (coding.equals("*")) {
+                accepted = (quality > 0);
+            }
+        }
+        return accepted;
+    }
+
+
+    /**
+     * Check if the resource should be compressed on the fly.
+     */
+    protected boolean isCompressable(CacheEntry entry, String contentType) {
+        if ((compressedResourceCache == null) || (contentType == null)
+                || (entry.resource == null))
+            return false;
+        long length = entry.attributes.getContentLength();
+        if ((length < compressionMinSize)
+                || (length > compressedResourceCache.getMaxObjectSize()))
+            return false;
+        int semicolon = contentType.indexOf(';');
+        String mimeType = (semicolon >= 0) ?
+            contentType.substring(0, semicolon).trim() : contentType;
+        for (String compressableMimeType : compressableMimeTypes) {
+            if (compressableMimeType.equalsIgnoreCase(mimeType))
+                return true;
+        }
+        return false;
+    }
+
+
+    /**
+     * Check if sendfile can be used: the content of a resource which is not
+     * in the heap is then written to the connector as regions of its file,
+     * or of the direct buffer the resource cache keeps it in, instead of
+     * being copied through the response buffer.
+     * <p>
+     * The regions of the file are read in a buffer reused from a request to
+     * the next, which the connector copies, rather than mapped in memory: a
+     * mapped region stays in the write queue of the connector after
+     * sendfile returns, and would crash the JVM with a SIGBUS when read if
+     * the file is truncated meanwhile. For the same reason the content the
+     * resource cache maps in memory is read from the file too.
+     */
+    protected boolean checkSendfile(CacheEntry entry,
+                                    ServletOutputStream ostream,
+                                    long length) {
+        return (sendfileSize > 0)
+            && (length > sendfileSize)
+            && (ostream instanceof CoyoteOutputStream)
+            && (entry.resource != null)
+            && (entry.resource.getContent() == null)
+            && (((entry.resource.getBufferContent() != null)
+                    && !entry.resource.isBufferContentMapped())
+                || (entry.attributes.getCanonicalPath() != null));
+    }
+
+
+    /**
+     * Write the given range of the content of a resource to the connector
+     * without copying it through the response buffer.
+     *
+     * @param entry The CacheEntry object
+     * @param ostream The output stream to write to, as accepted by
+     * checkSendfile
+     * @param start Start of the range which will be written
+     * @param end End of the range which will be written
+     * @return false if nothing was written because the file could not be
+     * opened
+     * @exception IOException if an input/output error occurs
+     */
+    protected boolean sendfile(CacheEntry entry, ServletOutputStream ostream,
+                               long start, long end)
+        throws IOException {
+
+        if (debug > 10)
+            log("Sending bytes:" + start + "-" + end);
+
+        ByteBuffer content = entry.resource.getBufferContent();
+        if (content != null && !entry.resource.isBufferContentMapped()) {
+            ByteBuffer region = content.duplicate();
+            region.limit((int) end + 1);
+            region.position((int) start);
+            ((CoyoteOutputStream) ostream).write(region.slice());
             return true;
-        } else {
+        }
+
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(
+                new File(entry.attributes.getCanonicalPath()).toPath(),
+                StandardOpenOption.READ);
+        } catch (IOException e) {
             return false;
         }
+        try {
+            if (channel.size() <= end) {
+                // The file was truncated since its attributes were read
+                String msg = MessageFormat.format(rb.getString(LogFacade.SENDFILE_TRUNCATED_EXCEPTION),
+                                                  new Object[] {Long.valueOf(channel.size()),
+                                                                Long.valueOf(end + 1)});
+                throw new IOException(msg);
+            }
+            byte[] buffer = sendfileBuffers.poll();
+            if (buffer == null) {
+                buffer = new byte[SENDFILE_BUFFER_SIZE];
+            }
+            try {
+                copyRegion(channel, start, end, ostream, buffer);
+            } finally {
+                sendfileBuffers.offer(buffer);
+            }
+        } finally {
+            channel.close();
+        }
+        return true;
+
+    }
+
+
+    /**
+     * Copy a region of a file to the given stream through the given buffer.
+     * The connector copies each chunk before the buffer is filled again, so
+     * a file truncated meanwhile only ends the response early.
+     *
+     * @param channel The channel of the file
+     * @param start Start of the region
+     * @param end End of the region, inclusive
+     * @param ostream The output stream to write to
+     * @param buffer The buffer to read the file in
+     * @exception IOException if the file ends before the region, or an
+     * input/output error occurs
+     */
+    static void copyRegion(FileChannel channel, long start, long end,
+                           OutputStream ostream, byte[] buffer)
+        throws IOException {
+
+        ByteBuffer chunk = ByteBuffer.wrap(buffer);
+        long position = start;
+        while (position <= end) {
+            chunk.clear();
+            chunk.limit((int) Math.min(buffer.length, end + 1 - position));
+            int len = channel.read(chunk, position);
+            if (len < 0) {
+                // The file was truncated while it was being written
+                String msg = MessageFormat.format(rb.getString(LogFacade.SENDFILE_TRUNCATED_EXCEPTION),
+                                                  new Object[] {Long.valueOf(position),
+                                                                Long.valueOf(end + 1)});
+                throw new IOException(msg);
+            }
+            ostream.write(buffer, 0, len);
+            position += len;
+        }
     }
 
 
@@ -2296,25 +2582,38 @@ public class DefaultServlet
 
         while ( (exception == null) && (ranges.hasNext()) ) {
 
+            Range currentRange = ranges.next();
+
+            // Writing MIME header.
+            ostream.println();
+            ostream.println("--" + mimeSeparation);
+            if (contentType != null)
+                ostream.println("Content-Type: " + contentType);
+            ostream.println("Content-Range: bytes " + currentRange.start
+                           + "-" + currentRange.end + "/"
+                           + currentRange.length);
+            ostream.println();
+
+            // Printing content
+            if (checkSendfile(cacheEntry, ostream,
+                              currentRange.end - currentRange.start + 1)) {
+                try {
+                    if (sendfile(cacheEntry, ostream, currentRange.start,
+                                 currentRange.end)) {
+                        continue;
+                    }
+                } catch (IOException e) {
+                    exception = e;
+                    continue;
+                }
+            }
+
             InputStream resourceInputStream = cacheEntry.resource.streamContent();
             InputStream istream = null;
             try {
                 istream = 
                     new BufferedInputStream(resourceInputStream, input);
 
-                Range currentRange = ranges.next();
-
-                // Writing MIME header.
-                ostream.println();
-                ostream.println("--" + mimeSeparation);
-                if (contentType != null)
-                    ostream.println("Content-Type: " + contentType);
-                ostream.println("Content-Range: bytes " + currentRange.start
-                               + "-" + currentRange.end + "/"
-                               + currentRange.length);
-                ostream.println();
-
-                // Printing content
                 exception = copyRange(istream, ostream, currentRange.start,
                                       currentRange.end);
 
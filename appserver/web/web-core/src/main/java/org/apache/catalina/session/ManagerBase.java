@@ -231,6 +231,14 @@ public abstract class ManagerBase implements Manager {
      */
     protected int rejectedSessions = 0;
 
+    /**
+     * The sessions of this Manager, scheduled at the time they expire, so
+     * that the background processing only visits the sessions which are
+     * due.
+     */
+    protected final SessionTimerWheel expirationWheel =
+        new SessionTimerWheel();
+
 
     // ------------------------------------------------------- Security classes
     private class PrivilegedSetRandomFile implements PrivilegedAction<DataInputStream>{
@@ -679,6 +687,9 @@ public abstract class ManagerBase implements Manager {
      */
     public void add(Session session) {
         sessions.put(session.getIdInternal(), session);
+        if (session instanceof StandardSession) {
+            scheduleExpiration((StandardSession) session);
+        }
         int size = sessions.size();
         if (size > maxActive) {
             synchronized(maxActiveUpdateLock) {
@@ -884,6 +895,106 @@ public abstract class ManagerBase implements Manager {
      */
     public void remove(Session session) {
         sessions.remove(session.getIdInternal());
+        if (session instanceof StandardSession) {
+            cancelExpiration((StandardSession) session);
+        }
+    }
+
+
+    /**
+     * Schedule the expiration of the given session, according to the time
+     * it was last accessed and its maximum inactive interval, in place of
+     * the one it may have.
+     *
+     * @param session Session to be scheduled
+     */
+    public void scheduleExpiration(StandardSession session) {
+        SessionTimerWheel.Timeout timeout = null;
+        int interval = session.getMaxInactiveInterval();
+        if (interval >= 0) {
+            timeout = expirationWheel.schedule(session,
+                session.thisAccessedTime + interval * 1000L);
+        }
+        SessionTimerWheel.Timeout previous = session.expirationTimeout;
+        session.expirationTimeout = timeout;
+        if (previous != null) {
+            expirationWheel.cancel(previous);
+        }
+    }
+
+
+    /**
+     * Cancel the expiration of the given session, if it is scheduled.
+     *
+     * @param session Session which is no longer managed
+     */
+    public void cancelExpiration(StandardSession session) {
+        SessionTimerWheel.Timeout previous = session.expirationTimeout;
+        session.expirationTimeout = null;
+        if (previous != null) {
+            expirationWheel.cancel(previous);
+        }
+    }
+
+
+    /**
+     * Check if the given timeout is the current expiration of a session of
+     * this Manager. The timeouts of the sessions which have been removed
+     * or scheduled again are ignored.
+     */
+    protected boolean isExpirationDue(SessionTimerWheel.Timeout timeout) {
+        StandardSession session = timeout.getSession();
+        if (session.expirationTimeout != timeout) {
+            return false;
+        }
+        if (!isManaged(session)) {
+            session.expirationTimeout = null;
+            return false;
+        }
+        return true;
+    }
+
+
+    /**
+     * Check if the given session is still one of the active sessions of
+     * this Manager.
+     */
+    protected boolean isManaged(StandardSession session) {
+        String id = session.getIdInternal();
+        return (id != null) && (sessions.get(id) == session);
+    }
+
+
+    /**
+     * Schedule again the expiration of a session which was due but has not
+     * expired, because it was accessed since or could not be locked.
+     */
+    protected void rescheduleExpiration(StandardSession session, long now) {
+        int interval = session.getMaxInactiveInterval();
+        if (!session.getIsValid() || interval < 0) {
+            session.expirationTimeout = null;
+            return;
+        }
+        long deadline = Math.max(session.thisAccessedTime + interval * 1000L,
+                                 now + 1000L);
+        session.expirationTimeout =
+            expirationWheel.schedule(session, deadline);
+    }
+
+
+    /**
+     * Return the number of sessions visited by the last expiration check.
+     */
+    public int getLastExpirationCheckCount() {
+        return expirationWheel.getLastVisited();
+    }
+
+
+    /**
+     * Return the time spent by the last expiration check, in ms.
+     */
+    public long getLastExpirationCheckTime() {
+        return expirationWheel.getLastProcessingTime();
     }
 
     @Override
@@ -230,6 +230,18 @@ public abstract class PersistentManagerBase
     private int maxIdleSwap = -1;
 
 
+    /**
+     * The sessions of this Manager, scheduled at the time they become idle
+     * long enough to be swapped out, or backed up. The wheels are only fed
+     * once the corresponding background check runs.
+     */
+    protected final SessionTimerWheel idleSwapWheel = new SessionTimerWheel();
+    protected final SessionTimerWheel idleBackupWheel =
+        new SessionTimerWheel();
+    private volatile boolean idleSwapScheduled = false;
+    private volatile boolean idleBackupScheduled = false;
+
+
     // START SJSAS 6406580
     /**
      * The set of invalidated Sessions for this Manager, keyed by
@@ -298,6 +310,8 @@ public abstract class PersistentManagerBase
             return;
         int oldBackup = this.maxIdleBackup;
         this.maxIdleBackup = backup;
+        // Schedule the sessions again at the next check
+        idleBackupScheduled = false;
         support.firePropertyChange("maxIdleBackup",
                                    Integer.valueOf(oldBackup),
                                    Integer.valueOf(this.maxIdleBackup));
@@ -326,6 +340,8 @@ public abstract class PersistentManagerBase
             return;
         int oldMaxIdleSwap = this.maxIdleSwap;
         this.maxIdleSwap = max;
+        // Schedule the sessions again at the next check
+        idleSwapScheduled = false;
         support.firePropertyChange("maxIdleSwap",
                                    Integer.valueOf(oldMaxIdleSwap),
                                    Integer.valueOf(this.maxIdleSwap));
@@ -356,6 +372,7 @@ public abstract class PersistentManagerBase
             return;
         int oldMinIdleSwap = this.minIdleSwap;
         this.minIdleSwap = min;
+        idleSwapScheduled = false;
         support.firePropertyChange("minIdleSwap",
                                    Integer.valueOf(oldMinIdleSwap),
                                    Integer.valueOf(this.minIdleSwap));
@@ -593,25 +610,33 @@ public abstract class PersistentManagerBase
         if (!started)
             return;
 
-        Session sessions[] = findSessions();
-
-        for (int i = 0; i < sessions.length; i++) {
-            StandardSession session = (StandardSession) sessions[i];
-            /* START CR 6363689
-            if (!session.isValid()) {
-            */
-            // START CR 6363689
-            if(!session.getIsValid() || session.hasExpired()) {
-            // END CR 6363689            
-                if(session.lockBackground()) { 
-                    try {
-                        session.expire();
-                    } finally {
-                        session.unlockBackground();
+        // Only the sessions which are due are visited
+        expirationWheel.advance(System.currentTimeMillis(),
+                                new SessionTimerWheel.Handler() {
+            public void due(SessionTimerWheel.Timeout timeout, long now) {
+                if (!isExpirationDue(timeout)) {
+                    return;
+                }
+                StandardSession session = timeout.getSession();
+                /* START CR 6363689
+                if (!session.isValid()) {
+                */
+                // START CR 6363689
+                if(!session.getIsValid() || session.hasExpired()) {
+                // END CR 6363689
+                    if(session.lockBackground()) {
+                        try {
+                            session.expire();
+                        } finally {
+                            session.unlockBackground();
+                        }
                     }
-                }                                
-	    }            
-        }
+                }
+                if (session.expirationTimeout == timeout) {
+                    rescheduleExpiration(session, now);
+                }
+            }
+        });
     }        
 
 
@@ -866,6 +891,46 @@ public abstract class PersistentManagerBase
             removeSession(session.getIdInternal());
         }
     }    
+
+    /**
+     * Add this Session to the set of active Sessions for this Manager,
+     * and schedule its idle checks.
+     *
+     * @param session Session to be added
+     */
+    @Override
+    public void add(Session session) {
+        super.add(session);
+        if (session instanceof StandardSession) {
+            StandardSession sess = (StandardSession) session;
+            if (idleSwapScheduled) {
+                scheduleIdleSwap(sess);
+            }
+            if (idleBackupScheduled) {
+                scheduleIdleBackup(sess, 0L);
+            }
+        }
+    }
+
+    /**
+     * Cancel the expiration, and the idle checks, of the given session.
+     *
+     * @param session Session which is no longer managed
+     */
+    @Override
+    public void cancelExpiration(StandardSession session) {
+        super.cancelExpiration(session);
+        SessionTimerWheel.Timeout timeout = session.idleSwapTimeout;
+        session.idleSwapTimeout = null;
+        if (timeout != null) {
+            idleSwapWheel.cancel(timeout);
+        }
+        timeout = session.idleBackupTimeout;
+        session.idleBackupTimeout = null;
+        if (timeout != null) {
+            idleBackupWheel.cancel(timeout);
+        }
+    }
     
     /**
      * Remove this Session from the active Sessions for this Manager,
@@ -1302,19 +1367,29 @@ public abstract class PersistentManagerBase
         if (!isStarted() || maxIdleSwap < 0)
             return;
 
-        Session sessions[] = findSessions();
-        long timeNow = System.currentTimeMillis();
+        if (!idleSwapScheduled) {
+            idleSwapScheduled = true;
+            Session sessions[] = findSessions();
+            for (int i = 0; i < sessions.length; i++) {
+                scheduleIdleSwap((StandardSession) sessions[i]);
+            }
+        }
 
         // Swap out all sessions idle longer than maxIdleSwap
         // FIXME: What's preventing us from mangling a session during
         // a request?
-        if (maxIdleSwap >= 0) {
-            for (int i = 0; i < sessions.length; i++) {
-                StandardSession session = (StandardSession) sessions[i];
-                if (!session.isValid())
-                    continue;
+        idleSwapWheel.advance(System.currentTimeMillis(),
+                              new SessionTimerWheel.Handler() {
+            public void due(SessionTimerWheel.Timeout timeout, long now) {
+                StandardSession session = timeout.getSession();
+                if (session.idleSwapTimeout != timeout) {
+                    return;
+                }
+                session.idleSwapTimeout = null;
+                if (!isManaged(session) || !session.isValid())
+                    return;
                 int timeIdle = // Truncate, do not round up
-                    (int) ((timeNow - session.getLastAccessedTime()) / 1000L);
+                    (int) ((now - session.getLastAccessedTime()) / 1000L);
                 if (timeIdle > maxIdleSwap && timeIdle > minIdleSwap) {
                     if (log.isLoggable(Level.FINE)) {
                         log.log(Level.FINE, LogFacade.SWAPPING_SESSION_TO_STORE, new Object[] {session.getIdInternal(),
@@ -1325,9 +1400,12 @@ public abstract class PersistentManagerBase
                     } catch (IOException e) {
                         // This is logged in writeSession()
                     }
+                } else {
+                    // Accessed since it was scheduled
+                    scheduleIdleSwap(session);
                 }
             }
-        }
+        });
 
     }
     
@@ -1341,6 +1419,10 @@ public abstract class PersistentManagerBase
         if (!isStarted() || getMaxActiveSessions() < 0)
             return;
 
+        // Do not copy the sessions unless some must be swapped out
+        if (getMaxActiveSessions() >= this.sessions.size())
+            return;
+
         Session sessions[] = findSessions();
 
         // FIXME: Smarter algorithm (LRU)
@@ -1392,40 +1474,94 @@ public abstract class PersistentManagerBase
         if (!isStarted() || maxIdleBackup < 0)
             return;
 
-        Session sessions[] = findSessions();
-        long timeNow = System.currentTimeMillis();
+        if (!idleBackupScheduled) {
+            idleBackupScheduled = true;
+            Session sessions[] = findSessions();
+            for (int i = 0; i < sessions.length; i++) {
+                scheduleIdleBackup((StandardSession) sessions[i], 0L);
+            }
+        }
 
         // Back up all sessions idle longer than maxIdleBackup
-        if (maxIdleBackup >= 0) {
-            for (int i = 0; i < sessions.length; i++) {
-                StandardSession session = (StandardSession) sessions[i];
-                if (!session.isValid())
-                    continue;                
+        idleBackupWheel.advance(System.currentTimeMillis(),
+                                new SessionTimerWheel.Handler() {
+            public void due(SessionTimerWheel.Timeout timeout, long now) {
+                StandardSession session = timeout.getSession();
+                if (session.idleBackupTimeout != timeout) {
+                    return;
+                }
+                session.idleBackupTimeout = null;
+                if (!isManaged(session) || !session.isValid())
+                    return;
                 int timeIdle = // Truncate, do not round up
-                    (int) ((timeNow - session.getLastAccessedTime()) / 1000L);
-                if (timeIdle > maxIdleBackup) { 
-                    //if session cannot be background locked then skip it
-                    if (session.lockBackground()) {                         
-                        if (log.isLoggable(Level.FINE)) {
-                            log.log(Level.FINE, LogFacade.BACKUP_SESSION_TO_STORE, new Object[] {session.getIdInternal(),
-                                    Integer.valueOf(timeIdle)});
-                        }
-                        try {
-                            writeSession(session);
-                        } catch (java.util.ConcurrentModificationException e1) {
-                            // This is logged in writeSession()                            
-                        } catch (IOException e) {
-                            // This is logged in writeSession()
-                        } catch (Exception e) {
-                            // This is logged in writeSession()                                
-                        } finally {
-                            session.unlockBackground();
-                        }
-                    }
+                    (int) ((now - session.getLastAccessedTime()) / 1000L);
+                if (timeIdle <= maxIdleBackup) {
+                    // Accessed since it was scheduled
+                    scheduleIdleBackup(session, 0L);
+                    return;
+                }
+                //if session cannot be background locked then skip it
+                if (!session.lockBackground()) {
+                    scheduleIdleBackup(session, now + 1000L);
+                    return;
+                }
+                if (log.isLoggable(Level.FINE)) {
+                    log.log(Level.FINE, LogFacade.BACKUP_SESSION_TO_STORE, new Object[] {session.getIdInternal(),
+                            Integer.valueOf(timeIdle)});
+                }
+                try {
+                    writeSession(session);
+                } catch (java.util.ConcurrentModificationException e1) {
+                    // This is logged in writeSession()
+                } catch (IOException e) {
+                    // This is logged in writeSession()
+                } catch (Exception e) {
+                    // This is logged in writeSession()
+                } finally {
+                    session.unlockBackground();
                 }
+                // Backed up again once per maxIdleBackup while idle
+                scheduleIdleBackup(session, now + (maxIdleBackup + 1) * 1000L);
             }
+        });
+
+    }
+
+
+    /**
+     * Schedule the given session at the time it will have been idle longer
+     * than maxIdleSwap and minIdleSwap.
+     */
+    private void scheduleIdleSwap(StandardSession session) {
+        if (maxIdleSwap < 0) {
+            return;
+        }
+        int idle = Math.max(maxIdleSwap, minIdleSwap);
+        SessionTimerWheel.Timeout previous = session.idleSwapTimeout;
+        session.idleSwapTimeout = idleSwapWheel.schedule(session,
+            session.getLastAccessedTimeInternal() + (idle + 1) * 1000L);
+        if (previous != null) {
+            idleSwapWheel.cancel(previous);
         }
+    }
+
 
+    /**
+     * Schedule the given session at the time it will have been idle longer
+     * than maxIdleBackup, or at the given time if it is later.
+     */
+    private void scheduleIdleBackup(StandardSession session, long notBefore) {
+        int idle = maxIdleBackup;
+        if (idle < 0) {
+            return;
+        }
+        SessionTimerWheel.Timeout previous = session.idleBackupTimeout;
+        session.idleBackupTimeout = idleBackupWheel.schedule(session,
+            Math.max(session.getLastAccessedTimeInternal() + (idle + 1) * 1000L,
+                     notBefore));
+        if (previous != null) {
+            idleBackupWheel.cancel(previous);
+        }
     }
     
     public String getMonitorAttributeValues() {
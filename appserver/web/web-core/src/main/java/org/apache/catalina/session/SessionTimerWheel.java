@@ -0,0 +1,269 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.apache.catalina.session;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Hashed timing wheel of the sessions of a Manager, so that the background
+ * processing only visits the sessions which are due (to expire, to be
+ * swapped out, to be backed up...) instead of all of them.
+ * <p>
+ * A session is scheduled at a deadline, in the slot of the tick of that
+ * deadline. Deadlines past a full turn of the wheel stay in their slot and
+ * are skipped until their turn comes. Accessing a session does not move it:
+ * when its deadline comes, the Handler checks it again against the time
+ * it was last accessed and schedules it again if it is not due yet.
+ */
+public class SessionTimerWheel {
+
+
+    // ----------------------------------------------------- Handler Interface
+
+
+    /**
+     * Processes the sessions which are due.
+     */
+    public interface Handler {
+
+        /**
+         * @param timeout The timeout of the session which is due
+         * @param now The current time in ms
+         */
+        void due(Timeout timeout, long now);
+
+    }
+
+
+    // -------------------------------------------------------- Timeout Class
+
+
+    /**
+     * A session scheduled in the wheel.
+     */
+    public static final class Timeout {
+
+        final StandardSession session;
+        final long deadlineTick;
+        volatile boolean cancelled = false;
+
+        Timeout(StandardSession session, long deadlineTick) {
+            this.session = session;
+            this.deadlineTick = deadlineTick;
+        }
+
+        public StandardSession getSession() {
+            return session;
+        }
+
+    }
+
+
+    // ----------------------------------------------------- Instance Variables
+
+
+    private static final int DEFAULT_SLOTS = 4096;
+
+    private final long tickMillis;
+
+    private final ConcurrentLinkedQueue<Timeout>[] slots;
+
+    private final int mask;
+
+    /**
+     * Timeouts scheduled in the ticks being processed, or already processed.
+     */
+    private final ConcurrentLinkedQueue<Timeout> overdue =
+        new ConcurrentLinkedQueue<Timeout>();
+
+    /**
+     * The first tick which has not been processed yet.
+     */
+    private volatile long currentTick;
+
+    /**
+     * The last tick being processed.
+     */
+    private volatile long processingTick;
+
+    private volatile int lastVisited = 0;
+
+    private volatile long lastProcessingTime = 0L;
+
+
+    // ----------------------------------------------------------- Constructors
+
+
+    public SessionTimerWheel() {
+        this(1000L, DEFAULT_SLOTS);
+    }
+
+
+    /**
+     * @param tickMillis Duration of a tick in ms
+     * @param slots Number of slots of the wheel, rounded up to a power of 2
+     */
+    @SuppressWarnings("unchecked")
+    public SessionTimerWheel(long tickMillis, int slots) {
+        this.tickMillis = tickMillis;
+        int size = Integer.highestOneBit(Math.max(1, slots - 1)) << 1;
+        this.slots = new ConcurrentLinkedQueue[size];
+        for (int i = 0; i < size; i++) {
+            this.slots[i] = new ConcurrentLinkedQueue<Timeout>();
+        }
+        this.mask = size - 1;
+        this.currentTick = System.currentTimeMillis() / tickMillis;
+        this.processingTick = currentTick - 1;
+    }
+
+
+    // ------------------------------------------------------------- Properties
+
+
+    /**
+     * Return the number of sessions visited by the last call to advance.
+     */
+    public int getLastVisited() {
+        return lastVisited;
+    }
+
+
+    /**
+     * Return the time spent by the last call to advance, in ms.
+     */
+    public long getLastProcessingTime() {
+        return lastProcessingTime;
+    }
+
+
+    // --------------------------------------------------------- Public Methods
+
+
+    /**
+     * Schedule the given session at the given deadline.
+     *
+     * @return the timeout, to cancel it
+     */
+    public Timeout schedule(StandardSession session, long deadline) {
+        Timeout timeout = new Timeout(session, deadline / tickMillis);
+        if (timeout.deadlineTick <= processingTick) {
+            overdue.add(timeout);
+        } else {
+            ConcurrentLinkedQueue<Timeout> slot =
+                slots[(int) (timeout.deadlineTick & mask)];
+            slot.add(timeout);
+            // The slot may have been processed in the meantime
+            if ((timeout.deadlineTick <= processingTick)
+                    && slot.remove(timeout)) {
+                overdue.add(timeout);
+            }
+        }
+        return timeout;
+    }
+
+
+    /**
+     * Cancel the given timeout, if it has not been processed yet.
+     */
+    public void cancel(Timeout timeout) {
+        timeout.cancelled = true;
+        if (!slots[(int) (timeout.deadlineTick & mask)].remove(timeout)) {
+            overdue.remove(timeout);
+        }
+    }
+
+
+    /**
+     * Pass the sessions which are due at the given time to the given
+     * handler. Only one thread, the background thread of the Manager,
+     * should advance the wheel. The sessions the handler schedules again
+     * in the past are only due at the next call.
+     *
+     * @return the number of sessions visited
+     */
+    public synchronized int advance(long now, Handler handler) {
+
+        long start = System.currentTimeMillis();
+        long nowTick = now / tickMillis;
+        int visited = 0;
+        List<Timeout> due = new ArrayList<Timeout>();
+
+        if (nowTick >= currentTick) {
+            processingTick = nowTick;
+            // A full turn visits all the slots
+            long lastTick = Math.min(nowTick, currentTick + mask);
+            for (long tick = currentTick; tick <= lastTick; tick++) {
+                Iterator<Timeout> it = slots[(int) (tick & mask)].iterator();
+                while (it.hasNext()) {
+                    Timeout timeout = it.next();
+                    if (timeout.deadlineTick <= nowTick) {
+                        it.remove();
+                        due.add(timeout);
+                    }
+                }
+            }
+            currentTick = nowTick + 1;
+        }
+
+        Timeout timeout;
+        while ((timeout = overdue.poll()) != null) {
+            due.add(timeout);
+        }
+
+        for (Timeout dueTimeout : due) {
+            if (dueTimeout.cancelled) {
+                continue;
+            }
+            visited++;
+            handler.due(dueTimeout, now);
+        }
+
+        lastVisited = visited;
+        lastProcessingTime = System.currentTimeMillis() - start;
+        return visited;
+
+    }
+
+
+}
@@ -498,6 +498,7 @@ public class StandardManager
                         StandardSession.deserialize(ois, this);
                     session.setManager(this);
                     sessions.put(session.getIdInternal(), session);
+                    scheduleExpiration(session);
                     session.activate();
                 }
             } catch (ClassNotFoundException e) {
@@ -988,10 +989,13 @@ public class StandardManager
 
         long timeNow = System.currentTimeMillis();
 
-        Session[] sessions = findSessions();
-        if (sessions != null) {
-            for (Session session : sessions) {
-                StandardSession sess = (StandardSession) session;
+        // Only the sessions which are due are visited
+        expirationWheel.advance(timeNow, new SessionTimerWheel.Handler() {
+            public void due(SessionTimerWheel.Timeout timeout, long now) {
+                if (!isExpirationDue(timeout)) {
+                    return;
+                }
+                StandardSession sess = timeout.getSession();
                 if (sess.lockBackground()) {
                     try {
                         sess.isValid();
@@ -999,8 +1003,11 @@ public class StandardManager
                         sess.unlockBackground();
                     }
                 }
+                if (sess.expirationTimeout == timeout) {
+                    rescheduleExpiration(sess, now);
+                }
             }
-        }
+        });
 
         long timeEnd = System.currentTimeMillis();
         processingTime += ( timeEnd - timeNow );
@@ -315,6 +315,19 @@ public class StandardSession
      */
     protected long thisAccessedTime = creationTime;
 
+
+    /**
+     * The expiration of this session scheduled by its Manager.
+     */
+    transient volatile SessionTimerWheel.Timeout expirationTimeout = null;
+
+
+    /**
+     * The idle checks of this session scheduled by a PersistentManager.
+     */
+    transient volatile SessionTimerWheel.Timeout idleSwapTimeout = null;
+    transient volatile SessionTimerWheel.Timeout idleBackupTimeout = null;
+
     /**
      * The session version, incremented and used by in-memory-replicating
      * session managers
@@ -629,6 +642,9 @@ public class StandardSession
         this.maxInactiveInterval = interval;
         if (isValid && interval == 0) {
             expire();
+        } else if (isValid && (id != null)
+                && (manager instanceof ManagerBase)) {
+            ((ManagerBase) manager).scheduleExpiration(this);
         }
 
     }
@@ -767,6 +783,14 @@ public class StandardSession
         this.lastAccessedTime = this.thisAccessedTime;
         this.thisAccessedTime = System.currentTimeMillis();
 
+        // The expiration is not moved, it is checked again when due. Only
+        // the sessions the Manager has not scheduled yet are scheduled
+        if ((expirationTimeout == null) && isValid && (id != null)
+                && (maxInactiveInterval >= 0)
+                && (manager instanceof ManagerBase)) {
+            ((ManagerBase) manager).scheduleExpiration(this);
+        }
+
         evaluateIfValid();
     }
 
@@ -1038,6 +1062,9 @@ public class StandardSession
         setPrincipal(null);
         isNew = false;
         isValid = false;
+        expirationTimeout = null;
+        idleSwapTimeout = null;
+        idleBackupTimeout = null;
 
         listeners.clear();
 
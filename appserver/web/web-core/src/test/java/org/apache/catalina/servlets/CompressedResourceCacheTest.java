@@ -0,0 +1,160 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.apache.catalina.servlets;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.naming.resources.CacheEntry;
+import org.apache.naming.resources.Resource;
+import org.apache.naming.resources.ResourceAttributes;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CompressedResourceCacheTest {
+
+    @Test
+    public void testVariant() throws IOException {
+        CompressedResourceCache cache = new CompressedResourceCache(1024 * 1024);
+        byte[] text = new byte[10000];
+        for (int i = 0; i < text.length; i++) {
+            text[i] = (byte) ('a' + i % 7);
+        }
+        CountingResource resource = new CountingResource(text);
+        CacheEntry source = entry("/index.html", "W/\"10000-1\"", resource);
+
+        CacheEntry variant = cache.getVariant(source);
+        assertNotNull(variant);
+        assertEquals("W/\"10000-1-gzip\"", variant.attributes.getETag());
+        assertArrayEquals(text, gunzip(variant.resource.getContent()));
+        assertEquals(variant.resource.getContent().length, variant.attributes.getContentLength());
+        assertEquals(cache.getSize(), variant.size);
+        assertTrue(variant.size > variant.resource.getContent().length);
+
+        assertSame(variant, cache.getVariant(source));
+        assertEquals(1, resource.reads);
+    }
+
+    /**
+     * The resources which do not get smaller are only compressed once, but
+     * count in the budget: they are evicted as the variants are.
+     */
+    @Test
+    public void testNotCompressedEntriesAreEvicted() throws IOException {
+        long maxSize = 16 * 1024;
+        CompressedResourceCache cache = new CompressedResourceCache(maxSize);
+        Random random = new Random(0);
+
+        CountingResource first = null;
+        for (int i = 0; i < 1000; i++) {
+            byte[] bytes = new byte[1000];
+            random.nextBytes(bytes);
+            CountingResource resource = new CountingResource(bytes);
+            if (first == null) {
+                first = resource;
+            }
+            CacheEntry source = entry("/image" + i + ".png", "W/\"1000-" + i + "\"", resource);
+            assertNull(cache.getVariant(source));
+            assertTrue(cache.getSize() <= maxSize);
+            assertTrue(cache.getSize() > 0);
+        }
+        assertTrue(cache.getVariantCount() < 1000);
+
+        // the first one has been evicted, and is compressed again
+        assertNull(cache.getVariant(entry("/image0.png", "W/\"1000-0\"", first)));
+        assertEquals(2, first.reads);
+    }
+
+    /**
+     * Another version of a resource has its own variant.
+     */
+    @Test
+    public void testNewVersion() throws IOException {
+        CompressedResourceCache cache = new CompressedResourceCache(1024 * 1024);
+        byte[] text = new byte[1000];
+        CacheEntry v1 = cache.getVariant(entry("/a.txt", "W/\"1000-1\"", new CountingResource(text)));
+        CacheEntry v2 = cache.getVariant(entry("/a.txt", "W/\"1000-2\"", new CountingResource(text)));
+        assertNotSame(v1, v2);
+        assertEquals(2, cache.getVariantCount());
+        assertEquals(v1.size + v2.size, cache.getSize());
+    }
+
+    private static CacheEntry entry(String name, String eTag, Resource resource) {
+        CacheEntry entry = new CacheEntry();
+        entry.name = name;
+        entry.resource = resource;
+        entry.attributes = new ResourceAttributes();
+        entry.attributes.setETag(eTag);
+        entry.attributes.setContentLength(resource.getContent().length);
+        return entry;
+    }
+
+    private static byte[] gunzip(byte[] bytes) throws IOException {
+        InputStream is = new GZIPInputStream(new ByteArrayInputStream(bytes));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int len;
+        while ((len = is.read(buffer)) != -1) {
+            out.write(buffer, 0, len);
+        }
+        return out.toByteArray();
+    }
+
+    private static class CountingResource extends Resource {
+
+        int reads;
+
+        CountingResource(byte[] content) {
+            super(content);
+        }
+
+        @Override
+        public InputStream streamContent() throws IOException {
+            reads++;
+            return super.streamContent();
+        }
+    }
+}
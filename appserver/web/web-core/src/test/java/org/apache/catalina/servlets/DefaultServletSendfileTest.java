@@ -0,0 +1,147 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.apache.catalina.servlets;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * The regions of a file written by sendfile go through a buffer reused
+ * from a chunk to the next, and a file truncated meanwhile ends the copy.
+ */
+public class DefaultServletSendfileTest {
+
+    private static final int LENGTH = 300 * 1024;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("sendfile", ".bin");
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content(0, LENGTH));
+        } finally {
+            out.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testCopyRegion() throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            DefaultServlet.copyRegion(channel, 1000, 1000 + 100 * 1024 - 1, out, new byte[7 * 1024]);
+            assertArrayEquals(content(1000, 100 * 1024), out.toByteArray());
+
+            out.reset();
+            DefaultServlet.copyRegion(channel, LENGTH - 1, LENGTH - 1, out, new byte[7 * 1024]);
+            assertArrayEquals(content(LENGTH - 1, 1), out.toByteArray());
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * The chunks already written are not affected by the truncation, the
+     * next read fails.
+     */
+    @Test
+    public void testTruncatedWhileCopied() throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        final int chunk = 64 * 1024;
+        ByteArrayOutputStream out = new ByteArrayOutputStream() {
+            @Override
+            public synchronized void write(byte[] b, int off, int len) {
+                super.write(b, off, len);
+                if (size() == chunk) {
+                    truncate(chunk);
+                }
+            }
+        };
+        try {
+            DefaultServlet.copyRegion(channel, 0, LENGTH - 1, out, new byte[chunk]);
+            fail("the end of the region is missing");
+        } catch (IOException e) {
+            // expected
+        } finally {
+            channel.close();
+        }
+        assertArrayEquals(content(0, chunk), out.toByteArray());
+    }
+
+    private void truncate(long length) {
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(length);
+            } finally {
+                raf.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] content(int start, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) ((start + i) * 31);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.apache.catalina.session;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.catalina.Session;
+import org.apache.catalina.core.StandardContext;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * The expiration and idle checks of a PersistentManager only visit the
+ * sessions scheduled in their wheels.
+ */
+public class PersistentManagerWheelTest {
+
+    private static final long HOUR = 3600L * 1000L;
+
+    private TestManager manager;
+    private long now;
+
+    @Before
+    public void setUp() {
+        manager = new TestManager();
+        manager.setContainer(new StandardContext());
+        manager.setMaxInactiveIntervalSeconds(3600);
+        manager.setStarted(true);
+        now = System.currentTimeMillis();
+    }
+
+    /**
+     * An accessed session is not moved in the wheel, but scheduled again
+     * when its deadline comes.
+     */
+    @Test
+    public void testRescheduleOnAccess() throws IOException {
+        StandardSession session = createSession("accessed");
+        SessionTimerWheel.Timeout scheduled = session.expirationTimeout;
+        assertNotNull(scheduled);
+        session.access();
+        assertSame(scheduled, session.expirationTimeout);
+
+        // the deadline has come, but the session was accessed since
+        idle(session, 2 * HOUR);
+        manager.scheduleExpiration(session);
+        SessionTimerWheel.Timeout due = session.expirationTimeout;
+        assertTrue(scheduled.cancelled);
+        session.access();
+
+        manager.processExpires();
+        assertEquals(1, manager.getLastExpirationCheckCount());
+        assertTrue(session.getIsValid());
+        assertSame(session, manager.findSession("accessed"));
+        assertNotNull(session.expirationTimeout);
+        assertNotSame(due, session.expirationTimeout);
+
+        manager.processExpires();
+        assertEquals(0, manager.getLastExpirationCheckCount());
+
+        // not accessed any more
+        idle(session, 2 * HOUR);
+        manager.scheduleExpiration(session);
+        manager.processExpires();
+        assertEquals(1, manager.getLastExpirationCheckCount());
+        assertNull(manager.findSession("accessed"));
+    }
+
+    @Test
+    public void testCancelOnInvalidate() throws IOException {
+        StandardSession session = createSession("invalidated");
+        manager.setMaxIdleSwap(3600);
+        manager.setMaxIdleBackup(3600);
+        manager.processMaxIdleSwaps();
+        manager.processMaxIdleBackups();
+        SessionTimerWheel.Timeout expiration = session.expirationTimeout;
+        SessionTimerWheel.Timeout idleSwap = session.idleSwapTimeout;
+        SessionTimerWheel.Timeout idleBackup = session.idleBackupTimeout;
+        assertNotNull(expiration);
+        assertNotNull(idleSwap);
+        assertNotNull(idleBackup);
+
+        session.invalidate();
+        assertNull(manager.findSession("invalidated"));
+        assertNull(session.expirationTimeout);
+        assertNull(session.idleSwapTimeout);
+        assertNull(session.idleBackupTimeout);
+        assertTrue(expiration.cancelled);
+        assertTrue(idleSwap.cancelled);
+        assertTrue(idleBackup.cancelled);
+
+        manager.processExpires();
+        assertEquals(0, manager.getLastExpirationCheckCount());
+        manager.processMaxIdleSwaps();
+        assertEquals(0, manager.idleSwapWheel.getLastVisited());
+        manager.processMaxIdleBackups();
+        assertEquals(0, manager.idleBackupWheel.getLastVisited());
+    }
+
+    @Test
+    public void testIdleSwap() throws IOException {
+        StandardSession idle = createSession("idle");
+        StandardSession accessed = createSession("accessed");
+        StandardSession active = createSession("active");
+
+        // the wheel is only fed once the check runs
+        manager.processMaxIdleSwaps();
+        assertNull(idle.idleSwapTimeout);
+        manager.setMaxIdleSwap(60);
+        manager.processMaxIdleSwaps();
+        assertEquals(0, manager.idleSwapWheel.getLastVisited());
+        assertNotNull(idle.idleSwapTimeout);
+
+        // sessions added back to the manager are scheduled when they are
+        // idle, like the sessions loaded from the store
+        idle(idle, 120 * 1000L);
+        manager.add(idle);
+        idle(accessed, 120 * 1000L);
+        manager.add(accessed);
+        SessionTimerWheel.Timeout due = accessed.idleSwapTimeout;
+        accessed.access();
+        accessed.access();
+
+        manager.processMaxIdleSwaps();
+        assertEquals(2, manager.idleSwapWheel.getLastVisited());
+        assertEquals(1, manager.swappedOut.size());
+        assertSame(idle, manager.swappedOut.get(0));
+        assertNull(manager.findSession("idle"));
+        assertSame(accessed, manager.findSession("accessed"));
+        assertNotNull(accessed.idleSwapTimeout);
+        assertNotSame(due, accessed.idleSwapTimeout);
+        assertSame(active, manager.findSession("active"));
+
+        manager.processMaxIdleSwaps();
+        assertEquals(0, manager.idleSwapWheel.getLastVisited());
+    }
+
+    /**
+     * An idle session is backed up once per maxIdleBackup, not on every
+     * check.
+     */
+    @Test
+    public void testIdleBackup() throws IOException {
+        StandardSession idle = createSession("idle");
+        StandardSession active = createSession("active");
+        idle(idle, 120 * 1000L);
+        manager.setMaxIdleBackup(60);
+
+        manager.processMaxIdleBackups();
+        assertEquals(1, manager.idleBackupWheel.getLastVisited());
+        assertEquals(1, manager.backedUp.size());
+        assertSame(idle, manager.backedUp.get(0));
+        assertSame(idle, manager.findSession("idle"));
+        assertNotNull(idle.idleBackupTimeout);
+        assertNotNull(active.idleBackupTimeout);
+
+        manager.processMaxIdleBackups();
+        assertEquals(0, manager.idleBackupWheel.getLastVisited());
+        assertEquals(1, manager.backedUp.size());
+    }
+
+    private StandardSession createSession(String id) {
+        StandardSession session = (StandardSession) manager.createSession(id);
+        session.unlockForeground();
+        return session;
+    }
+
+    /**
+     * Make the session last accessed the given time ago.
+     */
+    private void idle(StandardSession session, long time) {
+        session.setCreationTime(now - time);
+    }
+
+    /**
+     * Records the sessions written to the store instead of writing them.
+     */
+    private static class TestManager extends PersistentManagerBase {
+        final List<Session> swappedOut = new ArrayList<Session>();
+        final List<Session> backedUp = new ArrayList<Session>();
+
+        @Override
+        protected void swapOut(Session session) throws IOException {
+            swappedOut.add(session);
+            remove(session, false);
+        }
+
+        @Override
+        protected void writeSession(Session session) throws IOException {
+            backedUp.add(session);
+        }
+    }
+}
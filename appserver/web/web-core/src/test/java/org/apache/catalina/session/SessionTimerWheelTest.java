@@ -0,0 +1,132 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.apache.catalina.session;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SessionTimerWheelTest {
+
+    private static final long TICK = 1000L;
+    private static final int SLOTS = 4096;
+
+    private SessionTimerWheel wheel;
+    private long now;
+    private final Recorder recorder = new Recorder();
+
+    @Before
+    public void setUp() {
+        wheel = new SessionTimerWheel(TICK, SLOTS);
+        now = System.currentTimeMillis();
+    }
+
+    /**
+     * A deadline further away than a turn of the wheel is skipped when its
+     * slot is visited one turn earlier.
+     */
+    @Test
+    public void testWrapAround() {
+        SessionTimerWheel.Timeout near = wheel.schedule(null, now + 10 * TICK);
+        SessionTimerWheel.Timeout far =
+            wheel.schedule(null, now + (10 + SLOTS) * TICK);
+        SessionTimerWheel.Timeout farther =
+            wheel.schedule(null, now + (10 + 2 * SLOTS) * TICK);
+
+        assertEquals(0, wheel.advance(now + 9 * TICK, recorder));
+        assertEquals(1, wheel.advance(now + 10 * TICK, recorder));
+        assertSame(near, recorder.due.get(0));
+
+        // a full turn visits each slot once
+        assertEquals(0, wheel.advance(now + (9 + SLOTS) * TICK, recorder));
+        assertEquals(1, wheel.advance(now + (10 + SLOTS) * TICK, recorder));
+        assertSame(far, recorder.due.get(1));
+
+        // a jump of several turns visits the slots once
+        assertEquals(1, wheel.advance(now + (20 + 3 * SLOTS) * TICK, recorder));
+        assertSame(farther, recorder.due.get(2));
+        assertEquals(0, wheel.advance(now + (30 + 3 * SLOTS) * TICK, recorder));
+    }
+
+    @Test
+    public void testCancel() {
+        SessionTimerWheel.Timeout cancelled = wheel.schedule(null, now + 5 * TICK);
+        SessionTimerWheel.Timeout overdue = wheel.schedule(null, now - 5 * TICK);
+        SessionTimerWheel.Timeout kept = wheel.schedule(null, now + 5 * TICK);
+        wheel.cancel(cancelled);
+        wheel.cancel(overdue);
+
+        assertEquals(1, wheel.advance(now + 10 * TICK, recorder));
+        assertSame(kept, recorder.due.get(0));
+        assertEquals(1, wheel.getLastVisited());
+    }
+
+    /**
+     * A timeout scheduled in the past is due at the next advance, even when
+     * it is scheduled by the handler.
+     */
+    @Test
+    public void testOverdue() {
+        SessionTimerWheel.Timeout overdue = wheel.schedule(null, now - 5 * TICK);
+        assertEquals(1, wheel.advance(now, new SessionTimerWheel.Handler() {
+            public void due(SessionTimerWheel.Timeout timeout, long now) {
+                recorder.due(timeout, now);
+                wheel.schedule(null, now);
+            }
+        }));
+        assertSame(overdue, recorder.due.get(0));
+        assertEquals(1, wheel.advance(now, recorder));
+        assertEquals(0, wheel.advance(now + TICK, recorder));
+    }
+
+    private static class Recorder implements SessionTimerWheel.Handler {
+        final List<SessionTimerWheel.Timeout> due =
+            new ArrayList<SessionTimerWheel.Timeout>();
+
+        public void due(SessionTimerWheel.Timeout timeout, long now) {
+            due.add(timeout);
+        }
+    }
+}
@@ -41,6 +41,8 @@
 package com.sun.appserv.web.cache;
 
 import com.sun.appserv.util.cache.Cache;
+import com.sun.appserv.util.cache.CacheListener;
+import com.sun.appserv.web.cache.filter.HttpCacheEntry;
 import com.sun.appserv.web.cache.mapping.CacheMapping;
 import org.apache.catalina.LifecycleException;
 import org.glassfish.web.LogFacade;
@@ -64,6 +66,19 @@ public class CacheManager {
     public static final String DEFAULT_CACHE_CLASSNAME = 
         "com.sun.appserv.util.cache.LruCache";
 
+    // where the cached response bodies are kept: "heap" or "offHeap"
+    public static final String RESPONSE_STORAGE_PROPERTY = "responseStorage";
+
+    public static final String OFF_HEAP_RESPONSE_STORAGE = "offHeap";
+
+    // budget of the off-heap storage in bytes
+    public static final String MAX_OFF_HEAP_SIZE_PROPERTY = "maxOffHeapSize";
+
+    // how long expired responses are served while refreshed, in seconds;
+    // suffixed with ".<servlet-name>" or ".<url-pattern>" for a mapping
+    public static final String STALE_WHILE_REVALIDATE_PROPERTY =
+        "staleWhileRevalidateInSeconds";
+
     private static final Logger _logger = LogFacade.getLogger();
 
     /**
@@ -78,6 +93,17 @@ public class CacheManager {
     
     boolean enabled = false;
 
+    // off-heap storage of the response bodies, if configured
+    boolean offHeapStorage = false;
+    long maxOffHeapSize = OffHeapResponseStore.DEFAULT_MAX_SIZE;
+    OffHeapResponseStore offHeapStore;
+
+    // stale-while-revalidate values, indexed by mapping name ("" for all)
+    HashMap<String, Integer> staleWhileRevalidate =
+        new HashMap<String, Integer>();
+
+    RefreshCoordinator refreshCoordinator = new RefreshCoordinator();
+
     // application servlet context
     ServletContext context;
 
@@ -149,6 +175,20 @@ public class CacheManager {
     public void addProperty(String name, String value) {
         if (name.equalsIgnoreCase("cacheClassName")) {
            cacheClassName = value; 
+        } else if (name.equalsIgnoreCase(RESPONSE_STORAGE_PROPERTY)) {
+            offHeapStorage =
+                OFF_HEAP_RESPONSE_STORAGE.equalsIgnoreCase(value.trim());
+        } else if (name.equalsIgnoreCase(MAX_OFF_HEAP_SIZE_PROPERTY)) {
+            maxOffHeapSize = Long.parseLong(value.trim());
+        } else if (name.regionMatches(true, 0, STALE_WHILE_REVALIDATE_PROPERTY,
+                0, STALE_WHILE_REVALIDATE_PROPERTY.length())) {
+            String mappingName = name.substring(
+                STALE_WHILE_REVALIDATE_PROPERTY.length());
+            if (mappingName.startsWith(".")) {
+                mappingName = mappingName.substring(1);
+            }
+            staleWhileRevalidate.put(mappingName,
+                                     Integer.valueOf(value.trim()));
         } else {
             if (cacheProps == null) {
                 cacheProps = new Properties();
@@ -217,6 +257,19 @@ public class CacheManager {
             throw new LifecycleException(_rb.getString(LogFacade.CACHE_MANAGER_EXCEPTION_CREATING_CACHE), e);
         }
 
+        if (offHeapStorage) {
+            offHeapStore = new OffHeapResponseStore(maxOffHeapSize);
+
+            // the bodies of the entries trimmed by the cache are released
+            defaultCache.addCacheListener(new CacheListener() {
+                public void trimEvent(Object key, Object value) {
+                    if (value instanceof HttpCacheEntry) {
+                        ((HttpCacheEntry) value).release();
+                    }
+                }
+            });
+        }
+
         // initialize the "default" helper
         defaultHelper = new DefaultCacheHelper();
         defaultHelper.setCacheManager(this);
@@ -256,6 +309,20 @@ public class CacheManager {
                 helper = cacheHelpers.get(helperNameRef);
             }
             cacheHelpersByFilterName.put(name, helper);
+
+            Integer value = null;
+            if (mapping.getServletName() != null) {
+                value = staleWhileRevalidate.get(mapping.getServletName());
+            }
+            if (value == null && mapping.getURLPattern() != null) {
+                value = staleWhileRevalidate.get(mapping.getURLPattern());
+            }
+            if (value == null) {
+                value = staleWhileRevalidate.get("");
+            }
+            if (value != null) {
+                mapping.setStaleWhileRevalidate(value.intValue());
+            }
         }
     }
 
@@ -311,6 +378,22 @@ public class CacheManager {
         return defaultCache;
     }
 
+    /**
+     * get the off-heap storage of the response bodies
+     * @return the store, or null if the bodies are kept in the heap
+     */
+    public OffHeapResponseStore getOffHeapStore() {
+        return offHeapStore;
+    }
+
+    /**
+     * get the coordinator of the refreshes of the cached responses
+     * @return the refresh coordinator
+     */
+    public RefreshCoordinator getRefreshCoordinator() {
+        return refreshCoordinator;
+    }
+
     /**
      * add cache mapping
      * @param name unique name of the mapping
@@ -415,6 +498,14 @@ public class CacheManager {
         } 
         cacheHelpers.clear();
         cacheMappings.clear();
+
+        if (offHeapStore != null) {
+            if (defaultCache != null) {
+                defaultCache.clear();
+            }
+            offHeapStore.destroy();
+            offHeapStore = null;
+        }
         cacheHelpersByFilterName.clear();
         listeners.clear();
     }
@@ -0,0 +1,275 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package com.sun.appserv.web.cache;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** OffHeapResponseStore keeps the bodies of the cached responses out of the
+ *  Java heap, within a budget in bytes.
+ *
+ *  The memory is allocated as direct slabs, cut into fixed size pages; a
+ *  body is stored in as many pages as it needs, so that the slabs are never
+ *  fragmented. A body is reference counted: its pages return to the store
+ *  once the cache has dropped it and no request is writing it anymore.
+ */
+public final class OffHeapResponseStore {
+
+    public static final long DEFAULT_MAX_SIZE = 64L * 1024 * 1024;
+
+    public static final int PAGE_SIZE = 8192;
+
+    private static final int SLAB_SIZE = 1024 * 1024;
+
+    private final long maxSize;
+
+    // the pages which are not used by any body
+    private final ConcurrentLinkedQueue<ByteBuffer> freePages =
+        new ConcurrentLinkedQueue<ByteBuffer>();
+
+    // the size of the slabs allocated so far
+    private long allocatedSize = 0;
+
+    private final AtomicLong usedSize = new AtomicLong();
+
+    private volatile boolean destroyed = false;
+
+    /**
+     * @param maxSize maximum size of the slabs in bytes
+     */
+    public OffHeapResponseStore(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return maximum size of the stored bodies in bytes
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return size of the pages used by the stored bodies in bytes
+     */
+    public long getUsedSize() {
+        return usedSize.get();
+    }
+
+    /**
+     * allocate the pages of a body of the given length
+     * @param length the length of the body in bytes
+     * @return the body, to be filled with its output stream, or null if the
+     * store is full
+     */
+    public Body allocate(int length) {
+        int count = (length + PAGE_SIZE - 1) / PAGE_SIZE;
+        ByteBuffer[] pages = new ByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            pages[i] = allocatePage();
+            if (pages[i] == null) {
+                free(pages);
+                return null;
+            }
+        }
+        usedSize.addAndGet((long) count * PAGE_SIZE);
+        return new Body(pages, length);
+    }
+
+    /**
+     * drop the free pages; the pages of the bodies still referenced are
+     * not reused once released.
+     */
+    public void destroy() {
+        destroyed = true;
+        freePages.clear();
+    }
+
+    private ByteBuffer allocatePage() {
+        ByteBuffer page = freePages.poll();
+        if (page != null || destroyed) {
+            return page;
+        }
+
+        synchronized (this) {
+            // another thread may have allocated a slab in the meantime
+            page = freePages.poll();
+            if (page != null) {
+                return page;
+            }
+
+            long size = Math.min(SLAB_SIZE, maxSize - allocatedSize);
+            size -= size % PAGE_SIZE;
+            if (size <= 0) {
+                return null;
+            }
+            ByteBuffer slab = ByteBuffer.allocateDirect((int) size);
+            allocatedSize += size;
+
+            for (int offset = PAGE_SIZE; offset < size; offset += PAGE_SIZE) {
+                freePages.offer(slice(slab, offset));
+            }
+            return slice(slab, 0);
+        }
+    }
+
+    private void free(ByteBuffer[] pages) {
+        if (destroyed) {
+            return;
+        }
+        for (ByteBuffer page : pages) {
+            if (page != null) {
+                page.clear();
+                freePages.offer(page);
+            }
+        }
+    }
+
+    private static ByteBuffer slice(ByteBuffer slab, int offset) {
+        ByteBuffer page = slab.duplicate();
+        page.position(offset);
+        page.limit(offset + PAGE_SIZE);
+        return page.slice();
+    }
+
+    /**
+     * The body of a cached response, stored in the pages of the store.
+     */
+    public final class Body {
+
+        private final ByteBuffer[] pages;
+        private final int length;
+
+        // the cache holds the first reference
+        private final AtomicInteger refCount = new AtomicInteger(1);
+
+        Body(ByteBuffer[] pages, int length) {
+            this.pages = pages;
+            this.length = length;
+        }
+
+        /**
+         * @return the length of this body in bytes
+         */
+        public int getLength() {
+            return length;
+        }
+
+        /**
+         * take a reference to this body, before reading it
+         * @return false if this body has been released already
+         */
+        public boolean retain() {
+            while (true) {
+                int count = refCount.get();
+                if (count == 0) {
+                    return false;
+                }
+                if (refCount.compareAndSet(count, count + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * release a reference to this body; the pages are freed with
+         * the last one.
+         */
+        public void release() {
+            if (refCount.decrementAndGet() == 0) {
+                usedSize.addAndGet(-(long) pages.length * PAGE_SIZE);
+                free(pages);
+            }
+        }
+
+        /**
+         * @return a stream filling this body from its first byte
+         */
+        public OutputStream getOutputStream() {
+            return new OutputStream() {
+                private int position = 0;
+
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[] { (byte) b }, 0, 1);
+                }
+
+                @Override
+                public void write(byte b[], int off, int len)
+                        throws IOException {
+                    if (len > length - position) {
+                        throw new IOException("Body overflow");
+                    }
+                    while (len > 0) {
+                        ByteBuffer page = pages[position / PAGE_SIZE].duplicate();
+                        page.position(position % PAGE_SIZE);
+                        int n = Math.min(len, page.remaining());
+                        page.put(b, off, n);
+                        position += n;
+                        off += n;
+                        len -= n;
+                    }
+                }
+            };
+        }
+
+        /**
+         * write this body to the given stream
+         * @param out the stream to write to
+         * @throws IOException if the stream could not be written
+         */
+        public void writeTo(OutputStream out) throws IOException {
+            byte[] buffer = new byte[Math.min(length, PAGE_SIZE)];
+            int remaining = length;
+            for (int i = 0; remaining > 0; i++) {
+                ByteBuffer page = pages[i].duplicate();
+                int n = Math.min(remaining, PAGE_SIZE);
+                page.position(0);
+                page.get(buffer, 0, n);
+                out.write(buffer, 0, n);
+                remaining -= n;
+            }
+        }
+    }
+}
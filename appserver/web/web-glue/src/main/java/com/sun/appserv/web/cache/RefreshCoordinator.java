@@ -0,0 +1,117 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package com.sun.appserv.web.cache;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+/** RefreshCoordinator lets a single request at a time generate or refresh
+ *  the cached response of a key: the other requests for the same key wait
+ *  for it to complete, or are served the stale response meanwhile, instead
+ *  of all generating it again.
+ *
+ *  Unlike Cache.waitRefresh, which blocks on the hash bucket of the key,
+ *  only the requests for the same key wait for each other.
+ */
+public final class RefreshCoordinator {
+
+    /**
+     * The refresh of a key, in progress.
+     */
+    public static final class Refresh {
+
+        private final Thread owner = Thread.currentThread();
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        /**
+         * @return whether the current thread is refreshing the key
+         */
+        public boolean isOwner() {
+            return owner == Thread.currentThread();
+        }
+
+        /**
+         * wait for this refresh to complete
+         * @return false if the current thread has been interrupted
+         */
+        public boolean await() {
+            try {
+                done.await();
+                return true;
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+
+    private final ConcurrentHashMap<String, Refresh> refreshes =
+        new ConcurrentHashMap<String, Refresh>();
+
+    /**
+     * start refreshing the response of the given key
+     * @param key the cache key
+     * @return the refresh, to be ended, or null if the key is being
+     * refreshed already
+     */
+    public Refresh start(String key) {
+        Refresh refresh = new Refresh();
+        return (refreshes.putIfAbsent(key, refresh) == null) ? refresh : null;
+    }
+
+    /**
+     * @param key the cache key
+     * @return the refresh of the given key in progress, if any
+     */
+    public Refresh get(String key) {
+        return refreshes.get(key);
+    }
+
+    /**
+     * end the given refresh, and wake up the requests waiting for it
+     * @param key the cache key
+     * @param refresh the refresh returned by start
+     */
+    public void end(String key, Refresh refresh) {
+        refreshes.remove(key, refresh);
+        refresh.done.countDown();
+    }
+}
@@ -45,13 +45,14 @@ import com.sun.appserv.web.cache.CacheHelper;
 import com.sun.appserv.web.cache.CacheManager;
 import com.sun.appserv.web.cache.CacheManagerListener;
 import com.sun.appserv.web.cache.DefaultCacheHelper;
+import com.sun.appserv.web.cache.RefreshCoordinator;
+import com.sun.appserv.web.cache.mapping.CacheMapping;
 
 import javax.servlet.*;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -60,9 +61,6 @@ import org.glassfish.web.LogFacade;
 
 public class CachingFilter implements Filter, CacheManagerListener {
 
-    private static final String PROCESSING_SET =
-        "com.sun.appserv.web.cache.filter.CachingFilter.PROCESSING_SET";
-
     // this servlet filter name
     String filterName;
     String servletName;
@@ -72,6 +70,10 @@ public class CachingFilter implements Filter, CacheManagerListener {
     CacheManager manager;
     CacheHelper helper;
     Cache cache;
+    RefreshCoordinator refreshCoordinator;
+
+    // how long an expired entry may be served while it is refreshed
+    int staleWhileRevalidate = 0;
 
     boolean isEnabled = false;
 
@@ -98,6 +100,12 @@ public class CachingFilter implements Filter, CacheManagerListener {
         if (manager != null && manager.isEnabled()) {
             this.cache = manager.getDefaultCache();
             this.helper = manager.getCacheHelperByFilterName(filterName);
+            this.refreshCoordinator = manager.getRefreshCoordinator();
+
+            CacheMapping mapping = manager.getCacheMapping(filterName);
+            if (mapping != null) {
+                this.staleWhileRevalidate = mapping.getStaleWhileRevalidate();
+            }
 
             // add filter as a listener so caching can be disabled at runtime.
             manager.addCacheManagerListener(this);
@@ -154,40 +162,70 @@ public class CachingFilter implements Filter, CacheManagerListener {
         if (isEnabled && helper.isCacheable((HttpServletRequest)request) &&
                 (key = helper.getCacheKey(request)) != null) {
 
-            // have the key index for reuse
-            int index = cache.getIndex(key);
-
             if (isFine) {
-                _logger.log(Level.FINE, LogFacade.CACHING_FILTER_CACHEABLE, new Object[]{request.getServletPath(), key, index});
+                _logger.log(Level.FINE, LogFacade.CACHING_FILTER_CACHEABLE, new Object[]{request.getServletPath(), key, cache.getIndex(key)});
             }
 
             HttpCacheEntry entry = null;
-            boolean entryReady = false, waitForRefresh = true;
-            
+            boolean entryReady = false;
+            RefreshCoordinator.Refresh refresh = null;
+
             // if refresh is not needed then check the cache first
             if (!helper.isRefreshNeeded(request)) {
-                do {
+                while (true) {
                     // lookup cache
                     entry = (HttpCacheEntry) cache.get(key);
 
+                    // the off-heap body may have been released meanwhile
+                    if (entry != null && !entry.retain()) {
+                        entry = null;
+                    }
+
                     if (entry != null && entry.isValid()) {
                         // see if there is cached entry and is valid
                         entryReady = true;
                         break;
                     }
-                    else {
-                        /** 
-                         *  a cache entry needs to be generated or refreshed.
-                         *  if there are more than one thread tries to fill/refresh
-                         *  same cache entry, then all but the first thread will block.
-                         */
-                        waitForRefresh = waitForRefresh(request, key, index);
+
+                    /** 
+                     *  a cache entry needs to be generated or refreshed.
+                     *  if there are more than one thread tries to fill/refresh
+                     *  same cache entry, then all but the first thread either
+                     *  get the stale entry, if it is recent enough, or block.
+                     */
+                    refresh = refreshCoordinator.start(key);
+                    if (refresh != null) {
+                        break;
+                    }
+                    if (entry != null &&
+                            entry.isStaleServable(staleWhileRevalidate)) {
+                        if (isFine) {
+                            _logger.log(Level.FINE, LogFacade.CACHING_FILTER_SERVING_STALE_RESPONSE, new Object[]{request.getServletPath(), key});
+                        }
+                        entryReady = true;
+                        break;
                     }
-                } while (waitForRefresh);
+                    if (entry != null) {
+                        entry.release();
+                        entry = null;
+                    }
+
+                    RefreshCoordinator.Refresh other = refreshCoordinator.get(key);
+                    if (other != null && (other.isOwner() || !other.await())) {
+                        // IT 17377: this request is refreshing the entry
+                        break;
+                    }
+                }
+
+                if (!entryReady && entry != null) {
+                    entry.release();
+                    entry = null;
+                }
             } else {
                 if (isFine) {
                     _logger.log(Level.FINE, LogFacade.CACHING_FILTER_NEEDS_REFRESH, new Object[]{request.getServletPath(), key});
                 }
+                refresh = refreshCoordinator.start(key);
             }
 
             // do we have a valid response?
@@ -195,12 +233,15 @@ public class CachingFilter implements Filter, CacheManagerListener {
                 if (isFine) {
                     _logger.log(Level.FINE, LogFacade.CACHING_FILTER_SERVING_RESPONSE, new Object[]{request.getServletPath(), key});
                 }
-                sendCachedResponse(entry, response);
+                try {
+                    sendCachedResponse(entry, response);
+                } finally {
+                    entry.release();
+                }
             } else {
                 // call the target servlet
 
                 CachingResponseWrapper wrapper = null;
-                boolean needNotify = true;
 
                 try {
                     // setup the response wrapper (and the output stream)
@@ -217,43 +258,50 @@ public class CachingFilter implements Filter, CacheManagerListener {
                         int timeout = helper.getTimeout(request);
 
                         // previous entry gets replaced
-                        entry = wrapper.cacheResponse();
-
-                        if (timeout == CacheHelper.TIMEOUT_VALUE_NOT_SET) {
-                            // extracts this from the Expires: date header
-                            Long lval = wrapper.getExpiresDateHeader();
-
-                            if (lval == null) {
-                                timeout = manager.getDefaultTimeout();
-                                entry.computeExpireTime(timeout);
+                        entry = wrapper.cacheResponse(manager.getOffHeapStore());
+
+                        if (entry != null) {
+                            if (timeout == CacheHelper.TIMEOUT_VALUE_NOT_SET) {
+                                // extracts this from the Expires: date header
+                                Long lval = wrapper.getExpiresDateHeader();
+
+                                if (lval == null) {
+                                    timeout = manager.getDefaultTimeout();
+                                    entry.computeExpireTime(timeout);
+                                } else {
+                                    long expireTime = lval.longValue();
+
+                                    // set the time this entry would expires
+                                    entry.setExpireTime(expireTime);
+                                }
                             } else {
-                                long expireTime = lval.longValue();
-
-                                // set the time this entry would expires
-                                entry.setExpireTime(expireTime);
+                                entry.computeExpireTime(timeout);
                             }
+
+                            release(cache.put(key, entry, entry.getSize()));
                         } else {
-                            entry.computeExpireTime(timeout);
+                            /** the off-heap storage is full; the old entry
+                             *  is dropped, to make room.
+                             */
+                            if (isFine) {
+                                _logger.log(Level.FINE, LogFacade.CACHING_FILTER_OFF_HEAP_STORAGE_FULL, new Object[]{request.getServletPath(), key});
+                            }
+                            release(cache.remove(key));
                         }
 
-                        cache.put(key, entry, entry.getSize());
-
-                        cache.notifyRefresh(index);
-                        needNotify = false;
-
                         // transmit the response body content
-                        writeBody(entry, response);
+                        wrapper.writeBody(response.getOutputStream());
                     } else {
                         /** either there was an error or response from this
                          *  resource is not cacheable anymore; so, remove the
                          *  old entry from the cache.
                          */
-                        cache.remove(key);
+                        release(cache.remove(key));
                     }
                 } finally {
                     // IT 12891
-                    if (needNotify) {
-                        cache.notifyRefresh(index);
+                    if (refresh != null) {
+                        refreshCoordinator.end(key, refresh);
                     }
 
                     // clear the wrapper (XXX: cache these??)
@@ -352,31 +400,20 @@ public class CachingFilter implements Filter, CacheManagerListener {
                            HttpServletResponse response)
                            throws IOException {
         ServletOutputStream out = response.getOutputStream();
-        out.write(entry.bytes);
+        if (entry.body != null) {
+            entry.body.writeTo(out);
+        } else {
+            out.write(entry.bytes);
+        }
     }
 
     /**
-     * Call cache.waitRefresh only when the cache processing is not started.
-     * See IT 17377.
+     * release the off-heap body of the entry the cache no longer holds
+     * @param removed the entry replaced or removed, or null
      */
-    private boolean waitForRefresh(HttpServletRequest req, String key, int index) {
-        Object obj = req.getAttribute(PROCESSING_SET);
-        HashSet<String> processingSet = null;
-        if (obj == null) {
-            processingSet = new HashSet<String>();
-            req.setAttribute(PROCESSING_SET, processingSet);
-        } else if (obj instanceof HashSet) {
-            @SuppressWarnings("unchecked")
-            final HashSet<String> set = (HashSet<String>)obj;
-            processingSet = set;
-        } else {
-            throw new IllegalStateException();
-        }
-
-        if (processingSet.add(key)) {
-            return cache.waitRefresh(index);
-        } else {
-            return false;
+    private void release(Object removed) {
+        if (removed instanceof HttpCacheEntry) {
+            ((HttpCacheEntry) removed).release();
         }
     }
 
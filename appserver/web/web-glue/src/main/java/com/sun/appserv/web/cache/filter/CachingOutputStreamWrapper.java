@@ -44,6 +44,7 @@ import javax.servlet.ServletOutputStream;
 import javax.servlet.WriteListener;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 
 /**
  * an output stream wrapper to cache response bytes
@@ -134,4 +135,18 @@ public class CachingOutputStreamWrapper extends ServletOutputStream {
     public byte[] getBytes() {
         return baos.toByteArray();
     }
+
+    /**
+     * return the number of cached bytes
+     */
+    public int size() {
+        return baos.size();
+    }
+
+    /**
+     * write the cached bytes to the given stream, without copying them
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        baos.writeTo(out);
+    }
 }
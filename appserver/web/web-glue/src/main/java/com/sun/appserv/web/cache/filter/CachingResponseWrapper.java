@@ -40,11 +40,14 @@
 
 package com.sun.appserv.web.cache.filter;
 
+import com.sun.appserv.web.cache.OffHeapResponseStore;
+
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpServletResponseWrapper;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.util.ArrayList;
@@ -370,6 +373,18 @@ public class CachingResponseWrapper extends HttpServletResponseWrapper {
      * @return the entry with cached response headers and body.
      */
     public HttpCacheEntry cacheResponse() throws IOException {
+        return cacheResponse(null);
+    }
+
+    /**
+     * called by doFilter to cache the response that was just sent out
+     * @param store the off-heap storage of the body, or null to keep it
+     * in the heap
+     * @return the entry with cached response headers and body, or null
+     * if the store is full.
+     */
+    public HttpCacheEntry cacheResponse(OffHeapResponseStore store)
+            throws IOException {
         // create a new entry
         HttpCacheEntry entry = new HttpCacheEntry();
         entry.responseHeaders = headers;
@@ -389,11 +404,34 @@ public class CachingResponseWrapper extends HttpServletResponseWrapper {
 
 
         // IT 12891
-        entry.bytes = ((cosw != null)? cosw.getBytes() : EMPTY_BYTE_ARRAY);
+        if (store == null) {
+            entry.bytes = ((cosw != null)? cosw.getBytes() : EMPTY_BYTE_ARRAY);
+        } else {
+            entry.body = store.allocate((cosw != null)? cosw.size() : 0);
+            if (entry.body == null) {
+                return null;
+            }
+            if (cosw != null) {
+                cosw.writeTo(entry.body.getOutputStream());
+            }
+        }
 
         return entry;
     }
     
+    /**
+     * called by doFilter to write the response body that was just cached
+     * @param out the stream of the wrapped response
+     */
+    public void writeBody(OutputStream out) throws IOException {
+        if (writer != null) {
+            writer.flush();
+        }
+        if (cosw != null) {
+            cosw.writeTo(out);
+        }
+    }
+
     /**
      * clear the contents of this wrapper
      */
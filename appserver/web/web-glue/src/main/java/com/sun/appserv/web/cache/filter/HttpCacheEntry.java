@@ -40,6 +40,8 @@
 
 package com.sun.appserv.web.cache.filter;
 
+import com.sun.appserv.web.cache.OffHeapResponseStore;
+
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Locale;
@@ -70,6 +72,9 @@ public class HttpCacheEntry {
     // XXX: other cacheable response info 
     byte[] bytes; 
 
+    // the response body, when it is stored off-heap instead of in bytes
+    OffHeapResponseStore.Body body;
+
     volatile long expireTime = 0;
 
     /**
@@ -99,6 +104,34 @@ public class HttpCacheEntry {
         return (expireTime > System.currentTimeMillis() || expireTime == -1);
     }
 
+    /**
+     * may this expired response still be served while it is refreshed?
+     * @param staleWhileRevalidate in seconds
+     */
+    public boolean isStaleServable(int staleWhileRevalidate) {
+        return (staleWhileRevalidate > 0 && expireTime != -1 &&
+                expireTime + (staleWhileRevalidate * 1000L) >
+                    System.currentTimeMillis());
+    }
+
+    /**
+     * take a reference to the off-heap body of this entry, if any, before
+     * writing it
+     * @return false if the body has been released already
+     */
+    public boolean retain() {
+        return (body == null || body.retain());
+    }
+
+    /**
+     * release a reference to the off-heap body of this entry, if any
+     */
+    public void release() {
+        if (body != null) {
+            body.release();
+        }
+    }
+
     /** 
      * clear the contents
      */
@@ -117,6 +150,8 @@ public class HttpCacheEntry {
         int size = 0;
         if (bytes != null) {
             size = bytes.length;
+        } else if (body != null) {
+            size = body.getLength();
         }
 
         // size of response bytes plus headers (each approx 20 chars or 40 bytes)
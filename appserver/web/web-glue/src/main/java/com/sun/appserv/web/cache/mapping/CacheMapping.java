@@ -56,6 +56,9 @@ public class CacheMapping {
     private int timeout = CacheHelper.TIMEOUT_VALUE_NOT_SET;
     private Field timeoutField = null; 
 
+    // how long an expired entry may still be served while it is refreshed
+    private int staleWhileRevalidate = 0;
+
     // a field to force caching engine to refresh entry
     private Field refreshField = null; 
 
@@ -111,6 +114,15 @@ public class CacheMapping {
         this.timeoutField = field;
     }
 
+    /** set how long an expired entry may still be served, while a single
+     *  request refreshes it
+     * @param staleWhileRevalidate in seconds, 0 to refresh expired entries
+     * before serving them
+     */
+    public void setStaleWhileRevalidate(int staleWhileRevalidate) {
+        this.staleWhileRevalidate = staleWhileRevalidate;
+    }
+
     /** set the refresh field
      * @param field Boolean field for controlling when a refresh is needed
      */
@@ -232,6 +244,14 @@ public class CacheMapping {
         return timeout;
     }
 
+    /**
+     * get how long an expired entry may still be served
+     * @return stale-while-revalidate value configured, in seconds
+     */
+    public int getStaleWhileRevalidate() {
+        return staleWhileRevalidate;
+    }
+
     /**
      * get the timeout field 
      * @return timeout field configured
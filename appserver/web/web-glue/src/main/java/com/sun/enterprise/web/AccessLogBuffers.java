@@ -0,0 +1,350 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package com.sun.enterprise.web;
+
+import com.sun.enterprise.web.accesslog.AccessLogFormatter;
+import org.apache.catalina.Request;
+import org.apache.catalina.Response;
+import org.glassfish.web.LogFacade;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Per thread buffers of the access log entries of a PEAccessLogValve, so
+ * that the request threads format and encode their entries without sharing
+ * a buffer, or a lock.
+ * <p>
+ * Every thread encodes its entries into its own direct ByteBuffer. Once
+ * full, the buffer is queued for the writer thread of the valve, which
+ * writes the queued buffers, and those the threads have partially filled,
+ * with a single gathering write. At most <code>maxPendingBuffers</code>
+ * buffers are queued: past that, the entries of a full buffer are either
+ * dropped, and counted, or written by the request thread itself.
+ */
+final class AccessLogBuffers {
+
+    private static final Logger _logger = LogFacade.getLogger();
+
+    /**
+     * The size in bytes of the buffer of a thread.
+     */
+    static final int THREAD_BUFFER_SIZE = 8192;
+
+    /**
+     * The initial size in chars of the buffer a thread formats an entry
+     * into.
+     */
+    private static final int ENTRY_BUFFER_SIZE = 1024;
+
+
+    /**
+     * The buffers of a request thread. The writer thread only synchronizes
+     * on it to take its ByteBuffer.
+     */
+    private final class ThreadBuffer {
+
+        final WeakReference<Thread> owner =
+            new WeakReference<Thread>(Thread.currentThread());
+        final CharsetEncoder encoder = charset.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        CharBuffer chars = CharBuffer.allocate(
+            Math.min(ENTRY_BUFFER_SIZE, maxEntrySize));
+        ByteBuffer bytes = allocate();
+        int entries = 0;
+    }
+
+
+    private final PEAccessLogValve valve;
+
+    private final Charset charset = Charset.defaultCharset();
+
+    private final int maxEntrySize;
+
+    private final boolean dropOnOverflow;
+
+    private final ThreadLocal<ThreadBuffer> threadBuffer =
+        new ThreadLocal<ThreadBuffer>() {
+            @Override
+            protected ThreadBuffer initialValue() {
+                ThreadBuffer tb = new ThreadBuffer();
+                threadBuffers.add(tb);
+                return tb;
+            }
+        };
+
+    private final ConcurrentLinkedQueue<ThreadBuffer> threadBuffers =
+        new ConcurrentLinkedQueue<ThreadBuffer>();
+
+    /**
+     * The full buffers waiting for the writer thread.
+     */
+    private final ArrayBlockingQueue<ByteBuffer> pending;
+
+    /**
+     * The written buffers, to be reused.
+     */
+    private final ArrayBlockingQueue<ByteBuffer> free;
+
+    private final AtomicLong droppedEntries = new AtomicLong();
+
+
+    /**
+     * @param valve The valve writing the buffers
+     * @param maxEntrySize The maximum size in chars of an entry
+     * @param maxPendingBuffers The maximum number of full buffers waiting
+     * for the writer thread
+     * @param dropOnOverflow true if the entries of a full buffer which
+     * cannot be queued are dropped, false if they are written by the
+     * request thread
+     */
+    AccessLogBuffers(PEAccessLogValve valve, int maxEntrySize,
+                     int maxPendingBuffers, boolean dropOnOverflow) {
+        this.valve = valve;
+        this.maxEntrySize = maxEntrySize;
+        this.dropOnOverflow = dropOnOverflow;
+        this.pending = new ArrayBlockingQueue<ByteBuffer>(maxPendingBuffers);
+        this.free = new ArrayBlockingQueue<ByteBuffer>(maxPendingBuffers);
+    }
+
+
+    /**
+     * Return the number of entries dropped because the writer thread was
+     * behind.
+     */
+    long getDroppedEntries() {
+        return droppedEntries.get();
+    }
+
+
+    /**
+     * Format the access log entry of the given request and response into
+     * the buffer of the current thread.
+     */
+    void append(AccessLogFormatter formatter, Request request,
+                Response response) throws IOException {
+
+        ThreadBuffer tb = threadBuffer.get();
+
+        CharBuffer chars = tb.chars;
+        while (true) {
+            chars.clear();
+            try {
+                formatter.appendLogEntry(request, response, chars);
+                chars.put('\n');
+                break;
+            } catch (BufferOverflowException ex) {
+                if (chars.capacity() >= maxEntrySize) {
+                    _logger.log(Level.SEVERE,
+                                LogFacade.ACCESS_LOG_UNABLE_TO_WRITE,
+                                new Object[] {ex});
+                    return;
+                }
+                chars = CharBuffer.allocate(
+                    Math.min(chars.capacity() * 2, maxEntrySize));
+                tb.chars = chars;
+            }
+        }
+        chars.flip();
+
+        ByteBuffer full = null;
+        int fullEntries = 0;
+        ByteBuffer large = null;
+        synchronized (tb) {
+            ByteBuffer bytes = tb.bytes;
+            int mark = bytes.position();
+            if (encode(tb.encoder, chars, bytes)) {
+                tb.entries++;
+            } else {
+                // An entry is never split across buffers
+                bytes.position(mark);
+                chars.rewind();
+                if (mark > 0) {
+                    full = bytes;
+                    fullEntries = tb.entries;
+                    bytes = allocate();
+                    tb.bytes = bytes;
+                    tb.entries = 0;
+                }
+                if (mark > 0 && encode(tb.encoder, chars, bytes)) {
+                    tb.entries++;
+                } else {
+                    // Larger than a buffer, on its own
+                    bytes.clear();
+                    chars.rewind();
+                    large = ByteBuffer.allocate(1 + (int) (chars.remaining()
+                        * tb.encoder.maxBytesPerChar()));
+                    encode(tb.encoder, chars, large);
+                }
+            }
+        }
+
+        if (full != null) {
+            full.flip();
+            handOff(full, fullEntries);
+        }
+        if (large != null) {
+            large.flip();
+            handOff(large, 1);
+        }
+    }
+
+
+    /**
+     * Return the buffer of the current thread, ready to be written, if it
+     * has any entry.
+     */
+    ByteBuffer[] takeCurrent() {
+        ThreadBuffer tb = threadBuffer.get();
+        ByteBuffer bytes = null;
+        synchronized (tb) {
+            if (tb.bytes.position() > 0) {
+                bytes = tb.bytes;
+                tb.bytes = allocate();
+                tb.entries = 0;
+            }
+        }
+        if (bytes == null) {
+            return new ByteBuffer[0];
+        }
+        bytes.flip();
+        return new ByteBuffer[] { bytes };
+    }
+
+
+    /**
+     * Return the queued buffers and those the threads have partially
+     * filled, ready to be written.
+     */
+    ByteBuffer[] drain() {
+
+        List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+        pending.drainTo(buffers);
+
+        Iterator<ThreadBuffer> it = threadBuffers.iterator();
+        while (it.hasNext()) {
+            ThreadBuffer tb = it.next();
+            Thread owner = tb.owner.get();
+            boolean alive = (owner != null && owner.isAlive());
+            ByteBuffer bytes = null;
+            synchronized (tb) {
+                if (tb.bytes.position() > 0) {
+                    bytes = tb.bytes;
+                    tb.bytes = (alive ? allocate() : null);
+                    tb.entries = 0;
+                }
+            }
+            if (bytes != null) {
+                bytes.flip();
+                buffers.add(bytes);
+            }
+            if (!alive) {
+                it.remove();
+            }
+        }
+
+        return buffers.toArray(new ByteBuffer[buffers.size()]);
+    }
+
+
+    /**
+     * Return the given written buffers, to be reused.
+     */
+    void recycle(ByteBuffer[] buffers) {
+        for (ByteBuffer buffer : buffers) {
+            if (buffer.isDirect() && buffer.capacity() == THREAD_BUFFER_SIZE) {
+                buffer.clear();
+                free.offer(buffer);
+            }
+        }
+    }
+
+
+    private ByteBuffer allocate() {
+        ByteBuffer buffer = free.poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(THREAD_BUFFER_SIZE);
+        }
+        return buffer;
+    }
+
+
+    private void handOff(ByteBuffer buffer, int entries) throws IOException {
+        if (pending.offer(buffer)) {
+            return;
+        }
+        ByteBuffer[] buffers = new ByteBuffer[] { buffer };
+        if (dropOnOverflow) {
+            droppedEntries.addAndGet(entries);
+        } else {
+            valve.write(buffers);
+        }
+        recycle(buffers);
+    }
+
+
+    private static boolean encode(CharsetEncoder encoder, CharBuffer chars,
+                                  ByteBuffer bytes) {
+        encoder.reset();
+        CoderResult result = encoder.encode(chars, bytes, true);
+        if (!result.isOverflow()) {
+            result = encoder.flush(bytes);
+        }
+        return !result.isOverflow();
+    }
+
+}
@@ -295,6 +295,31 @@ public final class PEAccessLogValve
      * Simple lock
      */
     private Object lock = new Object();
+
+
+    /**
+     * Should every request thread buffer its own access log entries?
+     */
+    private boolean perThreadBuffer = false;
+
+
+    /**
+     * Should the access log entries be dropped, rather than written by the
+     * request threads, when the writer thread is behind?
+     */
+    private boolean dropOnOverflow = false;
+
+
+    /**
+     * The per thread buffers of the access log entries, if enabled.
+     */
+    private AccessLogBuffers buffers;
+
+
+    /**
+     * The number of dropped access log entries already reported.
+     */
+    private long reportedDroppedEntries = 0L;
     
 
     /**
@@ -353,6 +378,52 @@ public final class PEAccessLogValve
         return bufferSize;
     }
 
+
+    /**
+     * Set whether every request thread buffers its own access log entries,
+     * in which case the <code>bufferSize</code> bounds the size of the
+     * entries waiting for the writer thread.
+     */
+    public void setPerThreadBuffer(boolean perThreadBuffer) {
+        this.perThreadBuffer = perThreadBuffer;
+    }
+
+
+    /**
+     * Does every request thread buffer its own access log entries?
+     */
+    public boolean isPerThreadBuffer() {
+        return perThreadBuffer;
+    }
+
+
+    /**
+     * Set whether the access log entries buffered by the request threads
+     * are dropped, rather than written by the request threads, when the
+     * writer thread is behind.
+     */
+    public void setDropOnOverflow(boolean dropOnOverflow) {
+        this.dropOnOverflow = dropOnOverflow;
+    }
+
+
+    /**
+     * Are the access log entries dropped when the writer thread is behind?
+     */
+    public boolean isDropOnOverflow() {
+        return dropOnOverflow;
+    }
+
+
+    /**
+     * Return the number of access log entries dropped because the writer
+     * thread was behind.
+     */
+    public long getDroppedEntries() {
+        AccessLogBuffers b = buffers;
+        return (b != null) ? b.getDroppedEntries() : 0L;
+    }
+
     // ------------------------------------------------------------- Properties
 
 
@@ -579,6 +650,20 @@ public final class PEAccessLogValve
                 null!=request.getRequest().getAttribute(condition)) {
              return;
         }
+
+        AccessLogBuffers b = buffers;
+        if (b != null) {
+            if (formatter!=null) {
+                b.append(formatter, request, response);
+                if (flushRealTime) {
+                    rotateIfNeeded();
+                    ByteBuffer[] current = b.takeCurrent();
+                    write(current);
+                    b.recycle(current);
+                }
+            }
+            return;
+        }
         
         synchronized (lock){
             // Reset properly the buffer in case of an unexpected
@@ -624,6 +709,50 @@ public final class PEAccessLogValve
      */
     public void log() throws IOException {
         
+        rotateIfNeeded();
+        
+        AccessLogBuffers b = buffers;
+        if (b != null) {
+            ByteBuffer[] drained = b.drain();
+            write(drained);
+            b.recycle(drained);
+
+            long dropped = b.getDroppedEntries();
+            if (dropped != reportedDroppedEntries) {
+                _logger.log(Level.WARNING,
+                            LogFacade.ACCESS_LOG_ENTRIES_DROPPED,
+                            new Object[] {dropped - reportedDroppedEntries,
+                                          getContainer() != null ?
+                                              getContainer().getName() :
+                                              prefix});
+                reportedDroppedEntries = dropped;
+            }
+            return;
+        }
+
+        synchronized(lock){
+            try{
+                charBuffer.flip();
+                ByteBuffer byteBuffer =
+                    ByteBuffer.wrap(charBuffer.toString().getBytes(Charset.defaultCharset()));
+                while (byteBuffer.hasRemaining()){
+                    fileChannel.write(byteBuffer);
+                }
+            } catch (IOException ex){
+                ;
+            } finally {
+                charBuffer.clear();
+            }
+        }
+
+    }
+
+
+    /**
+     * Switch files if the date has changed since the previous log call.
+     */
+    private void rotateIfNeeded() throws IOException {
+
         if (rotatable){
 
             long systime = System.currentTimeMillis();
@@ -651,26 +780,36 @@ public final class PEAccessLogValve
                 }
             }
         }
-        
+
+    }
+
+
+    /**
+     * Write the given buffers to the log file, with a gathering write.
+     */
+    void write(ByteBuffer[] buffers) {
+
+        if (buffers.length == 0) {
+            return;
+        }
+
         synchronized(lock){
             try{
-                charBuffer.flip();
-                ByteBuffer byteBuffer =
-                    ByteBuffer.wrap(charBuffer.toString().getBytes(Charset.defaultCharset()));
-                while (byteBuffer.hasRemaining()){
-                    fileChannel.write(byteBuffer);
+                long remaining = 0;
+                for (ByteBuffer buffer : buffers) {
+                    remaining += buffer.remaining();
+                }
+                while (remaining > 0){
+                    remaining -= fileChannel.write(buffers);
                 }
             } catch (IOException ex){
                 ;
-            } finally {
-                charBuffer.clear();
             }
         }
 
     }
 
 
-
     /*
      * Configures this access log valve.
      *
@@ -790,6 +929,17 @@ public final class PEAccessLogValve
             }
         }
 
+        /*
+         * The accessLogPerThreadBuffer and accessLogDropOnOverflow
+         * properties under <virtual-server> select the per thread buffering
+         * of the access log entries, and what happens to them when the
+         * writer thread is behind
+         */
+        setPerThreadBuffer(Boolean.parseBoolean(vsBean.getPropertyValue(
+            Constants.ACCESS_LOG_PER_THREAD_BUFFER_PROPERTY)));
+        setDropOnOverflow(Boolean.parseBoolean(vsBean.getPropertyValue(
+            Constants.ACCESS_LOG_DROP_ON_OVERFLOW_PROPERTY)));
+
         return true;
     }
 
@@ -1060,7 +1210,16 @@ public final class PEAccessLogValve
             bufferSize = MIN_BUFFER_SIZE;
         }
 
-        charBuffer = CharBuffer.allocate(bufferSize);
+        if (perThreadBuffer) {
+            // Entries are only dropped if a writer thread is catching up
+            buffers = new AccessLogBuffers(this, bufferSize,
+                Math.max(2, bufferSize / AccessLogBuffers.THREAD_BUFFER_SIZE),
+                dropOnOverflow && !flushRealTime && writeInterval > 0);
+            reportedDroppedEntries = 0L;
+        } else {
+            buffers = null;
+            charBuffer = CharBuffer.allocate(bufferSize);
+        }
 
         // Initialize the timeZone, Date formatters, and currentDate
         final TimeZone tz = TimeZone.getDefault();
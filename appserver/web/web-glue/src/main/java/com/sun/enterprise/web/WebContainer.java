@@ -2039,7 +2039,7 @@ public class WebContainer implements org.glassfish.api.container.Container, Post
         }
 
         webStatsProviderBootstrap.registerApplicationStatsProviders(monitoringNodeName,
-                vs.getName(), servletNames);
+                vs.getName(), servletNames, new ResourceCacheStatsImpl(ctx));
 
         vs.addChild(ctx);
 
@@ -2979,7 +2979,9 @@ public class WebContainer implements org.glassfish.api.container.Container, Post
                     habitat,
                     domain,
                     globalAccessLoggingEnabled);
-        } else if (Constants.ACCESS_LOG_BUFFER_SIZE_PROPERTY.equals(name)) {
+        } else if (Constants.ACCESS_LOG_BUFFER_SIZE_PROPERTY.equals(name)
+                || Constants.ACCESS_LOG_PER_THREAD_BUFFER_PROPERTY.equals(name)
+                || Constants.ACCESS_LOG_DROP_ON_OVERFLOW_PROPERTY.equals(name)) {
             vs.reconfigureAccessLog(globalAccessLogBufferSize,
                     globalAccessLogWriteInterval,
                     habitat,
@@ -107,7 +107,13 @@ public abstract class AccessLogFormatter {
      * The system time when we last updated the Date that this valve
      * uses for log lines.
      */
-    private Date currentDate = null;
+    private volatile Date currentDate = null;
+
+
+    /**
+     * The current Date, as formatted in the log lines.
+     */
+    private volatile FormattedDate formattedDate = null;
 
 
     /**
@@ -142,15 +148,47 @@ public abstract class AccessLogFormatter {
      * simply gives out the same Date again so that the system doesn't
      * spend time creating Date objects unnecessarily.
      */
-    protected synchronized Date getDate() {
+    protected Date getDate() {
 
         // Only create a new Date once per second, max.
         long systime = System.currentTimeMillis();
-        if ((systime - currentDate.getTime()) > 1000) {
-            currentDate = new Date(systime);
+        Date date = currentDate;
+        if ((systime - date.getTime()) > 1000) {
+            // Threads racing here only create the same Date twice
+            date = new Date(systime);
+            currentDate = date;
+        }
+
+        return date;
+
+    }
+
+
+    /**
+     * Return the Date returned by getDate, in the format
+     * "dd/MMM/yyyy:HH:mm:ss Z" of the log lines. The Date is only formatted
+     * once, rather than for every log line.
+     */
+    protected String getFormattedDate() {
+
+        Date date = getDate();
+        FormattedDate formatted = formattedDate;
+        if (formatted == null || formatted.date != date) {
+            StringBuilder sb = new StringBuilder(32);
+            sb.append(dayFormatter.get().format(date));           // Day
+            sb.append('/');
+            sb.append(lookup(monthFormatter.get().format(date))); // Month
+            sb.append('/');
+            sb.append(yearFormatter.get().format(date));          // Year
+            sb.append(':');
+            sb.append(timeFormatter.get().format(date));          // Time
+            sb.append(SPACE);
+            sb.append(timeZone);                                  // Time Zone
+            formatted = new FormattedDate(date, sb.toString());
+            formattedDate = formatted;
         }
 
-        return currentDate;
+        return formatted.text;
 
     }
 
@@ -206,4 +244,19 @@ public abstract class AccessLogFormatter {
     public boolean needTimeTaken() {
         return needTimeTaken;
     }    
+
+
+    /**
+     * A Date and its representation in the log lines.
+     */
+    private static final class FormattedDate {
+
+        final Date date;
+        final String text;
+
+        FormattedDate(Date date, String text) {
+            this.date = date;
+            this.text = text;
+        }
+    }
 }
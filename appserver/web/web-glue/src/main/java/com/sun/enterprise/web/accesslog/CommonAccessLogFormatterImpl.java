@@ -48,7 +48,6 @@ import javax.servlet.ServletRequest;
 import javax.servlet.http.HttpServletRequest;
 import java.nio.CharBuffer;
 import java.text.SimpleDateFormat;
-import java.util.Date;
 import java.util.TimeZone;
 
 /**
@@ -178,17 +177,8 @@ public class CommonAccessLogFormatterImpl extends AccessLogFormatter {
      * Appends the current date to the given char buffer.
      */
     private void appendCurrentDate(CharBuffer cb) {
-        Date date = getDate();
         cb.put("[");
-        cb.put(dayFormatter.get().format(date));           // Day
-        cb.put('/');
-        cb.put(lookup(monthFormatter.get().format(date))); // Month
-        cb.put('/');
-        cb.put(yearFormatter.get().format(date));          // Year
-        cb.put(':');
-        cb.put(timeFormatter.get().format(date));          // Time
-        cb.put(SPACE);
-        cb.put(timeZone);                                  // Time Zone
+        cb.put(getFormattedDate());
         cb.put("]");
     }
 
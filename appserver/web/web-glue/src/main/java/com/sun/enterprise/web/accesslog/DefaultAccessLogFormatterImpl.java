@@ -131,12 +131,50 @@ public class DefaultAccessLogFormatterImpl extends AccessLogFormatter {
     private static final String USER_AGENT = "user.agent";
     private static final String VS_ID = "vs.id";
 
+    /*
+     * Field writers the access log pattern components are compiled into
+     */
+    private static final int W_ATTRIBUTE_BY_NAME = 0;
+    private static final int W_SESSION_ATTRIBUTE_BY_NAME = 1;
+    private static final int W_AUTH_USER_NAME = 2;
+    private static final int W_CLIENT_DNS = 3;
+    private static final int W_CLIENT_NAME = 4;
+    private static final int W_COOKIE = 5;
+    private static final int W_COOKIES = 6;
+    private static final int W_COOKIE_VALUE = 7;
+    private static final int W_COOKIE_BY_NAME = 8;
+    private static final int W_COOKIES_BY_NAME = 9;
+    private static final int W_DATE_TIME = 10;
+    private static final int W_HEADER_ACCEPT = 11;
+    private static final int W_HEADER_AUTH = 12;
+    private static final int W_HEADER_DATE = 13;
+    private static final int W_HEADER_IF_MOD_SINCE = 14;
+    private static final int W_USER_AGENT = 15;
+    private static final int W_REFERER = 16;
+    private static final int W_HTTP_METHOD = 17;
+    private static final int W_HTTP_URI = 18;
+    private static final int W_HTTP_VERSION = 19;
+    private static final int W_QUERY_STR = 20;
+    private static final int W_REQUEST = 21;
+    private static final int W_RESPONSE_LENGTH = 22;
+    private static final int W_RESPONSE_CONTENT_TYPE = 23;
+    private static final int W_STATUS = 24;
+    private static final int W_TIME_TAKEN = 25;
+    private static final int W_VS_ID = 26;
+    private static final int W_HEADER_BY_NAME = 27;
+    private static final int W_HEADERS_BY_NAME = 28;
+    private static final int W_RESPONSE_HEADER_BY_NAME = 29;
+    private static final int W_RESPONSE_HEADERS_BY_NAME = 30;
+    private static final int W_NONE = -1;
+
     private Container container;
 
     /**
-     * List of access log pattern components
+     * The field writers of the access log pattern components, in order,
+     * and the name each of them applies to, if any
      */
-    private LinkedList<String> patternComponents;
+    private int[] fieldWriters;
+    private String[] fieldNames;
 
     /**
      * Constructor.
@@ -148,11 +186,12 @@ public class DefaultAccessLogFormatterImpl extends AccessLogFormatter {
 
         super();
 
-        this.patternComponents = parsePattern(pattern);
+        LinkedList<String> patternComponents = parsePattern(pattern);
         if (patternComponents == null) {
             // Use default format if error in pattern
             patternComponents = parsePattern(ConfigBeansUtilities.getDefaultFormat());
         }
+        compile(patternComponents);
         this.container = container;
 
         final TimeZone timeZone = tz;
@@ -207,94 +246,205 @@ public class DefaultAccessLogFormatterImpl extends AccessLogFormatter {
         HttpServletResponse hres = (HttpServletResponse)
             response.getResponse();
 
-        for (int i=0; i<patternComponents.size(); i++) {
+        for (int i=0; i<fieldWriters.length; i++) {
+            String name = fieldNames[i];
+            switch (fieldWriters[i]) {
+            case W_ATTRIBUTE_BY_NAME:
+                appendAttributeByName(charBuffer, name, hreq);
+                break;
+            case W_SESSION_ATTRIBUTE_BY_NAME:
+                appendSessionAttributeByName(charBuffer, name, hreq);
+                break;
+            case W_AUTH_USER_NAME:
+                appendAuthUserName(charBuffer, hreq);
+                break;
+            case W_CLIENT_DNS:
+                appendClientDNS(charBuffer, hreq);
+                break;
+            case W_CLIENT_NAME:
+                appendClientName(charBuffer, hreq);
+                break;
+            case W_COOKIE:
+                appendCookie(charBuffer, hreq);
+                break;
+            case W_COOKIES:
+                appendCookies(charBuffer, hreq);
+                break;
+            case W_COOKIE_VALUE:
+                appendCookieValue(charBuffer, hreq);
+                break;
+            case W_COOKIE_BY_NAME:
+                appendCookieByName(charBuffer, name, hreq);
+                break;
+            case W_COOKIES_BY_NAME:
+                appendCookiesByName(charBuffer, name, hreq);
+                break;
+            case W_DATE_TIME:
+                appendCurrentDate(charBuffer);
+                break;
+            case W_HEADER_ACCEPT:
+                appendHeaderAccept(charBuffer, hreq);
+                break;
+            case W_HEADER_AUTH:
+                appendHeaderAuth(charBuffer, hreq);
+                break;
+            case W_HEADER_DATE:
+                appendHeaderDate(charBuffer, hreq);
+                break;
+            case W_HEADER_IF_MOD_SINCE:
+                appendHeaderIfModSince(charBuffer, hreq);
+                break;
+            case W_USER_AGENT:
+                appendUserAgent(charBuffer, hreq);
+                break;
+            case W_REFERER:
+                appendReferer(charBuffer, hreq);
+                break;
+            case W_HTTP_METHOD:
+                appendHTTPMethod(charBuffer, hreq);
+                break;
+            case W_HTTP_URI:
+                appendHTTPUri(charBuffer, hreq);
+                break;
+            case W_HTTP_VERSION:
+                appendHTTPVersion(charBuffer, hreq);
+                break;
+            case W_QUERY_STR:
+                appendQueryString(charBuffer, hreq);
+                break;
+            case W_REQUEST:
+                appendRequestInfo(charBuffer, hreq);
+                break;
+            case W_RESPONSE_LENGTH:
+                appendResponseLength(charBuffer, response);
+                break;
+            case W_RESPONSE_CONTENT_TYPE:
+                appendResponseContentType(charBuffer, response);
+                break;
+            case W_STATUS:
+                appendResponseStatus(charBuffer, response);
+                break;
+            case W_TIME_TAKEN:
+                appendTimeTaken(charBuffer, request);
+                break;
+            case W_VS_ID:
+                appendVirtualServerId(charBuffer);
+                break;
+            case W_HEADER_BY_NAME:
+                appendHeaderByName(charBuffer, name, hreq);
+                break;
+            case W_HEADERS_BY_NAME:
+                appendHeadersByName(charBuffer, name, hreq);
+                break;
+            case W_RESPONSE_HEADER_BY_NAME:
+                appendResponseHeaderByName(charBuffer, name, hres, response);
+                break;
+            case W_RESPONSE_HEADERS_BY_NAME:
+                appendResponseHeadersByName(charBuffer, name, hres, response);
+                break;
+            default:
+                break;
+            }
+
+            charBuffer.put(SPACE);
+        }
+    }
+
+    /*
+     * Compiles the given access log pattern components into the field
+     * writers of the log entries, so that the pattern is interpreted only
+     * once, rather than for every request.
+     */
+    private void compile(List<String> patternComponents) {
+
+        int[] writers = new int[patternComponents.size()];
+        String[] names = new String[patternComponents.size()];
+
+        for (int i=0; i<writers.length; i++) {
             String pc = patternComponents.get(i);
+            int writer = W_NONE;
+            String name = null;
             if (pc.startsWith(ATTRIBUTE_BY_NAME_PREFIX)) {
-                appendAttributeByName(
-                    charBuffer,
-                    pc.substring(ATTRIBUTE_BY_NAME_PREFIX_LEN),
-                    hreq);
+                writer = W_ATTRIBUTE_BY_NAME;
+                name = pc.substring(ATTRIBUTE_BY_NAME_PREFIX_LEN);
             } else if (pc.startsWith(SESSION_ATTRIBUTE_BY_NAME_PREFIX)) {
-                appendSessionAttributeByName(
-                    charBuffer,
-                    pc.substring(SESSION_ATTRIBUTE_BY_NAME_PREFIX_LEN),
-                    hreq);
+                writer = W_SESSION_ATTRIBUTE_BY_NAME;
+                name = pc.substring(SESSION_ATTRIBUTE_BY_NAME_PREFIX_LEN);
             } else if (AUTH_USER_NAME.equals(pc)) {
-                appendAuthUserName(charBuffer, hreq);
+                writer = W_AUTH_USER_NAME;
             } else if (CLIENT_DNS.equals(pc)) {
-                appendClientDNS(charBuffer, hreq);
+                writer = W_CLIENT_DNS;
             } else if (CLIENT_NAME.equals(pc)) {
-                appendClientName(charBuffer, hreq);
+                writer = W_CLIENT_NAME;
             } else if (COOKIE.equals(pc)) {
-                appendCookie(charBuffer, hreq);
+                writer = W_COOKIE;
             } else if (COOKIES.equals(pc)) {
-                appendCookies(charBuffer, hreq);
+                writer = W_COOKIES;
             } else if (COOKIE_VALUE.equals(pc)) {
-                appendCookieValue(charBuffer, hreq);
+                writer = W_COOKIE_VALUE;
             } else if (pc.startsWith(COOKIE_BY_NAME_PREFIX)) {
-                appendCookieByName(charBuffer,
-                                   pc.substring(COOKIE_BY_NAME_PREFIX_LEN),
-                                   hreq);
+                writer = W_COOKIE_BY_NAME;
+                name = pc.substring(COOKIE_BY_NAME_PREFIX_LEN);
             } else if (pc.startsWith(COOKIES_BY_NAME_PREFIX)) {
-                appendCookiesByName(charBuffer,
-                                   pc.substring(COOKIES_BY_NAME_PREFIX_LEN),
-                                   hreq);
+                writer = W_COOKIES_BY_NAME;
+                name = pc.substring(COOKIES_BY_NAME_PREFIX_LEN);
             } else if (DATE_TIME.equals(pc)) {
-                appendCurrentDate(charBuffer);       
+                writer = W_DATE_TIME;
             } else if (HEADER_ACCEPT.equals(pc)) {
-                appendHeaderAccept(charBuffer, hreq);
+                writer = W_HEADER_ACCEPT;
             } else if (HEADER_AUTH.equals(pc)) {
-                appendHeaderAuth(charBuffer, hreq);
+                writer = W_HEADER_AUTH;
             } else if (HEADER_DATE.equals(pc)) {
-                appendHeaderDate(charBuffer, hreq);
+                writer = W_HEADER_DATE;
             } else if (HEADER_IF_MOD_SINCE.equals(pc)) {
-                appendHeaderIfModSince(charBuffer, hreq);
+                writer = W_HEADER_IF_MOD_SINCE;
             } else if (HEADER_USER_AGENT.equals(pc)) {
-                appendUserAgent(charBuffer, hreq);
+                writer = W_USER_AGENT;
             } else if (HEADER_REFERER.equals(pc)) {
-                appendReferer(charBuffer, hreq);
+                writer = W_REFERER;
             } else if (HTTP_METHOD.equals(pc)) {
-                appendHTTPMethod(charBuffer, hreq);
+                writer = W_HTTP_METHOD;
             } else if (HTTP_URI.equals(pc)) {
-                appendHTTPUri(charBuffer, hreq);
+                writer = W_HTTP_URI;
             } else if (HTTP_VERSION.equals(pc)) {
-                appendHTTPVersion(charBuffer, hreq);
+                writer = W_HTTP_VERSION;
             } else if (QUERY_STR.equals(pc)) {
-                appendQueryString(charBuffer, hreq);
+                writer = W_QUERY_STR;
             } else if (REFERER.equals(pc)) {
-                appendReferer(charBuffer, hreq);
+                writer = W_REFERER;
             } else if (REQUEST.equals(pc)) {
-                appendRequestInfo(charBuffer, hreq);
+                writer = W_REQUEST;
             } else if (RESPONSE_LENGTH.equals(pc)) {
-                appendResponseLength(charBuffer, response);
+                writer = W_RESPONSE_LENGTH;
             } else if (RESPONSE_CONTENT_TYPE.equals(pc)) {
-                appendResponseContentType(charBuffer, response);
+                writer = W_RESPONSE_CONTENT_TYPE;
             } else if (STATUS.equals(pc)) {
-                appendResponseStatus(charBuffer, response);
+                writer = W_STATUS;
             } else if (TIME_TAKEN.equals(pc)) {
-                appendTimeTaken(charBuffer, request);
+                writer = W_TIME_TAKEN;
             } else if (USER_AGENT.equals(pc)) {
-                appendUserAgent(charBuffer, hreq);
+                writer = W_USER_AGENT;
             } else if (VS_ID.equals(pc)) {
-                appendVirtualServerId(charBuffer);
+                writer = W_VS_ID;
             } else if (pc.startsWith(HEADER_BY_NAME_PREFIX)) {
-                appendHeaderByName(charBuffer,
-                                   pc.substring(HEADER_BY_NAME_PREFIX_LEN),
-                                   hreq);
+                writer = W_HEADER_BY_NAME;
+                name = pc.substring(HEADER_BY_NAME_PREFIX_LEN);
             } else if (pc.startsWith(HEADERS_BY_NAME_PREFIX)) {
-                appendHeadersByName(charBuffer,
-                                    pc.substring(HEADERS_BY_NAME_PREFIX_LEN),
-                                    hreq);
+                writer = W_HEADERS_BY_NAME;
+                name = pc.substring(HEADERS_BY_NAME_PREFIX_LEN);
             } else if (pc.startsWith(RESPONSE_HEADER_BY_NAME_PREFIX)) {
-                appendResponseHeaderByName(charBuffer,
-                    pc.substring(RESPONSE_HEADER_BY_NAME_PREFIX_LEN), hres, response);
+                writer = W_RESPONSE_HEADER_BY_NAME;
+                name = pc.substring(RESPONSE_HEADER_BY_NAME_PREFIX_LEN);
             } else if (pc.startsWith(RESPONSE_HEADERS_BY_NAME_PREFIX)) {
-                appendResponseHeadersByName(charBuffer,
-                    pc.substring(RESPONSE_HEADERS_BY_NAME_PREFIX_LEN), hres, response);
+                writer = W_RESPONSE_HEADERS_BY_NAME;
+                name = pc.substring(RESPONSE_HEADERS_BY_NAME_PREFIX_LEN);
             }
-
-            charBuffer.put(SPACE);
+            writers[i] = writer;
+            names[i] = name;
         }
+
+        this.fieldWriters = writers;
+        this.fieldNames = names;
     }
 
     /*
@@ -487,16 +637,7 @@ public class DefaultAccessLogFormatterImpl extends AccessLogFormatter {
      */
     private void appendCurrentDate(CharBuffer cb) {
         cb.put(QUOTE);
-        Date date = getDate();
-        cb.put(dayFormatter.get().format(date));           // Day
-        cb.put('/');
-        cb.put(lookup(monthFormatter.get().format(date))); // Month
-        cb.put('/');
-        cb.put(yearFormatter.get().format(date));          // Year
-        cb.put(':');
-        cb.put(timeFormatter.get().format(date));          // Time
-        cb.put(SPACE);
-        cb.put(timeZone);                                  // Time Zone
+        cb.put(getFormattedDate());
         cb.put(QUOTE);
     }
 
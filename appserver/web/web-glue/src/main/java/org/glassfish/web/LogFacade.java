@@ -1571,4 +1571,21 @@ public class LogFacade {
         message = "Exception getting Validator Factory from JNDI: {0}",
         level = "WARNING")
     public static final String EXCEPTION_GETTING_VALIDATOR_FACTORY = prefix + "00285";
+
+    @LogMessageInfo(
+            message = "Dropped {0} access log entries of virtual server ''{1}'': the access log writer thread is behind",
+            level = "WARNING",
+            cause = "The access log entries are produced faster than they can be written, and accessLogDropOnOverflow is enabled",
+            action = "Increase accessLogBufferSize, or decrease accessLogWriteInterval")
+    public static final String ACCESS_LOG_ENTRIES_DROPPED = prefix + "00286";
+
+    @LogMessageInfo(
+            message = "CachingFilter {0} serving stale response from the cache while it is refreshed; key {1}",
+            level = "FINE")
+    public static final String CACHING_FILTER_SERVING_STALE_RESPONSE = prefix + "00287";
+
+    @LogMessageInfo(
+            message = "CachingFilter {0} response not cached, the off-heap storage of the cache is full; key {1}",
+            level = "FINE")
+    public static final String CACHING_FILTER_OFF_HEAP_STORAGE_FULL = prefix + "00288";
 }
@@ -0,0 +1,192 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package com.sun.appserv.web.cache;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static com.sun.appserv.web.cache.OffHeapResponseStore.PAGE_SIZE;
+import static org.junit.Assert.*;
+
+/**
+ * The bodies of an OffHeapResponseStore hold their pages as long as they
+ * are referenced, and the pages are reused by the next bodies once the
+ * last reference is released, within the budget of the store.
+ */
+public class OffHeapResponseStoreTest {
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        OffHeapResponseStore store = new OffHeapResponseStore(1024 * 1024);
+        byte[] content = content(3 * PAGE_SIZE + 100);
+
+        OffHeapResponseStore.Body body = store.allocate(content.length);
+        assertEquals(content.length, body.getLength());
+        assertEquals(4L * PAGE_SIZE, store.getUsedSize());
+
+        OutputStream out = body.getOutputStream();
+        out.write(content, 0, 10);
+        out.write(content[10]);
+        out.write(content, 11, content.length - 11);
+
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        body.writeTo(read);
+        assertArrayEquals(content, read.toByteArray());
+    }
+
+    @Test(expected = IOException.class)
+    public void testBodyOverflow() throws IOException {
+        OffHeapResponseStore store = new OffHeapResponseStore(1024 * 1024);
+        OffHeapResponseStore.Body body = store.allocate(10);
+        body.getOutputStream().write(new byte[11], 0, 11);
+    }
+
+    @Test
+    public void testEmptyBody() throws IOException {
+        OffHeapResponseStore store = new OffHeapResponseStore(1024 * 1024);
+        OffHeapResponseStore.Body body = store.allocate(0);
+        assertEquals(0L, store.getUsedSize());
+
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        body.writeTo(read);
+        assertEquals(0, read.size());
+        body.release();
+        assertEquals(0L, store.getUsedSize());
+    }
+
+    @Test
+    public void testRetainAfterLastRelease() {
+        OffHeapResponseStore store = new OffHeapResponseStore(1024 * 1024);
+        OffHeapResponseStore.Body body = store.allocate(PAGE_SIZE);
+
+        // a request writing the body, then the cache dropping it
+        assertTrue(body.retain());
+        body.release();
+        assertEquals((long) PAGE_SIZE, store.getUsedSize());
+        body.release();
+        assertEquals(0L, store.getUsedSize());
+
+        // a request which found the entry before it was dropped
+        assertFalse(body.retain());
+        assertFalse(body.retain());
+        assertEquals(0L, store.getUsedSize());
+    }
+
+    @Test
+    public void testAllocateWithinBudget() {
+        OffHeapResponseStore store = new OffHeapResponseStore(4 * PAGE_SIZE);
+
+        OffHeapResponseStore.Body first = store.allocate(3 * PAGE_SIZE);
+        assertNotNull(first);
+        assertNull(store.allocate(PAGE_SIZE + 1));
+        assertEquals(3L * PAGE_SIZE, store.getUsedSize());
+
+        // the pages taken by the failed allocation are returned
+        OffHeapResponseStore.Body second = store.allocate(PAGE_SIZE);
+        assertNotNull(second);
+        assertEquals(4L * PAGE_SIZE, store.getUsedSize());
+        assertNull(store.allocate(1));
+    }
+
+    @Test
+    public void testPagesReusedAfterRelease() throws IOException {
+        OffHeapResponseStore store = new OffHeapResponseStore(4 * PAGE_SIZE);
+
+        for (int i = 0; i < 100; i++) {
+            // the budget only allows for one body at a time
+            OffHeapResponseStore.Body body = store.allocate(3 * PAGE_SIZE);
+            assertNotNull("allocation " + i, body);
+            byte[] content = content(3 * PAGE_SIZE);
+            content[0] = (byte) i;
+            body.getOutputStream().write(content, 0, content.length);
+
+            ByteArrayOutputStream read = new ByteArrayOutputStream();
+            body.writeTo(read);
+            assertArrayEquals(content, read.toByteArray());
+
+            body.release();
+            assertEquals(0L, store.getUsedSize());
+        }
+    }
+
+    @Test
+    public void testPagesNotReusedWhileRetained() throws IOException {
+        OffHeapResponseStore store = new OffHeapResponseStore(2 * PAGE_SIZE);
+        byte[] content = content(2 * PAGE_SIZE);
+
+        OffHeapResponseStore.Body body = store.allocate(content.length);
+        body.getOutputStream().write(content, 0, content.length);
+
+        // a request still writes the body the cache has dropped
+        assertTrue(body.retain());
+        body.release();
+        assertNull(store.allocate(1));
+
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        body.writeTo(read);
+        assertArrayEquals(content, read.toByteArray());
+
+        body.release();
+        assertNotNull(store.allocate(2 * PAGE_SIZE));
+    }
+
+    @Test
+    public void testDestroy() {
+        OffHeapResponseStore store = new OffHeapResponseStore(4 * PAGE_SIZE);
+        OffHeapResponseStore.Body body = store.allocate(PAGE_SIZE);
+
+        store.destroy();
+        assertNull(store.allocate(1));
+        body.release();
+        assertNull(store.allocate(1));
+    }
+
+    private static byte[] content(int length) {
+        byte[] content = new byte[length];
+        for (int i = 0; i < length; i++) {
+            content[i] = (byte) (i * 31 + i / PAGE_SIZE);
+        }
+        return content;
+    }
+}
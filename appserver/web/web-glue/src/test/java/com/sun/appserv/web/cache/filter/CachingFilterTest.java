@@ -0,0 +1,492 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package com.sun.appserv.web.cache.filter;
+
+import com.sun.appserv.web.cache.CacheHelper;
+import com.sun.appserv.web.cache.CacheManager;
+import org.junit.After;
+import org.junit.Test;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.sun.appserv.web.cache.OffHeapResponseStore.PAGE_SIZE;
+import static org.junit.Assert.*;
+
+/**
+ * A single request at a time renders the response of a key, the others
+ * wait for it or are served the stale response; the off-heap bodies of the
+ * entries the cache replaces, removes or trims are released.
+ */
+public class CachingFilterTest {
+
+    private CacheManager manager;
+    private CachingFilter filter;
+
+    // the responses rendered so far
+    private final AtomicInteger renders = new AtomicInteger();
+
+    // counted down as a render starts, if set
+    private volatile CountDownLatch rendering;
+
+    // awaited by the renders, if set
+    private volatile CountDownLatch proceed;
+
+    private volatile int bodySize = 100;
+    private volatile boolean error = false;
+
+    // the first render requests its own key again, as an include would
+    private volatile boolean reenter = false;
+
+    private final FilterChain chain = new FilterChain() {
+        public void doFilter(ServletRequest request, ServletResponse response)
+                throws IOException, ServletException {
+            int n = renders.incrementAndGet();
+            String uri = ((HttpServletRequest) request).getRequestURI();
+            if (rendering != null) {
+                rendering.countDown();
+            }
+            if (proceed != null) {
+                try {
+                    proceed.await();
+                } catch (InterruptedException e) {
+                    throw new ServletException(e);
+                }
+            }
+            if (reenter && n == 1) {
+                assertEquals(render(uri, 2), get(uri));
+            }
+            if (error) {
+                ((HttpServletResponse) response).sendError(500);
+                return;
+            }
+            response.getOutputStream().write(render(uri, n).getBytes("UTF-8"));
+        }
+    };
+
+    @After
+    public void tearDown() throws Exception {
+        if (manager != null) {
+            manager.stop();
+        }
+    }
+
+    @Test
+    public void testHit() throws Exception {
+        start(100, 64);
+
+        assertEquals(render("/a", 1), get("/a"));
+        assertEquals(render("/a", 1), get("/a"));
+        assertEquals(render("/b", 2), get("/b"));
+        assertEquals(2, renders.get());
+        assertEquals(2L * PAGE_SIZE, usedSize());
+    }
+
+    @Test
+    public void testConcurrentMissesRenderOnce() throws Exception {
+        start(100, 64);
+        rendering = new CountDownLatch(1);
+        CountDownLatch refreshed = proceed = new CountDownLatch(1);
+
+        List<Get> gets = new ArrayList<Get>();
+        gets.add(new Get("/a"));
+        rendering.await();
+        for (int i = 0; i < 8; i++) {
+            gets.add(new Get("/a"));
+        }
+        for (Get get : gets) {
+            awaitWaiting(get);
+        }
+
+        // the requests for another key do not wait
+        proceed = null;
+        assertEquals(render("/b", 2), get("/b"));
+
+        refreshed.countDown();
+        for (Get get : gets) {
+            assertEquals(render("/a", 1), get.body());
+        }
+        assertEquals(2, renders.get());
+        assertEquals(2L * PAGE_SIZE, usedSize());
+    }
+
+    @Test
+    public void testStaleServedWhileRefreshed() throws Exception {
+        start(100, 64);
+        filter.staleWhileRevalidate = 10;
+        assertEquals(render("/a", 1), get("/a"));
+        entry("/a").setExpireTime(System.currentTimeMillis() - 1000);
+
+        rendering = new CountDownLatch(1);
+        CountDownLatch refreshed = proceed = new CountDownLatch(1);
+        Get refresh = new Get("/a");
+        rendering.await();
+
+        // the other requests are served the stale entry meanwhile
+        assertEquals(render("/a", 1), get("/a"));
+        assertEquals(render("/a", 1), get("/a"));
+
+        refreshed.countDown();
+        assertEquals(render("/a", 2), refresh.body());
+        assertEquals(render("/a", 2), get("/a"));
+        assertEquals(2, renders.get());
+        assertEquals((long) PAGE_SIZE, usedSize());
+    }
+
+    @Test
+    public void testStaleNotServedPastWindow() throws Exception {
+        start(100, 64);
+        filter.staleWhileRevalidate = 10;
+        assertEquals(render("/a", 1), get("/a"));
+        entry("/a").setExpireTime(System.currentTimeMillis() - 20000);
+
+        rendering = new CountDownLatch(1);
+        CountDownLatch refreshed = proceed = new CountDownLatch(1);
+        Get refresh = new Get("/a");
+        rendering.await();
+
+        Get waiting = new Get("/a");
+        awaitWaiting(waiting);
+
+        refreshed.countDown();
+        assertEquals(render("/a", 2), refresh.body());
+        assertEquals(render("/a", 2), waiting.body());
+        assertEquals(2, renders.get());
+    }
+
+    @Test
+    public void testStaleServableWindows() {
+        HttpCacheEntry entry = new HttpCacheEntry();
+        long now = System.currentTimeMillis();
+
+        // never expires
+        entry.setExpireTime(-1);
+        assertTrue(entry.isValid());
+        assertFalse(entry.isStaleServable(10));
+
+        // not served stale without stale-while-revalidate
+        entry.setExpireTime(now - 1000);
+        assertFalse(entry.isValid());
+        assertFalse(entry.isStaleServable(0));
+
+        // within, then past the window
+        assertTrue(entry.isStaleServable(10));
+        entry.setExpireTime(now - 11000);
+        assertFalse(entry.isStaleServable(10));
+        assertTrue(entry.isStaleServable(60));
+    }
+
+    @Test
+    public void testReentrantRefresh() throws Exception {
+        start(100, 64);
+        reenter = true;
+
+        // IT 17377: the inner request is not to wait for the refresh of
+        // its own thread
+        Get get = new Get("/a");
+        get.join(10000);
+        assertFalse("re-entrant request deadlocked", get.isAlive());
+        assertEquals(render("/a", 1), get.body());
+        assertEquals(2, renders.get());
+
+        // the entry of the inner request is replaced and released
+        assertEquals(render("/a", 1), get("/a"));
+        assertEquals((long) PAGE_SIZE, usedSize());
+    }
+
+    @Test
+    public void testPagesReusedAfterReplace() throws Exception {
+        // room for the old and the new body of an entry, not for a third
+        start(100, 6);
+        bodySize = 3 * PAGE_SIZE;
+
+        for (int i = 1; i <= 20; i++) {
+            assertEquals(render("/a", i), get("/a"));
+            assertNotNull(entry("/a"));
+            assertEquals(3L * PAGE_SIZE, usedSize());
+            entry("/a").setExpireTime(System.currentTimeMillis() - 1000);
+        }
+        assertEquals(20, renders.get());
+    }
+
+    @Test
+    public void testPagesReusedAfterRemove() throws Exception {
+        start(100, 3);
+        bodySize = 3 * PAGE_SIZE;
+
+        for (int i = 1; i <= 20; i += 2) {
+            error = false;
+            assertEquals(render("/a", i), get("/a"));
+            assertEquals(3L * PAGE_SIZE, usedSize());
+
+            // the response in error removes the entry
+            entry("/a").setExpireTime(System.currentTimeMillis() - 1000);
+            error = true;
+            assertEquals("", get("/a"));
+            assertNull(entry("/a"));
+            assertEquals(0L, usedSize());
+        }
+    }
+
+    @Test
+    public void testPagesReusedAfterTrim() throws Exception {
+        // the cache trims down to about 4 entries, the budget is enough
+        // for 8
+        start(4, 8);
+        bodySize = PAGE_SIZE;
+
+        for (int i = 1; i <= 100; i++) {
+            assertEquals(render("/" + i, i), get("/" + i));
+            assertNotNull(entry("/" + i));
+            int entryCount = manager.getDefaultCache().getEntryCount();
+            assertTrue(entryCount < 8);
+            assertEquals(entryCount * (long) PAGE_SIZE, usedSize());
+        }
+    }
+
+    @Test
+    public void testStoreFull() throws Exception {
+        start(100, 2);
+        bodySize = 3 * PAGE_SIZE;
+
+        // the response is sent, not cached
+        assertEquals(render("/a", 1), get("/a"));
+        assertNull(entry("/a"));
+        assertEquals(render("/a", 2), get("/a"));
+        assertEquals(0L, usedSize());
+
+        bodySize = PAGE_SIZE;
+        assertEquals(render("/a", 3), get("/a"));
+        assertEquals(render("/a", 3), get("/a"));
+        assertEquals((long) PAGE_SIZE, usedSize());
+    }
+
+    private void start(int maxEntries, int maxOffHeapPages) throws Exception {
+        manager = new CacheManager();
+        manager.setEnabled(true);
+        manager.setMaxEntries(maxEntries);
+        manager.addProperty(CacheManager.RESPONSE_STORAGE_PROPERTY,
+                            CacheManager.OFF_HEAP_RESPONSE_STORAGE);
+        manager.addProperty(CacheManager.MAX_OFF_HEAP_SIZE_PROPERTY,
+                            String.valueOf(maxOffHeapPages * PAGE_SIZE));
+        manager.setDefaultHelperProps(new HashMap<String, String>());
+        manager.start();
+
+        filter = new CachingFilter();
+        filter.filterName = "test";
+        filter.manager = manager;
+        filter.helper = new UriCacheHelper();
+        filter.cache = manager.getDefaultCache();
+        filter.refreshCoordinator = manager.getRefreshCoordinator();
+        filter.isEnabled = true;
+    }
+
+    private HttpCacheEntry entry(String key) {
+        return (HttpCacheEntry) manager.getDefaultCache().get(key);
+    }
+
+    private long usedSize() {
+        return manager.getOffHeapStore().getUsedSize();
+    }
+
+    /*
+     * The body of the n-th render, of bodySize bytes.
+     */
+    private String render(String uri, int n) {
+        StringBuilder sb = new StringBuilder(bodySize);
+        sb.append(uri).append('#').append(n).append(' ');
+        while (sb.length() < bodySize) {
+            sb.append((char) ('a' + sb.length() % 26));
+        }
+        return sb.toString();
+    }
+
+    private String get(String uri) throws IOException, ServletException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        filter.doFilter(request(uri), response(body), chain);
+        return body.toString("UTF-8");
+    }
+
+    private static void awaitWaiting(Thread thread)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (thread.getState() != Thread.State.WAITING) {
+            assertTrue(thread.getName() + " not waiting",
+                       System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    /*
+     * A request in its own thread.
+     */
+    private final class Get extends Thread {
+
+        private final String uri;
+        private volatile String body;
+        private volatile Throwable failure;
+
+        Get(String uri) {
+            this.uri = uri;
+            setDaemon(true);
+            start();
+        }
+
+        @Override
+        public void run() {
+            try {
+                body = get(uri);
+            } catch (Throwable t) {
+                failure = t;
+            }
+        }
+
+        String body() throws InterruptedException {
+            join();
+            if (failure != null) {
+                throw new AssertionError(failure);
+            }
+            return body;
+        }
+    }
+
+    /*
+     * Caches every request by its URI, for a minute.
+     */
+    private static final class UriCacheHelper implements CacheHelper {
+
+        public void init(ServletContext context, Map<String, String> props) {
+        }
+
+        public String getCacheKey(HttpServletRequest request) {
+            return request.getRequestURI();
+        }
+
+        public boolean isCacheable(HttpServletRequest request) {
+            return true;
+        }
+
+        public boolean isRefreshNeeded(HttpServletRequest request) {
+            return false;
+        }
+
+        public int getTimeout(HttpServletRequest request) {
+            return 60;
+        }
+
+        public void destroy() {
+        }
+    }
+
+    private static HttpServletRequest request(final String uri) {
+        final Map<String, Object> attributes = new HashMap<String, Object>();
+        return proxy(HttpServletRequest.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String name = method.getName();
+                if (name.equals("getRequestURI")
+                        || name.equals("getServletPath")) {
+                    return uri;
+                } else if (name.equals("getAttribute")) {
+                    return attributes.get(args[0]);
+                } else if (name.equals("setAttribute")) {
+                    attributes.put((String) args[0], args[1]);
+                } else if (name.equals("removeAttribute")) {
+                    attributes.remove(args[0]);
+                }
+                return null;
+            }
+        });
+    }
+
+    private static HttpServletResponse response(
+            final ByteArrayOutputStream body) {
+        final ServletOutputStream out = new ServletOutputStream() {
+            @Override
+            public void write(int b) {
+                body.write(b);
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+            }
+        };
+        return proxy(HttpServletResponse.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String name = method.getName();
+                if (name.equals("getOutputStream")) {
+                    return out;
+                } else if (method.getReturnType() == boolean.class) {
+                    return Boolean.FALSE;
+                }
+                return null;
+            }
+        });
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(
+            CachingFilterTest.class.getClassLoader(),
+            new Class<?>[] { type }, handler));
+    }
+}
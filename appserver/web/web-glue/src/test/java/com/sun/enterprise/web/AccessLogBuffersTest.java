@@ -0,0 +1,324 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package com.sun.enterprise.web;
+
+import com.sun.enterprise.web.accesslog.AccessLogFormatter;
+import org.apache.catalina.Request;
+import org.apache.catalina.Response;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * The entries appended by the request threads to an AccessLogBuffers come
+ * out of drain, takeCurrent or the valve whole, each exactly once, unless
+ * dropped and counted so.
+ */
+public class AccessLogBuffersTest {
+
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    private File dir;
+    private PEAccessLogValve valve;
+    private final EntryFormatter formatter = new EntryFormatter();
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("accesslog").toFile();
+        valve = new PEAccessLogValve();
+        valve.setDirectory(dir.getAbsolutePath());
+        valve.setPrefix("access");
+        valve.setSuffix(".txt");
+        valve.setRotatable(false);
+        valve.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        valve.stop();
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testEntriesNotSplitAcrossBuffers() throws IOException {
+        AccessLogBuffers buffers = new AccessLogBuffers(valve, 16384, 100, false);
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 500; i++) {
+            // entries of varying length, not dividing the buffer size
+            expected.add(entry("main", i, 37 + i % 101));
+            formatter.append(buffers, expected.get(i));
+        }
+
+        ByteBuffer[] drained = buffers.drain();
+        assertTrue(drained.length > 1);
+        List<String> lines = new ArrayList<String>();
+        for (ByteBuffer buffer : drained) {
+            assertTrue(buffer.remaining() <= AccessLogBuffers.THREAD_BUFFER_SIZE);
+            lines.addAll(decode(buffer));
+        }
+        assertEquals(expected, lines);
+        assertEquals(0, buffers.drain().length);
+        assertEquals(0L, buffers.getDroppedEntries());
+        assertEquals("", logFile());
+    }
+
+    @Test
+    public void testEntryLargerThanBuffer() throws IOException {
+        AccessLogBuffers buffers = new AccessLogBuffers(valve, 65536, 100, false);
+        String small = entry("main", 0, 100);
+        String large = entry("main", 1, 3 * AccessLogBuffers.THREAD_BUFFER_SIZE);
+        String last = entry("main", 2, 100);
+        formatter.append(buffers, small);
+        formatter.append(buffers, large);
+        formatter.append(buffers, last);
+
+        List<String> lines = new ArrayList<String>();
+        for (ByteBuffer buffer : buffers.drain()) {
+            lines.addAll(decode(buffer));
+        }
+        assertEquals(Arrays.asList(small, large, last), lines);
+    }
+
+    @Test
+    public void testEntryLargerThanMaxEntrySize() throws IOException {
+        AccessLogBuffers buffers = new AccessLogBuffers(valve, 2048, 100, false);
+        String small = entry("main", 0, 100);
+        formatter.append(buffers, small);
+        formatter.append(buffers, entry("main", 1, 4096));
+
+        // The oversized entry is not written, nor counted as dropped
+        ByteBuffer[] drained = buffers.drain();
+        assertEquals(1, drained.length);
+        assertEquals(Collections.singletonList(small), decode(drained[0]));
+        assertEquals(0L, buffers.getDroppedEntries());
+    }
+
+    @Test
+    public void testTakeCurrent() throws IOException {
+        AccessLogBuffers buffers = new AccessLogBuffers(valve, 16384, 100, false);
+        assertEquals(0, buffers.takeCurrent().length);
+
+        List<String> expected = Arrays.asList(
+            entry("main", 0, 50), entry("main", 1, 60), entry("main", 2, 70));
+        for (String e : expected) {
+            formatter.append(buffers, e);
+        }
+        ByteBuffer[] current = buffers.takeCurrent();
+        assertEquals(1, current.length);
+        assertEquals(expected, decode(current[0]));
+        buffers.recycle(current);
+
+        assertEquals(0, buffers.takeCurrent().length);
+        assertEquals(0, buffers.drain().length);
+    }
+
+    @Test
+    public void testFullBuffersWrittenByRequestThread() throws IOException {
+        // Only two full buffers may wait for the writer thread
+        AccessLogBuffers buffers = new AccessLogBuffers(valve, 16384, 2, false);
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 1000; i++) {
+            expected.add(entry("main", i, 80));
+            formatter.append(buffers, expected.get(i));
+        }
+
+        List<String> lines = lines(logFile());
+        assertFalse(lines.isEmpty());
+        for (ByteBuffer buffer : buffers.drain()) {
+            lines.addAll(decode(buffer));
+        }
+        Collections.sort(expected);
+        Collections.sort(lines);
+        assertEquals(expected, lines);
+        assertEquals(0L, buffers.getDroppedEntries());
+    }
+
+    @Test
+    public void testDroppedEntries() throws IOException {
+        AccessLogBuffers buffers = new AccessLogBuffers(valve, 16384, 2, true);
+        int count = 1000;
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            expected.add(entry("main", i, 80));
+            formatter.append(buffers, expected.get(i));
+        }
+
+        List<String> lines = new ArrayList<String>();
+        for (ByteBuffer buffer : buffers.drain()) {
+            lines.addAll(decode(buffer));
+        }
+        assertEquals("", logFile());
+        assertTrue(buffers.getDroppedEntries() > 0);
+        assertEquals(count, lines.size() + buffers.getDroppedEntries());
+        // What is kept is whole and in order
+        assertTrue(expected.containsAll(lines));
+        for (int i = 1; i < lines.size(); i++) {
+            assertTrue(expected.indexOf(lines.get(i - 1))
+                       < expected.indexOf(lines.get(i)));
+        }
+    }
+
+    @Test
+    public void testConcurrentAppendAndDrain() throws Exception {
+        final AccessLogBuffers buffers =
+            new AccessLogBuffers(valve, 16384, 4, false);
+        final int threads = 8;
+        final int perThread = 2000;
+        final List<String> lines =
+            Collections.synchronizedList(new ArrayList<String>());
+
+        List<Thread> appenders = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final String name = "t" + t;
+            Thread appender = new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < perThread; i++) {
+                            formatter.append(buffers, entry(name, i, 30 + i % 200));
+                        }
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            };
+            appender.start();
+            appenders.add(appender);
+        }
+
+        // The writer thread
+        boolean running = true;
+        while (running) {
+            running = false;
+            for (Thread appender : appenders) {
+                running |= appender.isAlive();
+            }
+            ByteBuffer[] drained = buffers.drain();
+            for (ByteBuffer buffer : drained) {
+                lines.addAll(decode(buffer.duplicate()));
+            }
+            buffers.recycle(drained);
+        }
+        for (ByteBuffer buffer : buffers.drain()) {
+            lines.addAll(decode(buffer));
+        }
+        lines.addAll(lines(logFile()));
+
+        List<String> expected = new ArrayList<String>();
+        for (int t = 0; t < threads; t++) {
+            for (int i = 0; i < perThread; i++) {
+                expected.add(entry("t" + t, i, 30 + i % 200));
+            }
+        }
+        Collections.sort(expected);
+        List<String> sorted = new ArrayList<String>(lines);
+        Collections.sort(sorted);
+        assertEquals(expected, sorted);
+        assertEquals(0L, buffers.getDroppedEntries());
+    }
+
+    /*
+     * An entry of the given length, naming the thread and the entry number.
+     */
+    private static String entry(String thread, int i, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        sb.append(thread).append('-').append(i).append(' ');
+        while (sb.length() < length) {
+            sb.append((char) ('a' + sb.length() % 26));
+        }
+        return sb.toString();
+    }
+
+    private static List<String> decode(ByteBuffer buffer) {
+        String text = CHARSET.decode(buffer).toString();
+        assertTrue("entry split across buffers", text.endsWith("\n"));
+        return lines(text);
+    }
+
+    private static List<String> lines(String text) {
+        List<String> lines = new ArrayList<String>();
+        if (!text.isEmpty()) {
+            lines.addAll(Arrays.asList(text.split("\n")));
+        }
+        return lines;
+    }
+
+    private String logFile() throws IOException {
+        File[] files = dir.listFiles();
+        assertEquals(1, files.length);
+        return new String(Files.readAllBytes(files[0].toPath()), CHARSET);
+    }
+
+    /*
+     * Formats as entry the text given by the appending thread.
+     */
+    private static final class EntryFormatter extends AccessLogFormatter {
+
+        private final ThreadLocal<String> next = new ThreadLocal<String>();
+
+        void append(AccessLogBuffers buffers, String entry)
+                throws IOException {
+            next.set(entry);
+            buffers.append(this, null, null);
+        }
+
+        @Override
+        public void appendLogEntry(Request request, Response response,
+                                   CharBuffer charBuffer) {
+            charBuffer.put(next.get());
+        }
+    }
+}
@@ -0,0 +1,405 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package com.sun.enterprise.web.accesslog;
+
+import com.sun.enterprise.web.Constants;
+import org.apache.catalina.Container;
+import org.apache.catalina.HttpResponse;
+import org.apache.catalina.Request;
+import org.apache.catalina.Response;
+import org.junit.Test;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.CharBuffer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+/**
+ * The compiled pattern of DefaultAccessLogFormatterImpl writes, for every
+ * token, the same characters the per request interpretation of the pattern
+ * used to write. The expected values are the ones of the interpreted
+ * formatter for the same requests.
+ */
+public class DefaultAccessLogFormatterImplTest {
+
+    /**
+     * The tokens, and what the interpreted formatter wrote for them for
+     * the request and response of fullRequest and fullResponse.
+     */
+    private static final String[][] TOKENS = {
+        { "attribute.a", "\"attrValue\"" },
+        { "attribute.missing", "\"NULL-ATTRIBUTE-MISSING\"" },
+        { "auth-user-name", "\"jdoe\"" },
+        { "client.dns", "\"10.0.0.1\"" },
+        { "client.name", "\"client.example.com\"" },
+        { "cookie", "\"JSESSIONID=abc\"" },
+        { "cookies", "\"JSESSIONID=abc;theme=dark;theme=light\"" },
+        { "cookie.value", "\"abc\"" },
+        { "cookie.theme", "\"dark\"" },
+        { "cookie.missing", "\"NULL-COOKIE-MISSING\"" },
+        { "cookies.theme", "\"dark;light\"" },
+        // no placeholder when the request has cookies, none of them named so
+        { "cookies.missing", "\"\"" },
+        { "header.accept", "\"text/html\"" },
+        { "header.auth", "\"Basic dXNlcjpwYXNz\"" },
+        { "header.date", "\"Tue, 15 Nov 1994 08:12:31 GMT\"" },
+        { "header.if-mod-since", "\"Sat, 29 Oct 1994 19:43:31 GMT\"" },
+        { "header.user-agent", "\"Mozilla/5.0\"" },
+        { "header.referer", "\"http://example.com/\"" },
+        { "http-method", "\"GET\"" },
+        { "http-uri", "\"/app/index.jsp\"" },
+        { "http-version", "\"HTTP/1.1\"" },
+        { "query-str", "\"a=1&b=2\"" },
+        { "referer", "\"http://example.com/\"" },
+        { "request", "\"GET /app/index.jsp?a=1&b=2 HTTP/1.1\"" },
+        { "response.length", "1234" },
+        { "response.content-type", "text/html;charset=UTF-8" },
+        { "status", "200" },
+        { "time-taken", "\"NULL-TIME-TAKEN\"" },
+        { "user.agent", "\"Mozilla/5.0\"" },
+        { "vs.id", "server" },
+        { "header.x-custom", "\"custom\"" },
+        { "header.missing", "\"NULL-HEADER-MISSING\"" },
+        { "headers.x-multi", "\"one;two\"" },
+        { "headers.missing", "\"NULL-HEADERS-MISSING\"" },
+        { "response.header.server", "\"GlassFish\"" },
+        { "response.header.content-type", "\"text/html;charset=UTF-8\"" },
+        { "response.header.content-length", "\"1234\"" },
+        { "response.header.missing", "\"NULL-RESPONSE-HEADER-MISSING\"" },
+        { "response.headers.set-cookie", "\"a=1;b=2\"" },
+        { "response.headers.content-type", "\"text/html;charset=UTF-8\"" },
+        { "response.headers.missing", "\"NULL-RESPONSE-HEADERS-MISSING\"" },
+    };
+
+    /**
+     * What the interpreted formatter wrote for a request without any of
+     * the values, except for the tokens it failed on.
+     */
+    private static final String[][] EMPTY_TOKENS = {
+        { "attribute.a", "\"NULL-ATTRIBUTE-A\"" },
+        { "auth-user-name", "\"NULL-AUTH-USER\"" },
+        { "client.dns", "\"NULL-CLIENT-DNS\"" },
+        { "client.name", "\"NULL-CLIENT-NAME\"" },
+        { "cookie", "\"NULL-COOKIE\"" },
+        { "cookies", "\"NULL-COOKIES\"" },
+        { "cookie.value", "\"NULL-COOKIE-VALUE\"" },
+        { "cookie.theme", "\"NULL-COOKIE-THEME\"" },
+        { "cookies.theme", "\"NULL-COOKIES-THEME\"" },
+        { "header.accept", "\"NULL-HEADER-ACCEPT\"" },
+        { "header.auth", "\"NULL-HEADER-AUTHORIZATION\"" },
+        { "header.date", "\"NULL-HEADER-DATE\"" },
+        { "header.if-mod-since", "\"NULL-HEADER-IF-MODIFIED-SINCE\"" },
+        { "header.user-agent", "\"NULL-USER-AGENT\"" },
+        { "header.referer", "\"NULL-REFERER\"" },
+        { "http-method", "\"NULL-HTTP-METHOD\"" },
+        { "http-uri", "\"NULL-HTTP-URI\"" },
+        { "http-version", "\"NULL-HTTP-PROTOCOL\"" },
+        { "query-str", "\"NULL-QUERY\"" },
+        { "referer", "\"NULL-REFERER\"" },
+        { "response.length", "0" },
+        { "status", "404" },
+        { "user.agent", "\"NULL-USER-AGENT\"" },
+        { "vs.id", "NULL-VIRTUAL-SERVER" },
+        { "header.x-custom", "\"NULL-HEADER-X-CUSTOM\"" },
+        { "headers.x-multi", "\"NULL-HEADERS-X-MULTI\"" },
+        { "response.header.server", "\"NULL-RESPONSE-HEADER-SERVER\"" },
+        { "response.header.content-length", "\"0\"" },
+        { "response.headers.set-cookie", "\"NULL-RESPONSE-HEADERS-SET-COOKIE\"" },
+        { "response.headers.content-length", "\"0\"" },
+    };
+
+    @Test
+    public void testEachToken() {
+        Request request = fullRequest(null);
+        Response response = fullResponse();
+        for (String[] token : TOKENS) {
+            DefaultAccessLogFormatterImpl formatter =
+                new DefaultAccessLogFormatterImpl("%" + token[0] + "%",
+                                                  container("server"));
+            assertEquals(token[0], token[1] + " ",
+                         format(formatter, request, response));
+        }
+    }
+
+    @Test
+    public void testEachTokenWithoutValues() {
+        Request request = emptyRequest();
+        Response response = emptyResponse();
+        for (String[] token : EMPTY_TOKENS) {
+            DefaultAccessLogFormatterImpl formatter =
+                new DefaultAccessLogFormatterImpl("%" + token[0] + "%", null);
+            assertEquals(token[0], token[1] + " ",
+                         format(formatter, request, response));
+        }
+    }
+
+    @Test
+    public void testAllTokens() {
+        StringBuilder pattern = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+        for (String[] token : TOKENS) {
+            pattern.append('%').append(token[0]).append("% ");
+            expected.append(token[1]).append(' ');
+        }
+        DefaultAccessLogFormatterImpl formatter =
+            new DefaultAccessLogFormatterImpl(pattern.toString(),
+                                              container("server"));
+        Request request = fullRequest(null);
+        Response response = fullResponse();
+
+        assertEquals(expected.toString(), format(formatter, request, response));
+        // The compiled pattern is not consumed by a request
+        assertEquals(expected.toString(), format(formatter, request, response));
+    }
+
+    @Test
+    public void testInvalidPattern() {
+        // session attributes are not accepted in a pattern
+        DefaultAccessLogFormatterImpl formatter =
+            new DefaultAccessLogFormatterImpl("%session.s% %status%", null);
+
+        String entry = format(formatter, fullRequest(null), fullResponse());
+        assertTrue(entry, entry.startsWith(
+            "\"client.example.com\" \"jdoe\" \""));
+        assertTrue(entry, entry.endsWith(
+            "\" \"GET /app/index.jsp?a=1&b=2 HTTP/1.1\" 200 1234 "));
+    }
+
+    @Test
+    public void testTimeTaken() {
+        DefaultAccessLogFormatterImpl formatter =
+            new DefaultAccessLogFormatterImpl("%time-taken%", null);
+        assertTrue(formatter.needTimeTaken());
+
+        long start = System.currentTimeMillis() - 5000;
+        String entry = format(formatter, fullRequest(start), fullResponse());
+        assertTrue(entry, entry.matches("\"\\d+\" "));
+        long taken = Long.parseLong(entry.substring(1, entry.length() - 2));
+        assertTrue(entry, taken >= 5000 && taken < 60000);
+    }
+
+    @Test
+    public void testDateTime() {
+        DefaultAccessLogFormatterImpl formatter =
+            new DefaultAccessLogFormatterImpl("%datetime%", null);
+        Request request = fullRequest(null);
+        Response response = fullResponse();
+
+        // The date changes at most once while formatting the entry
+        String before = interpretedDate(System.currentTimeMillis());
+        String entry = format(formatter, request, response);
+        String after = interpretedDate(System.currentTimeMillis());
+
+        assertTrue(entry, entry.equals("\"" + before + "\" ")
+                   || entry.equals("\"" + after + "\" "));
+    }
+
+    /*
+     * The date as the interpreted formatter wrote it, day, month, year and
+     * time formatted separately, with the raw offset of the time zone.
+     */
+    private static String interpretedDate(long time) {
+        TimeZone tz = TimeZone.getDefault();
+        Date date = new Date(time);
+        SimpleDateFormat day = new SimpleDateFormat("dd");
+        day.setTimeZone(tz);
+        SimpleDateFormat month = new SimpleDateFormat("MM");
+        month.setTimeZone(tz);
+        SimpleDateFormat year = new SimpleDateFormat("yyyy");
+        year.setTimeZone(tz);
+        SimpleDateFormat hour = new SimpleDateFormat("HH:mm:ss");
+        hour.setTimeZone(tz);
+
+        long offset = tz.getRawOffset();
+        String sign = "+";
+        if (offset < 0) {
+            sign = "-";
+            offset = -offset;
+        }
+        long hours = offset / (1000 * 60 * 60);
+        long minutes = (offset / (1000 * 60)) % 60;
+
+        return day.format(date) + "/"
+            + AccessLogFormatter.months[Integer.parseInt(month.format(date)) - 1]
+            + "/" + year.format(date) + ":" + hour.format(date) + " "
+            + sign + (hours < 10 ? "0" : "") + hours
+            + (minutes < 10 ? "0" : "") + minutes;
+    }
+
+    private static String format(AccessLogFormatter formatter,
+                                 Request request, Response response) {
+        CharBuffer cb = CharBuffer.allocate(4096);
+        formatter.appendLogEntry(request, response, cb);
+        cb.flip();
+        return cb.toString();
+    }
+
+    private static Request fullRequest(Long startTime) {
+        Map<String, Object> hreq = new HashMap<String, Object>();
+        hreq.put("getAttribute:a", "attrValue");
+        hreq.put("getRemoteUser", "jdoe");
+        hreq.put("getRemoteAddr", "10.0.0.1");
+        hreq.put("getRemoteHost", "client.example.com");
+        hreq.put("getCookies", new Cookie[] {
+            new Cookie("JSESSIONID", "abc"),
+            new Cookie("theme", "dark"),
+            new Cookie("theme", "light") });
+        hreq.put("getHeader:accept", "text/html");
+        hreq.put("getHeader:authorization", "Basic dXNlcjpwYXNz");
+        hreq.put("getHeader:date", "Tue, 15 Nov 1994 08:12:31 GMT");
+        hreq.put("getHeader:if-modified-since", "Sat, 29 Oct 1994 19:43:31 GMT");
+        hreq.put("getHeader:user-agent", "Mozilla/5.0");
+        hreq.put("getHeader:referer", "http://example.com/");
+        hreq.put("getHeader:x-custom", "custom");
+        hreq.put("getHeaders:x-multi", Arrays.asList("one", "two"));
+        hreq.put("getMethod", "GET");
+        hreq.put("getRequestURI", "/app/index.jsp");
+        hreq.put("getQueryString", "a=1&b=2");
+        hreq.put("getProtocol", "HTTP/1.1");
+
+        Map<String, Object> req = new HashMap<String, Object>();
+        req.put("getRequest", mock(HttpServletRequest.class, hreq));
+        req.put("getNote:" + Constants.REQUEST_START_TIME_NOTE.toLowerCase(Locale.ENGLISH),
+                startTime);
+        return mock(Request.class, req);
+    }
+
+    private static Response fullResponse() {
+        Map<String, Object> hres = new HashMap<String, Object>();
+        hres.put("getHeader:server", "GlassFish");
+        hres.put("getHeaders:set-cookie", Arrays.asList("a=1", "b=2"));
+        hres.put("getContentType", "text/html;charset=UTF-8");
+
+        Map<String, Object> res = new HashMap<String, Object>();
+        res.put("getResponse", mock(HttpServletResponse.class, hres));
+        res.put("getStatus", 200);
+        res.put("getContentCount", 1234);
+        res.put("getContentLength", 1234);
+        res.put("getContentType", "text/html;charset=UTF-8");
+        return mock(Response.class, res);
+    }
+
+    private static Request emptyRequest() {
+        Map<String, Object> req = new HashMap<String, Object>();
+        req.put("getRequest", mock(HttpServletRequest.class,
+                                   new HashMap<String, Object>()));
+        return mock(Request.class, req);
+    }
+
+    private static Response emptyResponse() {
+        Map<String, Object> res = new HashMap<String, Object>();
+        res.put("getResponse", mock(HttpServletResponse.class,
+                                    new HashMap<String, Object>()));
+        res.put("getStatus", 404);
+        res.put("getContentCount", 0);
+        res.put("getContentLength", 0);
+        return mock(Response.class, res);
+    }
+
+    private static Container container(String name) {
+        Map<String, Object> answers = new HashMap<String, Object>();
+        answers.put("getName", name);
+        return mock(Container.class, answers);
+    }
+
+    /*
+     * Returns an implementation of the given interface answering the calls
+     * with the values of the given map, keyed by method name, or by method
+     * name and lower case first argument for the calls with a String
+     * argument. Responses also implement HttpResponse.
+     */
+    private static <T> T mock(Class<T> type,
+                              final Map<String, Object> answers) {
+        Class<?>[] interfaces = (type == Response.class)
+            ? new Class<?>[] { Response.class, HttpResponse.class }
+            : new Class<?>[] { type };
+        InvocationHandler handler = new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String key = method.getName();
+                if (args != null && args.length > 0
+                        && args[0] instanceof String) {
+                    key += ":" + ((String) args[0]).toLowerCase(Locale.ENGLISH);
+                }
+                Object answer = answers.get(key);
+                if (answer == null) {
+                    answer = answers.get(method.getName());
+                }
+                Class<?> returnType = method.getReturnType();
+                if (returnType == Collection.class) {
+                    return (answer != null)
+                        ? answer : new ArrayList<String>();
+                }
+                if (returnType == Enumeration.class) {
+                    List<?> values = (List<?>) answer;
+                    return (values != null)
+                        ? Collections.enumeration(values) : null;
+                }
+                if (answer == null && returnType == int.class) {
+                    return 0;
+                }
+                if (answer == null && returnType == boolean.class) {
+                    return false;
+                }
+                return answer;
+            }
+        };
+        return type.cast(Proxy.newProxyInstance(
+            DefaultAccessLogFormatterImplTest.class.getClassLoader(),
+            interfaces, handler));
+    }
+}
@@ -148,6 +148,25 @@ public abstract class BaseDirContext implements DirContext {
     protected int cacheMaxSize = 10240; // 10 MB
 
 
+    /**
+     * TTL of the cached lookups of missing resources, -1 to use cacheTTL.
+     */
+    protected int notFoundCacheTTL = -1;
+
+
+    /**
+     * Where the content of the resources too large for the heap cache is
+     * kept: "heap" (not cached), "direct" or "mapped".
+     */
+    protected String cacheContentStorage = "heap";
+
+
+    /**
+     * Max size of the content kept outside of the heap in KB.
+     */
+    protected int offHeapCacheMaxSize = 65536; // 64 MB
+
+
     // ------------------------------------------------------------- Properties
 
 
@@ -248,6 +267,54 @@ public abstract class BaseDirContext implements DirContext {
     }
 
 
+    /**
+     * Set the TTL of the cached lookups of missing resources.
+     */
+    public void setNotFoundCacheTTL(int notFoundCacheTTL) {
+        this.notFoundCacheTTL = notFoundCacheTTL;
+    }
+
+
+    /**
+     * Get the TTL of the cached lookups of missing resources.
+     */
+    public int getNotFoundCacheTTL() {
+        return notFoundCacheTTL;
+    }
+
+
+    /**
+     * Set where the content of the large resources is cached.
+     */
+    public void setCacheContentStorage(String cacheContentStorage) {
+        this.cacheContentStorage = cacheContentStorage;
+    }
+
+
+    /**
+     * Get where the content of the large resources is cached.
+     */
+    public String getCacheContentStorage() {
+        return cacheContentStorage;
+    }
+
+
+    /**
+     * Return the maximum size of the content cached outside of the heap in KB.
+     */
+    public int getOffHeapCacheMaxSize() {
+        return offHeapCacheMaxSize;
+    }
+
+
+    /**
+     * Set the maximum size of the content cached outside of the heap in KB.
+     */
+    public void setOffHeapCacheMaxSize(int offHeapCacheMaxSize) {
+        this.offHeapCacheMaxSize = offHeapCacheMaxSize;
+    }
+
+
     // --------------------------------------------------------- Public Methods
 
 
@@ -0,0 +1,570 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.apache.naming.resources;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Resource cache for concurrent lookups.
+ * <p>
+ * Lookups are a read of a ConcurrentHashMap and never lock. Existing
+ * resources are evicted in segmented LRU order within the cacheMaxSize
+ * budget (in KB, as the size of the cache entries): new entries go to a
+ * probation segment and are promoted to the protected segment, at most 80%
+ * of the budget, if they have been looked up again by the time they would be
+ * evicted. Lookups only set a flag on the entry, the segments are
+ * maintained by the threads loading entries, under a lock.
+ * <p>
+ * Missing resources are cached separately, for notFoundTTL ms, up to
+ * spareNotFoundEntries of them. The content of the resources too large for
+ * the heap can be kept in direct or mapped buffers, within offHeapMaxSize.
+ * The requests being served may still read the buffers of the entries
+ * evicted, so they count in offHeapMaxSize until the garbage collector has
+ * freed them.
+ */
+public class ConcurrentResourceCache extends ResourceCache {
+
+
+    // ----------------------------------------------------- Constants
+
+
+    public static final String CONTENT_STORAGE_HEAP = "heap";
+    public static final String CONTENT_STORAGE_DIRECT = "direct";
+    public static final String CONTENT_STORAGE_MAPPED = "mapped";
+
+    private static final int PROTECTED_PERCENT = 80;
+
+
+    // ----------------------------------------------------- Instance Variables
+
+
+    private final ConcurrentHashMap<String, Node> entries =
+        new ConcurrentHashMap<String, Node>();
+
+    private final ConcurrentHashMap<String, CacheEntry> notFoundEntries =
+        new ConcurrentHashMap<String, CacheEntry>();
+
+    /**
+     * Guards the segments and the sizes.
+     */
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    private final Node probation = new Node(null);
+    private final Node protectedSegment = new Node(null);
+    private int protectedSize = 0;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private final AtomicLong offHeapSize = new AtomicLong();
+
+    /**
+     * The buffers of the content cached outside of the heap, until the
+     * garbage collector frees them.
+     */
+    private final Set<ContentReference> offHeapContents =
+        Collections.newSetFromMap(new ConcurrentHashMap<ContentReference, Boolean>());
+    private final ReferenceQueue<ByteBuffer> freedContents =
+        new ReferenceQueue<ByteBuffer>();
+
+    private volatile int notFoundTTL = -1;
+    private volatile String contentStorage = CONTENT_STORAGE_HEAP;
+    private volatile int offHeapMaxSize = 65536;
+
+
+    // ------------------------------------------------------------- Properties
+
+
+    @Override
+    public long getAccessCount() {
+        return hits.sum() + misses.sum();
+    }
+
+
+    @Override
+    public long getHitsCount() {
+        return hits.sum();
+    }
+
+
+    /**
+     * Return the number of lookups which did not find the resource in the
+     * cache.
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+
+    /**
+     * Return the number of entries evicted to make room for new ones.
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+
+    /**
+     * Return the number of existing resources in the cache.
+     */
+    public int getEntryCount() {
+        return entries.size();
+    }
+
+
+    /**
+     * Return the number of missing resources in the cache.
+     */
+    public int getNotFoundCount() {
+        return notFoundEntries.size();
+    }
+
+
+    /**
+     * Return the size of the content cached outside of the heap in KB.
+     */
+    public int getOffHeapSize() {
+        expungeFreedContents();
+        return (int) (offHeapSize.get() / 1024);
+    }
+
+
+    /**
+     * Return the maximum size of the content cached outside of the heap in KB.
+     */
+    public int getOffHeapMaxSize() {
+        return offHeapMaxSize;
+    }
+
+
+    /**
+     * Set the maximum size of the content cached outside of the heap in KB.
+     */
+    public void setOffHeapMaxSize(int offHeapMaxSize) {
+        this.offHeapMaxSize = offHeapMaxSize;
+    }
+
+
+    /**
+     * Return the TTL of the missing resources in ms, -1 if it is the TTL
+     * of the existing ones.
+     */
+    public int getNotFoundTTL() {
+        return notFoundTTL;
+    }
+
+
+    /**
+     * Set the TTL of the missing resources in ms, -1 for the TTL of the
+     * existing ones.
+     */
+    public void setNotFoundTTL(int notFoundTTL) {
+        this.notFoundTTL = notFoundTTL;
+    }
+
+
+    /**
+     * Return where the content of the large resources is cached.
+     */
+    public String getContentStorage() {
+        return contentStorage;
+    }
+
+
+    /**
+     * Set where the content of the large resources is cached: heap (it is
+     * not), direct or mapped.
+     */
+    public void setContentStorage(String contentStorage) {
+        if (CONTENT_STORAGE_DIRECT.equalsIgnoreCase(contentStorage)) {
+            this.contentStorage = CONTENT_STORAGE_DIRECT;
+        } else if (CONTENT_STORAGE_MAPPED.equalsIgnoreCase(contentStorage)) {
+            this.contentStorage = CONTENT_STORAGE_MAPPED;
+        } else {
+            this.contentStorage = CONTENT_STORAGE_HEAP;
+        }
+    }
+
+
+    // --------------------------------------------------------- Public Methods
+
+
+    /**
+     * Entries are evicted when they are loaded, so there is always room.
+     */
+    @Override
+    public boolean allocate(int space) {
+        return true;
+    }
+
+
+    @Override
+    public CacheEntry lookup(String name) {
+        Node node = entries.get(name);
+        if (node != null) {
+            if (!node.referenced) {
+                node.referenced = true;
+            }
+            hits.increment();
+            return node.entry;
+        }
+        CacheEntry entry = notFoundEntries.get(name);
+        if (entry != null) {
+            hits.increment();
+            return entry;
+        }
+        misses.increment();
+        return null;
+    }
+
+
+    @Override
+    public void load(CacheEntry entry) {
+        if (!entry.exists) {
+            loadNotFound(entry);
+            return;
+        }
+        if (entry.size > cacheMaxSize) {
+            return;
+        }
+
+        Node node = new Node(entry);
+        if (entries.putIfAbsent(entry.name, node) != null) {
+            return;
+        }
+
+        evictionLock.lock();
+        try {
+            if (node.removed) {
+                // unloaded before it could be queued
+                return;
+            }
+            node.linkLast(probation);
+            cacheSize += entry.size;
+            evict();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+
+    @Override
+    public boolean unload(String name) {
+        Node node = entries.remove(name);
+        if (node != null) {
+            evictionLock.lock();
+            try {
+                remove(node);
+            } finally {
+                evictionLock.unlock();
+            }
+            return true;
+        }
+        return (notFoundEntries.remove(name) != null);
+    }
+
+
+    /**
+     * Loads the content of a resource too large for the heap cache in a
+     * direct or mapped buffer, if the content storage and the off heap
+     * budget allow it.
+     *
+     * @return true if the content is now available from
+     * entry.resource.getBufferContent()
+     */
+    public boolean loadContent(CacheEntry entry, long length) {
+        String storage = contentStorage;
+        if (CONTENT_STORAGE_HEAP.equals(storage)
+                || length <= 0 || length > Integer.MAX_VALUE) {
+            return false;
+        }
+        expungeFreedContents();
+        long max = offHeapMaxSize * 1024L;
+        long size = offHeapSize.addAndGet(length);
+        if (size > max) {
+            offHeapSize.addAndGet(-length);
+            return false;
+        }
+
+        ByteBuffer content = null;
+        boolean mapped = CONTENT_STORAGE_MAPPED.equals(storage)
+            && entry.resource instanceof FileDirContext.FileResource;
+        try {
+            if (mapped) {
+                content = map(((FileDirContext.FileResource) entry.resource).file, length);
+            } else {
+                content = read(entry.resource, (int) length);
+            }
+        } catch (IOException e) {
+            // Ignore: the content is read from the resource
+        }
+        if (content == null) {
+            offHeapSize.addAndGet(-length);
+            return false;
+        }
+        // the views of the buffer keep it reachable, it is freed once none
+        // of them is in use
+        offHeapContents.add(new ContentReference(content, length, freedContents));
+        entry.resource.setContent(content.asReadOnlyBuffer(), mapped);
+        return true;
+    }
+
+
+    // -------------------------------------------------------- Private Methods
+
+
+    private void loadNotFound(CacheEntry entry) {
+        int ttl = notFoundTTL;
+        if (ttl >= 0) {
+            entry.timestamp = System.currentTimeMillis() + ttl;
+        }
+        if (notFoundEntries.size() >= spareNotFoundEntries) {
+            long now = System.currentTimeMillis();
+            Iterator<CacheEntry> it = notFoundEntries.values().iterator();
+            while (it.hasNext()) {
+                if (it.next().timestamp <= now) {
+                    it.remove();
+                }
+            }
+            if (notFoundEntries.size() >= spareNotFoundEntries) {
+                // as the original cache, start again rather than track the
+                // order of the missing resources
+                notFoundEntries.clear();
+            }
+        }
+        notFoundEntries.put(entry.name, entry);
+    }
+
+
+    /**
+     * Evicts entries until the cache is within its budget.
+     */
+    private void evict() {
+        int maxProtected = (int) ((long) cacheMaxSize * PROTECTED_PERCENT / 100);
+        // lookups may keep setting the referenced flags, bound the second
+        // chances given
+        int secondChances = entries.size() * 2;
+
+        while (cacheSize > cacheMaxSize) {
+            Node node = probation.next;
+            if (node == probation) {
+                node = protectedSegment.next;
+                if (node == protectedSegment) {
+                    return;
+                }
+                demote(node);
+                continue;
+            }
+            if (node.referenced && secondChances-- > 0) {
+                node.referenced = false;
+                node.unlink();
+                node.linkLast(protectedSegment);
+                node.inProtected = true;
+                protectedSize += node.entry.size;
+                while (protectedSize > maxProtected) {
+                    demote(protectedSegment.next);
+                }
+                continue;
+            }
+            entries.remove(node.entry.name, node);
+            remove(node);
+            evictions.increment();
+        }
+    }
+
+
+    private void demote(Node node) {
+        node.unlink();
+        node.linkLast(probation);
+        node.inProtected = false;
+        node.referenced = false;
+        protectedSize -= node.entry.size;
+    }
+
+
+    private void remove(Node node) {
+        node.removed = true;
+        if (node.isLinked()) {
+            node.unlink();
+            cacheSize -= node.entry.size;
+            if (node.inProtected) {
+                protectedSize -= node.entry.size;
+            }
+        }
+    }
+
+
+    /**
+     * Releases the budget of the buffers the garbage collector has freed.
+     */
+    private void expungeFreedContents() {
+        Reference<? extends ByteBuffer> reference;
+        while ((reference = freedContents.poll()) != null) {
+            ContentReference content = (ContentReference) reference;
+            if (offHeapContents.remove(content)) {
+                offHeapSize.addAndGet(-content.length);
+            }
+        }
+    }
+
+
+    private static ByteBuffer map(java.io.File file, long length)
+        throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            if (channel.size() < length) {
+                return null;
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        } finally {
+            channel.close();
+        }
+    }
+
+
+    private static ByteBuffer read(Resource resource, int length)
+        throws IOException {
+        ByteBuffer content = ByteBuffer.allocateDirect(length);
+        InputStream is = resource.streamContent();
+        if (is == null) {
+            return null;
+        }
+        try {
+            byte[] b = new byte[Math.min(length, 65536)];
+            while (content.hasRemaining()) {
+                int n = is.read(b, 0, Math.min(b.length, content.remaining()));
+                if (n < 0) {
+                    return null;
+                }
+                content.put(b, 0, n);
+            }
+        } finally {
+            is.close();
+        }
+        content.flip();
+        return content;
+    }
+
+
+    // ----------------------------------------- ContentReference Inner Class
+
+
+    /**
+     * Reference to a buffer of content cached outside of the heap, enqueued
+     * once it has been freed.
+     */
+    private static final class ContentReference
+        extends PhantomReference<ByteBuffer> {
+
+        final long length;
+
+        ContentReference(ByteBuffer content, long length,
+                ReferenceQueue<ByteBuffer> queue) {
+            super(content, queue);
+            this.length = length;
+        }
+    }
+
+
+    // ----------------------------------------------------- Node Inner Class
+
+
+    /**
+     * Cache entry in one of the segments, a doubly linked list. The list
+     * heads are nodes without entry.
+     */
+    private static final class Node {
+
+        final CacheEntry entry;
+
+        // set by the lookups
+        volatile boolean referenced;
+
+        // guarded by the eviction lock
+        Node prev;
+        Node next;
+        boolean inProtected;
+        boolean removed;
+
+        Node(CacheEntry entry) {
+            this.entry = entry;
+            if (entry == null) {
+                prev = this;
+                next = this;
+            }
+        }
+
+        boolean isLinked() {
+            return next != null;
+        }
+
+        void linkLast(Node head) {
+            prev = head.prev;
+            next = head;
+            head.prev.next = this;
+            head.prev = this;
+        }
+
+        void unlink() {
+            prev.next = next;
+            next.prev = prev;
+            prev = null;
+            next = null;
+        }
+    }
+
+
+}
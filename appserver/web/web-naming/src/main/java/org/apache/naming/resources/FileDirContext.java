@@ -1062,7 +1062,7 @@ public class FileDirContext extends BaseDirContext {
          */
         public InputStream streamContent()
             throws IOException {
-            if (binaryContent == null) {
+            if (binaryContent == null && bufferContent == null) {
                 FileInputStream fin = new FileInputStream(file);
                 inputStream = fin;
                 return fin;
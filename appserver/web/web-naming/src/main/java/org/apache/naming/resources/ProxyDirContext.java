@@ -115,6 +115,16 @@ public class ProxyDirContext implements DirContext {
                 cache.setCacheMaxSize(baseDirContext.getCacheMaxSize());
                 cacheTTL = baseDirContext.getCacheTTL();
                 cacheObjectMaxSize = baseDirContext.getCacheMaxSize() / 20;
+                if (cache instanceof ConcurrentResourceCache) {
+                    ConcurrentResourceCache concurrentCache =
+                        (ConcurrentResourceCache) cache;
+                    concurrentCache.setNotFoundTTL(
+                        baseDirContext.getNotFoundCacheTTL());
+                    concurrentCache.setContentStorage(
+                        baseDirContext.getCacheContentStorage());
+                    concurrentCache.setOffHeapMaxSize(
+                        baseDirContext.getOffHeapCacheMaxSize());
+                }
             }
         }
         hostName = env.get(HOST);
@@ -147,7 +157,7 @@ public class ProxyDirContext implements DirContext {
      * Cache class.
      */
     protected String cacheClassName = 
-        "org.apache.naming.resources.ResourceCache";
+        "org.apache.naming.resources.ConcurrentResourceCache";
 
 
     /**
@@ -1477,7 +1487,8 @@ public class ProxyDirContext implements DirContext {
         if (((!entry.exists)
              || (entry.context != null)
              || ((entry.resource != null) 
-                 && (entry.resource.getContent() != null)))
+                 && ((entry.resource.getContent() != null)
+                     || (entry.resource.getBufferContent() != null))))
             && (System.currentTimeMillis() < entry.timestamp)) {
             return true;
         }
@@ -1595,6 +1606,15 @@ public class ProxyDirContext implements DirContext {
             }
         }
 
+        // Load large object content outside of the heap, if configured
+        if ((exists) && (entry.resource != null)
+            && (entry.resource.getContent() == null)
+            && (entry.resource.getBufferContent() == null)
+            && (cache instanceof ConcurrentResourceCache)) {
+            ((ConcurrentResourceCache) cache).loadContent(
+                entry, entry.attributes.getContentLength());
+        }
+
         // Set existence flag
         entry.exists = exists;
 
@@ -1602,6 +1622,11 @@ public class ProxyDirContext implements DirContext {
         entry.timestamp = System.currentTimeMillis() + cacheTTL;
 
         // Add new entry to cache
+        if (cache instanceof ConcurrentResourceCache) {
+            // Evicts other entries as needed, lookups are not blocked
+            cache.load(entry);
+            return;
+        }
         synchronized (cache) {
             // Check cache size, and remove elements if too big
             if ((cache.lookup(name) == null) && cache.allocate(entry.size)) {
@@ -1618,6 +1643,8 @@ public class ProxyDirContext implements DirContext {
     protected boolean cacheUnload(String name) {
         if (cache == null)
             return false;
+        if (cache instanceof ConcurrentResourceCache)
+            return cache.unload(name);
         synchronized (cache) {
             return cache.unload(name);
         }
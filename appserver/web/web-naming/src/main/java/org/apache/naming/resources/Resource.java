@@ -61,6 +61,7 @@ package org.apache.naming.resources;
 import java.io.InputStream;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * Encapsultes the contents of a resource.
@@ -97,6 +98,18 @@ public class Resource {
     protected byte[] binaryContent = null;
     
     
+    /**
+     * Content kept outside of the heap, direct or mapped buffer.
+     */
+    protected ByteBuffer bufferContent = null;
+
+
+    /**
+     * Is the buffer content a file mapped in memory?
+     */
+    protected boolean bufferContentMapped = false;
+
+
     /**
      * Input stream.
      */
@@ -116,6 +129,9 @@ public class Resource {
         if (binaryContent != null) {
             return new ByteArrayInputStream(binaryContent);
         }
+        if (bufferContent != null) {
+            return new ByteBufferInputStream(bufferContent.duplicate());
+        }
         return inputStream;
     }
     
@@ -130,6 +146,17 @@ public class Resource {
     }
     
     
+    /**
+     * Content accessor.
+     * 
+     * @return content kept outside of the heap, read only, to be duplicated
+     * before use
+     */
+    public ByteBuffer getBufferContent() {
+        return bufferContent;
+    }
+    
+    
     /**
      * Content mutator.
      * 
@@ -150,4 +177,77 @@ public class Resource {
     }
     
     
+    /**
+     * Content mutator.
+     * 
+     * @param bufferContent New content kept outside of the heap
+     */
+    public void setContent(ByteBuffer bufferContent) {
+        setContent(bufferContent, false);
+    }
+
+
+    /**
+     * Content mutator.
+     * 
+     * @param bufferContent New content kept outside of the heap
+     * @param mapped true if the buffer is the file of the resource mapped
+     * in memory, which must not be read once the file is truncated
+     */
+    public void setContent(ByteBuffer bufferContent, boolean mapped) {
+        this.bufferContent = bufferContent;
+        this.bufferContentMapped = mapped;
+    }
+
+
+    /**
+     * Content accessor.
+     * 
+     * @return true if the buffer content is the file of the resource mapped
+     * in memory
+     */
+    public boolean isBufferContentMapped() {
+        return bufferContentMapped;
+    }
+    
+    
+    // ----------------------------------------- ByteBufferInputStream Inner Class
+    
+    
+    private static class ByteBufferInputStream extends InputStream {
+        
+        private final ByteBuffer buffer;
+        
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+        
+        public int read() {
+            return buffer.hasRemaining() ? (buffer.get() & 0xff) : -1;
+        }
+        
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+        
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+        
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+    
+    
 }
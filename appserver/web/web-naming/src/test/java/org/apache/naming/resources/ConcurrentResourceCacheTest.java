@@ -0,0 +1,211 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.apache.naming.resources;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ConcurrentResourceCacheTest {
+
+    private ConcurrentResourceCache cache;
+
+    @Before
+    public void setUp() {
+        cache = new ConcurrentResourceCache();
+    }
+
+    /**
+     * An entry looked up again by the time it would be evicted is promoted
+     * to the protected segment, the next one of the probation segment goes.
+     */
+    @Test
+    public void testPromotion() {
+        cache.setCacheMaxSize(3);
+        cache.load(entry("/a"));
+        cache.load(entry("/b"));
+        cache.load(entry("/c"));
+        assertNotNull(cache.lookup("/a"));
+
+        cache.load(entry("/d"));
+        assertNotNull(cache.lookup("/a"));
+        assertNull(cache.lookup("/b"));
+        assertNotNull(cache.lookup("/c"));
+        assertNotNull(cache.lookup("/d"));
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(3, cache.getCacheSize());
+        assertEquals(3, cache.getEntryCount());
+    }
+
+    /**
+     * The protected segment is at most 80% of the budget: the entries
+     * promoted beyond it are demoted to the probation segment.
+     */
+    @Test
+    public void testDemotion() {
+        cache.setCacheMaxSize(2);
+        cache.load(entry("/a"));
+        cache.load(entry("/b"));
+        cache.lookup("/a");
+        cache.lookup("/b");
+
+        // a is promoted, then demoted behind c when b is: only one entry
+        // fits in the protected segment, and c was not looked up
+        cache.load(entry("/c"));
+        assertEquals(2, cache.getCacheSize());
+        assertEquals(2, cache.getEntryCount());
+        assertEquals(1, cache.getEvictionCount());
+        assertNull(cache.lookup("/c"));
+        assertNotNull(cache.lookup("/b"));
+
+        // a lost its flag when it was demoted
+        cache.load(entry("/d"));
+        assertNull(cache.lookup("/a"));
+        assertNotNull(cache.lookup("/b"));
+        assertNotNull(cache.lookup("/d"));
+    }
+
+    /**
+     * Entries are evicted in the order they were loaded, within the budget.
+     */
+    @Test
+    public void testEviction() {
+        cache.setCacheMaxSize(10);
+        for (int i = 0; i < 10; i++) {
+            cache.load(entry("/" + i, 2));
+        }
+        assertEquals(10, cache.getCacheSize());
+        assertEquals(5, cache.getEntryCount());
+        assertEquals(5, cache.getEvictionCount());
+        for (int i = 0; i < 5; i++) {
+            assertNull(cache.lookup("/" + i));
+        }
+        for (int i = 5; i < 10; i++) {
+            assertNotNull(cache.lookup("/" + i));
+        }
+
+        // too large for the cache
+        cache.load(entry("/large", 11));
+        assertNull(cache.lookup("/large"));
+
+        assertTrue(cache.unload("/9"));
+        assertFalse(cache.unload("/9"));
+        assertEquals(8, cache.getCacheSize());
+        assertEquals(4, cache.getEntryCount());
+    }
+
+    @Test
+    public void testNotFound() {
+        cache.setSpareNotFoundEntries(2);
+        cache.load(notFound("/x"));
+        cache.load(notFound("/y"));
+        assertNotNull(cache.lookup("/x"));
+        assertEquals(2, cache.getNotFoundCount());
+        assertEquals(0, cache.getCacheSize());
+
+        cache.load(notFound("/z"));
+        assertEquals(1, cache.getNotFoundCount());
+        assertNotNull(cache.lookup("/z"));
+        assertTrue(cache.unload("/z"));
+        assertEquals(0, cache.getNotFoundCount());
+    }
+
+    /**
+     * The buffer of an evicted entry is still in use by the requests
+     * reading it: it counts in the off heap budget until it is freed.
+     */
+    @Test
+    public void testOffHeapBudget() throws Exception {
+        cache.setContentStorage(ConcurrentResourceCache.CONTENT_STORAGE_DIRECT);
+        cache.setOffHeapMaxSize(64);
+
+        CacheEntry first = entry("/first", 40);
+        assertTrue(cache.loadContent(first, 40 * 1024));
+        assertEquals(40 * 1024, first.resource.getBufferContent().remaining());
+        assertTrue(first.resource.getBufferContent().isReadOnly());
+        assertEquals(40, cache.getOffHeapSize());
+        cache.load(first);
+
+        CacheEntry second = entry("/second", 40);
+        assertFalse(cache.loadContent(second, 40 * 1024));
+        assertNull(second.resource.getBufferContent());
+
+        assertTrue(cache.unload("/first"));
+        assertEquals(40, cache.getOffHeapSize());
+        assertFalse(cache.loadContent(second, 40 * 1024));
+
+        first = null;
+        long deadline = System.currentTimeMillis() + 10000;
+        while (cache.getOffHeapSize() > 0 && System.currentTimeMillis() < deadline) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertEquals(0, cache.getOffHeapSize());
+        assertTrue(cache.loadContent(second, 40 * 1024));
+        assertEquals(40, cache.getOffHeapSize());
+    }
+
+    @Test
+    public void testHeapStorage() {
+        CacheEntry entry = entry("/heap", 40);
+        assertFalse(cache.loadContent(entry, 40 * 1024));
+        assertEquals(0, cache.getOffHeapSize());
+    }
+
+    private static CacheEntry entry(String name) {
+        return entry(name, 1);
+    }
+
+    private static CacheEntry entry(String name, int size) {
+        CacheEntry entry = new CacheEntry();
+        entry.name = name;
+        entry.size = size;
+        entry.resource = new Resource(new byte[size * 1024]);
+        return entry;
+    }
+
+    private static CacheEntry notFound(String name) {
+        CacheEntry entry = new CacheEntry();
+        entry.name = name;
+        entry.exists = false;
+        return entry;
+    }
+}
@@ -1068,4 +1068,24 @@ public class ConfigApiLoggerInfo {
             action="Take appropriate action based on the error details in the log.")
     public final static String ERR_UPGRADE_HTTP_SVC_PROPS = "NCLS-CFGAPI-00137";
 
+    @LogMessageInfo(message = "Replayed {0} configuration changes from {1}.",
+            level = "INFO")
+    public final static String journalReplayed = "NCLS-CFGAPI-00138";
+
+    @LogMessageInfo(message = "Cannot replay the configuration changes from {0}, they were moved to {1}.",
+            publish = true, level = "SEVERE",
+            cause="The configuration changes journal could not be applied to domain.xml.",
+            action="Check the moved journal and apply the changes it contains again if needed.")
+    public final static String journalReplayFailed = "NCLS-CFGAPI-00139";
+
+    @LogMessageInfo(message = "Configuration loaded from the snapshot {0}.",
+            level = "FINE")
+    public final static String configSnapshotLoaded = "NCLS-CFGAPI-00140";
+
+    @LogMessageInfo(message = "Cannot write the configuration snapshot {0}.",
+            cause="The snapshot of domain.xml could not be written.",
+            action="Check the error details in the log. The next start will parse domain.xml.",
+            level = "WARNING")
+    public final static String configSnapshotNotWritten = "NCLS-CFGAPI-00141";
+
 }
@@ -0,0 +1,711 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.config.support;
+
+import com.sun.enterprise.util.io.FileUtils;
+import org.jvnet.hk2.config.ConfigBeanProxy;
+import org.jvnet.hk2.config.ConfigModel;
+import org.jvnet.hk2.config.Dom;
+import org.jvnet.hk2.config.DomDocument;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.beans.PropertyChangeEvent;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the transactions committed to the configuration,
+ * so that they can be persisted without writing out the whole
+ * <tt>domain.xml</tt> each time.
+ *
+ * Each transaction is recorded as the elements it replaced or deleted, at
+ * most two levels below the root element, like a resource, an application,
+ * a server or a whole config. The changes which cannot be recorded that way,
+ * like the attributes of the root element, require the whole document to be
+ * saved.
+ *
+ * The elements are designated by their key, or by their name when they have
+ * no sibling of the same name, so that their path does not depend on the
+ * order in which their siblings are inserted. A new element is inserted after
+ * the element it follows in the document, like a full save would write it.
+ *
+ * Each transaction is one frame made of a magic number, the length of the
+ * payload, the payload and its CRC32, so that a frame which was not entirely
+ * written is ignored when the journal is replayed.
+ */
+public class ConfigurationJournal {
+
+    public static final String FILE_NAME = "domain.xml.journal";
+
+    private static final int MAGIC = 0x474a4e4c;
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+
+    // position of a new element
+    private static final byte AT_END = 0;
+    private static final byte FIRST = 1;
+    private static final byte AFTER = 2;
+
+    // depth of the recorded elements, the root element being at depth 0
+    private static final int UNIT_DEPTH = 2;
+
+    private final File file;
+    private final XMLOutputFactory xmlFactory = XMLOutputFactory.newInstance();
+    private OutputStream out;
+
+    public ConfigurationJournal(File file) {
+        this.file = file;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Appends the changes of a transaction to the journal.
+     *
+     * @param doc the document, with the changes applied
+     * @param changes the changes of the transaction
+     * @return false if the changes cannot be recorded, in which case the
+     * whole document must be saved instead
+     */
+    public synchronized boolean append(DomDocument doc, List<PropertyChangeEvent> changes)
+            throws IOException, XMLStreamException {
+        Dom root = doc.getRoot();
+        Map<String, Dom> units = new LinkedHashMap<String, Dom>();
+        Map<String, List<Step>> paths = new LinkedHashMap<String, List<Step>>();
+
+        for (PropertyChangeEvent event : changes) {
+            if (!(event.getSource() instanceof ConfigBeanProxy)) {
+                return false;
+            }
+            Dom source = Dom.unwrap((ConfigBeanProxy) event.getSource());
+            if (source == null) {
+                return false;
+            }
+            if (getRoot(source) != root) {
+                // not a change of this document
+                continue;
+            }
+
+            String keyAttribute = getKeyAttribute(source);
+            if (keyAttribute != null && keyAttribute.equals(event.getPropertyName())
+                    && event.getOldValue() instanceof String && !event.getOldValue().equals(event.getNewValue())
+                    && getUnit(source) == source) {
+                // the element is renamed, it is no longer found by its old key
+                List<Step> path = getPath(source);
+                if (path == null) {
+                    return false;
+                }
+                Step step = path.remove(path.size() - 1);
+                path.add(new Step(step.tag, keyAttribute, (String) event.getOldValue(), 0));
+                record(units, paths, path, null);
+            }
+
+            Dom changed = source;
+            if (event.getNewValue() == null && event.getOldValue() instanceof ConfigBeanProxy) {
+                Dom child = Dom.unwrap((ConfigBeanProxy) event.getOldValue());
+                String tag = (child == null) ? null : child.model.getTagName();
+                if (tag == null && !"*".equals(event.getPropertyName())) {
+                    tag = event.getPropertyName();
+                }
+                if (tag != null && getDepth(source) < UNIT_DEPTH && getKeyAttribute(child) != null) {
+                    List<Step> path = getPath(source);
+                    if (path == null) {
+                        return false;
+                    }
+                    path.add(new Step(tag, getKeyAttribute(child), child.rawAttribute(getKeyAttribute(child)), 0));
+                    record(units, paths, path, null);
+                    continue;
+                }
+            } else if (event.getNewValue() instanceof ConfigBeanProxy) {
+                Dom child = Dom.unwrap((ConfigBeanProxy) event.getNewValue());
+                if (child != null && child.parent() == source) {
+                    changed = child;
+                }
+            }
+
+            Dom unit = getUnit(changed);
+            List<Step> path = (unit == null) ? null : getPath(unit);
+            if (path == null) {
+                return false;
+            }
+            record(units, paths, path, unit);
+        }
+        if (units.isEmpty()) {
+            return true;
+        }
+
+        // the elements are written once all the changes are known, in their
+        // final state
+        List<Record> records = new ArrayList<Record>(units.size());
+        for (Map.Entry<String, Dom> entry : units.entrySet()) {
+            List<Step> path = paths.get(entry.getKey());
+            Dom unit = entry.getValue();
+            if (unit == null) {
+                records.add(new Record(path, null, AT_END, null));
+                continue;
+            }
+            String tag = path.get(path.size() - 1).tag;
+            records.add(newRecord(path, unit, toXml(unit, tag)));
+        }
+        append(records);
+        return true;
+    }
+
+    /**
+     * Appends a transaction to the journal, the new elements being inserted
+     * after their last sibling of the same name.
+     *
+     * @param records the path of each element changed by the transaction,
+     * and its xml, or null if it was deleted
+     */
+    synchronized void append(Map<List<Step>, byte[]> records) throws IOException {
+        List<Record> list = new ArrayList<Record>(records.size());
+        for (Map.Entry<List<Step>, byte[]> record : records.entrySet()) {
+            list.add(new Record(record.getKey(), record.getValue(), AT_END, null));
+        }
+        append(list);
+    }
+
+    private synchronized void append(List<Record> records) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(payload);
+        data.writeInt(records.size());
+        for (Record record : records) {
+            if (record.xml == null || record.xml.length == 0) {
+                data.writeByte(DELETE);
+                writePath(data, record.path);
+            } else {
+                data.writeByte(PUT);
+                writePath(data, record.path);
+                data.writeByte(record.position);
+                if (record.position == AFTER) {
+                    writeStep(data, record.after);
+                }
+                data.writeInt(record.xml.length);
+                data.write(record.xml);
+            }
+        }
+        data.flush();
+        write(payload.toByteArray());
+    }
+
+    /**
+     * @return the length of the journal, which can be given to
+     * {@link #truncate(long)} once the document was saved.
+     */
+    public synchronized long length() {
+        return file.length();
+    }
+
+    /**
+     * Removes the transactions recorded before the journal had the given
+     * length, which are in the saved document.
+     */
+    public synchronized void truncate(long length) throws IOException {
+        close();
+        if (!file.exists() || length <= 0) {
+            return;
+        }
+        long remaining = file.length() - length;
+        if (remaining <= 0) {
+            new FileOutputStream(file).close();
+            return;
+        }
+
+        // keep the transactions recorded while the document was saved
+        byte[] tail = new byte[(int) remaining];
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            raf.seek(length);
+            raf.readFully(tail);
+        } finally {
+            raf.close();
+        }
+        File tmp = File.createTempFile("domain", ".journal", file.getParentFile());
+        OutputStream os = new FileOutputStream(tmp);
+        try {
+            os.write(tail);
+        } finally {
+            os.close();
+        }
+        if (!FileUtils.renameFile(tmp, file)) {
+            FileUtils.deleteFileNowOrLater(tmp);
+            throw new IOException("Could not rename " + tmp + " to " + file);
+        }
+    }
+
+    public synchronized void close() throws IOException {
+        if (out != null) {
+            try {
+                out.close();
+            } finally {
+                out = null;
+            }
+        }
+    }
+
+    private synchronized void write(byte[] payload) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+
+        ByteArrayOutputStream frame = new ByteArrayOutputStream(payload.length + 16);
+        DataOutputStream data = new DataOutputStream(frame);
+        data.writeInt(MAGIC);
+        data.writeInt(payload.length);
+        data.write(payload);
+        data.writeInt((int) crc.getValue());
+        data.flush();
+
+        if (out == null) {
+            out = new FileOutputStream(file, true);
+        }
+        out.write(frame.toByteArray());
+        out.flush();
+    }
+
+    private byte[] toXml(Dom dom, String tag) throws XMLStreamException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        XMLStreamWriter writer = xmlFactory.createXMLStreamWriter(baos, "UTF-8");
+        dom.writeTo(tag, writer);
+        writer.close();
+        return baos.toByteArray();
+    }
+
+    private static void record(Map<String, Dom> units, Map<String, List<Step>> paths,
+                               List<Step> path, Dom unit) {
+        String key = path.toString();
+        // the last change of an element is recorded last
+        units.remove(key);
+        units.put(key, unit);
+        paths.put(key, path);
+    }
+
+    private static Dom getRoot(Dom dom) {
+        while (dom.parent() != null) {
+            dom = dom.parent();
+        }
+        return dom;
+    }
+
+    private static int getDepth(Dom dom) {
+        int depth = 0;
+        for (Dom d = dom.parent(); d != null; d = d.parent()) {
+            depth++;
+        }
+        return depth;
+    }
+
+    /**
+     * @return the element to record for a change of the given element, or
+     * null if it is the root element.
+     */
+    private static Dom getUnit(Dom dom) {
+        int depth = getDepth(dom);
+        for (; depth > UNIT_DEPTH; depth--) {
+            dom = dom.parent();
+        }
+        if (depth == UNIT_DEPTH && getKeyAttribute(dom) == null) {
+            dom = dom.parent();
+            depth--;
+        }
+        return (depth == 0) ? null : dom;
+    }
+
+    /**
+     * @return the record of the element, with its position among its
+     * siblings so that it is inserted at the same place if it is new. The
+     * elements of a list are inserted after the previous element of the
+     * list, or first when the list was empty, the other elements at the end.
+     */
+    private static Record newRecord(List<Step> path, Dom dom, byte[] xml) {
+        Dom parent = dom.parent();
+        String tag = path.get(path.size() - 1).tag;
+        ConfigModel.Property property = parent.model.getElement(tag);
+        List<Dom> siblings;
+        if (property == null) {
+            // element of a list of any type, like the resources
+            siblings = parent.domNodeByTypeElements(ConfigBeanProxy.class);
+        } else if (property.isCollection()) {
+            siblings = parent.nodeElements(tag);
+        } else {
+            return new Record(path, xml, AT_END, null);
+        }
+        int index = siblings.indexOf(dom);
+        if (index == 0) {
+            return new Record(path, xml, FIRST, null);
+        }
+        Step after = (index > 0) ? getStep(parent, siblings.get(index - 1)) : null;
+        return (after == null) ? new Record(path, xml, AT_END, null)
+                : new Record(path, xml, AFTER, after);
+    }
+
+    private static String getKeyAttribute(Dom dom) {
+        String key = dom.model.key;
+        if (key == null || !key.startsWith("@")) {
+            return null;
+        }
+        String name = key.substring(1);
+        return (dom.rawAttribute(name) == null) ? null : name;
+    }
+
+    /**
+     * @return the path of the element from the root element, or null if
+     * the element is no longer in the document.
+     */
+    private static List<Step> getPath(Dom dom) {
+        LinkedList<Step> path = new LinkedList<Step>();
+        for (Dom d = dom; d.parent() != null; d = d.parent()) {
+            Step step = getStep(d.parent(), d);
+            if (step == null) {
+                return null;
+            }
+            path.addFirst(step);
+        }
+        return path;
+    }
+
+    /**
+     * @return the step designating the element under its parent, or null if
+     * it cannot be designated by its key or by its name. An element without
+     * key is only designated when it has no sibling of the same name, since
+     * its index would depend on where its siblings are inserted.
+     */
+    private static Step getStep(Dom parent, Dom dom) {
+        String tag = getTagName(parent, dom);
+        if (tag == null) {
+            return null;
+        }
+        String keyAttribute = getKeyAttribute(dom);
+        if (keyAttribute != null) {
+            return new Step(tag, keyAttribute, dom.rawAttribute(keyAttribute), 0);
+        }
+        if (parent.nodeElements(tag).size() != 1) {
+            return null;
+        }
+        return new Step(tag, null, null, 0);
+    }
+
+    private static String getTagName(Dom parent, Dom child) {
+        for (String name : parent.getElementNames()) {
+            ConfigModel.Property property = parent.model.getElement(name);
+            if (property != null && property.isLeaf()) {
+                continue;
+            }
+            if (parent.nodeElements(name).contains(child)) {
+                return name;
+            }
+        }
+        return null;
+    }
+
+    private static void writePath(DataOutputStream data, List<Step> path) throws IOException {
+        data.writeShort(path.size());
+        for (Step step : path) {
+            writeStep(data, step);
+        }
+    }
+
+    private static void writeStep(DataOutputStream data, Step step) throws IOException {
+        data.writeUTF(step.tag);
+        data.writeUTF(step.keyAttribute == null ? "" : step.keyAttribute);
+        data.writeUTF(step.key == null ? "" : step.key);
+        data.writeInt(step.index);
+    }
+
+    private static List<Step> readPath(DataInputStream data) throws IOException {
+        int size = data.readUnsignedShort();
+        List<Step> path = new ArrayList<Step>(size);
+        for (int i = 0; i < size; i++) {
+            path.add(readStep(data));
+        }
+        return path;
+    }
+
+    private static Step readStep(DataInputStream data) throws IOException {
+        String tag = data.readUTF();
+        String keyAttribute = data.readUTF();
+        String key = data.readUTF();
+        int index = data.readInt();
+        return (keyAttribute.length() == 0) ? new Step(tag, null, null, index)
+                : new Step(tag, keyAttribute, key, 0);
+    }
+
+    /**
+     * Applies the transactions of the journal to the document, and empties
+     * the journal.
+     *
+     * @param journal the journal file
+     * @param domainXml the document the journal was recorded for
+     * @return the number of transactions applied
+     * @throws IOException if the document cannot be read, changed or
+     * written, in which case it is left unchanged
+     */
+    public static int replay(File journal, File domainXml) throws IOException {
+        if (!journal.isFile() || journal.length() == 0) {
+            return 0;
+        }
+        List<byte[]> frames = readFrames(journal);
+        if (!frames.isEmpty()) {
+            try {
+                DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+                dbf.setExpandEntityReferences(false);
+                try {
+                    dbf.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+                } catch (ParserConfigurationException e) {
+                    // not supported by this parser
+                }
+                DocumentBuilder builder = dbf.newDocumentBuilder();
+                Document document = builder.parse(domainXml);
+                for (byte[] frame : frames) {
+                    apply(builder, document, frame);
+                }
+                write(document, domainXml);
+            } catch (ParserConfigurationException e) {
+                throw new IOException(e);
+            } catch (SAXException e) {
+                throw new IOException(e);
+            } catch (TransformerException e) {
+                throw new IOException(e);
+            }
+        }
+        new FileOutputStream(journal).close();
+        return frames.size();
+    }
+
+    private static List<byte[]> readFrames(File journal) throws IOException {
+        List<byte[]> frames = new ArrayList<byte[]>();
+        DataInputStream data = new DataInputStream(new BufferedInputStream(new FileInputStream(journal)));
+        try {
+            long remaining = journal.length();
+            while (remaining >= 12) {
+                int magic = data.readInt();
+                int length = data.readInt();
+                if (magic != MAGIC || length < 0 || length > remaining - 12) {
+                    break;
+                }
+                byte[] payload = new byte[length];
+                data.readFully(payload);
+                CRC32 crc = new CRC32();
+                crc.update(payload, 0, length);
+                if (data.readInt() != (int) crc.getValue()) {
+                    break;
+                }
+                frames.add(payload);
+                remaining -= length + 12;
+            }
+        } catch (EOFException e) {
+            // last transaction not entirely written
+        } finally {
+            data.close();
+        }
+        return frames;
+    }
+
+    private static void apply(DocumentBuilder builder, Document document, byte[] frame)
+            throws IOException, SAXException {
+        DataInputStream data = new DataInputStream(new ByteArrayInputStream(frame));
+        int count = data.readInt();
+        for (int i = 0; i < count; i++) {
+            byte op = data.readByte();
+            List<Step> path = readPath(data);
+            Element replacement = null;
+            byte position = AT_END;
+            Step after = null;
+            if (op == PUT) {
+                position = data.readByte();
+                if (position == AFTER) {
+                    after = readStep(data);
+                }
+                byte[] xml = new byte[data.readInt()];
+                data.readFully(xml);
+                replacement = (Element) document.importNode(
+                        builder.parse(new ByteArrayInputStream(xml)).getDocumentElement(), true);
+            }
+
+            Element parent = document.getDocumentElement();
+            for (int s = 0; parent != null && s < path.size() - 1; s++) {
+                parent = find(parent, path.get(s));
+            }
+            if (parent == null) {
+                // the parent is recorded later in the same transaction
+                continue;
+            }
+            Step step = path.get(path.size() - 1);
+            Element current = find(parent, step);
+            if (replacement == null) {
+                if (current != null) {
+                    parent.removeChild(current);
+                }
+            } else if (current != null) {
+                parent.replaceChild(replacement, current);
+            } else if (position == FIRST) {
+                parent.insertBefore(replacement, parent.getFirstChild());
+            } else {
+                Element last = (after == null) ? null : find(parent, after);
+                if (last == null) {
+                    for (Node n = parent.getFirstChild(); n != null; n = n.getNextSibling()) {
+                        if (n.getNodeType() == Node.ELEMENT_NODE && step.tag.equals(n.getNodeName())) {
+                            last = (Element) n;
+                        }
+                    }
+                }
+                parent.insertBefore(replacement, (last == null) ? null : last.getNextSibling());
+            }
+        }
+    }
+
+    private static Element find(Element parent, Step step) {
+        int index = 0;
+        for (Node n = parent.getFirstChild(); n != null; n = n.getNextSibling()) {
+            if (n.getNodeType() != Node.ELEMENT_NODE || !step.tag.equals(n.getNodeName())) {
+                continue;
+            }
+            Element element = (Element) n;
+            if (step.keyAttribute != null) {
+                if (step.key.equals(element.getAttribute(step.keyAttribute))) {
+                    return element;
+                }
+            } else if (index++ == step.index) {
+                return element;
+            }
+        }
+        return null;
+    }
+
+    private static void write(Document document, File domainXml)
+            throws IOException, TransformerException {
+        File tmp = File.createTempFile("domain", ".xml", domainXml.getParentFile());
+        OutputStream os = new FileOutputStream(tmp);
+        try {
+            Transformer transformer = TransformerFactory.newInstance().newTransformer();
+            transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+            transformer.transform(new DOMSource(document), new StreamResult(os));
+        } finally {
+            os.close();
+        }
+
+        File backup = new File(domainXml.getParentFile(), domainXml.getName() + ".bak");
+        if (backup.exists() && !backup.delete()) {
+            throw new IOException("Could not delete " + backup);
+        }
+        if (!FileUtils.renameFile(domainXml, backup)) {
+            throw new IOException("Could not rename " + domainXml + " to " + backup);
+        }
+        if (!FileUtils.renameFile(tmp, domainXml)) {
+            FileUtils.renameFile(backup, domainXml);
+            throw new IOException("Could not rename " + tmp + " to " + domainXml);
+        }
+    }
+
+    /**
+     * An element in the path of a recorded element, designated by its key if
+     * it has one, or else by its index among the elements of the same name.
+     */
+    static final class Step {
+        final String tag;
+        final String keyAttribute;
+        final String key;
+        final int index;
+
+        Step(String tag, String keyAttribute, String key, int index) {
+            this.tag = tag;
+            this.keyAttribute = keyAttribute;
+            this.key = key;
+            this.index = index;
+        }
+
+        @Override
+        public String toString() {
+            return (keyAttribute == null) ? tag + "[" + index + "]"
+                    : tag + "[@" + keyAttribute + "='" + key + "']";
+        }
+    }
+
+    /**
+     * An element changed by a transaction, and where it goes if it is new.
+     */
+    private static final class Record {
+        final List<Step> path;
+        final byte[] xml;
+        final byte position;
+        final Step after;
+
+        Record(List<Step> path, byte[] xml, byte position, Step after) {
+            this.path = path;
+            this.xml = xml;
+            this.position = position;
+            this.after = after;
+        }
+    }
+}
@@ -0,0 +1,679 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.config.support;
+
+import com.sun.enterprise.util.io.FileUtils;
+
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.namespace.QName;
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary snapshot of <tt>domain.xml</tt>, which the DAS reads instead of
+ * the xml when it starts, if the <tt>org.glassfish.config.snapshot</tt>
+ * system property is set to true.
+ *
+ * The snapshot holds the elements, attributes and text of the document as
+ * a table of the distinct strings and a stream of events referring to them,
+ * and is read back as a {@link XMLStreamReader} for the {@link
+ * org.jvnet.hk2.config.ConfigParser}, so that neither the xml nor the
+ * character encoding is decoded again. Comments, processing instructions
+ * and the whitespace between elements are not kept.
+ *
+ * The snapshot records the length, the modification time and the SHA-1
+ * digest of the document it was made from, and is only used when they
+ * still match.
+ */
+public class ConfigurationSnapshot {
+
+    public static final String FILE_NAME = "domain.xml.snapshot";
+
+    public static final String ENABLED_PROPERTY = "org.glassfish.config.snapshot";
+
+    private static final int MAGIC = 0x47534e50;
+    private static final int VERSION = 1;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    public static boolean isEnabled() {
+        return Boolean.getBoolean(ENABLED_PROPERTY);
+    }
+
+    /**
+     * Writes the snapshot of the given document.
+     *
+     * @param domainXml the document
+     * @param snapshot the snapshot file, replaced once it is written
+     * @param xif the factory of the reader of the document
+     * @return false if the document was changed while it was read, in which
+     * case no snapshot is written
+     */
+    public static boolean write(File domainXml, File snapshot, XMLInputFactory xif)
+            throws IOException, XMLStreamException {
+        long length = domainXml.length();
+        long lastModified = domainXml.lastModified();
+
+        byte[] content = readFully(domainXml);
+        Encoder encoder = new Encoder();
+        XMLStreamReader reader = xif.createXMLStreamReader(new ByteArrayInputStream(content));
+        try {
+            encoder.encode(reader);
+        } finally {
+            reader.close();
+        }
+        if (domainXml.length() != length || domainXml.lastModified() != lastModified) {
+            return false;
+        }
+
+        File tmp = File.createTempFile("domain", ".snapshot", snapshot.getParentFile());
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(length);
+            out.writeLong(lastModified);
+            byte[] digest = newDigest().digest(content);
+            out.writeInt(digest.length);
+            out.write(digest);
+            encoder.writeTo(out);
+        } finally {
+            out.close();
+        }
+        if (!FileUtils.renameFile(tmp, snapshot)) {
+            FileUtils.deleteFileNowOrLater(tmp);
+            throw new IOException("Could not rename " + tmp + " to " + snapshot);
+        }
+        return true;
+    }
+
+    /**
+     * Reads the snapshot of the given document.
+     *
+     * @param domainXml the document
+     * @param snapshot the snapshot file
+     * @return the reader of the snapshot, or null if there is no snapshot
+     * or it is not the one of the current document.
+     */
+    public static XMLStreamReader read(File domainXml, File snapshot) throws IOException {
+        if (!snapshot.isFile() || !domainXml.isFile()) {
+            return null;
+        }
+        byte[] content = readFully(snapshot);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(content));
+        if (content.length < 28 || in.readInt() != MAGIC || in.readInt() != VERSION
+                || in.readLong() != domainXml.length() || in.readLong() != domainXml.lastModified()) {
+            return null;
+        }
+        byte[] digest = new byte[in.readInt()];
+        in.readFully(digest);
+        if (!Arrays.equals(digest, digest(domainXml))) {
+            return null;
+        }
+
+        String[] strings = new String[in.readInt()];
+        for (int i = 0; i < strings.length; i++) {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            strings[i] = new String(bytes, UTF8);
+        }
+        byte[] events = new byte[in.readInt()];
+        in.readFully(events);
+        return new Reader(domainXml.toURI().toString(), strings, events);
+    }
+
+    private static byte[] digest(File file) throws IOException {
+        MessageDigest md = newDigest();
+        InputStream is = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = is.read(buffer)) != -1) {
+                md.update(buffer, 0, n);
+            }
+        } finally {
+            is.close();
+        }
+        return md.digest();
+    }
+
+    private static MessageDigest newDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static byte[] readFully(File file) throws IOException {
+        byte[] content = new byte[(int) file.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            in.readFully(content);
+        } finally {
+            in.close();
+        }
+        return content;
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Encodes the events of a document: the strings are replaced by their
+     * index in the table of the strings, and the integers are written with
+     * seven bits per byte.
+     */
+    private static final class Encoder {
+        private final Map<String, Integer> indexes = new HashMap<String, Integer>();
+        private final List<String> strings = new ArrayList<String>();
+        private final ByteArrayOutputStream events = new ByteArrayOutputStream();
+
+        void encode(XMLStreamReader reader) throws XMLStreamException {
+            StringBuilder text = new StringBuilder();
+            boolean empty = false;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                switch (event) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        flushText(text, false);
+                        events.write(event);
+                        writeString(reader.getLocalName());
+                        Location location = reader.getLocation();
+                        writeInt(events, (location == null) ? 0 : Math.max(0, location.getLineNumber()));
+                        writeInt(events, reader.getAttributeCount());
+                        for (int i = 0; i < reader.getAttributeCount(); i++) {
+                            writeString(reader.getAttributeLocalName(i));
+                            writeString(reader.getAttributeValue(i));
+                        }
+                        empty = true;
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        // the whitespace is kept when it is the whole text of the element
+                        flushText(text, empty);
+                        events.write(event);
+                        empty = false;
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA:
+                    case XMLStreamConstants.SPACE:
+                        text.append(reader.getText());
+                        break;
+                    case XMLStreamConstants.END_DOCUMENT:
+                        events.write(event);
+                        return;
+                    default:
+                        // comments, processing instructions, dtd
+                        break;
+                }
+            }
+        }
+
+        private void flushText(StringBuilder text, boolean keepWhitespace) {
+            if (text.length() == 0) {
+                return;
+            }
+            String s = text.toString();
+            text.setLength(0);
+            if (keepWhitespace || s.trim().length() > 0) {
+                events.write(XMLStreamConstants.CHARACTERS);
+                writeString(s);
+            }
+        }
+
+        private void writeString(String s) {
+            Integer index = indexes.get(s);
+            if (index == null) {
+                index = strings.size();
+                indexes.put(s, index);
+                strings.add(s);
+            }
+            writeInt(events, index);
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            out.writeInt(strings.size());
+            for (String s : strings) {
+                byte[] bytes = s.getBytes(UTF8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            out.writeInt(events.size());
+            events.writeTo(out);
+        }
+    }
+
+    /**
+     * Reader of the events of a snapshot, with no namespaces.
+     */
+    static final class Reader implements XMLStreamReader, Location {
+        private static final String[] NO_ATTRIBUTES = new String[0];
+
+        private final String systemId;
+        private final String[] strings;
+        private final byte[] events;
+        private int position = 0;
+
+        private int eventType = START_DOCUMENT;
+        private String localName;
+        private String text;
+        private int line = 0;
+        private String[] attributes = NO_ATTRIBUTES;
+        private String[] elements = new String[16];
+        private int depth = 0;
+
+        Reader(String systemId, String[] strings, byte[] events) {
+            this.systemId = systemId;
+            this.strings = strings;
+            this.events = events;
+        }
+
+        private int readInt() {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                int b = events[position++];
+                value |= (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+        }
+
+        @Override
+        public int next() throws XMLStreamException {
+            if (position >= events.length) {
+                throw new XMLStreamException("No more events in the configuration snapshot");
+            }
+            eventType = events[position++];
+            switch (eventType) {
+                case START_ELEMENT:
+                    localName = strings[readInt()];
+                    if (depth == elements.length) {
+                        elements = Arrays.copyOf(elements, depth * 2);
+                    }
+                    elements[depth++] = localName;
+                    line = readInt();
+                    int count = readInt();
+                    attributes = (count == 0) ? NO_ATTRIBUTES : new String[count * 2];
+                    for (int i = 0; i < attributes.length; i++) {
+                        attributes[i] = strings[readInt()];
+                    }
+                    text = null;
+                    break;
+                case END_ELEMENT:
+                    localName = elements[--depth];
+                    attributes = NO_ATTRIBUTES;
+                    text = null;
+                    break;
+                case CHARACTERS:
+                    text = strings[readInt()];
+                    break;
+                case END_DOCUMENT:
+                    break;
+                default:
+                    throw new XMLStreamException("Invalid configuration snapshot event " + eventType);
+            }
+            return eventType;
+        }
+
+        @Override
+        public int nextTag() throws XMLStreamException {
+            int event = next();
+            while (event == CHARACTERS && isWhiteSpace()) {
+                event = next();
+            }
+            if (event != START_ELEMENT && event != END_ELEMENT) {
+                throw new XMLStreamException("expected start or end tag", this);
+            }
+            return event;
+        }
+
+        @Override
+        public String getElementText() throws XMLStreamException {
+            if (eventType != START_ELEMENT) {
+                throw new XMLStreamException("parser must be on START_ELEMENT to read next text", this);
+            }
+            StringBuilder content = new StringBuilder();
+            int event = next();
+            while (event != END_ELEMENT) {
+                if (event == CHARACTERS) {
+                    content.append(text);
+                } else {
+                    throw new XMLStreamException("elementGetText() function expects text only elment but "
+                            + "START_ELEMENT was encountered.", this);
+                }
+                event = next();
+            }
+            return content.toString();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return eventType != END_DOCUMENT;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void require(int type, String namespaceURI, String localName) throws XMLStreamException {
+            if (type != eventType
+                    || (localName != null && !localName.equals(getLocalName()))
+                    || (namespaceURI != null && namespaceURI.length() > 0)) {
+                throw new XMLStreamException("require failed", this);
+            }
+        }
+
+        @Override
+        public Object getProperty(String name) {
+            return null;
+        }
+
+        @Override
+        public String getNamespaceURI(String prefix) {
+            return null;
+        }
+
+        @Override
+        public boolean isStartElement() {
+            return eventType == START_ELEMENT;
+        }
+
+        @Override
+        public boolean isEndElement() {
+            return eventType == END_ELEMENT;
+        }
+
+        @Override
+        public boolean isCharacters() {
+            return eventType == CHARACTERS;
+        }
+
+        @Override
+        public boolean isWhiteSpace() {
+            return eventType == CHARACTERS && text.trim().length() == 0;
+        }
+
+        @Override
+        public String getAttributeValue(String namespaceURI, String localName) {
+            for (int i = 0; i < attributes.length; i += 2) {
+                if (attributes[i].equals(localName)) {
+                    return attributes[i + 1];
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public int getAttributeCount() {
+            return attributes.length / 2;
+        }
+
+        @Override
+        public QName getAttributeName(int index) {
+            return new QName(attributes[index * 2]);
+        }
+
+        @Override
+        public String getAttributeNamespace(int index) {
+            return null;
+        }
+
+        @Override
+        public String getAttributeLocalName(int index) {
+            return attributes[index * 2];
+        }
+
+        @Override
+        public String getAttributePrefix(int index) {
+            return "";
+        }
+
+        @Override
+        public String getAttributeType(int index) {
+            return "CDATA";
+        }
+
+        @Override
+        public String getAttributeValue(int index) {
+            return attributes[index * 2 + 1];
+        }
+
+        @Override
+        public boolean isAttributeSpecified(int index) {
+            return true;
+        }
+
+        @Override
+        public int getNamespaceCount() {
+            return 0;
+        }
+
+        @Override
+        public String getNamespacePrefix(int index) {
+            return null;
+        }
+
+        @Override
+        public String getNamespaceURI(int index) {
+            return null;
+        }
+
+        @Override
+        public NamespaceContext getNamespaceContext() {
+            return new NamespaceContext() {
+                @Override
+                public String getNamespaceURI(String prefix) {
+                    return null;
+                }
+
+                @Override
+                public String getPrefix(String namespaceURI) {
+                    return null;
+                }
+
+                @Override
+                public Iterator getPrefixes(String namespaceURI) {
+                    return Collections.emptyList().iterator();
+                }
+            };
+        }
+
+        @Override
+        public int getEventType() {
+            return eventType;
+        }
+
+        @Override
+        public String getText() {
+            return text;
+        }
+
+        @Override
+        public char[] getTextCharacters() {
+            return (text == null) ? null : text.toCharArray();
+        }
+
+        @Override
+        public int getTextCharacters(int sourceStart, char[] target, int targetStart, int length) {
+            int n = Math.min(length, text.length() - sourceStart);
+            text.getChars(sourceStart, sourceStart + n, target, targetStart);
+            return n;
+        }
+
+        @Override
+        public int getTextStart() {
+            return 0;
+        }
+
+        @Override
+        public int getTextLength() {
+            return (text == null) ? 0 : text.length();
+        }
+
+        @Override
+        public String getEncoding() {
+            return null;
+        }
+
+        @Override
+        public boolean hasText() {
+            return eventType == CHARACTERS;
+        }
+
+        @Override
+        public Location getLocation() {
+            return this;
+        }
+
+        @Override
+        public QName getName() {
+            return new QName(getLocalName());
+        }
+
+        @Override
+        public String getLocalName() {
+            return localName;
+        }
+
+        @Override
+        public boolean hasName() {
+            return eventType == START_ELEMENT || eventType == END_ELEMENT;
+        }
+
+        @Override
+        public String getNamespaceURI() {
+            return null;
+        }
+
+        @Override
+        public String getPrefix() {
+            return null;
+        }
+
+        @Override
+        public String getVersion() {
+            return null;
+        }
+
+        @Override
+        public boolean isStandalone() {
+            return false;
+        }
+
+        @Override
+        public boolean standaloneSet() {
+            return false;
+        }
+
+        @Override
+        public String getCharacterEncodingScheme() {
+            return null;
+        }
+
+        @Override
+        public String getPITarget() {
+            return null;
+        }
+
+        @Override
+        public String getPIData() {
+            return null;
+        }
+
+        // Location
+
+        @Override
+        public int getLineNumber() {
+            return line;
+        }
+
+        @Override
+        public int getColumnNumber() {
+            return -1;
+        }
+
+        @Override
+        public int getCharacterOffset() {
+            return -1;
+        }
+
+        @Override
+        public String getPublicId() {
+            return null;
+        }
+
+        @Override
+        public String getSystemId() {
+            return systemId;
+        }
+    }
+}
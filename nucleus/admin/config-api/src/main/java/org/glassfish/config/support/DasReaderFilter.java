@@ -43,6 +43,7 @@ package org.glassfish.config.support;
 import java.net.*;
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 /**
  * @author Byron Nevins
@@ -53,6 +54,10 @@ class DasReaderFilter extends ServerReaderFilter {
         super(theDomainXml, theXif);
     }
 
+    DasReaderFilter(URL theDomainXml, XMLStreamReader reader) {
+        super(theDomainXml, reader);
+    }
+
     /**
      * DAS wants ALL elements so just return false!
      * @return
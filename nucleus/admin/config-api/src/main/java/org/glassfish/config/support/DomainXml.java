@@ -65,6 +65,7 @@ import javax.inject.Inject;
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLResolver;
 import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
@@ -113,6 +114,10 @@ public abstract class DomainXml implements Populator {
 
         ServiceLocatorUtilities.addOneConstant(habitat, parentClassLoader, null, ClassLoader.class);
 
+        if (env.isDas()) {
+            replayJournal();
+        }
+
         try {
             parseDomainXml(parser, getDomainXml(env), env.getInstanceName());
         } catch (IOException e) {
@@ -188,6 +193,44 @@ public abstract class DomainXml implements Populator {
         }
     }
 
+    /**
+     * Applies to <tt>domain.xml</tt> the changes which were recorded in the
+     * {@link ConfigurationJournal} but not saved to it yet.
+     */
+    protected void replayJournal() {
+        File journal = new File(env.getConfigDirPath(), ConfigurationJournal.FILE_NAME);
+        File domainXml = new File(env.getConfigDirPath(), ServerEnvironmentImpl.kConfigXMLFileName);
+        if (!journal.isFile() || journal.length() == 0 || !domainXml.exists()) {
+            return;
+        }
+        Lock lock = null;
+        try {
+            try {
+                lock = configAccess.accessWrite();
+            } catch (Exception e) {
+                // ignore
+            }
+            int count = ConfigurationJournal.replay(journal, domainXml);
+            LogRecord lr = new LogRecord(Level.INFO, journalReplayed);
+            lr.setParameters(new Object[] {count, journal});
+            lr.setLoggerName(getClass().getName());
+            EarlyLogHandler.earlyMessages.add(lr);
+        } catch (IOException e) {
+            File failed = new File(journal.getPath() + ".failed");
+            failed.delete();
+            journal.renameTo(failed);
+            LogRecord lr = new LogRecord(Level.SEVERE, journalReplayFailed);
+            lr.setParameters(new Object[] {journal, failed});
+            lr.setThrown(e);
+            lr.setLoggerName(getClass().getName());
+            EarlyLogHandler.earlyMessages.add(lr);
+        } finally {
+            if (lock != null) {
+                lock.unlock();
+            }
+        }
+    }
+
     /**
      * Determines the location of <tt>domain.xml</tt> to be parsed.
      */
@@ -240,7 +283,22 @@ public abstract class DomainXml implements Populator {
                 }
             });
 
-            if (env.getRuntimeType() == RuntimeType.DAS || env.getRuntimeType() == RuntimeType.EMBEDDED)
+            XMLStreamReader snapshot = null;
+            File snapshotFile = null;
+            if (env.isDas() && ConfigurationSnapshot.isEnabled() && "file".equals(domainXml.getProtocol())) {
+                snapshotFile = new File(env.getConfigDirPath(), ConfigurationSnapshot.FILE_NAME);
+                try {
+                    snapshot = ConfigurationSnapshot.read(new File(domainXml.toURI()), snapshotFile);
+                } catch (IOException e) {
+                    LogRecord lr = new LogRecord(Level.FINE, e.toString());
+                    lr.setLoggerName(getClass().getName());
+                    EarlyLogHandler.earlyMessages.add(lr);
+                }
+            }
+
+            if (snapshot != null)
+                xsr = new DasReaderFilter(domainXml, snapshot);
+            else if (env.getRuntimeType() == RuntimeType.DAS || env.getRuntimeType() == RuntimeType.EMBEDDED)
                 xsr = new DasReaderFilter(domainXml, xif);
             else if (env.getRuntimeType() == RuntimeType.INSTANCE)
                 xsr = new InstanceReaderFilter(env.getInstanceName(), domainXml, xif);
@@ -263,6 +321,16 @@ public abstract class DomainXml implements Populator {
                     lock.unlock();
                 }
             }
+            if (snapshot != null) {
+                LogRecord lr = new LogRecord(Level.FINE, configSnapshotLoaded);
+                lr.setParameters(new Object[] {snapshotFile});
+                lr.setLoggerName(getClass().getName());
+                EarlyLogHandler.earlyMessages.add(lr);
+            } else if (snapshotFile != null) {
+                // for the next start
+                writeSnapshot(new File(domainXml.toURI()), snapshotFile);
+            }
+
             String errorMessage = xsr.configWasFound();
 
             if (errorMessage != null) {
@@ -283,6 +351,28 @@ public abstract class DomainXml implements Populator {
 
     }
 
+    private void writeSnapshot(File domainXml, File snapshotFile) {
+        Lock lock = null;
+        try {
+            try {
+                lock = configAccess.accessRead();
+            } catch (Exception e) {
+                // ignore
+            }
+            ConfigurationSnapshot.write(domainXml, snapshotFile, xif);
+        } catch (Exception e) {
+            LogRecord lr = new LogRecord(Level.WARNING, configSnapshotNotWritten);
+            lr.setParameters(new Object[] {snapshotFile});
+            lr.setThrown(e);
+            lr.setLoggerName(getClass().getName());
+            EarlyLogHandler.earlyMessages.add(lr);
+        } finally {
+            if (lock != null) {
+                lock.unlock();
+            }
+        }
+    }
+
     protected abstract DomDocument getDomDocument();
 
     private final static LocalStringsImpl strings = new LocalStringsImpl(DomainXml.class);
@@ -87,7 +87,11 @@ public class GlassFishDocument extends DomDocument<GlassFishConfigBean> {
                             Dom domainRoot = doc.getRoot();
                             domainRoot.attribute("version", Version.getBuildVersion());
                         }
-                        pers.save(doc);
+                        if (pers instanceof ConfigurationChangesPersistence) {
+                            ((ConfigurationChangesPersistence) pers).save(doc, changes);
+                        } else {
+                            pers.save(doc);
+                        }
                     } catch (IOException e) {
                         logger.log(Level.SEVERE, 
                         	ConfigApiLoggerInfo.glassFishDocumentIOException,e);
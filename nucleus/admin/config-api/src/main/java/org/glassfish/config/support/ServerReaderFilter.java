@@ -66,11 +66,23 @@ abstract class ServerReaderFilter extends XMLStreamReaderFilter {
         }
     }
 
+    /**
+     * Reads the configuration from the given reader instead of the xml.
+     */
+    ServerReaderFilter(URL theDomainXml, XMLStreamReader reader) {
+        super(reader);
+        domainXml = theDomainXml;
+        xif = null;
+        stream = null;
+    }
+
     @Override
     final public void close() throws XMLStreamException {
         try {
             super.close();
-            stream.close();
+            if (stream != null) {
+                stream.close();
+            }
         }
         catch (Exception e) {
             throw new XMLStreamException(e);
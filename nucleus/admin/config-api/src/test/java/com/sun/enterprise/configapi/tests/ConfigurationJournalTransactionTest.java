@@ -0,0 +1,307 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package com.sun.enterprise.configapi.tests;
+
+import com.sun.enterprise.config.serverbeans.Domain;
+import com.sun.enterprise.config.serverbeans.Resource;
+import com.sun.enterprise.config.serverbeans.Resources;
+import com.sun.enterprise.config.serverbeans.Server;
+import com.sun.enterprise.config.serverbeans.Servers;
+import org.glassfish.config.support.ConfigurationJournal;
+import org.glassfish.grizzly.config.dom.Http;
+import org.glassfish.grizzly.config.dom.NetworkConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.jvnet.hk2.config.ConfigSupport;
+import org.jvnet.hk2.config.Dom;
+import org.jvnet.hk2.config.DomDocument;
+import org.jvnet.hk2.config.IndentingXMLStreamWriter;
+import org.jvnet.hk2.config.SingleConfigCode;
+import org.jvnet.hk2.config.TransactionFailure;
+import org.jvnet.hk2.config.TransactionListener;
+import org.jvnet.hk2.config.Transactions;
+import org.jvnet.hk2.config.UnprocessedChangeEvents;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyVetoException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Records real transactions in a {@link ConfigurationJournal}, and checks that
+ * replaying the journal on the saved document gives the same document as a
+ * full save.
+ */
+public class ConfigurationJournalTransactionTest extends ConfigApiTest {
+
+    public String getFileName() {
+        return "DomainTest";
+    }
+
+    private final List<Boolean> appended = Collections.synchronizedList(new ArrayList<Boolean>());
+    private final List<Exception> failures = Collections.synchronizedList(new ArrayList<Exception>());
+
+    private DomDocument document;
+    private Transactions transactions;
+    private TransactionListener listener;
+    private File dir;
+    private File domainXml;
+    private ConfigurationJournal journal;
+
+    @Before
+    public void setUp() throws Exception {
+        document = Dom.unwrap(getHabitat().<Domain>getService(Domain.class)).document;
+        dir = File.createTempFile("journal", "");
+        dir.delete();
+        dir.mkdirs();
+        domainXml = new File(dir, "domain.xml");
+        OutputStream os = new FileOutputStream(domainXml);
+        try {
+            os.write(save());
+        } finally {
+            os.close();
+        }
+        journal = new ConfigurationJournal(new File(dir, ConfigurationJournal.FILE_NAME));
+
+        listener = new TransactionListener() {
+            public void transactionCommited(List<PropertyChangeEvent> changes) {
+                try {
+                    appended.add(journal.append(document, changes));
+                } catch (Exception e) {
+                    failures.add(e);
+                }
+            }
+
+            public void unprocessedTransactedEvents(List<UnprocessedChangeEvents> changes) {
+            }
+        };
+        transactions = getHabitat().getService(Transactions.class);
+        transactions.addTransactionsListener(listener);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        journal.close();
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void replayMatchesFullSave() throws Exception {
+        final Resources resources = getHabitat().getService(Resources.class);
+        final Servers servers = getHabitat().getService(Servers.class);
+        NetworkConfig networkConfig = getHabitat().getService(NetworkConfig.class);
+        final Http http = networkConfig.getNetworkListeners().getNetworkListener().get(0)
+                .findHttpProtocol().getHttp();
+        final String maxConnections = http.getMaxConnections();
+
+        try {
+            // create resources, the first one in an empty list
+            ConfigSupport.apply(new SingleConfigCode<Resources>() {
+                public Object run(Resources param) throws PropertyVetoException, TransactionFailure {
+                    for (String name : new String[] {"jdbc/journal-a", "jdbc/journal-b"}) {
+                        JournalResource resource = param.createChild(JournalResource.class);
+                        resource.setJndiName(name);
+                        param.getResources().add(resource);
+                    }
+                    return null;
+                }
+            }, resources);
+
+            // add a server after the existing one
+            ConfigSupport.apply(new SingleConfigCode<Servers>() {
+                public Object run(Servers param) throws PropertyVetoException, TransactionFailure {
+                    Server server = param.createChild(Server.class);
+                    server.setName("journal-instance");
+                    server.setConfigRef("server-config");
+                    param.getServer().add(server);
+                    return null;
+                }
+            }, servers);
+
+            // set an attribute deep in a config
+            ConfigSupport.apply(new SingleConfigCode<Http>() {
+                public Object run(Http param) {
+                    param.setMaxConnections("500");
+                    return null;
+                }
+            }, http);
+
+            // rename elements, which must stay where they are
+            ConfigSupport.apply(new SingleConfigCode<Server>() {
+                public Object run(Server param) throws PropertyVetoException {
+                    param.setName("journal-renamed");
+                    return null;
+                }
+            }, servers.getServer("journal-instance"));
+            ConfigSupport.apply(new SingleConfigCode<JournalResource>() {
+                public Object run(JournalResource param) throws PropertyVetoException {
+                    param.setJndiName("jdbc/journal-c");
+                    return null;
+                }
+            }, getResource(resources, "jdbc/journal-a"));
+
+            // delete a resource
+            deleteResource(resources, "jdbc/journal-b");
+
+            transactions.waitForDrain();
+            assertEquals(Collections.<Exception>emptyList(), failures);
+            assertEquals(6, appended.size());
+            assertFalse(appended.contains(Boolean.FALSE));
+
+            assertEquals(6, ConfigurationJournal.replay(journal.getFile(), domainXml));
+            InputStream is = new ByteArrayInputStream(save());
+            Document expected;
+            try {
+                expected = parse(is);
+            } finally {
+                is.close();
+            }
+            Document actual = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(domainXml);
+            strip(actual);
+            assertTrue("expected\n" + toString(expected) + "\nbut was\n" + toString(actual),
+                    expected.isEqualNode(actual));
+        } finally {
+            transactions.removeTransactionsListener(listener);
+
+            // put back the domain as it was to avoid test collisions
+            deleteResource(resources, "jdbc/journal-c");
+            final Server server = servers.getServer("journal-renamed");
+            if (server != null) {
+                ConfigSupport.apply(new SingleConfigCode<Servers>() {
+                    public Object run(Servers param) {
+                        param.getServer().remove(server);
+                        return null;
+                    }
+                }, servers);
+            }
+            ConfigSupport.apply(new SingleConfigCode<Http>() {
+                public Object run(Http param) {
+                    param.setMaxConnections(maxConnections);
+                    return null;
+                }
+            }, http);
+        }
+    }
+
+    private static JournalResource getResource(Resources resources, String jndiName) {
+        for (Resource resource : resources.getResources()) {
+            if (resource instanceof JournalResource
+                    && jndiName.equals(((JournalResource) resource).getJndiName())) {
+                return (JournalResource) resource;
+            }
+        }
+        return null;
+    }
+
+    private static void deleteResource(Resources resources, String jndiName) throws TransactionFailure {
+        final JournalResource resource = getResource(resources, jndiName);
+        if (resource == null) {
+            return;
+        }
+        ConfigSupport.apply(new SingleConfigCode<Resources>() {
+            public Object run(Resources param) {
+                param.getResources().remove(resource);
+                return null;
+            }
+        }, resources);
+    }
+
+    private byte[] save() throws Exception {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(os);
+        document.writeTo(new IndentingXMLStreamWriter(writer));
+        writer.close();
+        return os.toByteArray();
+    }
+
+    private static Document parse(InputStream is) throws Exception {
+        Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(is);
+        strip(document);
+        return document;
+    }
+
+    /**
+     * Removes the indentation, which is not the same in the replayed
+     * elements.
+     */
+    private static void strip(Node node) {
+        Node child = node.getFirstChild();
+        while (child != null) {
+            Node next = child.getNextSibling();
+            if (child.getNodeType() == Node.TEXT_NODE && child.getNodeValue().trim().length() == 0) {
+                node.removeChild(child);
+            } else {
+                strip(child);
+            }
+            child = next;
+        }
+    }
+
+    private static String toString(Document document) throws Exception {
+        StringWriter writer = new StringWriter();
+        TransformerFactory.newInstance().newTransformer()
+                .transform(new DOMSource(document), new StreamResult(writer));
+        return writer.toString();
+    }
+}
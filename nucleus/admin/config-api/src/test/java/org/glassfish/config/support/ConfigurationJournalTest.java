@@ -0,0 +1,181 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.config.support;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.glassfish.config.support.ConfigurationJournal.Step;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import static org.junit.Assert.*;
+
+public class ConfigurationJournalTest {
+
+    private static final String DOMAIN =
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<domain log-root=\"${com.sun.aas.instanceRoot}/logs\">\n"
+            + "  <resources>\n"
+            + "    <jdbc-resource pool-name=\"DerbyPool\" jndi-name=\"jdbc/__default\"></jdbc-resource>\n"
+            + "    <jdbc-resource pool-name=\"DerbyPool\" jndi-name=\"jdbc/old\"></jdbc-resource>\n"
+            + "  </resources>\n"
+            + "  <configs>\n"
+            + "    <config name=\"server-config\"></config>\n"
+            + "  </configs>\n"
+            + "</domain>\n";
+
+    private File dir;
+    private File domainXml;
+    private ConfigurationJournal journal;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("journal", "");
+        dir.delete();
+        dir.mkdirs();
+        domainXml = new File(dir, "domain.xml");
+        write(domainXml, DOMAIN.getBytes("UTF-8"));
+        journal = new ConfigurationJournal(new File(dir, ConfigurationJournal.FILE_NAME));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        journal.close();
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void replayAppliesTransactionsInOrder() throws Exception {
+        Map<List<Step>, byte[]> tx = new LinkedHashMap<List<Step>, byte[]>();
+        tx.put(jdbcResource("jdbc/new"),
+                "<jdbc-resource pool-name=\"DerbyPool\" jndi-name=\"jdbc/new\"></jdbc-resource>".getBytes("UTF-8"));
+        tx.put(jdbcResource("jdbc/old"), null);
+        journal.append(tx);
+
+        tx = new LinkedHashMap<List<Step>, byte[]>();
+        tx.put(Arrays.asList(new Step("configs", null, null, 0), new Step("config", "name", "server-config", 0)),
+                "<config name=\"server-config\"><java-config debug-enabled=\"true\"></java-config></config>".getBytes("UTF-8"));
+        journal.append(tx);
+
+        assertEquals(2, ConfigurationJournal.replay(journal.getFile(), domainXml));
+        assertEquals(0, journal.getFile().length());
+        assertTrue(new File(dir, "domain.xml.bak").exists());
+
+        Document document = parse();
+        NodeList resources = document.getElementsByTagName("jdbc-resource");
+        assertEquals(2, resources.getLength());
+        assertEquals("jdbc/__default", ((Element) resources.item(0)).getAttribute("jndi-name"));
+        assertEquals("jdbc/new", ((Element) resources.item(1)).getAttribute("jndi-name"));
+        assertEquals("true", ((Element) document.getElementsByTagName("java-config").item(0))
+                .getAttribute("debug-enabled"));
+        assertEquals("${com.sun.aas.instanceRoot}/logs", document.getDocumentElement().getAttribute("log-root"));
+    }
+
+    @Test
+    public void partiallyWrittenTransactionIsIgnored() throws Exception {
+        Map<List<Step>, byte[]> tx = new LinkedHashMap<List<Step>, byte[]>();
+        tx.put(jdbcResource("jdbc/old"), null);
+        journal.append(tx);
+        long length = journal.length();
+
+        tx = new LinkedHashMap<List<Step>, byte[]>();
+        tx.put(jdbcResource("jdbc/__default"), null);
+        journal.append(tx);
+        journal.close();
+
+        // cut the last transaction
+        byte[] content = Files.readAllBytes(journal.getFile().toPath());
+        write(journal.getFile(), Arrays.copyOf(content, (int) length + 10));
+
+        assertEquals(1, ConfigurationJournal.replay(journal.getFile(), domainXml));
+        NodeList resources = parse().getElementsByTagName("jdbc-resource");
+        assertEquals(1, resources.getLength());
+        assertEquals("jdbc/__default", ((Element) resources.item(0)).getAttribute("jndi-name"));
+    }
+
+    @Test
+    public void truncateKeepsLaterTransactions() throws Exception {
+        Map<List<Step>, byte[]> tx = new LinkedHashMap<List<Step>, byte[]>();
+        tx.put(jdbcResource("jdbc/old"), null);
+        journal.append(tx);
+        long saved = journal.length();
+        journal.append(tx);
+        long total = journal.length();
+
+        journal.truncate(saved);
+        assertEquals(total - saved, journal.length());
+        journal.truncate(journal.length());
+        assertEquals(0, journal.length());
+        assertEquals(0, ConfigurationJournal.replay(journal.getFile(), domainXml));
+    }
+
+    private static List<Step> jdbcResource(String jndiName) {
+        return Arrays.asList(new Step("resources", null, null, 0),
+                new Step("jdbc-resource", "jndi-name", jndiName, 0));
+    }
+
+    private Document parse() throws Exception {
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(domainXml);
+    }
+
+    private static void write(File file, byte[] content) throws IOException {
+        OutputStream os = new FileOutputStream(file);
+        try {
+            os.write(content);
+        } finally {
+            os.close();
+        }
+    }
+}
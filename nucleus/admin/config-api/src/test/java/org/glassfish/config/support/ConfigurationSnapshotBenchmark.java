@@ -0,0 +1,103 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.config.support;
+
+import java.io.File;
+import java.io.IOException;
+import javax.xml.stream.XMLInputFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Compares the time to read a large domain.xml with the time to read its
+ * snapshot. Not part of the unit tests, run with the benchmark profile.
+ */
+public class ConfigurationSnapshotBenchmark {
+
+    private static final int RUNS = 10;
+
+    private File dir;
+    private File domainXml;
+    private File snapshot;
+    private final XMLInputFactory xif = XMLInputFactory.newInstance();
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("snapshot", "");
+        dir.delete();
+        dir.mkdirs();
+        domainXml = new File(dir, "domain.xml");
+        snapshot = new File(dir, ConfigurationSnapshot.FILE_NAME);
+        ConfigurationSnapshotTest.writeDomainXml(domainXml);
+    }
+
+    @After
+    public void tearDown() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void readSnapshot() throws Exception {
+        assertTrue(ConfigurationSnapshot.write(domainXml, snapshot, xif));
+
+        // warm up
+        ConfigurationSnapshotTest.trace(ConfigurationSnapshot.read(domainXml, snapshot));
+        ConfigurationSnapshotTest.trace(ConfigurationSnapshotTest.parse(xif, domainXml));
+
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            ConfigurationSnapshotTest.trace(ConfigurationSnapshotTest.parse(xif, domainXml));
+            long xmlTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            ConfigurationSnapshotTest.trace(ConfigurationSnapshot.read(domainXml, snapshot));
+            long snapshotTime = System.nanoTime() - start;
+
+            System.out.println("domain.xml of " + domainXml.length() + " bytes read in " + xmlTime / 1000
+                    + " us, snapshot of " + snapshot.length() + " bytes read in " + snapshotTime / 1000 + " us");
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.config.support;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static javax.xml.stream.XMLStreamConstants.*;
+import static org.junit.Assert.*;
+
+public class ConfigurationSnapshotTest {
+
+    private static final int RESOURCES = 5000;
+
+    private File dir;
+    private File domainXml;
+    private File snapshot;
+    private final XMLInputFactory xif = XMLInputFactory.newInstance();
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("snapshot", "");
+        dir.delete();
+        dir.mkdirs();
+        domainXml = new File(dir, "domain.xml");
+        snapshot = new File(dir, ConfigurationSnapshot.FILE_NAME);
+        writeDomainXml(domainXml);
+    }
+
+    /**
+     * Writes a domain.xml with many resources.
+     */
+    static void writeDomainXml(File domainXml) throws IOException {
+        Writer w = new OutputStreamWriter(new FileOutputStream(domainXml), "UTF-8");
+        try {
+            w.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            w.write("<!-- comment -->\n<domain log-root=\"${com.sun.aas.instanceRoot}/logs\">\n");
+            w.write("  <resources>\n");
+            for (int i = 0; i < RESOURCES; i++) {
+                w.write("    <jdbc-resource pool-name=\"pool" + (i % 10) + "\" jndi-name=\"jdbc/r" + i + "\">\n");
+                w.write("      <property name=\"p\" value=\"&lt;v&gt; \u00e9" + i + "\"></property>\n");
+                w.write("    </jdbc-resource>\n");
+            }
+            w.write("  </resources>\n  <configs>\n    <config name=\"server-config\">\n");
+            w.write("      <java-config><jvm-options>-Xmx512m</jvm-options><jvm-options> </jvm-options></java-config>\n");
+            w.write("    </config>\n  </configs>\n</domain>\n");
+        } finally {
+            w.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void snapshotHasTheEventsOfTheDocument() throws Exception {
+        assertNull(ConfigurationSnapshot.read(domainXml, snapshot));
+        assertTrue(ConfigurationSnapshot.write(domainXml, snapshot, xif));
+        assertEquals(trace(parse(xif, domainXml)), trace(ConfigurationSnapshot.read(domainXml, snapshot)));
+    }
+
+    @Test
+    public void elementTextIsKept() throws Exception {
+        assertTrue(ConfigurationSnapshot.write(domainXml, snapshot, xif));
+        XMLStreamReader reader = ConfigurationSnapshot.read(domainXml, snapshot);
+        List<String> texts = new ArrayList<String>();
+        while (reader.hasNext()) {
+            if (reader.next() == START_ELEMENT && reader.getLocalName().equals("jvm-options")) {
+                texts.add(reader.getElementText());
+                assertEquals("jvm-options", reader.getLocalName());
+            }
+        }
+        assertEquals(2, texts.size());
+        assertEquals("-Xmx512m", texts.get(0));
+        assertEquals(" ", texts.get(1));
+    }
+
+    @Test
+    public void changedDocumentIsNotRead() throws Exception {
+        assertTrue(ConfigurationSnapshot.write(domainXml, snapshot, xif));
+        assertTrue(domainXml.setLastModified(domainXml.lastModified() - 2000));
+        assertNull(ConfigurationSnapshot.read(domainXml, snapshot));
+    }
+
+    static XMLStreamReader parse(XMLInputFactory xif, File domainXml) throws Exception {
+        final InputStream is = new FileInputStream(domainXml);
+        return new javax.xml.stream.util.StreamReaderDelegate(xif.createXMLStreamReader(is)) {
+            @Override
+            public void close() throws XMLStreamException {
+                super.close();
+                try {
+                    is.close();
+                } catch (IOException e) {
+                    throw new XMLStreamException(e);
+                }
+            }
+        };
+    }
+
+    /**
+     * @return the elements, attributes and text of the document, the way
+     * the config parser reads them.
+     */
+    static List<String> trace(XMLStreamReader reader) throws XMLStreamException {
+        List<String> trace = new ArrayList<String>();
+        reader.nextTag();
+        trace(reader, trace);
+        reader.close();
+        return trace;
+    }
+
+    private static void trace(XMLStreamReader reader, List<String> trace) throws XMLStreamException {
+        StringBuilder element = new StringBuilder(reader.getLocalName());
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            element.append(' ').append(reader.getAttributeLocalName(i))
+                    .append("=").append(reader.getAttributeValue(i));
+        }
+        trace.add(element.toString());
+        if (reader.getLocalName().equals("jvm-options")) {
+            trace.add(reader.getElementText());
+            return;
+        }
+        while (reader.nextTag() == START_ELEMENT) {
+            trace(reader, trace);
+        }
+        trace.add("/" + reader.getLocalName());
+    }
+}
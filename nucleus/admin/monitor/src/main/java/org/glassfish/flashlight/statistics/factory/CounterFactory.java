@@ -47,6 +47,7 @@ package org.glassfish.flashlight.statistics.factory;
 
 import org.glassfish.flashlight.statistics.*;
 import org.glassfish.flashlight.statistics.impl.CounterImpl;
+import org.glassfish.flashlight.statistics.impl.StripedCounterImpl;
 
 /**
  *
@@ -66,4 +67,16 @@ public class CounterFactory {
         count.setEnabled(true);
         return count;
     }
+
+    /**
+     * Counter for hot probes, see StripedCounterImpl.
+     */
+    public static Counter createStripedCount(long... seed) {
+        Counter count = new StripedCounterImpl();
+        if (seed.length > 0) {
+            count.setCount(seed[0]);
+        }
+        count.setEnabled(true);
+        return count;
+    }
 }
@@ -45,7 +45,10 @@
 
 package org.glassfish.flashlight.statistics.factory;
 
+import org.glassfish.flashlight.statistics.HistogramTimeStats;
 import org.glassfish.flashlight.statistics.TimeStats;
+import org.glassfish.flashlight.statistics.impl.HistogramTimeStatsMillisImpl;
+import org.glassfish.flashlight.statistics.impl.HistogramTimeStatsNanosImpl;
 import org.glassfish.flashlight.statistics.impl.TimeStatsMillisImpl;
 import org.glassfish.flashlight.statistics.impl.TimeStatsNanosImpl;
 
@@ -62,4 +65,12 @@ public class TimeStatsFactory {
     public static TimeStats createTimeStatsNano (){
         return new TimeStatsNanosImpl ();
     }
+
+    public static HistogramTimeStats createHistogramTimeStatsMilli() {
+        return new HistogramTimeStatsMillisImpl();
+    }
+
+    public static HistogramTimeStats createHistogramTimeStatsNano() {
+        return new HistogramTimeStatsNanosImpl();
+    }
 }
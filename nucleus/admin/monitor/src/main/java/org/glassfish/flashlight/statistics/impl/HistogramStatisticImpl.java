@@ -0,0 +1,175 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.flashlight.statistics.impl;
+
+import java.util.Map;
+
+import org.glassfish.external.statistics.TimeStatistic;
+import org.glassfish.external.statistics.impl.StatisticImpl;
+
+/**
+ * TimeStatistic that also keeps the distribution of the recorded times, so
+ * that percentiles (p50, p99, p999) and the rate of the recorded events over
+ * the last minute can be reported on top of count/min/max/total.
+ * <p/>
+ * Recording a time never takes a lock: counts are kept in LongAdders and the
+ * distribution in a striped log-linear histogram. Stats providers can return
+ * it from their @ManagedAttribute methods, asadmin monitor and REST show all
+ * the values of getStaticAsMap().
+ */
+public class HistogramStatisticImpl extends StatisticImpl implements TimeStatistic {
+
+    private static final long DEFAULT_RATE_WINDOW_MILLIS = 60 * 1000L;
+
+    private final StripedHistogram histogram = new StripedHistogram();
+    private final SlidingWindowRate rate;
+    private volatile long lastSampleTime = -1L;
+
+    public HistogramStatisticImpl(String name, String unit, String desc) {
+        this(name, unit, desc, DEFAULT_RATE_WINDOW_MILLIS);
+    }
+
+    public HistogramStatisticImpl(String name, String unit, String desc, long rateWindowMillis) {
+        super(name, unit, desc);
+        rate = new SlidingWindowRate(rateWindowMillis);
+    }
+
+    /**
+     * Records a time, in the unit of this statistic.
+     */
+    public void record(long time) {
+        long now = System.currentTimeMillis();
+        histogram.record(time);
+        rate.record(now, 1);
+        lastSampleTime = now;
+    }
+
+    @Override
+    public long getCount() {
+        return histogram.getCount();
+    }
+
+    @Override
+    public long getMaxTime() {
+        return histogram.getMax();
+    }
+
+    @Override
+    public long getMinTime() {
+        return histogram.getMin();
+    }
+
+    @Override
+    public long getTotalTime() {
+        return histogram.getTotal();
+    }
+
+    /**
+     * @param percentile value between 0 and 100
+     * @return time below which the given percentage of the recorded times
+     * fall, within 1/16 of the actual value
+     */
+    public long getPercentile(double percentile) {
+        return histogram.getPercentile(percentile);
+    }
+
+    public long getP50() {
+        return getPercentile(50);
+    }
+
+    public long getP99() {
+        return getPercentile(99);
+    }
+
+    public long getP999() {
+        return getPercentile(99.9);
+    }
+
+    /**
+     * @return number of recorded times per second over the last minute
+     */
+    public double getRate() {
+        return rate.getRate(System.currentTimeMillis());
+    }
+
+    @Override
+    public long getLastSampleTime() {
+        return lastSampleTime;
+    }
+
+    @Override
+    public synchronized void reset() {
+        super.reset();
+        histogram.reset();
+        rate.reset();
+        lastSampleTime = -1L;
+    }
+
+    @Override
+    public Map getStaticAsMap() {
+        Map map = super.getStaticAsMap();
+        map.put("lastsampletime", getLastSampleTime());
+        map.put("count", getCount());
+        map.put("mintime", getMinTime());
+        map.put("maxtime", getMaxTime());
+        map.put("totaltime", getTotalTime());
+        map.put("p50", getP50());
+        map.put("p99", getP99());
+        map.put("p999", getP999());
+        map.put("rate", getRate());
+        return map;
+    }
+
+    @Override
+    public String toString() {
+        return super.toString() + NEWLINE
+                + "Count: " + getCount() + NEWLINE
+                + "MinTime: " + getMinTime() + NEWLINE
+                + "MaxTime: " + getMaxTime() + NEWLINE
+                + "TotalTime: " + getTotalTime() + NEWLINE
+                + "P50: " + getP50() + NEWLINE
+                + "P99: " + getP99() + NEWLINE
+                + "P999: " + getP999() + NEWLINE
+                + "Rate: " + getRate();
+    }
+
+    private static final String NEWLINE = System.getProperty("line.separator");
+}
@@ -0,0 +1,168 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.flashlight.statistics.impl;
+
+import org.glassfish.flashlight.datatree.impl.AbstractTreeNode;
+import org.glassfish.flashlight.statistics.HistogramTimeStats;
+
+/**
+ * Base class of the HistogramTimeStats, entry() and exit() are called
+ * concurrently by the probe listeners so the entry time is kept per thread
+ * and the measured time goes to a lock free HistogramStatisticImpl.
+ */
+public abstract class HistogramTimeStatsAbstractImpl extends AbstractTreeNode
+        implements HistogramTimeStats {
+
+    protected static final String NEWLINE = System.getProperty("line.separator");
+
+    private final HistogramStatisticImpl statistic;
+    private final ThreadLocal<long[]> entryTime = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[1];
+        }
+    };
+    protected volatile long startTime = 0;
+
+    protected HistogramTimeStatsAbstractImpl(String name, String unit, String description) {
+        statistic = new HistogramStatisticImpl(name, unit, description);
+        super.setName(name);
+        super.setEnabled(true);
+    }
+
+    abstract public void entry();
+
+    abstract public void exit();
+
+    protected void postEntry(long time) {
+        if (startTime == 0) {
+            startTime = System.currentTimeMillis();
+        }
+        entryTime.get()[0] = time;
+    }
+
+    protected void postExit(long time) {
+        statistic.record(time - entryTime.get()[0]);
+    }
+
+    public HistogramStatisticImpl getStatistic() {
+        return statistic;
+    }
+
+    @Override
+    public Object getValue() {
+        return statistic;
+    }
+
+    public double getTime() {
+        long count = statistic.getCount();
+        return count == 0 ? 0 : (double) statistic.getTotalTime() / count;
+    }
+
+    public void setTime(long time) {
+        statistic.record(time);
+    }
+
+    public void setReset(boolean reset) {
+        if (reset) {
+            statistic.reset();
+        }
+    }
+
+    public long getPercentile(double percentile) {
+        return statistic.getPercentile(percentile);
+    }
+
+    public double getRate() {
+        return statistic.getRate();
+    }
+
+    public long getMinimumTime() {
+        return statistic.getMinTime();
+    }
+
+    public long getMaximumTime() {
+        return statistic.getMaxTime();
+    }
+
+    public long getTimesCalled() {
+        return statistic.getCount();
+    }
+
+    public long getCount() {
+        return statistic.getCount();
+    }
+
+    public long getMaxTime() {
+        return statistic.getMaxTime();
+    }
+
+    public long getMinTime() {
+        return statistic.getMinTime();
+    }
+
+    public long getTotalTime() {
+        return statistic.getTotalTime();
+    }
+
+    public long getLastSampleTime() {
+        return statistic.getLastSampleTime();
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public String getUnit() {
+        return statistic.getUnit();
+    }
+
+    public String getDescription() {
+        return statistic.getDescription();
+    }
+
+    @Override
+    public String toString() {
+        return "Statistic " + getClass().getName() + NEWLINE
+                + "Name: " + getName() + NEWLINE
+                + statistic.toString();
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.flashlight.statistics.impl;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Number of events per second over a sliding window.<br>
+ * The window is made of SLOTS slots, each slot counts the events of a
+ * slotMillis period and is recycled once the window has moved past it, so
+ * that the rate is available at any time without a timer.
+ */
+class SlidingWindowRate {
+
+    private static final int SLOTS = 12;
+
+    private final long slotMillis;
+
+    // per slot: the period it counts for and the number of events in it
+    private final AtomicLongArray periods = new AtomicLongArray(SLOTS);
+    private final AtomicLongArray counts = new AtomicLongArray(SLOTS);
+
+    /**
+     * @param windowMillis length of the window, at least SLOTS milli-seconds
+     */
+    SlidingWindowRate(long windowMillis) {
+        this.slotMillis = Math.max(1, windowMillis / SLOTS);
+    }
+
+    void record(long nowMillis, long events) {
+        long period = nowMillis / slotMillis;
+        int slot = (int) (period % SLOTS);
+        long slotPeriod = periods.get(slot);
+        if (slotPeriod != period) {
+            if (slotPeriod > period || !periods.compareAndSet(slot, slotPeriod, period)) {
+                // another thread has just recycled the slot or the clock went
+                // back, count the events in the slot as it is
+                counts.addAndGet(slot, events);
+                return;
+            }
+            counts.set(slot, 0);
+        }
+        counts.addAndGet(slot, events);
+    }
+
+    /**
+     * @return events per second over the window ending now
+     */
+    double getRate(long nowMillis) {
+        long period = nowMillis / slotMillis;
+        long events = 0;
+        for (int i = 0; i < SLOTS; i++) {
+            long slotPeriod = periods.get(i);
+            if (slotPeriod > period - SLOTS && slotPeriod <= period) {
+                events += counts.get(i);
+            }
+        }
+        return events * 1000d / (slotMillis * SLOTS);
+    }
+
+    void reset() {
+        for (int i = 0; i < SLOTS; i++) {
+            periods.set(i, 0);
+            counts.set(i, 0);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.flashlight.statistics.impl;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import org.glassfish.flashlight.datatree.impl.AbstractTreeNode;
+import org.glassfish.flashlight.statistics.Counter;
+
+import org.jvnet.hk2.annotations.Service;
+import org.glassfish.hk2.api.PerLookup;
+
+/**
+ * Counter for the probes fired on every request: increments go to a
+ * LongAdder instead of a single AtomicLong, so the threads do not contend on
+ * the same cache line, and the rate of the increments over the last minute is
+ * kept as well. Reading the count is more expensive than with CounterImpl.
+ */
+@Service(name = "stripedCounter")
+@PerLookup
+public class StripedCounterImpl extends AbstractTreeNode implements Counter {
+
+    private static final long RATE_WINDOW_MILLIS = 60 * 1000L;
+
+    private final LongAdder count = new LongAdder();
+    private final SlidingWindowRate rate = new SlidingWindowRate(RATE_WINDOW_MILLIS);
+    private volatile long lastSampleTime = 0;
+    private final long startTime;
+    private String DESCRIPTION = "Striped Counter CountStatistic";
+    private String UNIT = java.lang.Long.class.toString();
+
+    public StripedCounterImpl() {
+        startTime = System.currentTimeMillis();
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public void setCount(long value) {
+        count.reset();
+        count.add(value);
+    }
+
+    public void increment() {
+        increment(1);
+    }
+
+    public void increment(long delta) {
+        long now = System.currentTimeMillis();
+        count.add(delta);
+        if (delta > 0) {
+            rate.record(now, delta);
+        }
+        if (lastSampleTime != now) {
+            lastSampleTime = now;
+        }
+    }
+
+    public void decrement() {
+        count.decrement();
+    }
+
+    /**
+     * @return increments per second over the last minute
+     */
+    public double getRate() {
+        return rate.getRate(System.currentTimeMillis());
+    }
+
+    public void setReset(boolean reset) {
+        if (reset) {
+            count.reset();
+            rate.reset();
+        }
+    }
+
+    @Override
+    public Object getValue() {
+        return getCount();
+    }
+
+    public String getUnit() {
+        return this.UNIT;
+    }
+
+    public String getDescription() {
+        return this.DESCRIPTION;
+    }
+
+    public long getStartTime() {
+        return this.startTime;
+    }
+
+    public long getLastSampleTime() {
+        return lastSampleTime;
+    }
+}
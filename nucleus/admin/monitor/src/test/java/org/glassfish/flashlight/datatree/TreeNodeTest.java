@@ -50,6 +50,7 @@ import java.util.logging.Level;
 import org.glassfish.flashlight.datatree.factory.TreeNodeFactory;
 import org.glassfish.flashlight.statistics.Average;
 import org.glassfish.flashlight.statistics.Counter;
+import org.glassfish.flashlight.statistics.HistogramTimeStats;
 import org.glassfish.flashlight.statistics.TimeStats;
 import org.glassfish.flashlight.statistics.factory.AverageFactory;
 import org.glassfish.flashlight.statistics.factory.CounterFactory;
@@ -321,6 +322,41 @@ public class TreeNodeTest {
         assertEquals (count, timeStat.getCount());
     }
 
+    @Test
+    public void testHistogramTimeStats (){
+        System.out.println ("test:histogramTimeStats");
+        HistogramTimeStats timeStat = TimeStatsFactory.createHistogramTimeStatsMilli();
+        for (long time = 1; time <= 1000; time++) {
+            timeStat.setTime (time);
+        }
+        assertEquals (1, timeStat.getMinimumTime());
+        assertEquals (1000, timeStat.getMaximumTime());
+        assertEquals (1000, timeStat.getCount());
+        assertEquals (500.5, timeStat.getTime(), 0.0);
+        // percentiles are within 1/16 of the exact value
+        assertEquals (500, timeStat.getPercentile(50), 500 / 16);
+        assertEquals (990, timeStat.getPercentile(99), 990 / 16);
+        assertEquals (1000, timeStat.getPercentile(100));
+        assertTrue (timeStat.getRate() > 0);
+        assertEquals (1000L, timeStat.getStatistic().getStaticAsMap().get("count"));
+
+        timeStat.setReset (true);
+        assertEquals (0, timeStat.getCount());
+        assertEquals (0, timeStat.getPercentile(99));
+    }
+
+    @Test
+    public void testStripedCounter (){
+        System.out.println ("test:stripedCounter");
+        Counter counter = CounterFactory.createStripedCount(10);
+        counter.increment();
+        counter.increment(5);
+        counter.decrement();
+        assertEquals (15, counter.getCount());
+        counter.setReset(true);
+        assertEquals (0, counter.getCount());
+    }
+
 
     // Setup Methods
 
@@ -65,10 +65,14 @@ import com.sun.enterprise.config.serverbeans.Config;
 import com.sun.enterprise.config.serverbeans.Domain;
 import com.sun.enterprise.config.serverbeans.Server;
 import com.sun.enterprise.config.serverbeans.SecurityService;
+import com.sun.enterprise.util.cluster.SyncDelta;
+import com.sun.enterprise.util.cluster.SyncManifest;
 import com.sun.enterprise.util.cluster.SyncRequest;
+import com.sun.enterprise.util.cluster.SyncRequest.FileSignature;
 import com.sun.enterprise.util.cluster.SyncRequest.ModTime;
 import com.sun.enterprise.security.auth.realm.file.FileRealm;
 import com.sun.enterprise.util.LocalStringManagerImpl;
+import com.sun.enterprise.v3.server.DomainXmlPersistence;
 import org.glassfish.deployment.versioning.VersioningUtils;
 import org.glassfish.hk2.api.PerLookup;
 import org.glassfish.hk2.api.PostConstruct;
@@ -81,6 +85,11 @@ import org.glassfish.hk2.api.PostConstruct;
  * META-INF/config-files in this module, or in config/config-files
  * in the domain directory.
  *
+ * When the client can patch the files of the applications, a changed
+ * application is sent as a manifest of its files, and a second request
+ * for the "applications-delta" directory asks for block deltas of the
+ * files that differ on the client.
+ *
  * @author Bill Shannon
  */
 @Service
@@ -96,8 +105,27 @@ public final class ServerSynchronizer implements PostConstruct {
     @Inject @Optional
     private Applications applications;
 
+    @Inject @Optional
+    private DomainXmlPersistence domainXmlPersistence;
+
     private static boolean syncArchive = false;
 
+    // the most delta bytes buffered for a request, beyond which whole files
+    // are sent
+    private static final long MAX_DELTA_BYTES = 32 * 1024 * 1024;
+
+    // the manifests of the applications, as computing them reads every file
+    private static final int MAX_MANIFESTS = 64;
+    private static final Map<String, SyncManifest> manifests =
+        Collections.synchronizedMap(
+            new LinkedHashMap<String, SyncManifest>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(
+                                    Map.Entry<String, SyncManifest> eldest) {
+                    return size() > MAX_MANIFESTS;
+                }
+            });
+
     private URI domainRootUri;  // URI of the domain's root directory
 
     private Logger logger;
@@ -129,6 +157,8 @@ public final class ServerSynchronizer implements PostConstruct {
                 synchronizeConfig(payload, server, sr);
             else if (sr.dir.equals("applications"))
                 synchronizeApplications(payload, server, sr);
+            else if (sr.dir.equals("applications-delta"))
+                synchronizeApplicationDeltas(payload, server, sr);
             else if (sr.dir.equals("lib"))
                 synchronizeLib(payload, server, sr);
             else if (sr.dir.equals("docroot"))
@@ -164,6 +194,14 @@ public final class ServerSynchronizer implements PostConstruct {
     private void synchronizeConfig(Payload.Outbound payload, Server server,
                                     SyncRequest sr) throws URISyntaxException {
         logger.finer("ServerSynchronizer: synchronize config");
+        // save the changes which are only journaled so far
+        if (domainXmlPersistence != null) {
+            try {
+                domainXmlPersistence.flush();
+            } catch (IOException ex) {
+                logger.log(Level.WARNING, "ServerSynchronizer: cannot save domain.xml", ex);
+            }
+        }
         // find the domain.xml entry
         ModTime domainXmlMT = null;
         for (ModTime mt : sr.files) {
@@ -356,7 +394,7 @@ public final class ServerSynchronizer implements PostConstruct {
 
         for (ModTime mt : sr.files) {
             if (apps.containsKey(mt.name)) {
-                syncApp(apps.get(mt.name), appsDir, mt, payload);
+                syncApp(apps.get(mt.name), appsDir, mt, sr.delta, payload);
                 // if client has app, remove it from set
                 apps.remove(mt.name);
             } else
@@ -366,7 +404,7 @@ public final class ServerSynchronizer implements PostConstruct {
         // now do all the remaining apps the client doesn't have
         for (Map.Entry<String, Application> e : apps.entrySet())
             syncApp(e.getValue(), appsDir, new ModTime(e.getKey(), 0),
-                                                        payload);
+                                                        false, payload);
     }
 
     /**
@@ -434,10 +472,11 @@ public final class ServerSynchronizer implements PostConstruct {
      * Synchronize the application named by mt.name in the
      * base directory.  If the application is out of date,
      * add the application files to the payload, including
-     * the generated files.
+     * the generated files.  If the client has the application and
+     * can patch it, only add the manifest of the application files.
      */
     private boolean syncApp(Application app, File base, ModTime mt,
-                            Payload.Outbound payload)
+                            boolean delta, Payload.Outbound payload)
                             throws URISyntaxException {
         if (logger.isLoggable(Level.FINER))
             logger.finer("ServerSynchronizer: sync app " + mt.name);
@@ -465,6 +504,15 @@ public final class ServerSynchronizer implements PostConstruct {
                 if (mt.time != 0 && appDir.lastModified() == mt.time)
                     return false;     // success, nothing to do
 
+                if (delta && mt.time != 0) {
+                    if (logger.isLoggable(Level.FINE))
+                        logger.fine("ServerSynchronizer: sending manifest " +
+                                "for application " + mt.name +
+                                " because it was out of date");
+                    attachAppManifest(mt.name, payload);
+                    return true;
+                }
+
                 /*
                  * Recursively attach the application directory and
                  * all the generated directories.  The client will
@@ -479,19 +527,10 @@ public final class ServerSynchronizer implements PostConstruct {
                 attachAppDir(appDir, payload);
             }
 
-            // in either case, we attach the generated artifacts
-            File gdir;
-            gdir = env.getApplicationCompileJspPath();
-            attachAppDir(fileOf(gdir, mt.name), payload);
-            gdir = env.getApplicationGeneratedXMLPath();
-            attachAppDir(fileOf(gdir, mt.name), payload);
-            gdir = env.getApplicationEJBStubPath();
-            attachAppDir(fileOf(gdir, mt.name), payload);
-            gdir = new File(env.getApplicationStubPath(), "policy");
-            attachAppDir(fileOf(gdir, mt.name), payload);
+            // in either case, we attach the generated artifacts,
             // and also the altdd dir
-            gdir = env.getApplicationAltDDPath();
-            attachAppDir(fileOf(gdir, mt.name), payload);
+            for (File gdir : getGeneratedDirs(mt.name))
+                attachAppDir(gdir, payload);
 
         } catch (IOException ioex) {
             if (logger.isLoggable(Level.FINE)) {
@@ -503,6 +542,149 @@ public final class ServerSynchronizer implements PostConstruct {
         return true;
     }
 
+    /**
+     * Return the directories of the generated artifacts of the application.
+     */
+    private List<File> getGeneratedDirs(String name)
+                                throws URISyntaxException {
+        List<File> dirs = new ArrayList<File>();
+        dirs.add(fileOf(env.getApplicationCompileJspPath(), name));
+        dirs.add(fileOf(env.getApplicationGeneratedXMLPath(), name));
+        dirs.add(fileOf(env.getApplicationEJBStubPath(), name));
+        dirs.add(fileOf(new File(env.getApplicationStubPath(), "policy"), name));
+        dirs.add(fileOf(env.getApplicationAltDDPath(), name));
+        return dirs;
+    }
+
+    /**
+     * Attach the manifest of the application directory and the generated
+     * directories to the payload.  The client asks for the files it
+     * doesn't have in a second request.
+     */
+    private void attachAppManifest(String name, Payload.Outbound payload)
+                                throws IOException, URISyntaxException {
+        File appDir = fileOf(env.getApplicationRepositoryPath(), name);
+        long time = appDir.lastModified();
+        SyncManifest manifest = manifests.get(name);
+        if (manifest == null || manifest.time != time) {
+            manifest = new SyncManifest();
+            manifest.application = name;
+            manifest.time = time;
+            manifest.addRoot(env.getDomainRoot(), appDir);
+            for (File gdir : getGeneratedDirs(name))
+                manifest.addRoot(env.getDomainRoot(), gdir);
+            manifests.put(name, manifest);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        manifest.write(bytes);
+        File file = new File(new File(env.getApplicationRepositoryPath(),
+                                SyncManifest.DIRECTORY), name + ".xml");
+        attachBytes(file, time, bytes.toByteArray(), payload);
+    }
+
+    /**
+     * Synchronize the files of the applications that differ on the
+     * client, given their signatures.  A delta of each file is sent,
+     * unless it would be too large, or the client doesn't have the
+     * file, in which case the whole file is sent.
+     */
+    private void synchronizeApplicationDeltas(Payload.Outbound payload,
+                                    Server server, SyncRequest sr)
+                                    throws URISyntaxException {
+        // only the files of the applications of the server can be asked for
+        List<String> roots = new ArrayList<String>();
+        try {
+            for (String name : getApps(server).keySet()) {
+                roots.add(fileOf(env.getApplicationRepositoryPath(), name)
+                                                        .getCanonicalPath());
+                for (File gdir : getGeneratedDirs(name))
+                    roots.add(gdir.getCanonicalPath());
+            }
+        } catch (IOException ioex) {
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("ServerSynchronizer: IOException syncing deltas");
+                logger.fine(ioex.toString());
+            }
+            return;
+        }
+
+        File deltaDir = new File(env.getApplicationRepositoryPath(),
+                                                    SyncManifest.DIRECTORY);
+        long budget = MAX_DELTA_BYTES;
+        long sent = 0;
+        long saved = 0;
+        for (FileSignature sig : sr.signatures) {
+            File f = new File(env.getDomainRoot(), sig.name);
+            try {
+                if (!f.isFile() || !isUnder(f.getCanonicalPath(), roots)) {
+                    if (logger.isLoggable(Level.FINE))
+                        logger.fine("ServerSynchronizer: not sending file " +
+                                                                        f);
+                    continue;
+                }
+                byte[] delta = null;
+                if (sig.sums != null && sig.sums.length > 0)
+                    delta = SyncDelta.delta(f, sig,
+                                    Math.min(budget, f.length() / 2));
+                if (delta == null) {
+                    if (logger.isLoggable(Level.FINER))
+                        logger.finer("ServerSynchronizer: sending file " + f);
+                    payload.attachFile("application/octet-stream",
+                        domainRootUri.relativize(f.toURI()),
+                        "configChange", f);
+                    sent += f.length();
+                } else {
+                    if (logger.isLoggable(Level.FINER))
+                        logger.finer("ServerSynchronizer: sending delta of " +
+                                f + ", " + delta.length + " bytes");
+                    attachBytes(new File(deltaDir, sig.name + ".delta"),
+                                    f.lastModified(), delta, payload);
+                    budget -= delta.length;
+                    sent += delta.length;
+                    saved += f.length() - delta.length;
+                }
+            } catch (IOException ioex) {
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.fine("ServerSynchronizer: IOException syncing " +
+                                                                        f);
+                    logger.fine(ioex.toString());
+                }
+            }
+        }
+        if (logger.isLoggable(Level.FINE))
+            logger.fine("ServerSynchronizer: sent " + sent + " bytes for " +
+                    sr.signatures.size() + " application files, saved " +
+                    saved + " bytes with deltas");
+    }
+
+    /**
+     * Return true if the path is that of one of the directories, or of
+     * a file under one of them.
+     */
+    private static boolean isUnder(String path, List<String> dirs) {
+        for (String dir : dirs) {
+            if (path.equals(dir) || path.startsWith(dir + File.separator))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Attach the content to the payload, to be saved by the client as
+     * the given file.
+     */
+    private void attachBytes(File file, long time, byte[] content,
+                                Payload.Outbound payload) throws IOException {
+        Properties props = new Properties();
+        props.setProperty("data-request-type", "file-xfer");
+        props.setProperty("data-request-name", "configChange");
+        props.setProperty("data-request-is-recursive", "false");
+        props.setProperty("last-modified", Long.toString(time));
+        payload.addPart("application/octet-stream",
+            domainRootUri.relativize(file.toURI()).getRawPath(), props,
+            new ByteArrayInputStream(content));
+    }
+
     /**
      * Synchronize the lib directory.
      */
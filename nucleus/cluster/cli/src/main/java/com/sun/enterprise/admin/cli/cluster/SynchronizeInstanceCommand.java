@@ -54,6 +54,8 @@ import org.jvnet.hk2.annotations.Service;
 import org.glassfish.api.Param;
 import org.glassfish.api.admin.*;
 
+import com.sun.enterprise.util.cluster.SyncDelta;
+import com.sun.enterprise.util.cluster.SyncManifest;
 import com.sun.enterprise.util.cluster.SyncRequest;
 import com.sun.enterprise.util.io.FileUtils;
 import org.glassfish.common.util.admin.AuthTokenManager;
@@ -80,6 +82,13 @@ public class SynchronizeInstanceCommand extends LocalInstanceCommand {
     // the name of the sync state file, relative to the instance directory
     private static final String SYNC_STATE_FILE = ".syncstate";
 
+    /*
+     * Whether to patch the changed applications with block deltas of
+     * their files instead of receiving the whole applications.
+     */
+    private static final boolean syncDelta = Boolean.parseBoolean(
+            System.getProperty("org.glassfish.sync.delta", "true"));
+
     @Override
     protected void validate() throws CommandException {
         if (ok(instanceName0))
@@ -220,6 +229,7 @@ public class SynchronizeInstanceCommand extends LocalInstanceCommand {
              * Now synchronize the applications.
              */
             sr = getModTimes("applications", SyncLevel.DIRECTORY);
+            sr.delta = syncDelta;
             synchronizeFiles(sr);
 
             /*
@@ -248,6 +258,15 @@ public class SynchronizeInstanceCommand extends LocalInstanceCommand {
 
             FileUtils.whack(archiveDir);
 
+            /*
+             * Did we get manifests of changed applications instead
+             * of their files?  If so, patch the applications.
+             */
+            File deltaDir = new File(appsDir, SyncManifest.DIRECTORY);
+            if (deltaDir.isDirectory())
+                synchronizeApplicationDeltas(deltaDir);
+            FileUtils.whack(deltaDir);
+
             /*
              * Next, the libraries.
              * We assume there's usually very few files in the
@@ -442,6 +461,99 @@ public class SynchronizeInstanceCommand extends LocalInstanceCommand {
         }
     }
 
+    /**
+     * Patch the applications described by the manifests in the delta
+     * directory.  Ask the server for the files that differ from those of
+     * the manifests, as deltas of the files we have, apply the deltas,
+     * and remove the files that are no longer part of the applications.
+     */
+    private void synchronizeApplicationDeltas(File deltaDir)
+                                throws CommandException, ConnectException {
+        try {
+            List<SyncManifest> manifests = new ArrayList<SyncManifest>();
+            for (File f : FileUtils.listFiles(deltaDir)) {
+                if (f.isFile() && f.getName().endsWith(".xml"))
+                    manifests.add(SyncManifest.read(f));
+            }
+
+            SyncRequest sr = new SyncRequest();
+            sr.instance = instanceName;
+            sr.dir = "applications-delta";
+            for (SyncManifest manifest : manifests) {
+                for (SyncManifest.Entry e : manifest.entries) {
+                    File f = new File(instanceDir, e.name);
+                    if (e.digest == null || e.matches(f))
+                        continue;
+                    if (f.isFile())
+                        sr.signatures.add(SyncDelta.signature(e.name, f));
+                    else {
+                        FileUtils.whack(f);
+                        sr.signatures.add(
+                                    new SyncRequest.FileSignature(e.name));
+                    }
+                }
+            }
+            if (logger.isLoggable(Level.FINER))
+                logger.finer("Files to patch: " + sr.signatures.size());
+            if (!sr.signatures.isEmpty())
+                synchronizeFiles(sr);
+
+            for (SyncManifest manifest : manifests) {
+                Set<String> names = new HashSet<String>();
+                for (SyncManifest.Entry e : manifest.entries) {
+                    names.add(e.name);
+                    File f = new File(instanceDir, e.name);
+                    File delta = new File(deltaDir, e.name + ".delta");
+                    if (e.digest == null) {
+                        if (!f.isDirectory() && !f.mkdirs())
+                            logger.warning(
+                                Strings.get("Sync.cantCreateDirectory", f));
+                    } else if (delta.isFile()) {
+                        if (logger.isLoggable(Level.FINER))
+                            logger.finer("PATCH " + f);
+                        SyncDelta.patch(f, delta);
+                        if (!f.setLastModified(delta.lastModified()))
+                            logger.warning(
+                                Strings.get("Sync.cantSetModTime", f));
+                    }
+                }
+                for (String root : manifest.roots)
+                    removeStaleFiles(new File(instanceDir, root), root, names);
+                File appDir = new File(new File(instanceDir, "applications"),
+                                                    manifest.application);
+                if (appDir.isDirectory() &&
+                        !appDir.setLastModified(manifest.time))
+                    logger.warning(Strings.get("Sync.cantSetModTime", appDir));
+            }
+        } catch (IOException ex) {
+            if (logger.isLoggable(Level.FINER))
+                logger.finer("Got exception: " + ex);
+            throw new CommandException(
+                Strings.get("Sync.dirFailed", "applications", ex.toString()),
+                ex);
+        }
+    }
+
+    /**
+     * Remove the file, or the files under the directory, whose names
+     * are not in the set.
+     */
+    private static void removeStaleFiles(File f, String name,
+                                Set<String> names) {
+        if (!f.exists())
+            return;
+        if (!names.contains(name)) {
+            if (logger.isLoggable(Level.FINER))
+                logger.finer("REMOVE " + f);
+            FileUtils.whack(f);
+            return;
+        }
+        if (f.isDirectory()) {
+            for (File c : FileUtils.listFiles(f))
+                removeStaleFiles(c, name + "/" + c.getName(), names);
+        }
+    }
+
     /**
      * Remove the named subdirectory of the instance directory.
      */
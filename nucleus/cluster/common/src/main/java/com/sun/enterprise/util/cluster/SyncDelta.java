@@ -0,0 +1,453 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package com.sun.enterprise.util.cluster;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.sun.enterprise.util.cluster.SyncRequest.FileSignature;
+
+/**
+ * Block deltas of the files synchronized to the server instances, in the
+ * manner of rsync.  The instance sends the checksums of the blocks of its
+ * copy of a file, and the DAS answers with a delta made of references to
+ * the blocks the instance already has, found at any offset of the new file
+ * with a rolling checksum, and of the bytes it doesn't have.
+ * <p>
+ * A delta ends with the length and the SHA-1 digest of the file it
+ * rebuilds, so that the result is verified before it replaces the file.
+ */
+public final class SyncDelta {
+
+    private static final int MAGIC = 0x47464431;   // "GFD1"
+
+    private static final int END = 0;
+    private static final int COPY = 1;
+    private static final int LITERAL = 2;
+
+    private static final int MIN_BLOCK_SIZE = 2048;
+    private static final int MAX_BLOCK_SIZE = 64 * 1024;
+
+    // the weak checksum, then the beginning of the MD5 digest of a block
+    private static final int STRONG_SUM_LENGTH = 8;
+    private static final int SUM_LENGTH = 4 + STRONG_SUM_LENGTH;
+
+    // the longest run of literal bytes buffered before it is written
+    private static final int MAX_LITERAL = 64 * 1024;
+
+    private SyncDelta() {
+    }
+
+    /**
+     * Return the signature of the given file, sent by the instance to
+     * get a delta of the DAS copy of the file.  The name is that of the
+     * file relative to the domain directory.
+     */
+    public static FileSignature signature(String name, File file)
+                                throws IOException {
+        FileSignature sig = new FileSignature(name);
+        sig.length = file.length();
+        sig.blockSize = blockSize(sig.length);
+        int blocks = (int)((sig.length + sig.blockSize - 1) / sig.blockSize);
+        byte[] sums = new byte[blocks * SUM_LENGTH];
+        byte[] block = new byte[sig.blockSize];
+        MessageDigest md5 = getDigest("MD5");
+        InputStream in = new FileInputStream(file);
+        try {
+            for (int i = 0; i < blocks; i++) {
+                int n = readFully(in, block, block.length);
+                putInt(sums, i * SUM_LENGTH, weakSum(block, 0, n));
+                md5.update(block, 0, n);
+                System.arraycopy(md5.digest(), 0,
+                                sums, i * SUM_LENGTH + 4, STRONG_SUM_LENGTH);
+            }
+        } finally {
+            in.close();
+        }
+        sig.sums = sums;
+        return sig;
+    }
+
+    /**
+     * Return the delta that turns the file described by the signature
+     * into the given file, or null if the delta would be longer than
+     * the limit, in which case the whole file is better sent instead.
+     */
+    public static byte[] delta(File file, FileSignature sig, long limit)
+                                throws IOException {
+        int bs = sig.blockSize;
+        int blocks = (sig.sums == null || bs <= 0) ?
+                                        0 : sig.sums.length / SUM_LENGTH;
+        int lastLength =
+                    blocks == 0 ? 0 : (int)(sig.length - (long)(blocks - 1) * bs);
+        if (bs <= 0)
+            bs = blockSize(file.length());
+
+        // chain the blocks with the same weak checksum, in increasing order
+        Map<Integer, Integer> first = new HashMap<Integer, Integer>();
+        int[] next = new int[blocks];
+        for (int i = blocks - 1; i >= 0; i--) {
+            Integer j = first.put(getInt(sig.sums, i * SUM_LENGTH), i);
+            next[i] = (j == null) ? -1 : j;
+        }
+
+        Encoder encoder = new Encoder(bs);
+        MessageDigest sha1 = getDigest("SHA-1");
+        MessageDigest md5 = getDigest("MD5");
+        byte[] buf = new byte[MAX_LITERAL + 2 * bs];
+        int lit = 0;    // start of the bytes not sent yet
+        int pos = 0;    // start of the window
+        int end = 0;    // end of the bytes read
+        long length = 0;
+        boolean eof = false;
+        boolean rolling = false;
+        int a = 0, b = 0;
+        InputStream in = new FileInputStream(file);
+        try {
+            for (;;) {
+                if (end - pos < bs && !eof) {
+                    System.arraycopy(buf, lit, buf, 0, end - lit);
+                    pos -= lit;
+                    end -= lit;
+                    lit = 0;
+                    int n = readFully(in, buf, end, buf.length - end);
+                    sha1.update(buf, end, n);
+                    length += n;
+                    end += n;
+                    eof = end < buf.length;
+                    continue;
+                }
+                if (end - pos < bs)
+                    break;
+                if (!rolling) {
+                    int sum = weakSum(buf, pos, bs);
+                    a = sum & 0xffff;
+                    b = sum >>> 16;
+                    rolling = true;
+                }
+                int match = find(first.get(((b & 0xffff) << 16) | (a & 0xffff)),
+                        next, sig.sums, blocks, lastLength, md5, buf, pos, bs);
+                if (match >= 0) {
+                    encoder.literal(buf, lit, pos - lit);
+                    encoder.copy(match);
+                    pos += bs;
+                    lit = pos;
+                    rolling = false;
+                } else {
+                    if (pos - lit >= MAX_LITERAL) {
+                        encoder.literal(buf, lit, pos - lit);
+                        lit = pos;
+                    }
+                    if (pos + bs < end) {
+                        int out = buf[pos] & 0xff;
+                        a += (buf[pos + bs] & 0xff) - out;
+                        b += a - bs * out;
+                    } else
+                        rolling = false;
+                    pos++;
+                }
+                if (encoder.size() > limit)
+                    return null;
+            }
+        } finally {
+            in.close();
+        }
+
+        // the last block of the instance may be shorter than the others
+        if (lastLength > 0 && lastLength < bs && end - pos == lastLength &&
+                find(first.get(weakSum(buf, pos, lastLength)), next, sig.sums,
+                    blocks, -1, md5, buf, pos, lastLength) == blocks - 1) {
+            encoder.literal(buf, lit, pos - lit);
+            encoder.copy(blocks - 1);
+            lit = end;
+        }
+        encoder.literal(buf, lit, end - lit);
+        byte[] delta = encoder.finish(length, sha1.digest());
+        return delta.length > limit ? null : delta;
+    }
+
+    /**
+     * Patch the given file with the delta, through a temporary file
+     * that replaces the file once its content is verified.
+     */
+    public static void patch(File file, File delta) throws IOException {
+        File temp = File.createTempFile(".sync", null, file.getParentFile());
+        boolean done = false;
+        try {
+            InputStream in = new FileInputStream(delta);
+            try {
+                apply(file, in, temp);
+            } finally {
+                in.close();
+            }
+            Files.move(temp.toPath(), file.toPath(),
+                                    StandardCopyOption.REPLACE_EXISTING);
+            done = true;
+        } finally {
+            if (!done)
+                temp.delete();
+        }
+    }
+
+    /**
+     * Write to the target file the content rebuilt from the base file
+     * and the delta.
+     */
+    public static void apply(File base, InputStream delta, File target)
+                                throws IOException {
+        DataInputStream in =
+                    new DataInputStream(new BufferedInputStream(delta));
+        if (in.readInt() != MAGIC)
+            throw new IOException("Not a synchronization delta");
+        long bs = in.readInt();
+        MessageDigest sha1 = getDigest("SHA-1");
+        byte[] buf = new byte[MAX_LITERAL];
+        long length = 0;
+        RandomAccessFile raf = new RandomAccessFile(base, "r");
+        OutputStream out =
+                new BufferedOutputStream(new FileOutputStream(target));
+        try {
+            for (int op = in.readByte(); op != END; op = in.readByte()) {
+                long n;
+                if (op == COPY) {
+                    long offset = in.readInt() * bs;
+                    n = Math.min(in.readInt() * bs, raf.length() - offset);
+                    if (n <= 0)
+                        throw new IOException("Delta doesn't match " + base);
+                    raf.seek(offset);
+                } else if (op == LITERAL)
+                    n = in.readInt();
+                else
+                    throw new IOException("Corrupted synchronization delta");
+                for (long left = n; left > 0; ) {
+                    int len = (int)Math.min(left, buf.length);
+                    if (op == COPY)
+                        raf.readFully(buf, 0, len);
+                    else
+                        in.readFully(buf, 0, len);
+                    sha1.update(buf, 0, len);
+                    out.write(buf, 0, len);
+                    left -= len;
+                }
+                length += n;
+            }
+            long expectedLength = in.readLong();
+            byte[] expected = new byte[sha1.getDigestLength()];
+            in.readFully(expected);
+            if (length != expectedLength ||
+                    !MessageDigest.isEqual(expected, sha1.digest()))
+                throw new IOException("Patched file doesn't match: " + base);
+        } finally {
+            raf.close();
+            out.close();
+        }
+    }
+
+    /**
+     * Return the SHA-1 digest of the file, in hexadecimal.
+     */
+    public static String digest(File file) throws IOException {
+        MessageDigest sha1 = getDigest("SHA-1");
+        byte[] buf = new byte[MAX_LITERAL];
+        InputStream in = new FileInputStream(file);
+        try {
+            int n;
+            while ((n = in.read(buf)) >= 0)
+                sha1.update(buf, 0, n);
+        } finally {
+            in.close();
+        }
+        StringBuilder sb = new StringBuilder();
+        for (byte d : sha1.digest())
+            sb.append(Character.forDigit((d >> 4) & 0xf, 16))
+              .append(Character.forDigit(d & 0xf, 16));
+        return sb.toString();
+    }
+
+    /**
+     * The block size for a file of the given length, about the
+     * square root of the length as rsync does.
+     */
+    static int blockSize(long length) {
+        int size = (int)Math.sqrt(length) & ~1023;
+        return Math.max(MIN_BLOCK_SIZE, Math.min(MAX_BLOCK_SIZE, size));
+    }
+
+    /**
+     * Return the index of the block of the given chain whose strong
+     * checksum is that of the window, or -1.  The last block is only
+     * a candidate when it is as long as the others.
+     */
+    private static int find(Integer chain, int[] next, byte[] sums,
+            int blocks, int lastLength, MessageDigest md5,
+            byte[] buf, int pos, int len) {
+        if (chain == null)
+            return -1;
+        byte[] strong = null;
+        for (int i = chain; i >= 0; i = next[i]) {
+            if (i == blocks - 1 && lastLength >= 0 && lastLength != len)
+                continue;
+            if (strong == null) {
+                md5.update(buf, pos, len);
+                strong = md5.digest();
+            }
+            int off = i * SUM_LENGTH + 4;
+            int k = 0;
+            while (k < STRONG_SUM_LENGTH && sums[off + k] == strong[k])
+                k++;
+            if (k == STRONG_SUM_LENGTH)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * The rolling checksum of rsync, two 16 bit sums of the bytes.
+     */
+    private static int weakSum(byte[] buf, int off, int len) {
+        int a = 0, b = 0;
+        for (int i = 0; i < len; i++) {
+            a += buf[off + i] & 0xff;
+            b += (len - i) * (buf[off + i] & 0xff);
+        }
+        return ((b & 0xffff) << 16) | (a & 0xffff);
+    }
+
+    private static int readFully(InputStream in, byte[] buf, int len)
+                                throws IOException {
+        return readFully(in, buf, 0, len);
+    }
+
+    private static int readFully(InputStream in, byte[] buf, int off, int len)
+                                throws IOException {
+        int total = 0;
+        while (total < len) {
+            int n = in.read(buf, off + total, len - total);
+            if (n < 0)
+                break;
+            total += n;
+        }
+        return total;
+    }
+
+    private static int getInt(byte[] buf, int off) {
+        return ((buf[off] & 0xff) << 24) | ((buf[off + 1] & 0xff) << 16) |
+                ((buf[off + 2] & 0xff) << 8) | (buf[off + 3] & 0xff);
+    }
+
+    private static void putInt(byte[] buf, int off, int value) {
+        buf[off] = (byte)(value >>> 24);
+        buf[off + 1] = (byte)(value >>> 16);
+        buf[off + 2] = (byte)(value >>> 8);
+        buf[off + 3] = (byte)value;
+    }
+
+    private static MessageDigest getDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Writes the operations of a delta, merging the copies of
+     * consecutive blocks.
+     */
+    private static class Encoder {
+        private final ByteArrayOutputStream bytes =
+                                            new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private int copyStart = -1;
+        private int copyCount;
+
+        Encoder(int blockSize) throws IOException {
+            out.writeInt(MAGIC);
+            out.writeInt(blockSize);
+        }
+
+        int size() {
+            return bytes.size();
+        }
+
+        void copy(int block) throws IOException {
+            if (copyStart >= 0 && block == copyStart + copyCount) {
+                copyCount++;
+                return;
+            }
+            flushCopy();
+            copyStart = block;
+            copyCount = 1;
+        }
+
+        void literal(byte[] buf, int off, int len) throws IOException {
+            if (len == 0)
+                return;
+            flushCopy();
+            out.writeByte(LITERAL);
+            out.writeInt(len);
+            out.write(buf, off, len);
+        }
+
+        byte[] finish(long length, byte[] digest) throws IOException {
+            flushCopy();
+            out.writeByte(END);
+            out.writeLong(length);
+            out.write(digest);
+            out.flush();
+            return bytes.toByteArray();
+        }
+
+        private void flushCopy() throws IOException {
+            if (copyStart < 0)
+                return;
+            out.writeByte(COPY);
+            out.writeInt(copyStart);
+            out.writeInt(copyCount);
+            copyStart = -1;
+        }
+    }
+}
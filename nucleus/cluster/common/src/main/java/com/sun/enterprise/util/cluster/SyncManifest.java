@@ -0,0 +1,184 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package com.sun.enterprise.util.cluster;
+
+import java.io.*;
+import java.net.URI;
+import java.util.*;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.annotation.*;
+
+/**
+ * The content of a changed application, sent by the DAS instead of its
+ * files when the instance can patch them with block deltas.  The instance
+ * compares the digests of its files to those of the manifest, and asks for
+ * deltas of the files that differ only.
+ */
+@XmlRootElement(name = "sync-manifest")
+public final class SyncManifest {
+
+    /**
+     * The directory of the applications directory where the manifests
+     * and the deltas are sent.
+     */
+    public static final String DIRECTORY = "__delta";
+
+    public SyncManifest() {
+        roots = new ArrayList<String>();
+        entries = new ArrayList<Entry>();
+    }
+
+    /**
+     * The application name.
+     */
+    @XmlElement(name = "application")
+    public String application;
+
+    /**
+     * The mod time of the application directory.
+     */
+    @XmlElement(name = "time")
+    public long time;
+
+    /**
+     * The directories of the application, relative to the domain
+     * directory, whether they exist or not.
+     */
+    @XmlElement(name = "root")
+    public List<String> roots;
+
+    /**
+     * The files and directories under the roots.
+     */
+    @XmlElement(name = "entry", type = Entry.class)
+    public List<Entry> entries;
+
+    /**
+     * A file, or a directory when it has no digest.
+     */
+    public static class Entry {
+        public Entry() {
+        }
+
+        public Entry(String name, long length, String digest) {
+            this.name = name;
+            this.length = length;
+            this.digest = digest;
+        }
+
+        @XmlElement(name = "name")
+        public String name;
+
+        @XmlElement(name = "length")
+        public long length;
+
+        @XmlElement(name = "digest")
+        public String digest;
+
+        /**
+         * Return true if the file has the content of this entry.
+         */
+        public boolean matches(File f) throws IOException {
+            if (digest == null)
+                return f.isDirectory();
+            return f.isFile() && f.length() == length &&
+                    digest.equals(SyncDelta.digest(f));
+        }
+    }
+
+    /**
+     * Add the given directory to the roots, and it and its content
+     * to the entries, with names relative to the base directory.
+     */
+    public void addRoot(File base, File dir) throws IOException {
+        URI baseURI = base.toURI();
+        roots.add(nameOf(baseURI, dir));
+        if (dir.isDirectory())
+            addEntries(baseURI, dir);
+    }
+
+    private void addEntries(URI baseURI, File f) throws IOException {
+        if (f.isDirectory()) {
+            entries.add(new Entry(nameOf(baseURI, f), 0, null));
+            File[] files = f.listFiles();
+            if (files != null) {
+                for (File c : files)
+                    addEntries(baseURI, c);
+            }
+        } else
+            entries.add(new Entry(nameOf(baseURI, f), f.length(),
+                                    SyncDelta.digest(f)));
+    }
+
+    private static String nameOf(URI baseURI, File f) {
+        String name = baseURI.relativize(f.toURI()).getPath();
+        // if name is a directory, it will end with "/"
+        if (name.endsWith("/"))
+            name = name.substring(0, name.length() - 1);
+        return name;
+    }
+
+    /**
+     * Write the manifest to the stream.
+     */
+    public void write(OutputStream out) throws IOException {
+        try {
+            JAXBContext context = JAXBContext.newInstance(SyncManifest.class);
+            context.createMarshaller().marshal(this, out);
+        } catch (JAXBException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * Read a manifest from the file.
+     */
+    public static SyncManifest read(File file) throws IOException {
+        try {
+            JAXBContext context = JAXBContext.newInstance(SyncManifest.class);
+            return (SyncManifest)context.createUnmarshaller().unmarshal(file);
+        } catch (JAXBException ex) {
+            throw new IOException(ex);
+        }
+    }
+}
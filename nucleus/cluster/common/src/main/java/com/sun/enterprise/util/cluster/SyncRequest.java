@@ -52,6 +52,7 @@ import javax.xml.bind.annotation.*;
 public final class SyncRequest {
     public SyncRequest() {
         files = new ArrayList<ModTime>();
+        signatures = new ArrayList<FileSignature>();
     }
 
     /**
@@ -72,6 +73,21 @@ public final class SyncRequest {
     @XmlElement(name = "file", type = ModTime.class)
     public List<ModTime> files;
 
+    /**
+     * Whether the client can patch the files of the changed applications
+     * with block deltas, in which case the server sends a manifest of the
+     * changed applications instead of their files.
+     */
+    @XmlElement(name = "delta")
+    public boolean delta;
+
+    /**
+     * The block signatures of the files the client wants to be patched,
+     * see {@link SyncDelta}.
+     */
+    @XmlElement(name = "signature", type = FileSignature.class)
+    public List<FileSignature> signatures;
+
     /**
      * The file name and mod time.
      */
@@ -90,4 +106,33 @@ public final class SyncRequest {
         @XmlElement(name = "time")
         public long time;
     }
+
+    /**
+     * The block checksums of a file the client has, relative to the
+     * domain directory.  A signature without checksums asks for the
+     * whole file.
+     */
+    public static class FileSignature {
+        public FileSignature() {
+        }
+
+        public FileSignature(String name) {
+            this.name = name;
+        }
+
+        @XmlElement(name = "name")
+        public String name;
+
+        @XmlElement(name = "length")
+        public long length;
+
+        @XmlElement(name = "block-size")
+        public int blockSize;
+
+        /**
+         * For each block, its weak rolling checksum then its strong checksum.
+         */
+        @XmlElement(name = "sums")
+        public byte[] sums;
+    }
 }
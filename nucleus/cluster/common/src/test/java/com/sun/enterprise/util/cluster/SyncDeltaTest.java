@@ -0,0 +1,157 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package com.sun.enterprise.util.cluster;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import com.sun.enterprise.util.cluster.SyncRequest.FileSignature;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SyncDeltaTest {
+
+    private File dir;
+    private File base;
+    private File target;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("syncdelta", "");
+        dir.delete();
+        dir.mkdirs();
+        base = new File(dir, "app.jar");
+        target = new File(dir, "app.jar.new");
+    }
+
+    @After
+    public void tearDown() {
+        for (File f : dir.listFiles())
+            f.delete();
+        dir.delete();
+    }
+
+    /**
+     * Bytes inserted near the beginning shift all the blocks, which must
+     * still be found by the rolling checksum.
+     */
+    @Test
+    public void testShiftedBlocksAreCopied() throws IOException {
+        byte[] content = random(1024 * 1024, 1);
+        write(base, content);
+        byte[] changed = new byte[content.length + 100];
+        System.arraycopy(content, 0, changed, 0, 5000);
+        System.arraycopy(random(100, 2), 0, changed, 5000, 100);
+        System.arraycopy(content, 5000, changed, 5100, content.length - 5000);
+        write(target, changed);
+
+        FileSignature sig = SyncDelta.signature("applications/app/app.jar", base);
+        byte[] delta = SyncDelta.delta(target, sig, target.length());
+        assertNotNull(delta);
+        assertTrue("delta too large: " + delta.length,
+                                delta.length < 3 * sig.blockSize);
+
+        patch(delta);
+        assertTrue(Arrays.equals(changed, Files.readAllBytes(base.toPath())));
+        assertEquals(SyncDelta.digest(target), SyncDelta.digest(base));
+    }
+
+    /**
+     * The last block is shorter than the others, and found only at the
+     * end of the file.
+     */
+    @Test
+    public void testTruncatedAndAppendedContent() throws IOException {
+        byte[] content = random(100000, 3);
+        write(base, content);
+        byte[] changed = Arrays.copyOfRange(content, 10000, content.length);
+        write(target, changed);
+
+        byte[] delta = SyncDelta.delta(target,
+                    SyncDelta.signature("f", base), target.length());
+        assertNotNull(delta);
+        assertTrue("delta too large: " + delta.length, delta.length < 10000);
+        patch(delta);
+        assertTrue(Arrays.equals(changed, Files.readAllBytes(base.toPath())));
+
+        write(base, new byte[0]);
+        delta = SyncDelta.delta(target,
+                    SyncDelta.signature("f", base), target.length() + 100);
+        patch(delta);
+        assertTrue(Arrays.equals(changed, Files.readAllBytes(base.toPath())));
+    }
+
+    @Test
+    public void testDeltaOverLimit() throws IOException {
+        write(base, random(200000, 4));
+        write(target, random(200000, 5));
+        assertNull(SyncDelta.delta(target,
+                    SyncDelta.signature("f", base), target.length() / 2));
+    }
+
+    private void patch(byte[] delta) throws IOException {
+        File file = new File(dir, "delta");
+        write(file, delta);
+        SyncDelta.patch(base, file);
+        file.delete();
+    }
+
+    private static byte[] random(int length, long seed) {
+        byte[] content = new byte[length];
+        new Random(seed).nextBytes(content);
+        return content;
+    }
+
+    private static void write(File file, byte[] content) throws IOException {
+        OutputStream os = new FileOutputStream(file);
+        try {
+            os.write(content);
+        } finally {
+            os.close();
+        }
+    }
+}
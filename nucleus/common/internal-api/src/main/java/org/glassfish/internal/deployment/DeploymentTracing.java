@@ -109,6 +109,11 @@ public class DeploymentTracing {
         STARTED
     }
 
+    public static enum ClassModelMark {
+        CACHE_HIT,
+        CACHE_MISS
+    }
+
     private abstract class Event {
         final long inception = System.currentTimeMillis();
 
@@ -156,6 +161,21 @@ public class DeploymentTracing {
         }
     }
 
+    private class ClassModelEvent extends Event {
+        final ClassModelMark mark;
+        final String archive;
+        final long durationInMs;
+
+        private ClassModelEvent(ClassModelMark mark, String archive, long durationInMs) {
+            this.mark = mark;
+            this.archive = archive;
+            this.durationInMs = durationInMs;
+        }
+        void print(PrintStream ps) {
+            ps.println("Class model : " + archive + " Mark " + mark.toString() + " in " + durationInMs + " ms");
+        }
+    }
+
     final long inception = System.currentTimeMillis();
     final List<Event> events = new ArrayList<Event>();
 
@@ -175,6 +195,10 @@ public class DeploymentTracing {
         events.add(new ModuleEvent(mark, moduleName));
     }
 
+    public void addClassModelMark(ClassModelMark mark, String archive, long durationInMs) {
+        events.add(new ClassModelEvent(mark, archive, durationInMs));
+    }
+
     public void print(PrintStream ps) {
         for (int i=0;i<events.size(); i++) {
             events.get(i).print(ps);
@@ -152,6 +152,9 @@ public class ApplicationLifecycle implements Deployment, PostConstruct {
     @Inject
     ConfigSupport configSupport;
 
+    @Inject
+    ClassModelCache classModelCache;
+
     protected Logger logger = KernelLoggerInfo.getLogger();
     final private static LocalStringManagerImpl localStrings = new LocalStringManagerImpl(ApplicationLifecycle.class);      
     
@@ -545,13 +548,14 @@ public class ApplicationLifecycle implements Deployment, PostConstruct {
                     // scan the jar and store the result in the deployment context.
                     ParsingContext parsingContext = new ParsingContext.Builder().logger(context.getLogger()).executorService(executorService).build();
                     Parser parser = new Parser(parsingContext);
-                    ReadableArchiveScannerAdapter scannerAdapter = new ReadableArchiveScannerAdapter(parser, context.getSource());
+                    ClassModelCache.Scan cacheScan = classModelCache.startScan();
+                    ReadableArchiveScannerAdapter scannerAdapter = new ReadableArchiveScannerAdapter(parser, context.getSource(), cacheScan);
                     parser.parse(scannerAdapter, null);
                     for (ReadableArchive externalLibArchive :
                         getExternalLibraries(context)) {
                         ReadableArchiveScannerAdapter libAdapter = null;
                         try {
-                            libAdapter = new ReadableArchiveScannerAdapter(parser, externalLibArchive);
+                            libAdapter = new ReadableArchiveScannerAdapter(parser, externalLibArchive, cacheScan);
                             parser.parse(libAdapter, null);
                         } finally {
                             if (libAdapter!=null) {
@@ -561,6 +565,16 @@ public class ApplicationLifecycle implements Deployment, PostConstruct {
                     }
                     parser.awaitTermination();
                     scannerAdapter.close();
+                    if (cacheScan != null) {
+                        if (logger.isLoggable(Level.FINE)) {
+                            logger.log(Level.FINE, "Class-model cache: " + cacheScan.getHits() + " hits, "
+                                + cacheScan.getMisses() + " misses for " + context.getSource().getURI());
+                        }
+                        DeploymentTracing tracing = context.getModuleMetaData(DeploymentTracing.class);
+                        if (tracing != null) {
+                            cacheScan.trace(tracing);
+                        }
+                    }
                     context.addTransientAppMetaData(Types.class.getName(), parsingContext.getTypes());
                     context.addTransientAppMetaData(Parser.class.getName(), parser);
                     return parsingContext.getTypes();
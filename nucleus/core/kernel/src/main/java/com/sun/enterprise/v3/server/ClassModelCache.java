@@ -0,0 +1,494 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package com.sun.enterprise.v3.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.inject.Inject;
+
+import org.glassfish.hk2.api.PostConstruct;
+import org.glassfish.hk2.classmodel.reflect.ArchiveAdapter;
+import org.glassfish.internal.deployment.DeploymentTracing;
+import org.glassfish.kernel.KernelLoggerInfo;
+import org.glassfish.server.ServerEnvironmentImpl;
+import org.jvnet.hk2.annotations.Service;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+
+/**
+ * Content addressed cache of the entries the class-model parses in the jar
+ * files of the deployed applications.
+ *
+ * The class-model types cannot be persisted, but they are built from the
+ * class files only: the first scan of a jar records the entries it selected,
+ * with the code of the methods stripped, in a single uncompressed file of the
+ * generated/classmodel directory named after the SHA-1 of the jar. The next
+ * scans of the same content, by a redeployment, a restart or another
+ * application using the same library, parse those entries instead of
+ * inflating the jar again.
+ *
+ * The entries recorded are the ones the selector of the class-model chose,
+ * so the cache files are named after the selector too: a jar scanned with
+ * another selector is a miss rather than a partial replay. The rest of the
+ * parsing configuration, such as the types and annotations of interest of
+ * the ParsingContext, only applies to how the class-model visits the class
+ * files, and the replayed entries go through it again: the cache does not
+ * depend on it. Neither does it depend on the code of the methods, which is
+ * stripped since the class-model skips it.
+ *
+ * The cache is disabled with -Dorg.glassfish.deployment.classmodel.cache=false.
+ */
+@Service
+public class ClassModelCache implements PostConstruct {
+
+    public static final String CACHE_ENABLED_PROP = "org.glassfish.deployment.classmodel.cache";
+
+    /**
+     * Files of the cache not used for that many days are removed.
+     */
+    public static final String CACHE_MAX_AGE_PROP = "org.glassfish.deployment.classmodel.cache.maxAgeDays";
+
+    static final String CACHE_DIR_NAME = "classmodel";
+
+    private static final int MAGIC = 0x434d4331;
+    private static final int FORMAT_VERSION = 2;
+    private static final String SUFFIX = ".cmc";
+
+    final private static Logger logger = KernelLoggerInfo.getLogger();
+
+    @Inject
+    ServerEnvironmentImpl env;
+
+    private File dir;
+
+    private boolean enabled;
+
+    /**
+     * Digests of the jar files, valid while their size and time stamp are
+     * unchanged.
+     */
+    private final ConcurrentMap<String, Digest> digests = new ConcurrentHashMap<String, Digest>();
+
+    @Override
+    public void postConstruct() {
+        init(new File(env.getApplicationStubPath(), CACHE_DIR_NAME),
+            Boolean.valueOf(System.getProperty(CACHE_ENABLED_PROP, "true")));
+    }
+
+    void init(File dir, boolean enabled) {
+        this.dir = dir;
+        this.enabled = enabled;
+        if (enabled) {
+            prune(Integer.getInteger(CACHE_MAX_AGE_PROP, 30));
+        }
+    }
+
+    /**
+     * Starts the scan of an application.
+     *
+     * @return the scan recording the use of the cache, or null if the cache
+     * is disabled.
+     */
+    public Scan startScan() {
+        return enabled ? new Scan() : null;
+    }
+
+    /**
+     * The use of the cache by the scan of an application.
+     */
+    public final class Scan {
+
+        private final List<Object[]> marks = new ArrayList<Object[]>();
+        private int hits;
+        private int misses;
+
+        private Scan() {
+        }
+
+        /**
+         * Looks the given archive up in the cache.
+         *
+         * @param uri the archive the class-model is about to scan
+         * @param selector the selector of the entries to parse
+         * @return the lookup, or null if the archive is not a jar file.
+         */
+        Lookup lookup(URI uri, ArchiveAdapter.Selector selector) {
+            if (!"file".equals(uri.getScheme()) || !uri.getPath().endsWith(".jar")) {
+                return null;
+            }
+            File jar = new File(uri);
+            if (!jar.isFile()) {
+                return null;
+            }
+            long start = System.currentTimeMillis();
+            try {
+                String key = digest(jar) + '-' + selectorId(selector);
+                return new Lookup(this, uri, key, load(key), start);
+            } catch (IOException e) {
+                logger.log(Level.FINE, "Cannot compute the digest of " + jar, e);
+                return null;
+            }
+        }
+
+        synchronized void hit(URI uri, long duration) {
+            hits++;
+            marks.add(new Object[] {DeploymentTracing.ClassModelMark.CACHE_HIT, uri.toString(), duration});
+        }
+
+        synchronized void miss(URI uri, long duration) {
+            misses++;
+            marks.add(new Object[] {DeploymentTracing.ClassModelMark.CACHE_MISS, uri.toString(), duration});
+        }
+
+        public synchronized int getHits() {
+            return hits;
+        }
+
+        public synchronized int getMisses() {
+            return misses;
+        }
+
+        /**
+         * Adds the hits and misses of this scan to the given tracing, once the
+         * scan is done.
+         */
+        public synchronized void trace(DeploymentTracing tracing) {
+            for (Object[] mark : marks) {
+                tracing.addClassModelMark((DeploymentTracing.ClassModelMark) mark[0],
+                    (String) mark[1], (Long) mark[2]);
+            }
+        }
+    }
+
+    /**
+     * The cached entries of a jar, or the recording of its entries when it
+     * is not in the cache yet.
+     */
+    final class Lookup {
+
+        private final Scan scan;
+        private final URI uri;
+        private final String key;
+        private final List<CachedEntry> cached;
+        private final long start;
+        private final List<CachedEntry> recorded;
+        private boolean failed = false;
+
+        private Lookup(Scan scan, URI uri, String key, List<CachedEntry> cached, long start) {
+            this.scan = scan;
+            this.uri = uri;
+            this.key = key;
+            this.cached = cached;
+            this.start = start;
+            this.recorded = (cached == null) ? new ArrayList<CachedEntry>() : null;
+        }
+
+        /**
+         * @return the cached entries of the jar, or null on a miss.
+         */
+        List<CachedEntry> getCachedEntries() {
+            return cached;
+        }
+
+        void addEntry(String name, long size, byte[] bytes) {
+            recorded.add(new CachedEntry(name, size, name.endsWith(".class") ? strip(bytes) : bytes));
+        }
+
+        void addJar(String name) {
+            recorded.add(new CachedEntry(name, 0, null));
+        }
+
+        void fail() {
+            failed = true;
+        }
+
+        /**
+         * Ends the scan of the jar, storing its entries on a miss.
+         */
+        void done() {
+            if (cached != null) {
+                scan.hit(uri, System.currentTimeMillis() - start);
+                return;
+            }
+            if (!failed) {
+                store(key, recorded);
+            }
+            scan.miss(uri, System.currentTimeMillis() - start);
+        }
+    }
+
+    /**
+     * An entry of a jar selected by the class-model, or a jar within it
+     * when its bytes are null.
+     */
+    static final class CachedEntry {
+        final String name;
+        final long size;
+        final byte[] bytes;
+
+        CachedEntry(String name, long size, byte[] bytes) {
+            this.name = name;
+            this.size = size;
+            this.bytes = bytes;
+        }
+
+        boolean isJar() {
+            return bytes == null;
+        }
+    }
+
+    private static final class Digest {
+        final long size;
+        final long lastModified;
+        final String value;
+
+        Digest(long size, long lastModified, String value) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Returns the SHA-1 of the content of the given jar, computed again only
+     * if its size or time stamp has changed.
+     */
+    String digest(File jar) throws IOException {
+        String path = jar.getCanonicalPath();
+        long size = jar.length();
+        long lastModified = jar.lastModified();
+        Digest digest = digests.get(path);
+        if (digest != null && digest.size == size && digest.lastModified == lastModified) {
+            return digest.value;
+        }
+
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        InputStream is = new FileInputStream(jar);
+        try {
+            byte[] buffer = new byte[65536];
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                md.update(buffer, 0, read);
+            }
+        } finally {
+            is.close();
+        }
+        StringBuilder sb = new StringBuilder();
+        for (byte b : md.digest()) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        String value = sb.toString();
+        digests.put(path, new Digest(size, lastModified, value));
+        return value;
+    }
+
+    /**
+     * Identifies the selection of the entries recorded with the given
+     * selector, by the name of its class, which the class-model defines.
+     */
+    static String selectorId(ArchiveAdapter.Selector selector) {
+        return Integer.toHexString(selector.getClass().getName().hashCode());
+    }
+
+    /**
+     * Loads the entries cached under the given key.
+     *
+     * @return the entries, or null if they are not in the cache.
+     */
+    List<CachedEntry> load(String key) {
+        File file = new File(dir, key + SUFFIX);
+        if (!file.isFile()) {
+            return null;
+        }
+        List<CachedEntry> entries = new ArrayList<CachedEntry>();
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536));
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                throw new IOException("Invalid class-model cache file " + file);
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                long size = in.readLong();
+                int length = in.readInt();
+                byte[] bytes = null;
+                if (length >= 0) {
+                    bytes = new byte[length];
+                    in.readFully(bytes);
+                }
+                entries.add(new CachedEntry(name, size, bytes));
+            }
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Discarding class-model cache file " + file, e);
+            close(in);
+            in = null;
+            file.delete();
+            return null;
+        } finally {
+            close(in);
+        }
+        // keep the files in use from being pruned
+        file.setLastModified(System.currentTimeMillis());
+        return entries;
+    }
+
+    /**
+     * Stores the entries of a jar under the given key, replacing the cache file
+     * at once so that concurrent scans never read a partial file.
+     */
+    void store(String key, List<CachedEntry> entries) {
+        File tmp = null;
+        DataOutputStream out = null;
+        try {
+            if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+                return;
+            }
+            tmp = File.createTempFile(key, ".tmp", dir);
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 65536));
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(entries.size());
+            for (CachedEntry entry : entries) {
+                out.writeUTF(entry.name);
+                out.writeLong(entry.size);
+                if (entry.bytes == null) {
+                    out.writeInt(-1);
+                } else {
+                    out.writeInt(entry.bytes.length);
+                    out.write(entry.bytes);
+                }
+            }
+            out.close();
+            out = null;
+            File file = new File(dir, key + SUFFIX);
+            if (!tmp.renameTo(file)) {
+                // stored concurrently by another scan
+                tmp.delete();
+            }
+            tmp = null;
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Cannot store class-model cache file for " + key, e);
+        } finally {
+            close(out);
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * Removes the files of the cache not used for the given number of days.
+     */
+    private void prune(int maxAgeDays) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        long oldest = System.currentTimeMillis() - maxAgeDays * 24L * 60 * 60 * 1000;
+        for (File file : files) {
+            if (file.lastModified() < oldest || file.getName().endsWith(".tmp")) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Strips the code of the methods from the given class file, which the
+     * class-model does not use.
+     */
+    static byte[] strip(byte[] bytes) {
+        try {
+            ClassReader reader = new ClassReader(bytes);
+            ClassWriter writer = new ClassWriter(0);
+            reader.accept(writer, ClassReader.SKIP_CODE);
+            return writer.toByteArray();
+        } catch (RuntimeException e) {
+            // unsupported class file version, or invalid class file: keep
+            // it as it is for the class-model to report it
+            return bytes;
+        }
+    }
+
+    static byte[] readFully(InputStream is) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = is.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static void close(Closeable c) {
+        if (c != null) {
+            try {
+                c.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+}
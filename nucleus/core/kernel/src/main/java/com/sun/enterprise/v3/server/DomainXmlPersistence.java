@@ -43,20 +43,32 @@ package com.sun.enterprise.v3.server;
 import com.sun.enterprise.config.modularity.ConfigModularityUtils;
 import com.sun.enterprise.util.LocalStringManagerImpl;
 import com.sun.enterprise.util.io.FileUtils;
+import java.beans.PropertyChangeEvent;
 import java.io.*;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamWriter;
 import org.glassfish.common.util.admin.ManagedFile;
 import org.glassfish.config.support.ConfigurationAccess;
-import org.glassfish.config.support.ConfigurationPersistence;
+import org.glassfish.config.support.ConfigurationChangesPersistence;
+import org.glassfish.config.support.ConfigurationJournal;
+import org.glassfish.config.support.ConfigurationSnapshot;
 import org.glassfish.hk2.api.PostConstruct;
+import org.glassfish.hk2.api.PreDestroy;
 import org.glassfish.hk2.runlevel.RunLevel;
 import org.glassfish.internal.api.PostStartupRunLevel;
 import org.glassfish.server.ServerEnvironmentImpl;
@@ -67,11 +79,18 @@ import org.jvnet.hk2.config.IndentingXMLStreamWriter;
 /**
  * domain.xml persistence.
  *
+ * On the DAS, when the <tt>org.glassfish.config.journal</tt> system property
+ * is set to true, each transaction is appended to a {@link ConfigurationJournal}
+ * and domain.xml is only saved once no transaction was committed for
+ * <tt>org.glassfish.config.journal.debounce</tt> milliseconds, or at most
+ * <tt>org.glassfish.config.journal.maxdelay</tt> milliseconds after the first
+ * one. The journal is replayed when the server starts.
+ *
  * @author Jerome Dochez
  */
 @Service
 @Singleton
-public class DomainXmlPersistence implements ConfigurationPersistence, ConfigurationAccess {
+public class DomainXmlPersistence implements ConfigurationChangesPersistence, ConfigurationAccess {
 
     @Inject
     ServerEnvironmentImpl env;
@@ -87,6 +106,23 @@ public class DomainXmlPersistence implements ConfigurationPersistence, Configura
     final static LocalStringManagerImpl localStrings =
             new LocalStringManagerImpl(DomainXmlPersistence.class);    
 
+    private static final String JOURNAL_PROPERTY = "org.glassfish.config.journal";
+    private static final long DEBOUNCE = Long.getLong(JOURNAL_PROPERTY + ".debounce", 500);
+    private static final long MAX_DELAY = Long.getLong(JOURNAL_PROPERTY + ".maxdelay", 5000);
+
+    private ConfigurationJournal journal;
+    private boolean journalInitialized = false;
+    private ScheduledExecutorService snapshotExecutor;
+    private ScheduledFuture<?> pendingSnapshot;
+    private DomDocument pendingDoc;
+    private long firstPendingCommit;
+    private final Object saveLock = new Object();
+
+    private final AtomicLong journaledCommits = new AtomicLong();
+    private final AtomicLong snapshots = new AtomicLong();
+    private final AtomicLong commitNanos = new AtomicLong();
+    private final AtomicLong maxCommitNanos = new AtomicLong();
+
 
     private synchronized ManagedFile getPidFile() throws IOException {
         File location=null;
@@ -124,8 +160,139 @@ public class DomainXmlPersistence implements ConfigurationPersistence, Configura
         return getPidFile().accessWrite();
     }
 
+    /**
+     * Records the changes of a transaction in the journal, and schedules the
+     * save of the document, or saves it right away if the journal is not
+     * enabled or the changes cannot be recorded in it.
+     */
+    @Override
+    public void save(DomDocument doc, List<PropertyChangeEvent> changes) throws IOException {
+        ConfigurationJournal journal = getJournal();
+        if (journal == null
+                || (modularityUtils.isIgnorePersisting() && !modularityUtils.isCommandInvocation())) {
+            save(doc);
+            return;
+        }
+        long start = System.nanoTime();
+        boolean journaled = false;
+        try {
+            journaled = journal.append(doc, changes);
+        } catch (XMLStreamException e) {
+            logger.log(Level.WARNING, localStrings.getLocalString("JournalFailed",
+                    "Cannot journal the configuration changes, saving domain.xml"), e);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, localStrings.getLocalString("JournalFailed",
+                    "Cannot journal the configuration changes, saving domain.xml"), e);
+        }
+        if (!journaled) {
+            save(doc);
+            return;
+        }
+        long time = System.nanoTime() - start;
+        journaledCommits.incrementAndGet();
+        commitNanos.addAndGet(time);
+        long max = maxCommitNanos.get();
+        while (time > max && !maxCommitNanos.compareAndSet(max, time)) {
+            max = maxCommitNanos.get();
+        }
+        scheduleSnapshot(doc);
+    }
+
+    private synchronized void scheduleSnapshot(DomDocument doc) {
+        long now = System.currentTimeMillis();
+        if (pendingDoc == null) {
+            firstPendingCommit = now;
+        }
+        pendingDoc = doc;
+        if (pendingSnapshot != null) {
+            pendingSnapshot.cancel(false);
+        }
+        long delay = Math.max(0, Math.min(DEBOUNCE, firstPendingCommit + MAX_DELAY - now));
+        pendingSnapshot = snapshotExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flush();
+                } catch (IOException e) {
+                    // logged by save
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized DomDocument clearPendingSnapshot() {
+        DomDocument doc = pendingDoc;
+        pendingDoc = null;
+        if (pendingSnapshot != null) {
+            pendingSnapshot.cancel(false);
+            pendingSnapshot = null;
+        }
+        return doc;
+    }
+
+    /**
+     * Saves domain.xml now if changes were journaled since it was last saved.
+     */
+    public void flush() throws IOException {
+        DomDocument doc = clearPendingSnapshot();
+        if (doc != null) {
+            save(doc);
+        }
+    }
+
+    /**
+     * @return the journal if the changes are journaled, or null
+     */
+    private synchronized ConfigurationJournal getJournal() throws IOException {
+        if (!journalInitialized) {
+            journalInitialized = true;
+            if (env.isDas() && Boolean.getBoolean(JOURNAL_PROPERTY)) {
+                journal = new ConfigurationJournal(
+                        new File(env.getConfigDirPath(), ConfigurationJournal.FILE_NAME));
+                snapshotExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "domain.xml-snapshot");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+            }
+        }
+        return journal;
+    }
+
+    public long getJournaledCommitCount() {
+        return journaledCommits.get();
+    }
+
+    public long getSnapshotCount() {
+        return snapshots.get();
+    }
+
+    /**
+     * @return the average time to journal a transaction, in microseconds
+     */
+    public long getAverageCommitLatency() {
+        long commits = journaledCommits.get();
+        return (commits == 0) ? 0 : TimeUnit.NANOSECONDS.toMicros(commitNanos.get() / commits);
+    }
+
+    /**
+     * @return the longest time to journal a transaction, in microseconds
+     */
+    public long getMaxCommitLatency() {
+        return TimeUnit.NANOSECONDS.toMicros(maxCommitNanos.get());
+    }
+
     @Override
     public void save(DomDocument doc) throws IOException {
+        synchronized (saveLock) {
+            doSave(doc);
+        }
+    }
+
+    private void doSave(DomDocument doc) throws IOException {
         if (modularityUtils.isIgnorePersisting() && !modularityUtils.isCommandInvocation()) {
             if (skippedDoc != null) {
                 assert(doc == skippedDoc);
@@ -140,6 +307,13 @@ public class DomainXmlPersistence implements ConfigurationPersistence, Configura
             logger.severe(msg);
             throw new IOException(msg);
         }
+        // the document being saved has all the changes journaled so far
+        ConfigurationJournal journal = getJournal();
+        long journaled = 0;
+        if (journal != null) {
+            clearPendingSnapshot();
+            journaled = journal.length();
+        }
         Lock writeLock=null;
         try {
             try {
@@ -225,9 +399,42 @@ public class DomainXmlPersistence implements ConfigurationPersistence, Configura
             }
         }
         skippedDoc = null;
+        if (journal != null) {
+            journal.truncate(journaled);
+            snapshots.incrementAndGet();
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("domain.xml saved " + snapshots.get() + " times, "
+                        + journaledCommits.get() + " transactions journaled, average "
+                        + getAverageCommitLatency() + " us, max " + getMaxCommitLatency() + " us");
+            }
+        }
+        if (env.isDas() && ConfigurationSnapshot.isEnabled()) {
+            writeSnapshot(destination);
+        }
         saved(destination);
     }
 
+    /**
+     * Writes the snapshot of the saved domain.xml, which is read instead of
+     * domain.xml when the server starts.
+     */
+    private void writeSnapshot(File destination) {
+        File snapshot = new File(env.getConfigDirPath(), ConfigurationSnapshot.FILE_NAME);
+        try {
+            XMLInputFactory xif = XMLInputFactory.newInstance();
+            xif.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            if (!ConfigurationSnapshot.write(destination, snapshot, xif)) {
+                logger.fine("domain.xml changed while its snapshot was written");
+            }
+        } catch (Exception e) {
+            logger.log(Level.WARNING, localStrings.getLocalString("SnapshotFailed",
+                    "Cannot write the configuration snapshot {0}", snapshot), e);
+            if (!snapshot.delete()) {
+                FileUtils.deleteFileNowOrLater(snapshot);
+            }
+        }
+    }
+
     /**
      * Update the modified time of the persisted domain.xml so that 
      * instances will detect it as changed.
@@ -251,11 +458,12 @@ public class DomainXmlPersistence implements ConfigurationPersistence, Configura
     
     /* 
      * The purpose of this service is to write out the domain.xml if any writes
-     * were skipped during startup of the server. 
+     * were skipped during startup of the server, or are still pending when it
+     * stops.
      */
     @Service
     @RunLevel(PostStartupRunLevel.VAL)
-    static class SkippedWriteWriter implements PostConstruct {
+    static class SkippedWriteWriter implements PostConstruct, PreDestroy {
         
         @Inject DomainXmlPersistence domPersist;
         @Inject Logger logger;
@@ -272,5 +480,15 @@ public class DomainXmlPersistence implements ConfigurationPersistence, Configura
                 }
             }
         } 
+
+        @Override
+        public void preDestroy() {
+            try {
+                domPersist.flush();
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, localStrings.getLocalString("ioexception",
+                    "IOException while saving the configuration, changes not persisted"), e);
+            }
+        }
     }
 }
@@ -40,10 +40,12 @@
 
 package com.sun.enterprise.v3.server;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.jar.Manifest;
@@ -66,6 +68,12 @@ public class ReadableArchiveScannerAdapter extends AbstractAdapter {
     final Parser parser;
     final URI uri;
 
+    /**
+     * The use of the class-model cache by the scan, or null if the archive
+     * is not looked up in the cache.
+     */
+    final ClassModelCache.Scan cacheScan;
+
     /**
      * Can be null or can be pointing to the archive adapter in which
      * we are embedded.
@@ -93,10 +101,19 @@ public class ReadableArchiveScannerAdapter extends AbstractAdapter {
     
 
     public ReadableArchiveScannerAdapter(Parser parser, ReadableArchive archive) {
+        this(parser, archive, null);
+    }
+
+    /**
+     * Creates an adapter reading the entries of the jar files from the
+     * class-model cache when they are in it.
+     */
+    public ReadableArchiveScannerAdapter(Parser parser, ReadableArchive archive, ClassModelCache.Scan cacheScan) {
         this.archive = archive;
         this.parser = parser;
         this.uri = archive.getURI();
         this.parent = null;
+        this.cacheScan = cacheScan;
     }
 
     private ReadableArchiveScannerAdapter(ReadableArchiveScannerAdapter parent, ReadableArchive archive, URI uri) {
@@ -104,6 +121,7 @@ public class ReadableArchiveScannerAdapter extends AbstractAdapter {
         this.archive = archive;
         this.parser = parent.parser;
         this.uri = uri==null?archive.getURI():uri;
+        this.cacheScan = parent.cacheScan;
     }
 
     @Override
@@ -119,18 +137,38 @@ public class ReadableArchiveScannerAdapter extends AbstractAdapter {
     @Override
     public void onSelectedEntries(ArchiveAdapter.Selector selector, EntryTask entryTask, final Logger logger ) throws IOException {
 
+        ClassModelCache.Lookup lookup = (cacheScan == null) ? null : cacheScan.lookup(uri, selector);
+        if (lookup != null && lookup.getCachedEntries() != null) {
+            replayEntries(lookup.getCachedEntries(), selector, entryTask, logger);
+            lookup.done();
+            if (logger.isLoggable(level)) {
+                logger.log(level, "Finished parsing " + this.uri + " from the class-model cache");
+            }
+            return;
+        }
+
         Enumeration<String> entries = archive.entries();
         while (entries.hasMoreElements()) {
             final String name = entries.nextElement();
             Entry entry = new Entry(name, archive.getEntrySize(name), false);
             if (selector.isSelected(entry)) {
-                handleEntry(name, entry, logger, entryTask);
+                if (lookup != null) {
+                    recordEntry(name, entry, entryTask, lookup);
+                } else {
+                    handleEntry(name, entry, logger, entryTask);
+                }
             }
             // check for non exploded jars.
             if (name.endsWith(".jar")) {
+                if (lookup != null) {
+                    lookup.addJar(name);
+                }
                 handleJar(name, logger);
             }  
         }
+        if (lookup != null) {
+            lookup.done();
+        }
         if (logger.isLoggable(level)) {
             logger.log(level, "Finished parsing " + this.uri);
         }
@@ -173,6 +211,65 @@ public class ReadableArchiveScannerAdapter extends AbstractAdapter {
         }
     }
 
+    /**
+     * Parses the entries of the archive the class-model cache recorded,
+     * instead of reading them from the archive.
+     */
+    private void replayEntries(List<ClassModelCache.CachedEntry> cachedEntries,
+        ArchiveAdapter.Selector selector, EntryTask entryTask, Logger logger) throws IOException {
+
+        for (ClassModelCache.CachedEntry cachedEntry : cachedEntries) {
+            if (cachedEntry.isJar()) {
+                handleJar(cachedEntry.name, logger);
+                continue;
+            }
+            Entry entry = new Entry(cachedEntry.name, cachedEntry.size, false);
+            if (selector.isSelected(entry)) {
+                try {
+                    entryTask.on(entry, new ByteArrayInputStream(cachedEntry.bytes));
+                } catch (Exception e) {
+                    alogger.log(Level.SEVERE, KernelLoggerInfo.exceptionWhileParsing,
+                            new Object[] { entry.name, archive.getURI(), entry.size, e});
+                }
+            }
+        }
+    }
+
+    /**
+     * Parses an entry of the archive, and records it in the class-model cache.
+     */
+    private void recordEntry(String name, Entry entry, EntryTask entryTask, ClassModelCache.Lookup lookup)
+        throws IOException {
+
+        byte[] bytes;
+        InputStream is = null;
+        try {
+            is = archive.getEntry(name);
+            if (is==null) {
+                alogger.log(Level.SEVERE, KernelLoggerInfo.invalidInputStream, name);
+                lookup.fail();
+                return;
+            }
+            bytes = ClassModelCache.readFully(is);
+        } catch (Exception e) {
+            alogger.log(Level.SEVERE, KernelLoggerInfo.exceptionWhileParsing,
+                    new Object[] { entry.name, archive.getURI(), entry.size, e});
+            lookup.fail();
+            return;
+        } finally {
+            if (is!=null)
+                is.close();
+        }
+
+        lookup.addEntry(name, entry.size, bytes);
+        try {
+            entryTask.on(entry, new ByteArrayInputStream(bytes));
+        } catch (Exception e) {
+            alogger.log(Level.SEVERE, KernelLoggerInfo.exceptionWhileParsing,
+                    new Object[] { entry.name, archive.getURI(), entry.size, e});
+        }
+    }
+
     protected Future handleJar(final String name, final Logger logger)
         throws IOException {
 
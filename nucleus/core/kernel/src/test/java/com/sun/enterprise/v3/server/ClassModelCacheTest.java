@@ -0,0 +1,265 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package com.sun.enterprise.v3.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import com.sun.enterprise.deployment.deploy.shared.InputJarArchive;
+import org.glassfish.hk2.classmodel.reflect.AnnotationModel;
+import org.glassfish.hk2.classmodel.reflect.ArchiveAdapter;
+import org.glassfish.hk2.classmodel.reflect.ClassModel;
+import org.glassfish.hk2.classmodel.reflect.FieldModel;
+import org.glassfish.hk2.classmodel.reflect.MethodModel;
+import org.glassfish.hk2.classmodel.reflect.Parser;
+import org.glassfish.hk2.classmodel.reflect.ParsingContext;
+import org.glassfish.hk2.classmodel.reflect.Type;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+
+public class ClassModelCacheTest {
+
+    private static final ArchiveAdapter.Selector CLASSES = new ArchiveAdapter.Selector() {
+        @Override
+        public boolean isSelected(ArchiveAdapter.Entry entry) {
+            return entry.name.endsWith(".class");
+        }
+    };
+
+    private File dir;
+    private File jar;
+    private byte[] classBytes;
+    private ClassModelCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("classmodel", "");
+        dir.delete();
+        dir.mkdirs();
+
+        InputStream is = getClass().getResourceAsStream(getClass().getSimpleName() + ".class");
+        try {
+            classBytes = ClassModelCache.readFully(is);
+        } finally {
+            is.close();
+        }
+
+        jar = new File(dir, "lib.jar");
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+        out.putNextEntry(new JarEntry("com/sun/enterprise/v3/server/ClassModelCacheTest.class"));
+        out.write(classBytes);
+        out.closeEntry();
+        out.close();
+
+        cache = new ClassModelCache();
+        cache.init(new File(dir, ClassModelCache.CACHE_DIR_NAME), true);
+    }
+
+    @After
+    public void tearDown() {
+        delete(dir);
+    }
+
+    /**
+     * The first scan of a jar records its entries, the next one finds them.
+     */
+    @Test
+    public void testMissThenHit() throws Exception {
+        ClassModelCache.Scan scan = cache.startScan();
+        ClassModelCache.Lookup lookup = scan.lookup(jar.toURI(), CLASSES);
+        assertNotNull(lookup);
+        assertNull(lookup.getCachedEntries());
+        lookup.addEntry("com/sun/enterprise/v3/server/ClassModelCacheTest.class", classBytes.length, classBytes);
+        lookup.addJar("nested.jar");
+        lookup.done();
+        assertEquals(0, scan.getHits());
+        assertEquals(1, scan.getMisses());
+
+        scan = cache.startScan();
+        lookup = scan.lookup(jar.toURI(), CLASSES);
+        List<ClassModelCache.CachedEntry> entries = lookup.getCachedEntries();
+        assertNotNull(entries);
+        assertEquals(2, entries.size());
+        assertEquals(classBytes.length, entries.get(0).size);
+        assertEquals(getClass().getName().replace('.', '/'),
+            new ClassReader(entries.get(0).bytes).getClassName());
+        assertTrue(entries.get(1).isJar());
+        lookup.done();
+        assertEquals(1, scan.getHits());
+
+        // the entries selected by another selector are not recorded
+        assertNull(cache.startScan().lookup(jar.toURI(), new ArchiveAdapter.Selector() {
+            @Override
+            public boolean isSelected(ArchiveAdapter.Entry entry) {
+                return true;
+            }
+        }).getCachedEntries());
+    }
+
+    /**
+     * The types the class-model builds from the cached entries of a jar are
+     * the ones it builds from the jar itself.
+     */
+    @Test
+    public void testParseFromCache() throws Exception {
+        Map<String, String> expected = parse(null);
+        assertTrue(expected.containsKey(getClass().getName()));
+
+        ClassModelCache.Scan cold = cache.startScan();
+        assertEquals(expected, parse(cold));
+        assertEquals(0, cold.getHits());
+        assertEquals(1, cold.getMisses());
+
+        ClassModelCache.Scan warm = cache.startScan();
+        assertEquals(expected, parse(warm));
+        assertEquals(1, warm.getHits());
+        assertEquals(0, warm.getMisses());
+    }
+
+    /**
+     * A jar with a different content is not found, nor is a failed recording.
+     */
+    @Test
+    public void testChangedContent() throws Exception {
+        ClassModelCache.Lookup lookup = cache.startScan().lookup(jar.toURI(), CLASSES);
+        lookup.fail();
+        lookup.done();
+        assertNull(cache.startScan().lookup(jar.toURI(), CLASSES).getCachedEntries());
+
+        String digest = cache.digest(jar);
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+        out.putNextEntry(new JarEntry("empty.txt"));
+        out.closeEntry();
+        out.close();
+        jar.setLastModified(jar.lastModified() + 2000);
+        assertTrue(!digest.equals(cache.digest(jar)));
+    }
+
+    @Test
+    public void testStrip() {
+        byte[] stripped = ClassModelCache.strip(classBytes);
+        assertTrue(stripped.length < classBytes.length);
+        assertEquals(new ClassReader(classBytes).getClassName(), new ClassReader(stripped).getClassName());
+
+        byte[] invalid = new byte[] {1, 2, 3};
+        assertTrue(invalid == ClassModelCache.strip(invalid));
+    }
+
+    @Test
+    public void testDisabled() {
+        ClassModelCache disabled = new ClassModelCache();
+        disabled.init(new File(dir, ClassModelCache.CACHE_DIR_NAME), false);
+        assertNull(disabled.startScan());
+    }
+
+    /**
+     * Parses the jar with the class-model, the way the deployment does.
+     *
+     * @return the description of the types parsed, by name
+     */
+    private Map<String, String> parse(ClassModelCache.Scan scan) throws Exception {
+        ParsingContext context = new ParsingContext.Builder().build();
+        Parser parser = new Parser(context);
+        InputJarArchive archive = new InputJarArchive();
+        archive.open(jar.toURI());
+        ReadableArchiveScannerAdapter adapter = new ReadableArchiveScannerAdapter(parser, archive, scan);
+        try {
+            parser.parse(adapter, null);
+            parser.awaitTermination();
+        } finally {
+            adapter.close();
+        }
+
+        Map<String, String> types = new TreeMap<String, String>();
+        for (Type type : context.getTypes().getAllTypes()) {
+            StringBuilder sb = new StringBuilder(type.getClass().getSimpleName());
+            sb.append(names(type.getAnnotations()));
+            Set<String> methods = new TreeSet<String>();
+            for (MethodModel method : type.getMethods()) {
+                methods.add(method.getName() + method.getSignature() + names(method.getAnnotations()));
+            }
+            sb.append(methods);
+            if (type instanceof ClassModel) {
+                Set<String> fields = new TreeSet<String>();
+                for (FieldModel field : ((ClassModel) type).getFields()) {
+                    fields.add(field.getName() + names(field.getAnnotations()));
+                }
+                sb.append(fields);
+            }
+            types.put(type.getName(), sb.toString());
+        }
+        return types;
+    }
+
+    private static Set<String> names(Collection<AnnotationModel> annotations) {
+        Set<String> names = new TreeSet<String>();
+        for (AnnotationModel annotation : annotations) {
+            names.add(annotation.getType().getName());
+        }
+        return names;
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                delete(f);
+            }
+        }
+        file.delete();
+    }
+}
@@ -47,6 +47,13 @@ import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.text.FieldPosition;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
@@ -54,11 +61,15 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Locale;
 import java.util.ResourceBundle;
 import java.util.Vector;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.ErrorManager;
 import java.util.logging.Formatter;
 import java.util.logging.Level;
@@ -84,6 +95,7 @@ import com.sun.appserv.server.util.Version;
 import com.sun.common.util.logging.BooleanLatch;
 import com.sun.enterprise.admin.monitor.callflow.Agent;
 import com.sun.enterprise.module.bootstrap.EarlyLogHandler;
+import com.sun.enterprise.server.logging.logviewer.backend.LogFileIndex;
 import com.sun.enterprise.util.LocalStringManagerImpl;
 import com.sun.enterprise.util.io.FileUtils;
 import com.sun.enterprise.v3.logging.AgentFormatterDelegate;
@@ -142,6 +154,50 @@ PostConstruct, PreDestroy, LogEventBroadcaster, LoggingRuntime {
 
     private BlockingQueue<LogRecord> pendingRecords = new ArrayBlockingQueue<LogRecord>(5000);
 
+    /**
+     * What a logging thread does when the ring buffer is full.
+     * <ul>
+     * <li>BLOCK: wait until the pump thread has made some room.</li>
+     * <li>DROP_BELOW_LEVEL: records below the overflow level are dropped,
+     * the others wait.</li>
+     * <li>SAMPLE: once the ring buffer is three quarters full only one out of
+     * overflowSampleRate records below the overflow level is kept, the others
+     * are dropped.</li>
+     * </ul>
+     */
+    public enum OverflowPolicy {
+        BLOCK, DROP_BELOW_LEVEL, SAMPLE
+    }
+
+    // Asynchronous ring buffer mode, used instead of pendingRecords when the
+    // ringBufferCapacity attribute is set. The pump thread formats the records
+    // into a reusable buffer and writes them in batches through the FileChannel
+    // of the log file.
+    private static final int RING_BATCH_SIZE = 512;
+    private static final int RING_WRITE_BUFFER_SIZE = 64 * 1024;
+    private static final long RING_IDLE_PARK_NANOS = 100L * 1000 * 1000;
+    private static final long RING_FULL_PARK_NANOS = 100L * 1000;
+    private static final long DROPPED_RECORDS_REPORT_INTERVAL = 10 * 1000L;
+
+    private LogRecordRingBuffer ringBuffer;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+    private int overflowLevel = Level.WARNING.intValue();
+    private int overflowSampleRate = 10;
+    private int sampleThreshold;
+    private final AtomicLong sampleCounter = new AtomicLong();
+    private final LongAdder enqueuedRecords = new LongAdder();
+    private final LongAdder droppedRecords = new LongAdder();
+    private volatile boolean pumpParked = false;
+
+    // only used by the pump thread, or under rotationLock
+    private final List<LogRecord> ringBatch = new ArrayList<LogRecord>(RING_BATCH_SIZE);
+    private long reportedDroppedRecords = 0;
+    private long lastDroppedRecordsReport = 0;
+    private FileChannel fileChannel;
+    private ByteBuffer writeBuffer;
+    private CharsetEncoder encoder;
+    private String encoderEncoding;
+
     // Rotation can be done in 3 ways
     // 1. Based on the Size: Rotate when some Threshold number of bytes are 
     //    written to server.log
@@ -252,6 +308,8 @@ PostConstruct, PreDestroy, LogEventBroadcaster, LoggingRuntime {
             currentgffileHandlerFormatter = "com.sun.enterprise.server.logging.UniformLogFormatter";
         }
 
+        configureRingBuffer(manager, cname);
+
         // start the Queue consumer thread.
         initializePump();
         
@@ -532,12 +590,75 @@ PostConstruct, PreDestroy, LogEventBroadcaster, LoggingRuntime {
         }        
     }
     
+    /**
+     * Switches the handler to the ring buffer mode if a ringBufferCapacity
+     * has been configured.
+     */
+    private void configureRingBuffer(LogManager manager, String cname) {
+        String propValue = manager.getProperty(cname + ".ringBufferCapacity");
+        int capacity = 0;
+        if (propValue != null && !propValue.trim().isEmpty()) {
+            try {
+                capacity = Integer.parseInt(propValue.trim());
+            } catch (NumberFormatException e) {
+                reportInvalidAttributeValue(propValue, "ringBufferCapacity");
+            }
+        }
+        if (capacity <= 0) {
+            return;
+        }
+
+        propValue = manager.getProperty(cname + ".overflowPolicy");
+        if (propValue != null && !propValue.trim().isEmpty()) {
+            try {
+                overflowPolicy = OverflowPolicy.valueOf(propValue.trim().toUpperCase(Locale.ENGLISH));
+            } catch (IllegalArgumentException e) {
+                reportInvalidAttributeValue(propValue, "overflowPolicy");
+            }
+        }
+        propValue = manager.getProperty(cname + ".overflowLevel");
+        if (propValue != null && !propValue.trim().isEmpty()) {
+            try {
+                overflowLevel = Level.parse(propValue.trim()).intValue();
+            } catch (IllegalArgumentException e) {
+                reportInvalidAttributeValue(propValue, "overflowLevel");
+            }
+        }
+        propValue = manager.getProperty(cname + ".overflowSampleRate");
+        if (propValue != null && !propValue.trim().isEmpty()) {
+            try {
+                overflowSampleRate = Integer.parseInt(propValue.trim());
+            } catch (NumberFormatException e) {
+                reportInvalidAttributeValue(propValue, "overflowSampleRate");
+            }
+        }
+        if (overflowSampleRate <= 0) {
+            overflowSampleRate = 1;
+        }
+
+        ringBuffer = new LogRecordRingBuffer(capacity);
+        sampleThreshold = ringBuffer.capacity() - ringBuffer.capacity() / 4;
+    }
+
+    private void reportInvalidAttributeValue(String value, String attribute) {
+        LogRecord lr = new LogRecord(Level.WARNING, LogFacade.INVALID_ATTRIBUTE_VALUE);
+        lr.setParameters(new Object[]{value, attribute});
+        lr.setResourceBundle(ResourceBundle.getBundle(LogFacade.LOGGING_RB_NAME));
+        lr.setThreadID((int) Thread.currentThread().getId());
+        lr.setLoggerName(LogFacade.LOGGING_LOGGER_NAME);
+        EarlyLogHandler.earlyMessages.add(lr);
+    }
+
     void initializePump() {
         pump = new Thread() {
             public void run() {
                 while (!done.isSignalled()) {
                     try {
-                        log();
+                        if (ringBuffer != null) {
+                            logBatch();
+                        } else {
+                            log();
+                        }
                     } catch (Exception e) {
                         // GLASSFISH-19125
                         // Continue the loop without exiting
@@ -558,6 +679,14 @@ PostConstruct, PreDestroy, LogEventBroadcaster, LoggingRuntime {
         pump.interrupt();
 
         // drain and return
+        if (ringBuffer != null) {
+            List<LogRecord> records = new ArrayList<LogRecord>(RING_BATCH_SIZE);
+            while (ringBuffer.drainTo(records, RING_BATCH_SIZE) > 0) {
+                writeRecords(records);
+                records.clear();
+            }
+            return;
+        }
         final int size = pendingRecords.size();
         if (size > 0) {
             Collection<LogRecord> records = new ArrayList<LogRecord>(size);
@@ -678,6 +807,7 @@ PostConstruct, PreDestroy, LogEventBroadcaster, LoggingRuntime {
                     "Failed to create the parent dir {0}", parent.getAbsolutePath()));
         }
         FileOutputStream fout = new FileOutputStream(file, true);
+        fileChannel = fout.getChannel();
         BufferedOutputStream bout = new BufferedOutputStream(fout);
         meter = new MeteredStream(bout, file.length());
         setOutputStream(meter);        
@@ -725,6 +855,7 @@ PostConstruct, PreDestroy, LogEventBroadcaster, LoggingRuntime {
                         throw new IOException("Could not delete log file: "
                                 + logFile.getAbsolutePath());
                     }
+                    LogFileIndex.deleteIndexFile(logFile);
                 }
             } catch (Exception e) {
                 new ErrorManager().error(
@@ -783,6 +914,12 @@ PostConstruct, PreDestroy, LogEventBroadcaster, LoggingRuntime {
                                                 freshServerLogFile);
                                         fo.close();
                                     }
+                                    // the log viewer index of the old file
+                                    // is still valid for the rotated file,
+                                    // the records written since it was last
+                                    // used are indexed in the background
+                                    LogFileIndex.renameIndexFile(oldFile, rotatedFile);
+                                    LogFileIndex.updateInBackground(rotatedFile);
                                     FileOutputStream oldFileFO = new FileOutputStream(
                                             oldFile);
                                     oldFileFO.close();
@@ -836,6 +973,10 @@ PostConstruct, PreDestroy, LogEventBroadcaster, LoggingRuntime {
         }
 
         flush();
+        rotateIfNeeded();
+    }
+
+    private void rotateIfNeeded() {
         if ((rotationRequested.get())
                 || ((limitForFileRotation > 0)
                 && (meter.written >= limitForFileRotation))) {
@@ -847,7 +988,177 @@ PostConstruct, PreDestroy, LogEventBroadcaster, LoggingRuntime {
                 rotationRequested.set(false);
             }
         }
+    }
 
+    /**
+     * Ring buffer mode counterpart of log(): retrieves a batch of LogRecords
+     * from the ring buffer and writes them to the file, or waits for records
+     * to be published if there are none.
+     */
+    void logBatch() {
+        ringBatch.clear();
+        if (ringBuffer.drainTo(ringBatch, RING_BATCH_SIZE) == 0) {
+            pumpParked = true;
+            if (ringBuffer.isEmpty()) {
+                LockSupport.parkNanos(this, RING_IDLE_PARK_NANOS);
+            }
+            pumpParked = false;
+            return;
+        }
+        writeRecords(ringBatch);
+        ringBatch.clear();
+        reportDroppedRecords();
+        rotateIfNeeded();
+    }
+
+    /**
+     * Formats the records into the reusable write buffer and writes it to the
+     * FileChannel of the log file, instead of going through the
+     * synchronized StreamHandler.publish for each record.
+     */
+    private void writeRecords(List<LogRecord> records) {
+        synchronized (rotationLock) {
+            if (fileChannel == null || !fileChannel.isOpen()) {
+                for (LogRecord record : records) {
+                    super.publish(record);
+                }
+                flush();
+                return;
+            }
+            try {
+                // whatever has been written through the stream, such as the
+                // formatter head, must reach the file before the batch
+                super.flush();
+                prepareEncoder();
+                Formatter formatter = getFormatter();
+                for (LogRecord record : records) {
+                    if (!isLoggable(record)) {
+                        continue;
+                    }
+                    String msg;
+                    try {
+                        msg = formatter.format(record);
+                    } catch (Exception ex) {
+                        reportError(null, ex, ErrorManager.FORMAT_FAILURE);
+                        continue;
+                    }
+                    encode(msg);
+                }
+                writeBuffer();
+            } catch (IOException ex) {
+                writeBuffer.clear();
+                reportError(null, ex, ErrorManager.WRITE_FAILURE);
+            }
+        }
+    }
+
+    private void prepareEncoder() {
+        if (writeBuffer == null) {
+            writeBuffer = ByteBuffer.allocateDirect(RING_WRITE_BUFFER_SIZE);
+        }
+        String encoding = getEncoding();
+        if (encoder == null || (encoding == null ? encoderEncoding != null : !encoding.equals(encoderEncoding))) {
+            Charset charset = (encoding == null) ? Charset.defaultCharset() : Charset.forName(encoding);
+            encoder = charset.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            encoderEncoding = encoding;
+        }
+    }
+
+    private void encode(String msg) throws IOException {
+        CharBuffer chars = CharBuffer.wrap(msg);
+        encoder.reset();
+        while (encoder.encode(chars, writeBuffer, true) == CoderResult.OVERFLOW) {
+            writeBuffer();
+        }
+        while (encoder.flush(writeBuffer) == CoderResult.OVERFLOW) {
+            writeBuffer();
+        }
+    }
+
+    private void writeBuffer() throws IOException {
+        writeBuffer.flip();
+        while (writeBuffer.hasRemaining()) {
+            meter.written += fileChannel.write(writeBuffer);
+        }
+        writeBuffer.clear();
+    }
+
+    /**
+     * Logs, at most every DROPPED_RECORDS_REPORT_INTERVAL, the number of
+     * records dropped by the overflow policy since the last report.
+     */
+    private void reportDroppedRecords() {
+        long dropped = droppedRecords.sum();
+        if (dropped == reportedDroppedRecords) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (now - lastDroppedRecordsReport < DROPPED_RECORDS_REPORT_INTERVAL) {
+            return;
+        }
+        LogRecord lr = new LogRecord(Level.WARNING, LogFacade.LOG_RECORDS_DROPPED);
+        lr.setParameters(new Object[]{dropped - reportedDroppedRecords});
+        lr.setResourceBundle(ResourceBundle.getBundle(LogFacade.LOGGING_RB_NAME));
+        lr.setLoggerName(LogFacade.LOGGING_LOGGER_NAME);
+        GFLogRecord recordWrapper = new GFLogRecord(lr);
+        recordWrapper.setThreadName(Thread.currentThread().getName());
+        List<LogRecord> records = new ArrayList<LogRecord>(1);
+        records.add(recordWrapper);
+        writeRecords(records);
+        reportedDroppedRecords = dropped;
+        lastDroppedRecordsReport = now;
+    }
+
+    /**
+     * Queues the record in the ring buffer, applying the overflow policy
+     * when the ring buffer is full.
+     */
+    private void enqueue(LogRecord record) {
+        boolean belowOverflowLevel = record.getLevel().intValue() < overflowLevel;
+        if (overflowPolicy == OverflowPolicy.SAMPLE && belowOverflowLevel
+                && ringBuffer.size() >= sampleThreshold
+                && sampleCounter.getAndIncrement() % overflowSampleRate != 0) {
+            droppedRecords.increment();
+            return;
+        }
+        while (!ringBuffer.offer(record)) {
+            if ((overflowPolicy == OverflowPolicy.DROP_BELOW_LEVEL && belowOverflowLevel)
+                    || done.isSignalled() || Thread.currentThread().isInterrupted()) {
+                droppedRecords.increment();
+                return;
+            }
+            LockSupport.unpark(pump);
+            LockSupport.parkNanos(this, RING_FULL_PARK_NANOS);
+        }
+        enqueuedRecords.increment();
+        if (pumpParked) {
+            LockSupport.unpark(pump);
+        }
+    }
+
+    /**
+     * @return number of records queued since the handler has been started
+     * in the ring buffer mode
+     */
+    public long getEnqueuedRecordCount() {
+        return enqueuedRecords.sum();
+    }
+
+    /**
+     * @return number of records dropped by the overflow policy since the
+     * handler has been started in the ring buffer mode
+     */
+    public long getDroppedRecordCount() {
+        return droppedRecords.sum();
+    }
+
+    /**
+     * @return number of records waiting to be written to the log file
+     */
+    public int getQueuedRecordCount() {
+        return ringBuffer != null ? ringBuffer.size() : pendingRecords.size();
     }
 
     /**
@@ -867,16 +1178,20 @@ PostConstruct, PreDestroy, LogEventBroadcaster, LoggingRuntime {
         GFLogRecord recordWrapper = new GFLogRecord(record);
         recordWrapper.setThreadName(Thread.currentThread().getName());
 
-        try {
-            // set the thread id to be the current thread that is logging the message
-//            record.setThreadID((int)Thread.currentThread().getId());
-            pendingRecords.add(recordWrapper);
-        } catch (IllegalStateException e) {
-            // queue is full, start waiting.
+        if (ringBuffer != null) {
+            enqueue(recordWrapper);
+        } else {
             try {
-                pendingRecords.put(recordWrapper);
-            } catch (InterruptedException e1) {
-                // too bad, record is lost...
+                // set the thread id to be the current thread that is logging the message
+//                record.setThreadID((int)Thread.currentThread().getId());
+                pendingRecords.add(recordWrapper);
+            } catch (IllegalStateException e) {
+                // queue is full, start waiting.
+                try {
+                    pendingRecords.put(recordWrapper);
+                } catch (InterruptedException e1) {
+                    // too bad, record is lost...
+                }
             }
         }
         
@@ -116,4 +116,9 @@ public class LogFacade {
     @LogMessageInfo(message = "The formatter class {0} could not be instantiated.", level="WARNING")
     public static final String INVALID_FORMATTER_CLASS_NAME = "NCLS-LOGGING-00013";    
 
+    @LogMessageInfo(message = "{0} log records have been dropped by the server log file handler because its buffer was full.", level="WARNING",
+            cause="Records were logged faster than they could be written to the server log file and the overflow policy allows them to be discarded.",
+            action="Increase the ringBufferCapacity attribute, lower the log levels or use the BLOCK overflow policy.")
+    public static final String LOG_RECORDS_DROPPED = "NCLS-LOGGING-00014";
+
 }
@@ -43,18 +43,14 @@ package com.sun.enterprise.server.logging.logviewer.backend;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
-import java.util.logging.Level;
 
-import com.sun.enterprise.server.logging.LogFacade;
 import com.sun.enterprise.server.logging.parser.LogParser;
 import com.sun.enterprise.server.logging.parser.LogParserFactory;
 import com.sun.enterprise.server.logging.parser.LogParserListener;
@@ -85,7 +81,7 @@ public class LogFile implements java.io.Serializable {
      */
     public LogFile(String name) {
         _logFileName = name;
-        _recordIdx.add(Long.valueOf(0));
+        _index = new LogFileIndex(new File(name), (int) _indexSize);
     }
 
     /**
@@ -110,6 +106,9 @@ public class LogFile implements java.io.Serializable {
             return null;
         }
 
+        // Index what has been appended to the file since the last query
+        _index.update();
+
         // Open the file at the desired starting Record
         final long recordsToIgnore = (startingRecord % getIndexSize());
         BufferedReader reader = getFilePosition(startingRecord - recordsToIgnore);
@@ -148,12 +147,18 @@ public class LogFile implements java.io.Serializable {
                         entry.setMessageId(logRecord.getMessageId());                        
                         results.add(entry);
                     }
+                    if (results.size() >= maxRecords) {
+                        // no need to parse the rest of the file
+                        throw PAGE_COMPLETE;
+                    }
                 }
                 
                 @Override
                 public void close() throws IOException {                    
                 }
             });
+        } catch (PageCompleteException ex) {
+            // results are complete
         } catch (Exception ex) {
             throw new RuntimeException(ex);
         } finally {
@@ -170,55 +175,6 @@ public class LogFile implements java.io.Serializable {
     }
 
 
-    /**
-     * This method builds the file index in the beginning.  The index is for
-     * the beginning of every record after the size specified by '_indexSize'
-     * variable.
-     */
-    private synchronized void buildLogFileIndex() {
-        // Open the file and skip to the where we left off
-        final long startPos = (Long) _recordIdx.get(_recordIdx.size() - 1);
-        final long localIndexSize = getIndexSize();
-        BufferedReader reader = getLogFileReader(startPos);
-        try {
-            File logFile = new File(getLogFileName());
-            LogParser logParser = LogParserFactory.getInstance().createLogParser(logFile);
-            if (logParser != null) {
-                logParser.parseLog(reader, new LogParserListener() {
-                    
-                    long recordNumber = (_recordIdx.size() - 1) * localIndexSize;
-
-                    @Override
-                    public void outputSummary(BufferedWriter writer, Object... objects)
-                            throws IOException {
-                    }
-                    
-                    @Override
-                    public void foundLogRecord(long position, ParsedLogRecord object) {                    
-                        long modIndex = recordNumber % localIndexSize;
-                        if (modIndex == 0) {
-                            _recordIdx.add((Long)(startPos+position));
-                        }
-                        recordNumber++;
-                    }
-                    
-                    @Override
-                    public void close() throws IOException {                    
-                    }
-                });                
-            }
-        } catch (Exception ex) {
-            throw new RuntimeException(ex);
-        } finally {
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (IOException ex) {
-                }
-            }
-        }
-    }
-
     /**
      * This method returns the file position given the record number.
      *
@@ -226,15 +182,11 @@ public class LogFile implements java.io.Serializable {
      * @param    recordNumber    The Record Number
      */
     private BufferedReader getFilePosition(long recordNumber) {
-        // The index is stored from the second slot. i.e., if there
-        // are 100 records and the index will be on 20, 40, 60, 80, 100
-        // if the _indexSize is 20. We don't store '0' hence we subtract
-        // from 1 to get the right index
-        int index = (int) (recordNumber / getIndexSize());
-        if (index > _recordIdx.size()-1) {
+        // The index holds the position of every _indexSize-th record
+        long filePosition = _index.getBlockOffset((int) (recordNumber / getIndexSize()));
+        if (filePosition < 0) {
             return null;
         }
-        Long filePosition = (Long) _recordIdx.get(index);
         return getLogFileReader(filePosition);
     }
 
@@ -243,32 +195,30 @@ public class LogFile implements java.io.Serializable {
      * the specified filePosition.
      */
     protected BufferedReader getLogFileReader(long fromFilePosition) {
-        FileInputStream file = null;
-        try {
-            file = new FileInputStream(getLogFileName());
-            long bytesToSkip = fromFilePosition-1;
-            if (bytesToSkip > 0) {
-                long bytesSkipped = file.skip(bytesToSkip);
-                if (bytesSkipped != fromFilePosition) {
-                    if (LogFacade.LOGGING_LOGGER.isLoggable(Level.FINE)) { 
-                        LogFacade.LOGGING_LOGGER.log(Level.FINE, "Did not skip exact bytes while positioning reader in " + getLogFileName());
-                    }
-                }
-            }
-            BufferedReader reader =
-                    new BufferedReader(new InputStreamReader(file));
-            return reader;
-        } catch (Exception ex) {
-            if (LogFacade.LOGGING_LOGGER.isLoggable(Level.FINE)) { 
-                LogFacade.LOGGING_LOGGER.log(Level.FINE, "Error reading from file: " + getLogFileName(), ex);
-            }
-            if (file != null) try { file.close(); } catch (Exception ex2) {
-                if (LogFacade.LOGGING_LOGGER.isLoggable(Level.FINE)) { 
-                    LogFacade.LOGGING_LOGGER.log(Level.FINE, "Error closing file: " + getLogFileName(), ex2);
-                }                
-            }            
-        } 
-        return null;
+        return _index.openReader(fromFilePosition, null);
+    }
+
+    /**
+     * @return the first record number, at or after fromRecord, from which
+     * records matching the query may be found. Parts of the file which can
+     * not match according to the index are skipped.
+     */
+    public long getNextCandidateRecord(long fromRecord, Date fromDate, Date toDate,
+            String logLevel, boolean onlyLevel, List listOfModules, List listOfMessageIds) {
+        _index.update();
+        return _index.nextCandidateRecord(fromRecord, fromDate, toDate,
+                logLevel, onlyLevel, listOfModules, listOfMessageIds);
+    }
+
+    /**
+     * @return the record number following the last record, before toRecord,
+     * which may match the query, 0 if there is none.
+     */
+    public long getPreviousCandidateRecordEnd(long toRecord, Date fromDate, Date toDate,
+            String logLevel, boolean onlyLevel, List listOfModules, List listOfMessageIds) {
+        _index.update();
+        return _index.previousCandidateRecordEnd(toRecord, fromDate, toDate,
+                logLevel, onlyLevel, listOfModules, listOfMessageIds);
     }
 
     /**
@@ -283,8 +233,8 @@ public class LogFile implements java.io.Serializable {
      * will ensure that the indexes are up-to-date.
      */
     public long getLastIndexNumber() {
-        buildLogFileIndex();
-        return _recordIdx.size() - 1;
+        _index.update();
+        return Math.max(0, _index.getBlockCount() - 1);
     }
 
     /**
@@ -443,8 +393,22 @@ public class LogFile implements java.io.Serializable {
         private String messageId = "";
     }
     
-    private long _indexSize = 10;
+    /**
+     * Thrown to stop parsing once a page of results is complete.
+     */
+    private static class PageCompleteException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        PageCompleteException() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final PageCompleteException PAGE_COMPLETE = new PageCompleteException();
+
+    private long _indexSize = LogFileIndex.DEFAULT_BLOCK_SIZE;
     private String _logFileName = null;
-    private List _recordIdx   = new ArrayList();
+    private LogFileIndex _index = null;
     
 }
@@ -0,0 +1,639 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package com.sun.enterprise.server.logging.logviewer.backend;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.zip.CRC32;
+
+import com.sun.enterprise.server.logging.LogFacade;
+import com.sun.enterprise.server.logging.parser.LogParser;
+import com.sun.enterprise.server.logging.parser.LogParserFactory;
+import com.sun.enterprise.server.logging.parser.LogParserListener;
+import com.sun.enterprise.server.logging.parser.ParsedLogRecord;
+
+/**
+ * Incremental index of a log file, kept in a sidecar file next to it so that
+ * it survives restarts of the DAS.
+ * <p/>
+ * The index holds the file offset of every blockSize-th record, which is what
+ * LogFile uses to seek to a given record number, and a summary of every
+ * segment of BLOCKS_PER_SEGMENT blocks: time range, highest level, the level
+ * names and a bloom filter of the logger names and message ids found in it.
+ * LogFilter uses the summaries to skip the segments that can not match a
+ * query instead of parsing them.
+ * <p/>
+ * The index is updated from where it stopped whenever the log file has grown,
+ * and rebuilt from scratch if the log file has been truncated or replaced.
+ * Offsets are byte offsets, the file is decoded as ISO-8859-1 while indexing
+ * so that the positions reported by the parsers are byte positions.
+ */
+public final class LogFileIndex implements java.io.Serializable {
+
+    private static final long serialVersionUID = 4622411437196378263L;
+
+    private static final String INDEX_FILE_PREFIX = ".";
+    private static final String INDEX_FILE_SUFFIX = ".idx";
+    private static final int INDEX_FILE_MAGIC = 0x47464C49;
+    private static final int INDEX_FILE_VERSION = 1;
+
+    static final int DEFAULT_BLOCK_SIZE = 10;
+    static final int BLOCKS_PER_SEGMENT = 100;
+    private static final int BLOOM_WORDS = 4;
+    private static final int BLOOM_BITS = BLOOM_WORDS * 64;
+    private static final int LOGGER_SALT = 0x9E3779B9;
+    private static final int MESSAGE_ID_SALT = 0x85EBCA6B;
+    private static final int FINGERPRINT_LENGTH = 512;
+    private static final int UNKNOWN_LEVEL_VALUE = Integer.MAX_VALUE;
+
+    private final File logFile;
+    private final File indexFile;
+    private final int blockSize;
+    private final int segmentSize;
+
+    private long[] blockOffsets = new long[64];
+    private int blockCount;
+    private long recordCount;
+    private long indexedLength;
+    private int fingerprintLength;
+    private long fingerprint;
+
+    private long[] minTimes = new long[4];
+    private long[] maxTimes = new long[4];
+    private int[] maxLevels = new int[4];
+    private int[] levelMasks = new int[4];
+    private long[] blooms = new long[4 * BLOOM_WORDS];
+    private int segmentCount;
+
+    private boolean loaded;
+
+    // Indexes the log files in the background, one at a time
+    private static final ExecutorService INDEXER = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "GlassFish log file indexer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    LogFileIndex(File logFile, int blockSize) {
+        this.logFile = logFile;
+        this.indexFile = getIndexFile(logFile);
+        this.blockSize = blockSize;
+        this.segmentSize = blockSize * BLOCKS_PER_SEGMENT;
+    }
+
+    /**
+     * @return the sidecar index file of the given log file. The name starts
+     * with a dot so that the index is neither listed as a log file nor taken
+     * for a rotated log file.
+     */
+    public static File getIndexFile(File logFile) {
+        return new File(logFile.getParentFile(), INDEX_FILE_PREFIX + logFile.getName() + INDEX_FILE_SUFFIX);
+    }
+
+    /**
+     * Called when a log file is rotated so that the index built while it was
+     * the current log file is kept for the rotated file.
+     */
+    public static void renameIndexFile(File logFile, File rotatedFile) {
+        File index = getIndexFile(logFile);
+        if (index.exists() && !index.renameTo(getIndexFile(rotatedFile))) {
+            deleteIndexFile(logFile);
+        }
+    }
+
+    /**
+     * Brings the index of the log file up to date in the background, so that
+     * the records written since the index was last used are not parsed by the
+     * first query of the file. Called when a log file is rotated.
+     */
+    public static void updateInBackground(final File logFile) {
+        INDEXER.execute(new Runnable() {
+            @Override
+            public void run() {
+                new LogFileIndex(logFile, DEFAULT_BLOCK_SIZE).update();
+            }
+        });
+    }
+
+    public static void deleteIndexFile(File logFile) {
+        File index = getIndexFile(logFile);
+        if (index.exists() && !index.delete()) {
+            if (LogFacade.LOGGING_LOGGER.isLoggable(Level.FINE)) {
+                LogFacade.LOGGING_LOGGER.log(Level.FINE, "Could not delete log index file " + index);
+            }
+        }
+    }
+
+    /**
+     * Indexes the records appended to the log file since the last update.
+     */
+    synchronized void update() {
+        if (!loaded) {
+            loaded = true;
+            load();
+        }
+        long length = logFile.length();
+        if (length == indexedLength && length > 0) {
+            return;
+        }
+        if (length < indexedLength || (indexedLength > 0 && computeFingerprint(fingerprintLength) != fingerprint)) {
+            reset();
+        }
+        if (length == 0) {
+            return;
+        }
+
+        // the last block is parsed again as its last record may have been
+        // incomplete, the segment summaries are not affected by seeing the
+        // same record twice
+        final long startPosition = (blockCount == 0) ? 0 : blockOffsets[blockCount - 1];
+        final long firstRecord = (blockCount == 0) ? 0 : (long) (blockCount - 1) * blockSize;
+        BufferedReader reader = null;
+        try {
+            LogParser logParser = LogParserFactory.getInstance().createLogParser(logFile);
+            reader = openReader(startPosition, "ISO-8859-1");
+            if (logParser == null || reader == null) {
+                return;
+            }
+            logParser.parseLog(reader, new LogParserListener() {
+
+                long recordNumber = firstRecord;
+
+                @Override
+                public void outputSummary(BufferedWriter writer, Object... objects)
+                        throws IOException {
+                }
+
+                @Override
+                public void foundLogRecord(long position, ParsedLogRecord logRecord) {
+                    if (recordNumber % blockSize == 0) {
+                        int block = (int) (recordNumber / blockSize);
+                        if (block >= blockCount) {
+                            addBlock(startPosition + position);
+                        }
+                    }
+                    addToSegment((int) (recordNumber / segmentSize), logRecord);
+                    recordNumber++;
+                    recordCount = Math.max(recordCount, recordNumber);
+                }
+
+                @Override
+                public void close() throws IOException {
+                }
+            });
+        } catch (Exception ex) {
+            if (LogFacade.LOGGING_LOGGER.isLoggable(Level.FINE)) {
+                LogFacade.LOGGING_LOGGER.log(Level.FINE, "Error indexing log file " + logFile, ex);
+            }
+            return;
+        } finally {
+            closeQuietly(reader);
+        }
+        if (fingerprintLength < FINGERPRINT_LENGTH) {
+            fingerprintLength = (int) Math.min(FINGERPRINT_LENGTH, length);
+            fingerprint = computeFingerprint(fingerprintLength);
+        }
+        indexedLength = length;
+        save();
+    }
+
+    /**
+     * @return the offset of the first record of the block, -1 if the block
+     * has not been indexed
+     */
+    synchronized long getBlockOffset(int block) {
+        if (block < 0 || block >= blockCount) {
+            return -1;
+        }
+        return blockOffsets[block];
+    }
+
+    synchronized int getBlockCount() {
+        return blockCount;
+    }
+
+    synchronized long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * @return the first record, at or after fromRecord, of a segment that may
+     * contain records matching the query, getRecordCount() if there is none
+     */
+    synchronized long nextCandidateRecord(long fromRecord, Date fromDate, Date toDate,
+            String queryLevel, boolean onlyLevel, List modules, List messageIds) {
+        long record = Math.max(0, fromRecord);
+        for (int segment = (int) (record / segmentSize); segment < segmentCount; segment++) {
+            if (mayMatch(segment, fromDate, toDate, queryLevel, onlyLevel, modules, messageIds)) {
+                return Math.max(record, (long) segment * segmentSize);
+            }
+        }
+        return Math.max(record, recordCount);
+    }
+
+    /**
+     * @return the end (exclusive), at or before toRecord, of the last segment
+     * that may contain records matching the query, 0 if there is none
+     */
+    synchronized long previousCandidateRecordEnd(long toRecord, Date fromDate, Date toDate,
+            String queryLevel, boolean onlyLevel, List modules, List messageIds) {
+        if (toRecord <= 0) {
+            return 0;
+        }
+        if (toRecord > recordCount) {
+            // not indexed yet, can not be skipped
+            return toRecord;
+        }
+        for (int segment = (int) ((toRecord - 1) / segmentSize); segment >= 0; segment--) {
+            if (mayMatch(segment, fromDate, toDate, queryLevel, onlyLevel, modules, messageIds)) {
+                return Math.min(toRecord, (long) (segment + 1) * segmentSize);
+            }
+        }
+        return 0;
+    }
+
+    private boolean mayMatch(int segment, Date fromDate, Date toDate,
+            String queryLevel, boolean onlyLevel, List modules, List messageIds) {
+        if (segment >= segmentCount) {
+            return true;
+        }
+        if (fromDate != null && toDate != null
+                && (maxTimes[segment] < fromDate.getTime() || minTimes[segment] > toDate.getTime())) {
+            return false;
+        }
+        if (queryLevel != null) {
+            String level = queryLevel.trim();
+            if (onlyLevel) {
+                if ((levelMasks[segment] & levelBit(level)) == 0) {
+                    return false;
+                }
+            } else if (maxLevels[segment] < levelValue(level)) {
+                return false;
+            }
+        }
+        if (modules != null && !modules.isEmpty()) {
+            boolean found = false;
+            for (Object module : modules) {
+                if (mayContain(segment, ((String) module).trim(), LOGGER_SALT)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        if (messageIds != null && !messageIds.isEmpty()) {
+            boolean found = false;
+            for (Object messageId : messageIds) {
+                String id = ((String) messageId).trim();
+                if (id.isEmpty() || mayContain(segment, id, MESSAGE_ID_SALT)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void addBlock(long offset) {
+        if (blockCount == blockOffsets.length) {
+            blockOffsets = Arrays.copyOf(blockOffsets, blockCount * 2);
+        }
+        blockOffsets[blockCount++] = offset;
+    }
+
+    private void addToSegment(int segment, ParsedLogRecord logRecord) {
+        while (segment >= segmentCount) {
+            if (segmentCount == minTimes.length) {
+                int capacity = segmentCount * 2;
+                minTimes = Arrays.copyOf(minTimes, capacity);
+                maxTimes = Arrays.copyOf(maxTimes, capacity);
+                maxLevels = Arrays.copyOf(maxLevels, capacity);
+                levelMasks = Arrays.copyOf(levelMasks, capacity);
+                blooms = Arrays.copyOf(blooms, capacity * BLOOM_WORDS);
+            }
+            minTimes[segmentCount] = Long.MAX_VALUE;
+            maxTimes[segmentCount] = Long.MIN_VALUE;
+            maxLevels[segmentCount] = Integer.MIN_VALUE;
+            levelMasks[segmentCount] = 0;
+            Arrays.fill(blooms, segmentCount * BLOOM_WORDS, (segmentCount + 1) * BLOOM_WORDS, 0L);
+            segmentCount++;
+        }
+
+        long time = 0L;
+        try {
+            time = logRecord.getTimeMillis();
+        } catch (NumberFormatException e) {
+            // same value as the one LogFile shows for the record
+        }
+        minTimes[segment] = Math.min(minTimes[segment], time);
+        maxTimes[segment] = Math.max(maxTimes[segment], time);
+
+        String level = logRecord.getLevel();
+        if (level == null) {
+            // levelCheck accepts records whose level can not be parsed
+            maxLevels[segment] = UNKNOWN_LEVEL_VALUE;
+            levelMasks[segment] = -1;
+        } else {
+            maxLevels[segment] = Math.max(maxLevels[segment], levelValue(level));
+            levelMasks[segment] |= levelBit(level);
+        }
+
+        String logger = logRecord.getLogger();
+        addToBloom(segment, logger == null ? "" : logger.trim(), LOGGER_SALT);
+        String messageId = logRecord.getMessageId();
+        if (messageId != null && !messageId.isEmpty()) {
+            addToBloom(segment, messageId.trim(), MESSAGE_ID_SALT);
+        }
+    }
+
+    private static int levelValue(String level) {
+        try {
+            return Level.parse(level.trim()).intValue();
+        } catch (Exception e) {
+            return UNKNOWN_LEVEL_VALUE;
+        }
+    }
+
+    private static int levelBit(String level) {
+        return 1 << (level.hashCode() & 31);
+    }
+
+    private void addToBloom(int segment, String key, int salt) {
+        int hash = key.hashCode() * salt;
+        int base = segment * BLOOM_WORDS;
+        for (int i = 0; i < 3; i++) {
+            int bit = (hash >>> (i * 8)) & (BLOOM_BITS - 1);
+            blooms[base + (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    private boolean mayContain(int segment, String key, int salt) {
+        int hash = key.hashCode() * salt;
+        int base = segment * BLOOM_WORDS;
+        for (int i = 0; i < 3; i++) {
+            int bit = (hash >>> (i * 8)) & (BLOOM_BITS - 1);
+            if ((blooms[base + (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void reset() {
+        blockCount = 0;
+        recordCount = 0;
+        indexedLength = 0;
+        fingerprintLength = 0;
+        fingerprint = 0;
+        segmentCount = 0;
+    }
+
+    /**
+     * Opens the log file positioned at the given byte offset.
+     */
+    BufferedReader openReader(long position, String charsetName) {
+        InputStream in = null;
+        try {
+            in = new FileInputStream(logFile);
+            long remaining = position;
+            while (remaining > 0) {
+                long skipped = in.skip(remaining);
+                if (skipped <= 0) {
+                    break;
+                }
+                remaining -= skipped;
+            }
+            return charsetName == null
+                    ? new BufferedReader(new InputStreamReader(in))
+                    : new BufferedReader(new InputStreamReader(in, charsetName));
+        } catch (IOException ex) {
+            if (LogFacade.LOGGING_LOGGER.isLoggable(Level.FINE)) {
+                LogFacade.LOGGING_LOGGER.log(Level.FINE, "Error reading from file: " + logFile, ex);
+            }
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ex2) {
+                }
+            }
+        }
+        return null;
+    }
+
+    private long computeFingerprint(int length) {
+        CRC32 crc = new CRC32();
+        if (length <= 0) {
+            return crc.getValue();
+        }
+        InputStream in = null;
+        try {
+            in = new FileInputStream(logFile);
+            byte[] buffer = new byte[length];
+            int read = 0;
+            while (read < length) {
+                int n = in.read(buffer, read, length - read);
+                if (n < 0) {
+                    break;
+                }
+                read += n;
+            }
+            crc.update(buffer, 0, read);
+        } catch (IOException ex) {
+            return -1;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ex) {
+                }
+            }
+        }
+        return crc.getValue();
+    }
+
+    private void load() {
+        if (!indexFile.exists()) {
+            return;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+            if (in.readInt() != INDEX_FILE_MAGIC || in.readInt() != INDEX_FILE_VERSION
+                    || in.readInt() != blockSize || in.readInt() != BLOCKS_PER_SEGMENT) {
+                return;
+            }
+            int storedFingerprintLength = in.readInt();
+            long storedFingerprint = in.readLong();
+            long storedIndexedLength = in.readLong();
+            if (storedIndexedLength > logFile.length()
+                    || computeFingerprint(storedFingerprintLength) != storedFingerprint) {
+                return;
+            }
+            long storedRecordCount = in.readLong();
+            int storedBlockCount = in.readInt();
+            long[] storedOffsets = new long[Math.max(64, storedBlockCount)];
+            for (int i = 0; i < storedBlockCount; i++) {
+                storedOffsets[i] = in.readLong();
+            }
+            int storedSegmentCount = in.readInt();
+            int capacity = Math.max(4, storedSegmentCount);
+            long[] storedMinTimes = new long[capacity];
+            long[] storedMaxTimes = new long[capacity];
+            int[] storedMaxLevels = new int[capacity];
+            int[] storedLevelMasks = new int[capacity];
+            long[] storedBlooms = new long[capacity * BLOOM_WORDS];
+            for (int i = 0; i < storedSegmentCount; i++) {
+                storedMinTimes[i] = in.readLong();
+                storedMaxTimes[i] = in.readLong();
+                storedMaxLevels[i] = in.readInt();
+                storedLevelMasks[i] = in.readInt();
+                for (int j = 0; j < BLOOM_WORDS; j++) {
+                    storedBlooms[i * BLOOM_WORDS + j] = in.readLong();
+                }
+            }
+
+            fingerprintLength = storedFingerprintLength;
+            fingerprint = storedFingerprint;
+            indexedLength = storedIndexedLength;
+            recordCount = storedRecordCount;
+            blockOffsets = storedOffsets;
+            blockCount = storedBlockCount;
+            minTimes = storedMinTimes;
+            maxTimes = storedMaxTimes;
+            maxLevels = storedMaxLevels;
+            levelMasks = storedLevelMasks;
+            blooms = storedBlooms;
+            segmentCount = storedSegmentCount;
+        } catch (Exception ex) {
+            reset();
+            if (LogFacade.LOGGING_LOGGER.isLoggable(Level.FINE)) {
+                LogFacade.LOGGING_LOGGER.log(Level.FINE, "Ignoring log index file " + indexFile, ex);
+            }
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private void save() {
+        // the index of a file may be saved by a query and by the background
+        // indexer at the same time, each one writes its own temporary file
+        File tmpFile = null;
+        DataOutputStream out = null;
+        try {
+            tmpFile = File.createTempFile(indexFile.getName(), ".tmp", indexFile.getParentFile());
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            out.writeInt(INDEX_FILE_MAGIC);
+            out.writeInt(INDEX_FILE_VERSION);
+            out.writeInt(blockSize);
+            out.writeInt(BLOCKS_PER_SEGMENT);
+            out.writeInt(fingerprintLength);
+            out.writeLong(fingerprint);
+            out.writeLong(indexedLength);
+            out.writeLong(recordCount);
+            out.writeInt(blockCount);
+            for (int i = 0; i < blockCount; i++) {
+                out.writeLong(blockOffsets[i]);
+            }
+            out.writeInt(segmentCount);
+            for (int i = 0; i < segmentCount; i++) {
+                out.writeLong(minTimes[i]);
+                out.writeLong(maxTimes[i]);
+                out.writeInt(maxLevels[i]);
+                out.writeInt(levelMasks[i]);
+                for (int j = 0; j < BLOOM_WORDS; j++) {
+                    out.writeLong(blooms[i * BLOOM_WORDS + j]);
+                }
+            }
+            out.close();
+            out = null;
+            if (!tmpFile.renameTo(indexFile)) {
+                indexFile.delete();
+                if (!tmpFile.renameTo(indexFile)) {
+                    tmpFile.delete();
+                }
+            }
+        } catch (IOException ex) {
+            // the index is still usable in memory, e.g. read-only log directory
+            if (LogFacade.LOGGING_LOGGER.isLoggable(Level.FINE)) {
+                LogFacade.LOGGING_LOGGER.log(Level.FINE, "Could not write log index file " + indexFile, ex);
+            }
+            closeQuietly(out);
+            if (tmpFile != null) {
+                tmpFile.delete();
+            }
+        }
+    }
+
+    private static void closeQuietly(java.io.Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ex) {
+            }
+        }
+    }
+}
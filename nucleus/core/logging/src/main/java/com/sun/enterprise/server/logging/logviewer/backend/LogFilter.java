@@ -43,6 +43,7 @@ package com.sun.enterprise.server.logging.logviewer.backend;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Hashtable;
 import java.util.Iterator;
@@ -98,6 +99,9 @@ public class LogFilter {
 
     private static final String NV_SEPARATOR = ";";
 
+    // Name of the name value pair used to query records by message id
+    private static final String MESSAGE_ID_NAME = "_MessageID";
+
     @Inject
     Domain domain;
 
@@ -145,7 +149,8 @@ public class LogFilter {
      * @param logLevel       The minimum log level to display
      * @param onlyLevel      True to only display messsage for "logLevel"
      * @param listOfModules  List of modules to match
-     * @param nameValueMap   NVP's to match
+     * @param nameValueMap   NVP's to match, the values of _MessageID are
+     *                       matched against the message ids of the records
      * @return
      */
     public AttributeList getLogRecordsUsingQuery(
@@ -210,10 +215,8 @@ public class LogFilter {
             }
         }
 
-        // TO DO: If the fromRecord count is zero and the fromDate entry is
-        // non-null, then the system should take advantage of file Indexing.
-        // It should move the file position to the marker where the DateTime
-        // query matches.
+        // The log file index is used by fetchRecordsUsingQuery to move the
+        // file position to the records which may match the query.
         try {
             return fetchRecordsUsingQuery(logFile, startingRecord, nxt, forwd,
                     reqCount, fromDate, toDate, logLevel,
@@ -461,10 +464,8 @@ public class LogFilter {
             }
         }
 
-        // TO DO: If the fromRecord count is zero and the fromDate entry is
-        // non-null, then the system should take advantage of file Indexing.
-        // It should move the file position to the marker where the DateTime
-        // query matches.
+        // The log file index is used by fetchRecordsUsingQuery to move the
+        // file position to the records which may match the query.
         try {
             return fetchRecordsUsingQuery(logFile, startingRecord, nxt, forwd,
                     reqCount, fromDate, toDate, logLevel,
@@ -514,11 +515,37 @@ public class LogFilter {
         // Make sure the module names are correct
         //updateModuleList(listOfModules);
 
+        // The message ids are not kept in the name value pairs of the
+        // records, they are matched separately and used to skip parts of the
+        // file with the index
+        List messageIds = getQueriedMessageIds(nameValueMap);
+        if (messageIds != null) {
+            nameValueMap = withoutMessageIds(nameValueMap);
+        }
+
         // Keep pulling records to search through until we get enough matches
         List results = new ArrayList();
         List records = null;
         LogFile.LogEntry entry = null;
         while (results.size() < requestedCount) {
+            // Skip the parts of the file that can not match according to
+            // the log file index
+            if (forward) {
+                startingRecord = logFile.getNextCandidateRecord(startingRecord,
+                        fromDate, toDate, logLevel, onlyLevel, listOfModules, messageIds);
+            } else {
+                long endRecord = logFile.getPreviousCandidateRecordEnd(
+                        startingRecord + searchChunkIncrement,
+                        fromDate, toDate, logLevel, onlyLevel, listOfModules, messageIds);
+                if (endRecord <= 0) {
+                    break;
+                }
+                if (endRecord < startingRecord + searchChunkIncrement) {
+                    startingRecord = Math.max(0, endRecord - searchChunkIncrement);
+                    searchChunkIncrement = endRecord - startingRecord;
+                }
+            }
+
             // The following will always return unfiltered forward records
             records = logFile.getLogEntries(
                     startingRecord, searchChunkIncrement);
@@ -539,7 +566,8 @@ public class LogFilter {
                  count += inc) {
                 entry = (LogFile.LogEntry) records.get(count);
                 if (allChecks(entry, fromDate, toDate, logLevel, onlyLevel,
-                        listOfModules, nameValueMap, anySearch)) {
+                        listOfModules, nameValueMap, anySearch)
+                        && messageIdCheck(entry.getMessageId(), messageIds)) {
                     results.add(entry);
                 }
             }
@@ -823,6 +851,45 @@ public class LogFilter {
         return false;
     }
 
+    protected boolean messageIdCheck(String messageId, List messageIds) {
+        if ((messageIds == null) || (messageIds.size() == 0)) {
+            return true;
+        }
+        if (messageId == null) {
+            return false;
+        }
+        messageId = messageId.trim();
+        Iterator iterator = messageIds.iterator();
+        while (iterator.hasNext()) {
+            if (messageId.equals(((String) iterator.next()).trim())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the message ids queried with the _MessageID name, null if
+     * there is none
+     */
+    private static List getQueriedMessageIds(Properties nameValueMap) {
+        if (nameValueMap == null) {
+            return null;
+        }
+        Object messageIds = nameValueMap.get(MESSAGE_ID_NAME);
+        if (messageIds instanceof String) {
+            return Collections.singletonList(messageIds);
+        }
+        return (List) messageIds;
+    }
+
+    private static Properties withoutMessageIds(Properties nameValueMap) {
+        Properties result = new Properties();
+        result.putAll(nameValueMap);
+        result.remove(MESSAGE_ID_NAME);
+        return result.isEmpty() ? null : result;
+    }
+
     protected boolean messageDataCheck(String message, String nvp,
                                        String anySearch) {
 
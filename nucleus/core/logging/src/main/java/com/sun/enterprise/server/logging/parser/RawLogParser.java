@@ -68,7 +68,7 @@ public class RawLogParser implements LogParser {
                 ParsedLogRecord record = new ParsedLogRecord(line);
                 record.setFieldValue(ParsedLogRecord.LOG_MESSAGE, line);
                 listener.foundLogRecord(position, record);
-                position++;
+                position += line.length() + LogParserFactory.NEWLINE.length();
             }
         } catch(IOException e){
             throw new LogParserException(e);
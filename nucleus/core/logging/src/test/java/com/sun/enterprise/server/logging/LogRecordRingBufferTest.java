@@ -0,0 +1,120 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package com.sun.enterprise.server.logging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import org.junit.Test;
+
+/**
+ * Test class to exercise the ring buffer used by GFFileHandler in the
+ * asynchronous ring buffer mode.
+ */
+public class LogRecordRingBufferTest {
+
+    @Test
+    public void testOfferFailsWhenFull() {
+        LogRecordRingBuffer ringBuffer = new LogRecordRingBuffer(3);
+        assertEquals(4, ringBuffer.capacity());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ringBuffer.offer(new LogRecord(Level.INFO, "msg" + i)));
+        }
+        assertFalse(ringBuffer.offer(new LogRecord(Level.INFO, "overflow")));
+        assertEquals(4, ringBuffer.size());
+
+        List<LogRecord> records = new ArrayList<LogRecord>();
+        assertEquals(2, ringBuffer.drainTo(records, 2));
+        assertEquals("msg0", records.get(0).getMessage());
+        assertEquals("msg1", records.get(1).getMessage());
+        assertTrue(ringBuffer.offer(new LogRecord(Level.INFO, "msg4")));
+        assertEquals(3, ringBuffer.size());
+    }
+
+    @Test
+    public void testConcurrentProducersKeepPerThreadOrder() throws Exception {
+        final LogRecordRingBuffer ringBuffer = new LogRecordRingBuffer(256);
+        final int producers = 4;
+        final int recordsPerProducer = 20000;
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            final int id = p;
+            threads[p] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < recordsPerProducer; i++) {
+                        LogRecord record = new LogRecord(Level.INFO, id + ":" + i);
+                        while (!ringBuffer.offer(record)) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            };
+            threads[p].start();
+        }
+
+        int[] last = new int[producers];
+        Arrays.fill(last, -1);
+        List<LogRecord> records = new ArrayList<LogRecord>();
+        int received = 0;
+        while (received < producers * recordsPerProducer) {
+            records.clear();
+            received += ringBuffer.drainTo(records, 64);
+            for (LogRecord record : records) {
+                String[] parts = record.getMessage().split(":");
+                int id = Integer.parseInt(parts[0]);
+                int index = Integer.parseInt(parts[1]);
+                assertEquals(last[id] + 1, index);
+                last[id] = index;
+            }
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(ringBuffer.isEmpty());
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package com.sun.enterprise.server.logging.logviewer.backend;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class to exercise the sidecar index used by LogFile and LogFilter.
+ */
+public class LogFileIndexTest {
+
+    private static final String BASE_PATH = System.getProperty("user.dir")
+            + File.separator + "target";
+
+    private File logFile;
+
+    @Before
+    public void createLogFile() throws IOException {
+        new File(BASE_PATH).mkdirs();
+        logFile = new File(BASE_PATH, "test-index.log");
+        logFile.delete();
+        LogFileIndex.deleteIndexFile(logFile);
+        appendRecords(0, 5000);
+    }
+
+    private void appendRecords(int from, int to) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(logFile, true), "UTF-8");
+        try {
+            for (int i = from; i < to; i++) {
+                String level = (i == 3210) ? "SEVERE" : "INFO";
+                String logger = (i == 4321) ? "javax.enterprise.test.rare" : "javax.enterprise.test";
+                String messageId = (i == 4567) ? "_MessageID=TEST-00001;" : "";
+                writer.write("[#|2017-01-01T00:00:00.000+0000|" + level + "|glassfish|" + logger
+                        + "|_ThreadID=1;_ThreadName=main;_TimeMillis=" + (1000000L + i)
+                        + ";" + messageId + "|Test message " + i + "|#]\n\n");
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static String messageOf(Object entry) {
+        return ((LogFile.LogEntry) entry).getLoggedMessage();
+    }
+
+    @Test
+    public void testSeekToRecord() throws IOException {
+        LogFile file = new LogFile(logFile.getAbsolutePath());
+        assertEquals(499, file.getLastIndexNumber());
+        List entries = file.getLogEntries(2345, 10);
+        assertEquals(10, entries.size());
+        assertEquals("Test message 2345", messageOf(entries.get(0)));
+        assertEquals("Test message 2354", messageOf(entries.get(9)));
+
+        // records appended after the index has been built
+        appendRecords(5000, 5010);
+        entries = file.getLogEntries(5005, 10);
+        assertEquals(5, entries.size());
+        assertEquals("Test message 5005", messageOf(entries.get(0)));
+    }
+
+    @Test
+    public void testSkipSegments() {
+        LogFile file = new LogFile(logFile.getAbsolutePath());
+        long segmentSize = file.getIndexSize() * LogFileIndex.BLOCKS_PER_SEGMENT;
+
+        long candidate = file.getNextCandidateRecord(0, null, null, "SEVERE", false, null, null);
+        assertEquals((3210 / segmentSize) * segmentSize, candidate);
+
+        candidate = file.getNextCandidateRecord(0, null, null, null, false,
+                Arrays.asList("javax.enterprise.test.rare"), null);
+        assertTrue(candidate <= 4321);
+
+        candidate = file.getPreviousCandidateRecordEnd(5000, null, null, "SEVERE", false, null, null);
+        assertEquals((3210 / segmentSize + 1) * segmentSize, candidate);
+
+        candidate = file.getNextCandidateRecord(4000, null, null, "SEVERE", true, null, null);
+        assertEquals(5000, candidate);
+
+        candidate = file.getNextCandidateRecord(0, null, null, null, false, null,
+                Arrays.asList("TEST-00001"));
+        assertTrue(candidate <= 4567);
+        candidate = file.getPreviousCandidateRecordEnd(5000, null, null, null, false, null,
+                Arrays.asList("TEST-00001"));
+        assertTrue(candidate > 4567);
+    }
+
+    /**
+     * Rotated log files are indexed in the background.
+     */
+    @Test
+    public void testUpdateInBackground() throws InterruptedException {
+        File indexFile = LogFileIndex.getIndexFile(logFile);
+        assertTrue(!indexFile.exists());
+        LogFileIndex.updateInBackground(logFile);
+        for (int i = 0; i < 100 && !indexFile.exists(); i++) {
+            Thread.sleep(100);
+        }
+        assertTrue(indexFile.exists());
+
+        LogFile file = new LogFile(logFile.getAbsolutePath());
+        assertEquals("Test message 4999", messageOf(file.getLogEntries(4999, 1).get(0)));
+    }
+
+    /**
+     * The filter only parses the parts of the file that may match the query.
+     */
+    @Test
+    public void testFilterSkipsSegments() {
+        RecordingLogFile file = new RecordingLogFile(logFile.getAbsolutePath());
+        long segmentSize = file.getIndexSize() * LogFileIndex.BLOCKS_PER_SEGMENT;
+        LogFilter filter = new LogFilter();
+
+        List results = results(filter.fetchRecordsUsingQuery(file, 0, true, true, 10,
+                null, null, "SEVERE", false, null, null, null));
+        assertEquals(1, results.size());
+        assertEquals(3210L, ((List) results.get(0)).get(0));
+        assertSkipped(file, (3210 / segmentSize) * segmentSize);
+
+        Properties nameValueMap = new Properties();
+        nameValueMap.put("_MessageID", Arrays.asList("TEST-00001"));
+        file.startingRecords.clear();
+        results = results(filter.fetchRecordsUsingQuery(file, 0, true, true, 10,
+                null, null, null, false, null, nameValueMap, null));
+        assertEquals(1, results.size());
+        assertEquals(4567L, ((List) results.get(0)).get(0));
+        assertEquals("TEST-00001", ((List) results.get(0)).get(6));
+        assertSkipped(file, (4567 / segmentSize) * segmentSize);
+
+        // searching backward from the end of the file
+        file.startingRecords.clear();
+        results = results(filter.fetchRecordsUsingQuery(file, 5000, false, true, 10,
+                null, null, "SEVERE", false, null, null, null));
+        assertEquals(1, results.size());
+        assertEquals(3210L, ((List) results.get(0)).get(0));
+        // the last chunk read backward may start in the previous segment
+        assertSkipped(file, (3210 / segmentSize) * segmentSize - 10);
+    }
+
+    private static void assertSkipped(RecordingLogFile file, long firstParsedRecord) {
+        assertTrue(!file.startingRecords.isEmpty());
+        for (long startingRecord : file.startingRecords) {
+            assertTrue("record " + startingRecord + " should have been skipped",
+                    startingRecord >= firstParsedRecord);
+        }
+    }
+
+    private static List results(AttributeList attributes) {
+        return (List) ((Attribute) attributes.get(1)).getValue();
+    }
+
+    /**
+     * Records the parts of the file which are parsed.
+     */
+    private static class RecordingLogFile extends LogFile {
+        final List<Long> startingRecords = new ArrayList<Long>();
+
+        RecordingLogFile(String name) {
+            super(name);
+        }
+
+        @Override
+        public List getLogEntries(long startingRecord, long maxRecords) {
+            startingRecords.add(startingRecord);
+            return super.getLogEntries(startingRecord, maxRecords);
+        }
+    }
+
+    @Test
+    public void testIndexFileReused() {
+        LogFile file = new LogFile(logFile.getAbsolutePath());
+        file.getLastIndexNumber();
+        assertTrue(LogFileIndex.getIndexFile(logFile).exists());
+
+        LogFile reopened = new LogFile(logFile.getAbsolutePath());
+        assertEquals(499, reopened.getLastIndexNumber());
+        assertEquals("Test message 4999", messageOf(reopened.getLogEntries(4999, 1).get(0)));
+    }
+}
@@ -94,7 +94,11 @@ public class FlashlightUtils {
 
     public static void setMonitoringEnabled(boolean b) {
         ok();
+        boolean changed = (monitoringEnabled != b);
         monitoringEnabled = b;
+
+        if (changed)
+            FlashlightProbe.monitoringEnabledChanged();
     }
 
     public static boolean isMonitoringEnabled() {
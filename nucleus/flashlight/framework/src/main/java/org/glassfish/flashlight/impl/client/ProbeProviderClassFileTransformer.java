@@ -60,6 +60,7 @@ import java.util.WeakHashMap;
 
 import org.glassfish.flashlight.FlashlightLoggerInfo;
 import static org.glassfish.flashlight.FlashlightLoggerInfo.*;
+import org.glassfish.flashlight.impl.core.ProviderImplGenerator;
 import org.glassfish.flashlight.provider.FlashlightProbe;
 import org.glassfish.flashlight.provider.ProbeRegistry;
 
@@ -309,6 +310,8 @@ public class ProbeProviderClassFileTransformer implements ClassFileTransformer {
     private class ProbeProviderClassVisitor
             extends ClassVisitor {
 
+        private int classVersion;
+
         ProbeProviderClassVisitor(ClassVisitor cv) {
             super(Opcodes.ASM6, cv);
             if (Log.getLogger().isLoggable(Level.FINER)) {
@@ -318,13 +321,21 @@ public class ProbeProviderClassFileTransformer implements ClassFileTransformer {
             }
         }
 
+        @Override
+        public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+            classVersion = version & 0xFFFF;
+            super.visit(version, access, name, signature, superName, interfaces);
+        }
+
         @Override
         public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
             MethodVisitor mv = super.visitMethod(access, name, desc, signature, exceptions);
 
             FlashlightProbe probe = probes.get(makeKey(name, desc));
             if (probe != null) {
-                mv = new ProbeProviderMethodVisitor(mv, access, name, desc, probe);
+                // invokedynamic is not allowed in class files older than Java 7
+                boolean callSite = probe.isCallSiteDispatch() && classVersion >= Opcodes.V1_7;
+                mv = new ProbeProviderMethodVisitor(mv, access, name, desc, probe, callSite);
             }
 
             return mv;
@@ -335,12 +346,15 @@ public class ProbeProviderClassFileTransformer implements ClassFileTransformer {
             extends AdviceAdapter {
 
         private FlashlightProbe probe;
+        private boolean callSite;
         private int stateLocal;
         private Label startFinally;
 
-        ProbeProviderMethodVisitor(MethodVisitor mv, int access, String name, String desc, FlashlightProbe probe) {
+        ProbeProviderMethodVisitor(MethodVisitor mv, int access, String name, String desc,
+                FlashlightProbe probe, boolean callSite) {
             super(Opcodes.ASM6, mv, access, name, desc);
             this.probe = probe;
+            this.callSite = callSite;
         }
 
         @Override
@@ -459,6 +473,14 @@ public class ProbeProviderClassFileTransformer implements ClassFileTransformer {
         
         // This handles the stateless probe invocations
         private void insertCode() {
+            if (callSite) {
+                loadArgs();
+                invokeDynamic(probe.getProviderJavaMethodName(), Type.getMethodDescriptor(Type.VOID_TYPE,
+                        Type.getArgumentTypes(methodDesc)), ProviderImplGenerator.BOOTSTRAP,
+                        probe.getId());
+                return;
+            }
+
             //Add the body
             push(probe.getId());
             loadArgArray();
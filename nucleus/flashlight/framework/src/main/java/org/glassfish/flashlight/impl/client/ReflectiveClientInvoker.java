@@ -40,8 +40,12 @@
 
 package org.glassfish.flashlight.impl.client;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.InvocationTargetException;
-import org.glassfish.flashlight.client.ProbeClientInvoker;
+import java.lang.reflect.Modifier;
+import org.glassfish.flashlight.client.LinkableProbeClientInvoker;
 import org.glassfish.flashlight.impl.core.ComputedParamsHandlerManager;
 import org.glassfish.flashlight.provider.FlashlightProbe;
 
@@ -51,7 +55,7 @@ import java.util.HashMap;
 import org.glassfish.flashlight.FlashlightUtils;
 
 public class ReflectiveClientInvoker
-        implements ProbeClientInvoker {
+        implements LinkableProbeClientInvoker {
     private int id;
     private Object target;
     private Method method;
@@ -156,16 +160,78 @@ public class ReflectiveClientInvoker
                 methodInvoke(args);
         }
         catch (Exception ex) {
-            if (!emittedOneMessage) {
-                // Only do this one time!
-                emittedOneMessage = true;
-                StringBuilder sb = new StringBuilder();
-                sb.append(getClass().getName()).append('\n').append(ex).append('\n');
-                sb.append("CAUSE:  ").append(ex.getCause()).append('\n');
-                sb.append(this);
-                System.out.println(sb.toString());
+            invocationFailed(ex);
+        }
+    }
+
+    private void invocationFailed(Exception ex) {
+        if (!emittedOneMessage) {
+            // Only do this one time!
+            emittedOneMessage = true;
+            StringBuilder sb = new StringBuilder();
+            sb.append(getClass().getName()).append('\n').append(ex).append('\n');
+            sb.append("CAUSE:  ").append(ex.getCause()).append('\n');
+            sb.append(this);
+            System.out.println(sb.toString());
+        }
+    }
+
+    // exception handler of the linked listener, reporting the failure as
+    // the reflective invocation does
+    private void linkedInvocationFailed(Exception ex) {
+        invocationFailed(new InvocationTargetException(ex));
+    }
+
+    /**
+     * The listener is linked directly when it takes the probe arguments only,
+     * in any order and with types the probe arguments can be converted to
+     * without a cast. Computed params and varargs go through invoke().
+     */
+    @Override
+    public MethodHandle getMethodHandle(MethodType probeType) {
+        if (hasComputedParams || method.isVarArgs())
+            return null;
+
+        try {
+            if (!method.isAccessible())
+                method.setAccessible(true);
+
+            MethodHandle mh = MethodHandles.lookup().unreflect(method);
+            if (!Modifier.isStatic(method.getModifiers()))
+                mh = mh.bindTo(target);
+
+            // listener params in the listener order, typed as the probe params
+            Class[] linkedTypes = new Class[probeIndices.length];
+            for (int i = 0; i < probeIndices.length; i++) {
+                linkedTypes[i] = probeType.parameterType(probeIndices[i]);
+                if (!isLinkable(linkedTypes[i], methodParamTypes[i]))
+                    return null;
             }
+            mh = mh.asType(MethodType.methodType(void.class, linkedTypes));
+            mh = MethodHandles.permuteArguments(mh, probeType, probeIndices);
+
+            MethodHandle handler = MethodHandles.lookup().findVirtual(ReflectiveClientInvoker.class,
+                    "linkedInvocationFailed", MethodType.methodType(void.class, Exception.class));
+            handler = MethodHandles.dropArguments(handler.bindTo(this), 1, probeType.parameterList());
+            return MethodHandles.catchException(mh, Exception.class, handler);
+        }
+        catch (ReflectiveOperationException ex) {
+            return null;
         }
+        catch (RuntimeException ex) {
+            // WrongMethodTypeException, or setAccessible refused by the JDK
+            return null;
+        }
+    }
+
+    // conversions that cannot fail at run time: primitive widening and boxing
+    // to a super type of the wrapper
+    private static boolean isLinkable(Class probeType, Class listenerType) {
+        if (listenerType.isPrimitive())
+            return probeType.isPrimitive();
+
+        Class wrapped = MethodType.methodType(probeType).wrap().returnType();
+        return listenerType.isAssignableFrom(wrapped);
     }
 
     private void methodInvoke(Object[] args) throws IllegalAccessException,
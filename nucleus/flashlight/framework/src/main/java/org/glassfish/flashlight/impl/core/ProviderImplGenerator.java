@@ -50,6 +50,7 @@ import com.sun.enterprise.util.io.FileUtils;
 import org.glassfish.flashlight.provider.FlashlightProbe;
 import org.glassfish.flashlight.provider.ProbeRegistry;
 import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Handle;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
@@ -69,6 +70,11 @@ import org.glassfish.flashlight.FlashlightLoggerInfo;
 public class ProviderImplGenerator {
     private static final Logger logger = FlashlightLoggerInfo.getLogger();
 
+    public static final Handle BOOTSTRAP = new Handle(Opcodes.H_INVOKESTATIC,
+            Type.getInternalName(FlashlightProbe.class), "bootstrap",
+            "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;"
+            + "Ljava/lang/invoke/MethodType;I)Ljava/lang/invoke/CallSite;", false);
+
     public String defineClass(FlashlightProbeProvider provider, Class providerClazz) {
 
         String generatedClassName = provider.getModuleProviderName() + "_Flashlight_" + provider.getModuleName() + "_"
@@ -134,9 +140,18 @@ public class ProviderImplGenerator {
         int cwFlags = ClassWriter.COMPUTE_FRAMES + ClassWriter.COMPUTE_MAXS;
         ClassWriter cw = new ClassWriter(cwFlags);
 
+        // invokedynamic needs a Java 7 class file
+        int version = Opcodes.V1_5;
+        for (FlashlightProbe probe : provider.getProbes()) {
+            if (probe.isCallSiteDispatch()) {
+                version = Opcodes.V1_7;
+                break;
+            }
+        }
+
         int access = Opcodes.ACC_PUBLIC + Opcodes.ACC_FINAL;
         String[] interfaces = new String[]{providerClazz.getName().replace('.', '/')};
-        cw.visit(Opcodes.V1_5, access, generatedClassName, null, "java/lang/Object", interfaces);
+        cw.visit(version, access, generatedClassName, null, "java/lang/Object", interfaces);
 
 
         for (FlashlightProbe probe : provider.getProbes()) {
@@ -161,6 +176,16 @@ public class ProviderImplGenerator {
             Method m = Method.getMethod(methodDesc.toString());
             GeneratorAdapter gen = new GeneratorAdapter(Opcodes.ACC_PUBLIC, m, null, null, cw);
 
+            if (probe.isCallSiteDispatch()) {
+                // the call site does nothing while the probe is disabled
+                gen.loadArgs();
+                gen.invokeDynamic(probe.getProviderJavaMethodName(), m.getDescriptor(),
+                        BOOTSTRAP, probe.getId());
+                gen.returnValue();
+                gen.endMethod();
+                continue;
+            }
+
             String fieldName = "_flashlight_" + probe.getProbeName();
             gen.loadThis();
             gen.visitFieldInsn(Opcodes.GETFIELD,
@@ -274,6 +299,14 @@ public class ProviderImplGenerator {
     }
 }
 /*************
+ *
+ * With call site dispatch, the default, the probe methods are instead
+ *
+public void threadReturnedToPoolEvent(String paramString1, String paramString2)
+{
+invokedynamic threadReturnedToPoolEvent(String, String)void
+    [FlashlightProbe.bootstrap, 4]
+}
  *
  * Example of generated file
  *
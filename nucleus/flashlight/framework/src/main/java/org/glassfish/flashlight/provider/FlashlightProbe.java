@@ -40,10 +40,19 @@
 
 package org.glassfish.flashlight.provider;
 
+import java.lang.invoke.CallSite;
+import java.lang.invoke.ConstantCallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.lang.invoke.SwitchPoint;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 
 import java.util.*;
+import org.glassfish.flashlight.FlashlightUtils;
+import org.glassfish.flashlight.client.LinkableProbeClientInvoker;
 import org.glassfish.flashlight.client.ProbeClientInvoker;
 import org.glassfish.flashlight.client.ProbeHandle;
 import org.glassfish.flashlight.client.StatefulProbeClientInvoker;
@@ -101,6 +110,11 @@ public class FlashlightProbe
             this.paramTypes = paramTypes;
         }
 
+        if (CALL_SITE_DISPATCH && !self && !stateful) {
+            callSite = new MutableCallSite(noop(MethodType.methodType(void.class, this.paramTypes)));
+        } else {
+            callSite = null;
+        }
     }
 
     public Method getProbeMethod() {
@@ -139,6 +153,7 @@ public class FlashlightProbe
         firstTransform = false;
 
         initInvokerList();
+        relink();
         return isFirst;
     }
 
@@ -160,6 +175,7 @@ public class FlashlightProbe
         listenerEnabled.set(!invokers.isEmpty());
 
         initInvokerList();
+        relink();
         return listenerEnabled.get();
     }
 
@@ -255,6 +271,125 @@ public class FlashlightProbe
         return listenerEnabled.get();
     }
 
+    /**
+     * @return true if the generated provider calls this probe through
+     * an invokedynamic instruction linked to getCallSite()
+     */
+    public boolean isCallSiteDispatch() {
+        return callSite != null;
+    }
+
+    /**
+     * The call site of the probe, of type (paramTypes)void. Its target does
+     * nothing while there is no listener or monitoring is disabled, otherwise
+     * it calls the listeners in turn, directly when they allow it (see
+     * LinkableProbeClientInvoker) and through invoke(Object[]) if not.
+     *
+     * @return the call site, null if the probe is not dispatched through one
+     */
+    public MutableCallSite getCallSite() {
+        return callSite;
+    }
+
+    /**
+     * Bootstrap method of the invokedynamic instructions generated for the
+     * probe methods of the providers.
+     */
+    public static CallSite bootstrap(MethodHandles.Lookup caller, String name,
+            MethodType type, int probeId) {
+        FlashlightProbe probe = ProbeRegistry.getProbeById(probeId);
+        if (probe == null || probe.callSite == null) {
+            // the probe has been unregistered meanwhile
+            return new ConstantCallSite(noop(type));
+        }
+        if (!type.equals(probe.callSite.type())) {
+            return new ConstantCallSite(probe.callSite.dynamicInvoker().asType(type));
+        }
+        return probe.callSite;
+    }
+
+    /**
+     * Called when monitoring is enabled or disabled for the whole server: the
+     * current switch point turns all the probe call sites to the boxing slow
+     * path, fireProbe(Object[]), until they have been relinked. The level is
+     * not checked by fireProbe itself but by the invokers it calls, in
+     * ReflectiveClientInvoker.invoke(Object[]).
+     */
+    public static void monitoringEnabledChanged() {
+        if (!CALL_SITE_DISPATCH) {
+            return;
+        }
+        SwitchPoint old;
+        synchronized (FlashlightProbe.class) {
+            old = monitoringSwitchPoint;
+            monitoringSwitchPoint = new SwitchPoint();
+        }
+        SwitchPoint.invalidateAll(new SwitchPoint[] { old });
+
+        for (FlashlightProbe probe : ProbeRegistry.getRegisteredProbes()) {
+            probe.relink();
+        }
+    }
+
+    private synchronized void relink() {
+        if (callSite == null) {
+            return;
+        }
+        MethodType type = callSite.type();
+        MethodHandle target;
+        SwitchPoint switchPoint;
+
+        synchronized (FlashlightProbe.class) {
+            switchPoint = monitoringSwitchPoint;
+        }
+        if (!listenerEnabled.get() || !isMonitoringEnabled()) {
+            target = noop(type);
+        } else {
+            target = null;
+            if (parent != null) {
+                target = boxed(FIRE_PROBE.bindTo(parent), type);
+            }
+            for (ProbeClientInvoker invoker : invokerList) {
+                MethodHandle mh = null;
+                if (invoker instanceof LinkableProbeClientInvoker) {
+                    mh = ((LinkableProbeClientInvoker) invoker).getMethodHandle(type);
+                }
+                if (mh == null) {
+                    mh = boxed(INVOKE.bindTo(invoker), type);
+                }
+                target = (target == null) ? mh : MethodHandles.foldArguments(mh, target);
+            }
+            if (target == null) {
+                target = noop(type);
+            }
+        }
+
+        MethodHandle slowPath = boxed(FIRE_PROBE.bindTo(this), type);
+        callSite.setTarget(switchPoint.guardWithTest(target, slowPath));
+        MutableCallSite.syncAll(new MutableCallSite[] { callSite });
+    }
+
+    private static boolean isMonitoringEnabled() {
+        try {
+            return FlashlightUtils.isMonitoringEnabled();
+        } catch (RuntimeException e) {
+            // not initialized yet, the call site is relinked when it is
+            return false;
+        }
+    }
+
+    private static MethodHandle noop(MethodType type) {
+        return MethodHandles.dropArguments(NOOP, 0, type.parameterList());
+    }
+
+    // (Object[])void handle adapted to type, boxing the arguments
+    private static MethodHandle boxed(MethodHandle mh, MethodType type) {
+        return mh.asCollector(Object[].class, type.parameterCount()).asType(type);
+    }
+
+    private static void noop() {
+    }
+
     public int getId() {
         return id;
     }
@@ -434,5 +569,29 @@ public class FlashlightProbe
     private boolean statefulReturn = false;
     private boolean statefulException = false;
     private String [] profileNames = null;
+    private final MutableCallSite callSite;
+
+    /**
+     * Set to false to have the generated providers box the probe arguments
+     * and call fireProbe(Object[]) again.
+     */
+    public static final boolean CALL_SITE_DISPATCH = Boolean.parseBoolean(
+            System.getProperty("org.glassfish.flashlight.callSiteDispatch", "true"));
+    private static SwitchPoint monitoringSwitchPoint = new SwitchPoint();
+    private static final MethodHandle NOOP;
+    private static final MethodHandle FIRE_PROBE;
+    private static final MethodHandle INVOKE;
+
+    static {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        MethodType arrayType = MethodType.methodType(void.class, Object[].class);
+        try {
+            NOOP = lookup.findStatic(FlashlightProbe.class, "noop", MethodType.methodType(void.class));
+            FIRE_PROBE = lookup.findVirtual(FlashlightProbe.class, "fireProbe", arrayType);
+            INVOKE = lookup.findVirtual(ProbeClientInvoker.class, "invoke", arrayType);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
 }
 
@@ -128,6 +128,13 @@ public class ProbeRegistry {
        return visibleProbes;
     }
 
+    /**
+     * @return all the probes, hidden ones included
+     */
+    static Collection<FlashlightProbe> getRegisteredProbes() {
+        return probeMap.values();
+    }
+
    public static void invokeProbe(int id, Object[] args) {
     	FlashlightProbe probe = probeMap.get(id);
     	if (probe != null) {
@@ -0,0 +1,139 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.flashlight.impl.client;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import org.glassfish.flashlight.provider.FlashlightProbe;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Linking of the listeners into the call site of a probe.
+ */
+public class ReflectiveClientInvokerTest {
+
+    public static class Listener {
+        long total;
+        String lastApp;
+        int calls;
+
+        public void requestEnd(long time, String app) {
+            total += time;
+            lastApp = app;
+            calls++;
+        }
+
+        public void status(Object status) {
+            calls++;
+        }
+
+        public void narrow(String status) {
+            calls++;
+        }
+
+        public void fail(String app) {
+            calls++;
+            throw new IllegalStateException(app);
+        }
+    }
+
+    private final FlashlightProbe probe = new FlashlightProbe(1, Object.class,
+            "test", "test", "test", "requestEndEvent",
+            new String[] {"app", "status", "time"},
+            new Class[] {String.class, int.class, long.class},
+            false, false, false, false, false, null);
+
+    private final MethodType probeType =
+            MethodType.methodType(void.class, String.class, int.class, long.class);
+
+    @Test
+    public void testReorderedParams() throws Throwable {
+        Listener listener = new Listener();
+        ReflectiveClientInvoker invoker = new ReflectiveClientInvoker(1, listener,
+                Listener.class.getMethod("requestEnd", long.class, String.class),
+                new String[] {"time", "app"}, probe);
+
+        MethodHandle mh = invoker.getMethodHandle(probeType);
+        assertNotNull(mh);
+        mh.invokeExact("app1", 200, 42L);
+        assertEquals(42L, listener.total);
+        assertEquals("app1", listener.lastApp);
+    }
+
+    @Test
+    public void testBoxedParam() throws Throwable {
+        Listener listener = new Listener();
+        ReflectiveClientInvoker invoker = new ReflectiveClientInvoker(2, listener,
+                Listener.class.getMethod("status", Object.class),
+                new String[] {"status"}, probe);
+
+        MethodHandle mh = invoker.getMethodHandle(probeType);
+        assertNotNull(mh);
+        mh.invokeExact("app1", 404, 1L);
+        assertEquals(1, listener.calls);
+    }
+
+    @Test
+    public void testListenerFailure() throws Throwable {
+        Listener listener = new Listener();
+        ReflectiveClientInvoker invoker = new ReflectiveClientInvoker(4, listener,
+                Listener.class.getMethod("fail", String.class),
+                new String[] {"app"}, probe);
+
+        // the failure is reported once, and does not reach the probe
+        MethodHandle mh = invoker.getMethodHandle(probeType);
+        assertNotNull(mh);
+        mh.invokeExact("app1", 500, 1L);
+        assertTrue(invoker.emittedOneMessage);
+        mh.invokeExact("app1", 500, 1L);
+        assertEquals(2, listener.calls);
+    }
+
+    @Test
+    public void testNotLinkable() throws Exception {
+        // int cannot be passed as a String without the conversion of invoke()
+        ReflectiveClientInvoker invoker = new ReflectiveClientInvoker(3, new Listener(),
+                Listener.class.getMethod("narrow", String.class),
+                new String[] {"status"}, probe);
+        assertNull(invoker.getMethodHandle(probeType));
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.flashlight.provider;
+
+import com.sun.enterprise.config.serverbeans.MonitoringService;
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import org.glassfish.flashlight.FlashlightUtils;
+import org.glassfish.flashlight.impl.client.ReflectiveClientInvoker;
+import org.glassfish.flashlight.impl.client.ReflectiveClientInvokerTest.Listener;
+import org.glassfish.hk2.api.ServiceLocator;
+import org.junit.Test;
+
+/**
+ * Compares firing a probe the way the providers did before call site
+ * dispatch, checking isEnabled() and boxing the arguments for
+ * fireProbe(Object[]), with calling its linked call site, both without a
+ * listener and with one. Not part of the unit tests, run with the benchmark
+ * profile.
+ */
+public class FlashlightProbeBenchmark {
+
+    private static final int CALLS = 10000000;
+    private static final int RUNS = 5;
+
+    private static final FlashlightProbe PROBE;
+    private static final MethodHandle LINKED;
+
+    static {
+        // monitoring enabled, without DTrace
+        InvocationHandler handler = new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getMonitoringEnabled")) {
+                    return "true";
+                }
+                if (method.getName().equals("getDtraceEnabled")) {
+                    return "false";
+                }
+                return null;
+            }
+        };
+        ClassLoader loader = FlashlightProbeBenchmark.class.getClassLoader();
+        FlashlightUtils.initialize(
+                (ServiceLocator) Proxy.newProxyInstance(loader,
+                        new Class<?>[] { ServiceLocator.class }, handler),
+                (MonitoringService) Proxy.newProxyInstance(loader,
+                        new Class<?>[] { MonitoringService.class }, handler));
+
+        PROBE = new FlashlightProbe(1, Object.class,
+                "bench", "bench", "bench", "requestEndEvent",
+                new String[] {"app", "status", "time"},
+                new Class[] {String.class, int.class, long.class},
+                false, false, false, false, false, null);
+        LINKED = PROBE.getCallSite().dynamicInvoker();
+    }
+
+    @Test
+    public void testThroughput() throws Throwable {
+        report("no listener");
+
+        PROBE.addInvoker(new ReflectiveClientInvoker(1, new Listener(),
+                Listener.class.getMethod("requestEnd", long.class, String.class),
+                new String[] {"time", "app"}, PROBE));
+        report("one listener");
+    }
+
+    private static void report(String label) throws Throwable {
+        // warm up
+        runReflective();
+        runLinked();
+
+        for (int i = 0; i < RUNS; i++) {
+            long reflectiveTime = runReflective();
+            long linkedTime = runLinked();
+            System.out.println(label + ": " + CALLS + " probe calls in "
+                    + reflectiveTime / 1000000 + " ms with fireProbe, "
+                    + linkedTime / 1000000 + " ms through the call site");
+        }
+    }
+
+    /**
+     * @return the elapsed time in nanoseconds
+     */
+    private static long runReflective() {
+        long begin = System.nanoTime();
+        for (int i = 0; i < CALLS; i++) {
+            if (PROBE.isEnabled()) {
+                PROBE.fireProbe(new Object[] {"app", 200, (long) i});
+            }
+        }
+        return System.nanoTime() - begin;
+    }
+
+    /**
+     * @return the elapsed time in nanoseconds
+     */
+    private static long runLinked() throws Throwable {
+        long begin = System.nanoTime();
+        for (int i = 0; i < CALLS; i++) {
+            LINKED.invokeExact("app", 200, (long) i);
+        }
+        return System.nanoTime() - begin;
+    }
+}